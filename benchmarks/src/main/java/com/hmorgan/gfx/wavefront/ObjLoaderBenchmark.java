@@ -0,0 +1,520 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.util.AsciiNumbers;
+import com.hmorgan.util.FloatList;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * JMH benchmarks of each stage of the {@link ObjLoader} pipeline, see README.md for how to run them.
+ * <p>
+ * Every benchmark reports, next to the operations per second, the {@code megabytes} and {@code faces}
+ * it processed per second. Run with {@code -prof gc} to get the bytes allocated per operation
+ * ({@code gc.alloc.rate.norm}).
+ * <p>
+ * The benchmarks live in the package of the loader so that they can call the package-private
+ * stages directly.
+ *
+ * @author Hunter N. Morgan
+ */
+@BenchmarkMode(Mode.Throughput)       // JMH only turns aux counters into rates in this mode
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ObjLoaderBenchmark {
+
+    private static final int NUMBER_SAMPLE_SIZE = 1 << 20;     // floats in the number parsing sample
+
+    /**
+     * The model being loaded. {@code resource:<path>} is a file below the directory given by the
+     * {@code benchmark.resources} system property (by default the repository's test resources),
+     * {@code scaled:<copies>:<path>} is such a file repeated {@code copies} times and
+     * {@code synthetic:<faces>} is written by {@link SyntheticObjGenerator}.
+     */
+    @State(Scope.Benchmark)
+    public static class Model {
+
+        @Param({"resource:monkey.obj",
+                "resource:crate_multiple/Crate_multiple.obj",
+                "synthetic:10000",
+                "synthetic:1000000"})
+        public String model;
+
+        Path objFile;
+        Path mtlFile;
+        double megabytes;
+        long faces;
+
+        // the first mesh of the model, as handed to buildMeshV2
+        FloatList vertices;
+        FloatList textureCoords;
+        FloatList normals;
+        ObjIndexBuffer firstMeshIndices;
+
+        // the first floats of the model's v/vt/vn records, separated by spaces
+        ByteBuffer numberSample;
+        int[] numberStarts;
+        int[] numberEnds;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            objFile = prepare(model);
+            megabytes = Files.size(objFile) / 1e6;
+            readModel();
+            readNumberSample();
+        }
+
+        private void readModel() throws IOException {
+            vertices = new FloatList();
+            textureCoords = new FloatList();
+            normals = new FloatList();
+            firstMeshIndices = new ObjIndexBuffer();
+            ObjReader.read(objFile, new ObjVisitor() {
+                boolean firstMeshDone;
+
+                @Override
+                public void visitVertex(float x, float y, float z) {
+                    if(!firstMeshDone)
+                        vertices.add(x, y, z);
+                }
+
+                @Override
+                public void visitTextureCoord(float u, float v) {
+                    if(!firstMeshDone) {
+                        textureCoords.add(u);
+                        textureCoords.add(v);
+                    }
+                }
+
+                @Override
+                public void visitNormal(float x, float y, float z) {
+                    if(!firstMeshDone)
+                        normals.add(x, y, z);
+                }
+
+                @Override
+                public void visitFace(int[] corners, int cornerCount) {
+                    faces++;
+                    if(firstMeshDone)
+                        return;
+                    for(int i = 0; i < cornerCount; i++)
+                        firstMeshIndices.add(corners[3 * i], corners[3 * i + 1], corners[3 * i + 2]);
+                    firstMeshIndices.endFace();
+                }
+
+                @Override
+                public void visitObject(String name) {
+                    endOfMesh();
+                }
+
+                @Override
+                public void visitGroup(String name) {
+                    endOfMesh();
+                }
+
+                @Override
+                public void visitUseMaterial(String name) {
+                    endOfMesh();
+                }
+
+                private void endOfMesh() {
+                    firstMeshDone |= firstMeshIndices.getFaceCount() > 0;
+                }
+
+                @Override
+                public boolean visitMaterialLibrary(Path mtlFilePath) {
+                    if(mtlFile == null)
+                        mtlFile = mtlFilePath;
+                    return false;
+                }
+            });
+        }
+
+        private void readNumberSample() throws IOException {
+            final ByteArrayOutputStream sample = new ByteArrayOutputStream();
+            final List<Integer> starts = new ArrayList<>();
+            try(Stream<String> lines = Files.lines(objFile, StandardCharsets.US_ASCII)) {
+                lines.filter(line -> line.startsWith("v ") || line.startsWith("vt ") || line.startsWith("vn "))
+                     .flatMap(line -> Stream.of(line.substring(line.indexOf(' ') + 1).trim().split("\\s+")))
+                     .limit(NUMBER_SAMPLE_SIZE)
+                     .forEach(token -> {
+                         starts.add(sample.size());
+                         final byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+                         sample.write(bytes, 0, bytes.length);
+                         sample.write(' ');
+                     });
+            }
+            numberSample = ByteBuffer.wrap(sample.toByteArray());
+            numberStarts = new int[starts.size()];
+            numberEnds = new int[starts.size()];
+            for(int i = 0; i < numberStarts.length; i++) {
+                numberStarts[i] = starts.get(i);
+                numberEnds[i] = (i + 1 < numberStarts.length) ? starts.get(i + 1) - 1 : numberSample.capacity() - 1;
+            }
+        }
+    }
+
+    /**
+     * The threads of the parallel benchmarks.
+     */
+    @State(Scope.Benchmark)
+    public static class Pool {
+
+        @Param({"1", "2", "4"})
+        public int threads;
+
+        ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pool = new ForkJoinPool(threads);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Copies of the model for the batch benchmarks, each in its own file next to the model.
+     */
+    @State(Scope.Benchmark)
+    public static class Batch {
+
+        @Param({"8"})
+        public int files;
+
+        List<Path> objFiles;
+
+        @Setup(Level.Trial)
+        public void setUp(Model model) throws IOException {
+            objFiles = new ArrayList<>();
+            for(int i = 0; i < files; i++) {
+                final Path copy = model.objFile.resolveSibling(model.objFile.getFileName() + ".batch" + i + ".obj");
+                if(!Files.exists(copy) || Files.size(copy) != Files.size(model.objFile))
+                    Files.copy(model.objFile, copy, StandardCopyOption.REPLACE_EXISTING);
+                objFiles.add(copy);
+            }
+        }
+    }
+
+    /**
+     * Work done per second, reported next to the operations per second. OPERATIONS counters are
+     * normalized by time like the primary score; EVENTS counters would be reported as plain totals.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+
+        public double megabytes;
+        public long faces;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+            faces = 0;
+        }
+
+        void add(double megabytes, long faces) {
+            this.megabytes += megabytes;
+            this.faces += faces;
+        }
+    }
+
+    /**
+     * Splitting the file into records, without looking at their arguments.
+     */
+    @Benchmark
+    public int tokenize(Model model, Throughput throughput) throws IOException {
+        int records = 0;
+        try(ObjScanner scanner = ObjScanner.open(model.objFile)) {
+            while(scanner.nextLine())
+                records += scanner.keyword().ordinal();
+        }
+        throughput.add(model.megabytes, model.faces);
+        return records;
+    }
+
+    /**
+     * Parsing the floats of v/vt/vn records with {@link AsciiNumbers}.
+     */
+    @Benchmark
+    public float parseNumbers(Model model, Throughput throughput) {
+        float sum = 0;
+        for(int i = 0; i < model.numberStarts.length; i++)
+            sum += AsciiNumbers.parseFloat(model.numberSample, model.numberStarts[i], model.numberEnds[i]);
+        throughput.add(model.numberSample.capacity() / 1e6, 0);
+        return sum;
+    }
+
+    /**
+     * Parsing the same floats with {@link Float#parseFloat}, as a baseline for {@link #parseNumbers}.
+     */
+    @Benchmark
+    public float parseNumbersJdk(Model model, Throughput throughput) {
+        float sum = 0;
+        final byte[] sample = model.numberSample.array();
+        for(int i = 0; i < model.numberStarts.length; i++) {
+            final int start = model.numberStarts[i];
+            sum += Float.parseFloat(new String(sample, start, model.numberEnds[i] - start, StandardCharsets.US_ASCII));
+        }
+        throughput.add(model.numberSample.capacity() / 1e6, 0);
+        return sum;
+    }
+
+    /**
+     * Reading all records into visitor calls: tokenizing, number parsing and resolving face
+     * indices (what {@code processVertLine} used to do), without building meshes.
+     */
+    @Benchmark
+    public void readRecords(Model model, Throughput throughput, Blackhole blackhole) throws IOException {
+        ObjReader.read(model.objFile, new ObjVisitor() {
+            @Override
+            public void visitVertex(float x, float y, float z) {
+                blackhole.consume(x + y + z);
+            }
+
+            @Override
+            public void visitFace(int[] corners, int cornerCount) {
+                blackhole.consume(corners[0] + cornerCount);
+            }
+
+            @Override
+            public boolean visitMaterialLibrary(Path mtlFilePath) {
+                return false;
+            }
+        });
+        throughput.add(model.megabytes, model.faces);
+    }
+
+    /**
+     * Building the first mesh of the model from its attribute pools and face corners.
+     */
+    @Benchmark
+    public Mesh buildMesh(Model model, Throughput throughput) {
+        final Mesh.Builder builder = new Mesh.Builder();
+        builder.setName("benchmark");
+        builder.setMeshType(Mesh.MeshType.POLYGON_MESH);
+        final Mesh mesh = ObjMeshVisitor.buildMeshV2(builder, model.vertices, model.textureCoords, model.normals,
+                                                     model.firstMeshIndices);
+        throughput.add(0, model.firstMeshIndices.getFaceCount());
+        return mesh;
+    }
+
+    /**
+     * Parsing the model's (first) material library.
+     */
+    @Benchmark
+    public void parseMtl(Model model, Throughput throughput, Blackhole blackhole) throws IOException {
+        ObjReader.readMaterials(model.mtlFile, new ObjVisitor() {
+            @Override
+            public void visitMaterial(String name, WavefrontMaterial material) {
+                blackhole.consume(material);
+            }
+        });
+        throughput.add(Files.size(model.mtlFile) / 1e6, 0);
+    }
+
+    /**
+     * The whole {@link ObjLoader#loadObjModel} call, without mesh or material library caching.
+     */
+    @Benchmark
+    public ObjModel loadObjModel(Model model, Throughput throughput) throws IOException {
+        final ObjModel objModel = new ObjLoader(null, null).loadObjModel(model.objFile);
+        throughput.add(model.megabytes, model.faces);
+        return objModel;
+    }
+
+    /**
+     * The whole {@link ObjLoader#loadObjMeshes(Path)} call, without mesh or material library caching:
+     * the sequential baseline of {@link #loadObjMeshesParallel}.
+     */
+    @Benchmark
+    public Map<String, Mesh> loadObjMeshes(Model model, Throughput throughput) throws IOException {
+        final Map<String, Mesh> meshes = new ObjLoader(null, null).loadObjMeshes(model.objFile);
+        throughput.add(model.megabytes, model.faces);
+        return meshes;
+    }
+
+    /**
+     * The whole {@link ObjLoader#loadObjMeshesParallel(Path, ForkJoinPool)} call on a pool of
+     * {@link Pool#threads} threads, without mesh or material library caching.
+     */
+    @Benchmark
+    public Map<String, Mesh> loadObjMeshesParallel(Model model, Pool pool, Throughput throughput) throws IOException {
+        final Map<String, Mesh> meshes = new ObjLoader(null, null).loadObjMeshesParallel(model.objFile, pool.pool);
+        throughput.add(model.megabytes, model.faces);
+        return meshes;
+    }
+
+    /**
+     * The whole {@link ObjLoader#loadAll(java.util.Collection, java.util.concurrent.Executor)} call
+     * on {@link Batch#files} copies of the model and a pool of {@link Pool#threads} threads, without
+     * mesh or material library caching.
+     */
+    @Benchmark
+    public Map<Path, Map<String, Mesh>> loadAll(Model model, Batch batch, Pool pool, Throughput throughput) throws IOException {
+        final Map<Path, Map<String, Mesh>> meshes = new ObjLoader(null, null).loadAll(batch.objFiles, pool.pool);
+        throughput.add(model.megabytes * batch.files, model.faces * batch.files);
+        return meshes;
+    }
+
+    /**
+     * Copies or generates a model into the benchmark's working directory, reusing files from
+     * earlier runs.
+     *
+     * @return the .OBJ file
+     */
+    static Path prepare(String model) throws IOException {
+        final Path workDir = Paths.get(System.getProperty("java.io.tmpdir"), "worldwind-obj-benchmarks");
+        final int separator = model.indexOf(':');
+        final String kind = model.substring(0, separator);
+        final String name = model.substring(separator + 1);
+
+        if(kind.equals("synthetic")) {
+            final Path objFile = workDir.resolve("synthetic-" + name + ".obj");
+            if(!Files.exists(objFile)) {
+                Files.createDirectories(workDir);
+                final Path partial = workDir.resolve("synthetic-" + name + ".obj.partial");
+                SyntheticObjGenerator.write(partial, Long.parseLong(name));
+                Files.move(partial, objFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return objFile;
+        }
+        if(kind.equals("scaled")) {
+            final int copiesEnd = name.indexOf(':');
+            final int copies = Integer.parseInt(name.substring(0, copiesEnd));
+            final Path source = prepare("resource:" + name.substring(copiesEnd + 1));
+            final Path objFile = source.resolveSibling(source.getFileName() + "." + copies + ".obj");
+            if(!Files.exists(objFile)) {
+                final Path partial = objFile.resolveSibling(objFile.getFileName() + ".partial");
+                writeCopies(source, partial, copies);
+                Files.move(partial, objFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return objFile;
+        }
+        if(!kind.equals("resource"))
+            throw new IllegalArgumentException("Unknown model " + model);
+
+        // copy the model's directory, its material libraries and textures come along
+        final Path source = Paths.get(System.getProperty("benchmark.resources", "../src/test/test-resources")).resolve(name);
+        final Path targetDir = workDir.resolve("resources").resolve(name).getParent();
+        Files.createDirectories(targetDir);
+        try(Stream<Path> files = Files.list(source.getParent())) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                if(Files.isRegularFile(file))
+                    Files.copy(file, targetDir.resolve(file.getFileName().toString()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        final Path objFile = targetDir.resolve(source.getFileName().toString());
+        writeMissingMaterialLibraries(objFile);
+        return objFile;
+    }
+
+    /**
+     * Writes the records of a model {@code copies} times, each copy in its own object, with the
+     * (positive) face indices of every copy shifted to its own vertices.
+     */
+    private static void writeCopies(Path objFile, Path target, int copies) throws IOException {
+        final List<String> lines = Files.readAllLines(objFile, StandardCharsets.US_ASCII);
+        final int[] counts = new int[3];    // v, vt and vn records of one copy
+        for(String line : lines) {
+            if(line.startsWith("v "))
+                counts[0]++;
+            else if(line.startsWith("vt "))
+                counts[1]++;
+            else if(line.startsWith("vn "))
+                counts[2]++;
+        }
+        try(BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.US_ASCII)) {
+            final StringBuilder face = new StringBuilder(128);
+            for(int copy = 0; copy < copies; copy++) {
+                for(String line : lines) {
+                    if(line.startsWith("mtllib ") && copy > 0)
+                        continue;
+                    if(line.startsWith("o ")) {
+                        writer.write(line + "." + copy + "\n");
+                    } else if(line.startsWith("f ") && copy > 0) {
+                        face.setLength(0);
+                        face.append('f');
+                        for(String corner : line.substring(2).trim().split("\\s+")) {
+                            face.append(' ');
+                            final String[] indices = corner.split("/", -1);
+                            for(int i = 0; i < indices.length; i++) {
+                                if(i > 0)
+                                    face.append('/');
+                                if(indices[i].isEmpty() || indices[i].startsWith("-"))
+                                    face.append(indices[i]);
+                                else
+                                    face.append(Integer.parseInt(indices[i]) + copy * counts[i]);
+                            }
+                        }
+                        writer.write(face.append('\n').toString());
+                    } else {
+                        writer.write(line + "\n");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The bundled monkey.obj refers to a monkey.mtl that is not in the repository. Missing libraries
+     * are written with a plain gray material for every material the model uses.
+     */
+    private static void writeMissingMaterialLibraries(Path objFile) throws IOException {
+        final Set<String> libraries = new LinkedHashSet<>();
+        final Set<String> materials = new LinkedHashSet<>();
+        try(Stream<String> lines = Files.lines(objFile, StandardCharsets.US_ASCII)) {
+            lines.forEach(line -> {
+                if(line.startsWith("mtllib "))
+                    libraries.add(line.substring(7).trim());
+                else if(line.startsWith("usemtl "))
+                    materials.add(line.substring(7).trim());
+            });
+        }
+        for(String library : libraries) {
+            final Path mtlFile = objFile.resolveSibling(library);
+            if(Files.exists(mtlFile))
+                continue;
+            try(BufferedWriter writer = Files.newBufferedWriter(mtlFile, StandardCharsets.US_ASCII)) {
+                for(String material : materials)
+                    writer.write("newmtl " + material + "\nKa 0 0 0\nKd 0.8 0.8 0.8\nKs 0.5 0.5 0.5\nNs 96\n\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Writes deterministic synthetic .OBJ models of any size for the benchmarks: a height field of quads
+ * with a texture coordinate and a normal per vertex, split into objects of at most
+ * {@link #FACES_PER_OBJECT} faces and switching material every {@link #FACES_PER_MATERIAL} faces.
+ * The same face count always produces the same bytes.
+ * <p>
+ * Usage: {@code SyntheticObjGenerator <faces> <file.obj>}. The material library is written next to
+ * the .OBJ file as {@code synthetic.mtl}.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class SyntheticObjGenerator {
+
+    public static final String MTL_FILE_NAME = "synthetic.mtl";
+    public static final int MATERIAL_COUNT = 256;
+    public static final int FACES_PER_OBJECT = 1000000;
+    public static final int FACES_PER_MATERIAL = 100000;
+
+    private static final int MAX_COLUMNS = 1000;     // quads per row of the height field
+
+    private SyntheticObjGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.err.println("Usage: SyntheticObjGenerator <faces> <file.obj>");
+            System.exit(1);
+        }
+        write(Paths.get(args[1]), Long.parseLong(args[0]));
+    }
+
+    /**
+     * Writes a model with the given number of faces, and its material library.
+     *
+     * @param objFile .OBJ file to write
+     * @param faces   number of faces
+     * @throws IOException
+     */
+    public static void write(Path objFile, long faces) throws IOException {
+        final Path mtlFile = objFile.toAbsolutePath().resolveSibling(MTL_FILE_NAME);
+        try(BufferedWriter writer = Files.newBufferedWriter(mtlFile, StandardCharsets.US_ASCII)) {
+            writeMaterials(writer);
+        }
+
+        try(BufferedWriter writer = Files.newBufferedWriter(objFile, StandardCharsets.US_ASCII)) {
+            final StringBuilder line = new StringBuilder(128);
+            writer.write("# synthetic model, " + faces + " faces\n");
+            writer.write("mtllib " + MTL_FILE_NAME + "\n");
+
+            long vertexBase = 1;    // .OBJ indices are 1-based
+            long written = 0;
+            int part = 0;
+            while(written < faces) {
+                final int objectFaces = (int) Math.min(FACES_PER_OBJECT, faces - written);
+                final int columns = Math.min(MAX_COLUMNS, objectFaces);
+                final int rows = (objectFaces + columns - 1) / columns;
+                writer.write("o part_" + part + "\n");
+
+                for(int row = 0; row <= rows; row++) {
+                    for(int column = 0; column <= columns; column++)
+                        writeVertex(writer, line, part, row, column, rows, columns);
+                }
+
+                for(int face = 0; face < objectFaces; face++) {
+                    if((written + face) % FACES_PER_MATERIAL == 0)
+                        writer.write("usemtl material_" + ((written + face) / FACES_PER_MATERIAL) % MATERIAL_COUNT + "\n");
+                    final long corner = vertexBase + (face / columns) * (columns + 1) + face % columns;
+                    line.setLength(0);
+                    line.append('f');
+                    appendCorner(line, corner);
+                    appendCorner(line, corner + 1);
+                    appendCorner(line, corner + columns + 2);
+                    appendCorner(line, corner + columns + 1);
+                    writer.append(line).append('\n');
+                }
+
+                vertexBase += (long) (rows + 1) * (columns + 1);
+                written += objectFaces;
+                part++;
+            }
+        }
+    }
+
+    private static void writeMaterials(Writer writer) throws IOException {
+        for(int i = 0; i < MATERIAL_COUNT; i++) {
+            final float r = (i % 8) / 7.0f;
+            final float g = ((i / 8) % 8) / 7.0f;
+            final float b = (i / 64) / 3.0f;
+            writer.write("newmtl material_" + i + "\n");
+            writer.write("Ns 96.078431\n");
+            writer.write("Ka 0.000000 0.000000 0.000000\n");
+            writer.write("Kd " + fixed(r) + " " + fixed(g) + " " + fixed(b) + "\n");
+            writer.write("Ks 0.500000 0.500000 0.500000\n");
+            writer.write("d 1.000000\n");
+            writer.write("illum 2\n\n");
+        }
+    }
+
+    /**
+     * Writes the position, texture coordinate and normal of one height field vertex.
+     */
+    private static void writeVertex(Writer writer, StringBuilder line, int part, int row, int column, int rows,
+                                    int columns) throws IOException {
+        // StrictMath keeps the output identical on every platform
+        final double x = column * 0.01;
+        final double y = ((long) part * (rows + 1) + row) * 0.01;
+        final double z = 0.25 * StrictMath.sin(x * 3.7) * StrictMath.cos(y * 2.3);
+        final double dzdx = 0.925 * StrictMath.cos(x * 3.7) * StrictMath.cos(y * 2.3);
+        final double dzdy = -0.575 * StrictMath.sin(x * 3.7) * StrictMath.sin(y * 2.3);
+        final double length = StrictMath.sqrt(dzdx * dzdx + dzdy * dzdy + 1.0);
+
+        line.setLength(0);
+        line.append("v ");
+        appendFixed(line, x).append(' ');
+        appendFixed(line, y).append(' ');
+        appendFixed(line, z).append("\nvt ");
+        appendFixed(line, column / (double) columns).append(' ');
+        appendFixed(line, row / (double) rows).append("\nvn ");
+        appendFixed(line, -dzdx / length).append(' ');
+        appendFixed(line, -dzdy / length).append(' ');
+        appendFixed(line, 1.0 / length).append('\n');
+        writer.append(line);
+    }
+
+    private static void appendCorner(StringBuilder line, long index) {
+        line.append(' ').append(index).append('/').append(index).append('/').append(index);
+    }
+
+    private static String fixed(double value) {
+        return appendFixed(new StringBuilder(), value).toString();
+    }
+
+    /**
+     * Appends a value with 6 decimals, the way common exporters write it. Much faster than
+     * {@code String.format} for the hundreds of millions of numbers of a large model.
+     */
+    private static StringBuilder appendFixed(StringBuilder sb, double value) {
+        long scaled = Math.round(value * 1e6);
+        if(scaled < 0) {
+            sb.append('-');
+            scaled = -scaled;
+        }
+        sb.append(scaled / 1000000).append('.');
+        final long fraction = scaled % 1000000;
+        for(long digit = 100000; digit > fraction && digit > 1; digit /= 10)
+            sb.append('0');
+        return sb.append(fraction);
+    }
+}
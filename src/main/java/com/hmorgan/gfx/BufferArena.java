@@ -0,0 +1,397 @@
+package com.hmorgan.gfx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The bookkeeping of a pool of large GL buffers that the buffers of many meshes are suballocated
+ * from, so a scene draws from a few buffers instead of one per mesh. This class only tracks which
+ * byte ranges of which page (buffer) are in use; creating the buffers of the pages and copying data
+ * into them is up to the caller, see {@link GpuBufferCache}.
+ * <p>
+ * Ranges are allocated first fit from the free blocks of the pages, lowest page and offset first, so
+ * data stays packed into the first pages. Freed ranges are merged with the free blocks next to them.
+ * Pages full of small holes can be {@link #compact() compacted}: their ranges slide to the start of
+ * the page, and the caller copies the data of the ranges that moved. A range larger than the page
+ * size gets a page of its own.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class BufferArena {
+
+    private final long pageSize;
+    private final int alignment;
+    private final List<Page> pages = new ArrayList<>();
+    private int nextPageId = 1;
+    private long bytesAllocated;
+    private long compactions;
+
+    /**
+     * A buffer the ranges are allocated from.
+     */
+    public static final class Page {
+
+        private final int id;
+        private final long capacity;
+        private final TreeMap<Long, Long> freeBlocks = new TreeMap<>();    // offset to size, adjacent blocks merged
+        private final TreeMap<Long, Range> ranges = new TreeMap<>();       // allocated ranges by offset
+        private long bytesFree;
+
+        private Page(int id, long capacity) {
+            this.id = id;
+            this.capacity = capacity;
+            freeBlocks.put(0L, capacity);
+            bytesFree = capacity;
+        }
+
+        /**
+         * @return number of the page, unique within its arena
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return size of the page in bytes
+         */
+        public long getCapacity() {
+            return capacity;
+        }
+
+        public long getBytesFree() {
+            return bytesFree;
+        }
+
+        public int getRangeCount() {
+            return ranges.size();
+        }
+
+        public boolean isEmpty() {
+            return ranges.isEmpty();
+        }
+
+        /**
+         * @return size of the largest free block in bytes
+         */
+        public long getLargestFreeBlock() {
+            long largest = 0;
+            for(long size : freeBlocks.values())
+                largest = Math.max(largest, size);
+            return largest;
+        }
+
+        private long allocate(long size) {
+            for(Map.Entry<Long, Long> block : freeBlocks.entrySet()) {
+                final long blockSize = block.getValue();
+                if(blockSize >= size) {
+                    final long offset = block.getKey();
+                    freeBlocks.remove(offset);
+                    if(blockSize > size)
+                        freeBlocks.put(offset + size, blockSize - size);
+                    bytesFree -= size;
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        private void free(long offset, long size) {
+            long start = offset, end = offset + size;
+            final Map.Entry<Long, Long> before = freeBlocks.floorEntry(offset);
+            if(before != null && before.getKey() + before.getValue() == start) {
+                start = before.getKey();
+                freeBlocks.remove(start);
+            }
+            final Long afterSize = freeBlocks.remove(end);
+            if(afterSize != null)
+                end += afterSize;
+            freeBlocks.put(start, end - start);
+            bytesFree += size;
+        }
+
+        @Override
+        public String toString() {
+            return "Page[" + id + ", " + ranges.size() + " ranges, " + bytesFree + "/" + capacity + " bytes free]";
+        }
+    }
+
+    /**
+     * A range of bytes allocated in a page.
+     */
+    public static final class Range {
+
+        private final long size;
+        private Page page;          // null once freed
+        private long offset;
+
+        private Range(Page page, long offset, long size) {
+            this.page = page;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * @return the page of the range, null once it is freed
+         */
+        public Page getPage() {
+            return page;
+        }
+
+        /**
+         * @return start of the range in its page in bytes; changes when the page is compacted
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return size of the range in bytes, rounded up to the alignment of the arena
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "Range[" + ((page != null) ? page.id : "freed") + ", " + offset + "+" + size + "]";
+        }
+    }
+
+    /**
+     * A range that a compaction moved within its page.
+     */
+    public static final class Move {
+
+        private final Range range;
+        private final long fromOffset;
+
+        private Move(Range range, long fromOffset) {
+            this.range = range;
+            this.fromOffset = fromOffset;
+        }
+
+        public Range getRange() {
+            return range;
+        }
+
+        /**
+         * @return where the range started before it moved, in bytes
+         */
+        public long getFromOffset() {
+            return fromOffset;
+        }
+
+        /**
+         * @return where the range starts now, in bytes
+         */
+        public long getToOffset() {
+            return range.offset;
+        }
+    }
+
+    /**
+     * @param pageSize  bytes of each page, except those of larger ranges
+     * @param alignment alignment of the start and size of every range in bytes, a power of 2
+     */
+    public BufferArena(long pageSize, int alignment) {
+        if(alignment <= 0 || Integer.bitCount(alignment) != 1)
+            throw new IllegalArgumentException("alignment must be a power of 2: " + alignment);
+        if(pageSize <= 0 || pageSize % alignment != 0)
+            throw new IllegalArgumentException("page size must be a positive multiple of the alignment: " + pageSize);
+        this.pageSize = pageSize;
+        this.alignment = alignment;
+    }
+
+    public long getPageSize() {
+        return pageSize;
+    }
+
+    public int getAlignment() {
+        return alignment;
+    }
+
+    private long align(long size) {
+        return (Math.max(size, 1) + alignment - 1) & -alignment;
+    }
+
+    /**
+     * Allocates a range from the free blocks of the pages.
+     *
+     * @param size bytes of the range
+     * @return the range, null if no free block is large enough
+     */
+    public Range allocate(long size) {
+        final long alignedSize = align(size);
+        for(Page page : pages) {
+            if(page.bytesFree < alignedSize)
+                continue;
+            final long offset = page.allocate(alignedSize);
+            if(offset >= 0)
+                return add(page, offset, alignedSize);
+        }
+        return null;
+    }
+
+    /**
+     * Allocates a range at the start of a new page, of the page size or the size of the range if it
+     * is larger. The caller creates the buffer of the page.
+     *
+     * @param size bytes of the range
+     * @return the range
+     */
+    public Range allocateInNewPage(long size) {
+        final long alignedSize = align(size);
+        final Page page = new Page(nextPageId++, Math.max(pageSize, alignedSize));
+        pages.add(page);
+        return add(page, page.allocate(alignedSize), alignedSize);
+    }
+
+    private Range add(Page page, long offset, long alignedSize) {
+        final Range range = new Range(page, offset, alignedSize);
+        page.ranges.put(offset, range);
+        bytesAllocated += alignedSize;
+        return range;
+    }
+
+    /**
+     * Frees a range, merging it with the free blocks next to it.
+     *
+     * @param range the range
+     * @throws IllegalStateException if the range is already freed
+     */
+    public void free(Range range) {
+        final Page page = range.page;
+        if(page == null || page.ranges.get(range.offset) != range)
+            throw new IllegalStateException(range + " is not allocated in this arena");
+        page.ranges.remove(range.offset);
+        page.free(range.offset, range.size);
+        bytesAllocated -= range.size;
+        range.page = null;
+    }
+
+    /**
+     * @param size bytes of a range that {@link #allocate} cannot find a free block for
+     * @return true if a page has enough free bytes for the range once it is compacted
+     */
+    public boolean fitsAfterCompaction(long size) {
+        final long alignedSize = align(size);
+        for(Page page : pages) {
+            if(page.bytesFree >= alignedSize)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Slides the ranges of each page with more than one free block to the start of the page, in
+     * order, leaving a single free block at the end. The offsets of the moved ranges change; the
+     * caller must copy their data before the ranges are used again.
+     *
+     * @return the ranges that moved
+     */
+    public List<Move> compact() {
+        final List<Move> moves = new ArrayList<>();
+        for(Page page : pages) {
+            final Map.Entry<Long, Long> lastBlock = page.freeBlocks.lastEntry();
+            if(lastBlock == null || (page.freeBlocks.size() == 1 && lastBlock.getKey() + lastBlock.getValue() == page.capacity))
+                continue;   // already compact
+            final List<Range> ranges = new ArrayList<>(page.ranges.values());
+            page.ranges.clear();
+            long cursor = 0;
+            for(Range range : ranges) {
+                if(range.offset != cursor) {
+                    final long from = range.offset;
+                    range.offset = cursor;
+                    moves.add(new Move(range, from));
+                }
+                page.ranges.put(cursor, range);
+                cursor += range.size;
+            }
+            page.freeBlocks.clear();
+            if(cursor < page.capacity)
+                page.freeBlocks.put(cursor, page.capacity - cursor);
+        }
+        if(!moves.isEmpty())
+            compactions++;
+        return moves;
+    }
+
+    /**
+     * Removes the pages without ranges, except the first page, so the caller can delete their
+     * buffers.
+     *
+     * @return the removed pages
+     */
+    public List<Page> removeEmptyPages() {
+        List<Page> removed = Collections.emptyList();
+        final Iterator<Page> it = pages.iterator();
+        boolean first = true;
+        while(it.hasNext()) {
+            final Page page = it.next();
+            if(!first && page.isEmpty()) {
+                if(removed.isEmpty())
+                    removed = new ArrayList<>();
+                removed.add(page);
+                it.remove();
+            }
+            first = false;
+        }
+        return removed;
+    }
+
+    /**
+     * @return the pages, in allocation order
+     */
+    public List<Page> getPages() {
+        return Collections.unmodifiableList(pages);
+    }
+
+    /**
+     * @return bytes of all allocated ranges
+     */
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    /**
+     * @return bytes of all pages
+     */
+    public long getCapacity() {
+        long capacity = 0;
+        for(Page page : pages)
+            capacity += page.capacity;
+        return capacity;
+    }
+
+    /**
+     * @return how much of the free space is not in the largest free block of its page, from 0 (each
+     *         page has a single free block) to almost 1 (the free space is all small holes)
+     */
+    public double getFragmentation() {
+        long free = 0, largest = 0;
+        for(Page page : pages) {
+            free += page.bytesFree;
+            largest += page.getLargestFreeBlock();
+        }
+        return (free > 0) ? 1.0 - (double) largest / free : 0.0;
+    }
+
+    /**
+     * @return number of calls to {@link #compact()} that moved a range
+     */
+    public long getCompactions() {
+        return compactions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferArena[%d pages, %d/%d bytes allocated, fragmentation=%.3f]",
+                             pages.size(), bytesAllocated, getCapacity(), getFragmentation());
+    }
+}
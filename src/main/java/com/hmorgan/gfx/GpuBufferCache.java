@@ -0,0 +1,620 @@
+package com.hmorgan.gfx;
+
+import com.hmorgan.util.IntList;
+import com.jogamp.common.nio.Buffers;
+import gov.nasa.worldwind.render.DrawContext;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GLContext;
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A cache of the GL buffers (VBO and EBO) of {@link Mesh}es, so that meshes with the same data share
+ * one set of buffers per GL context, whatever their names and whichever models draw them.
+ * <p>
+ * The buffers of a mesh are ranges of a few large GL buffers per context, one {@link BufferArena}
+ * for vertex data and one for index data, so a scene of thousands of meshes binds a few buffers
+ * instead of one per mesh. Meshes are drawn with their attribute pointers and index offsets
+ * relative to the start of their ranges, see {@link MeshBuffers#getVboOffset()}. When no free block
+ * of the pages fits a mesh but a page has enough free bytes, the pages are compacted and the moved
+ * meshes uploaded again from their data; otherwise a new page is created.
+ * <p>
+ * Buffers are keyed by the GL context they belong to and by the content of the mesh: two meshes
+ * whose vertex and index data are equal share buffers, two meshes that merely have the same name do
+ * not. A second GL context (e.g. a second {@code WorldWindow}) gets buffers of its own.
+ * <p>
+ * Each entry is reference counted: buffers that have been {@link #acquire acquired} and not yet
+ * {@link #release released} are never evicted. Buffers that are not in use stay resident until the
+ * bytes of all buffers exceed the {@link #getBudget() budget}; then the least recently released
+ * ones are evicted. Buffers in use are never evicted, so the budget can be exceeded by them.
+ * <p>
+ * GL buffers can only be deleted on a thread where their context is current. Evicting frees the
+ * ranges of the buffers; pages left empty are queued and deleted on the next {@link #acquire} or
+ * {@link #processPendingDeletions} with their context, so {@link #release} may be called from any
+ * thread.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class GpuBufferCache {
+
+    /**
+     * Bytes of GL buffers the {@link #getShared() shared} cache keeps before it evicts unused ones.
+     */
+    public static final long DEFAULT_BUDGET = 512L * 1024 * 1024;
+
+    /**
+     * Bytes of each GL buffer that the buffers of meshes are allocated from, by default. Meshes with
+     * more data get a buffer of their own size.
+     */
+    public static final long DEFAULT_PAGE_SIZE = 16L * 1024 * 1024;
+
+    private static final int VERTEX_ALIGNMENT = 16;
+    private static final int INDEX_ALIGNMENT = Buffers.SIZEOF_INT;
+
+    private static final GpuBufferCache SHARED = new GpuBufferCache(DEFAULT_BUDGET);
+
+    private long budget;                                    // guarded by this
+    private final long pageSize;
+    private final Map<Key, MeshBuffers> entries;            // guarded by this
+    private final Map<GLContext, ContextBuffers> contexts;  // arenas of each context, guarded by this
+    private final LinkedHashMap<Key, MeshBuffers> unused;   // entries without references, least recently released first
+    private final Map<GLContext, IntList> pendingDeletions; // buffer ids to delete, per context
+
+    private long bytesResident;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Identifies the buffers of a mesh's data in a GL context.
+     */
+    private static final class Key {
+        private final GLContext context;
+        private final Mesh mesh;            // a mesh with the data
+        private final long contentHash;
+
+        private Key(GLContext context, Mesh mesh) {
+            this.context = context;
+            this.mesh = mesh;
+            this.contentHash = mesh.getContentHash();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+
+            final Key key = (Key) o;
+            if(context != key.context || contentHash != key.contentHash) return false;
+            // the same data, and so the same bytes in the buffers, even if the hash collides
+            return mesh == key.mesh || (mesh.getVboData().equals(key.mesh.getVboData())
+                                        && Objects.equals(mesh.getEboData(), key.mesh.getEboData()));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(context) + Long.hashCode(contentHash);
+        }
+    }
+
+    /**
+     * The arenas of a GL context, and the GL buffers of their pages.
+     */
+    private static final class ContextBuffers {
+        private final GLContext context;
+        private final BufferArena vertexArena;
+        private final BufferArena indexArena;
+        private final Map<BufferArena.Page, Integer> bufferIds = new IdentityHashMap<>();
+        private final Map<BufferArena.Range, Mesh> rangeMeshes = new IdentityHashMap<>();  // mesh whose data is in each range
+
+        private ContextBuffers(GLContext context, long pageSize) {
+            this.context = context;
+            vertexArena = new BufferArena(pageSize, VERTEX_ALIGNMENT);
+            indexArena = new BufferArena(pageSize, INDEX_ALIGNMENT);
+        }
+    }
+
+    /**
+     * The GL buffers of a mesh in one GL context: ranges of the large buffers of the context.
+     * Obtained from {@link #acquire}, and given back with {@link #release} once the mesh is no longer
+     * drawn.
+     */
+    public static final class MeshBuffers {
+
+        private final Key key;
+        private final ContextBuffers contextBuffers;
+        private final BufferArena.Range vboRange;
+        private final BufferArena.Range eboRange;   // null if the mesh has no indices
+        private final int vboId;
+        private final int eboId;
+        private final long bytes;
+        private int references;             // guarded by the cache
+
+        private MeshBuffers(Key key, ContextBuffers contextBuffers, BufferArena.Range vboRange, BufferArena.Range eboRange,
+                            int vboId, int eboId, long bytes) {
+            this.key = key;
+            this.contextBuffers = contextBuffers;
+            this.vboRange = vboRange;
+            this.eboRange = eboRange;
+            this.vboId = vboId;
+            this.eboId = eboId;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return name of the vertex buffer object holding the vertex data, shared with other meshes
+         */
+        public int getVboId() {
+            return vboId;
+        }
+
+        /**
+         * Gets where the vertex data of the mesh starts in the VBO. Attribute pointers are offset by
+         * it. It changes when the buffers of the context are compacted, which only happens in
+         * {@link #acquire} on the rendering thread, so read it when drawing.
+         *
+         * @return offset of the vertex data in bytes
+         */
+        public long getVboOffset() {
+            return vboRange.getOffset();
+        }
+
+        /**
+         * @return name of the element buffer object holding the indices, shared with other meshes; 0
+         *         if the mesh has no indices
+         */
+        public int getEboId() {
+            return eboId;
+        }
+
+        /**
+         * @return offset of the indices in the EBO in bytes, changes like {@link #getVboOffset()}; 0
+         *         if the mesh has no indices
+         */
+        public long getEboOffset() {
+            return (eboRange != null) ? eboRange.getOffset() : 0;
+        }
+
+        /**
+         * @return size of both buffers in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Counters of a cache at one point in time.
+     */
+    public static final class Stats {
+
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int entries;
+        private final int unusedEntries;
+        private final long bytesResident;
+        private final long budget;
+        private final int pages;
+        private final long pageBytes;
+        private final long compactions;
+
+        private Stats(long hits, long misses, long evictions, int entries, int unusedEntries,
+                      long bytesResident, long budget, int pages, long pageBytes, long compactions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.unusedEntries = unusedEntries;
+            this.bytesResident = bytesResident;
+            this.budget = budget;
+            this.pages = pages;
+            this.pageBytes = pageBytes;
+            this.compactions = compactions;
+        }
+
+        /**
+         * @return acquires that found the buffers resident
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return acquires that had to upload the buffers
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return hits per acquire, 0 if nothing has been acquired
+         */
+        public double getHitRate() {
+            return (hits + misses > 0) ? (double) hits / (hits + misses) : 0.0;
+        }
+
+        /**
+         * @return buffers evicted to stay within the budget
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return buffers resident, in use or not
+         */
+        public int getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return resident buffers that are not in use
+         */
+        public int getUnusedEntries() {
+            return unusedEntries;
+        }
+
+        /**
+         * @return bytes of all resident buffers
+         */
+        public long getBytesResident() {
+            return bytesResident;
+        }
+
+        /**
+         * @return the budget of the cache in bytes
+         */
+        public long getBudget() {
+            return budget;
+        }
+
+        /**
+         * @return GL buffers the buffers of the meshes are allocated from, in all contexts
+         */
+        public int getPages() {
+            return pages;
+        }
+
+        /**
+         * @return bytes of those GL buffers, the resident bytes plus the free space in them
+         */
+        public long getPageBytes() {
+            return pageBytes;
+        }
+
+        /**
+         * @return times the buffers of a context were compacted to make room for a mesh
+         */
+        public long getCompactions() {
+            return compactions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("GpuBufferCache[entries=%d (%d unused), resident=%d/%d bytes, hitRate=%.3f, evictions=%d, "
+                                 + "pages=%d (%d bytes), compactions=%d]",
+                                 entries, unusedEntries, bytesResident, budget, getHitRate(), evictions,
+                                 pages, pageBytes, compactions);
+        }
+    }
+
+    /**
+     * @param budget bytes of buffers to keep before unused ones are evicted
+     */
+    public GpuBufferCache(long budget) {
+        this(budget, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param budget   bytes of buffers to keep before unused ones are evicted
+     * @param pageSize bytes of each GL buffer the buffers of meshes are allocated from
+     */
+    public GpuBufferCache(long budget, long pageSize) {
+        if(budget < 0)
+            throw new IllegalArgumentException("budget cannot be negative: " + budget);
+        if(pageSize <= 0 || pageSize % VERTEX_ALIGNMENT != 0)
+            throw new IllegalArgumentException("page size must be a positive multiple of " + VERTEX_ALIGNMENT + ": " + pageSize);
+        this.budget = budget;
+        this.pageSize = pageSize;
+        this.entries = new HashMap<>();
+        this.contexts = new HashMap<>();
+        this.unused = new LinkedHashMap<>();
+        this.pendingDeletions = new HashMap<>();
+    }
+
+    /**
+     * @return the process-wide cache, used by all {@code ObjModel}s
+     */
+    public static GpuBufferCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Gets the GL buffers of a mesh in the current GL context, uploading them if they are not
+     * resident. Must be called on the rendering thread. Every call must be matched by a call to
+     * {@link #release(MeshBuffers)}.
+     *
+     * @param dc   the current draw context
+     * @param mesh the mesh
+     * @return the buffers
+     */
+    public MeshBuffers acquire(DrawContext dc, Mesh mesh) {
+        final GLContext context = dc.getGLContext();
+        final GL gl = dc.getGL();
+        processPendingDeletions(gl, context);
+
+        final Key key = new Key(context, mesh);
+        synchronized(this) {
+            final MeshBuffers buffers = entries.get(key);
+            if(buffers != null) {
+                hits++;
+                unused.remove(key);
+                buffers.references++;
+                return buffers;
+            }
+            misses++;
+        }
+
+        // only this thread uses the context, so nobody else uploads the same key or moves ranges
+        // of its arenas meanwhile; other threads only free ranges
+        final MeshBuffers buffers = upload(gl, key, mesh);
+        synchronized(this) {
+            buffers.references++;
+            entries.put(key, buffers);
+            bytesResident += buffers.bytes;
+            evict();
+        }
+        processPendingDeletions(gl, context);
+        return buffers;
+    }
+
+    private MeshBuffers upload(GL gl, Key key, Mesh mesh) {
+        final ContextBuffers contextBuffers;
+        synchronized(this) {
+            contextBuffers = contexts.computeIfAbsent(key.context, context -> new ContextBuffers(context, pageSize));
+        }
+        final BufferArena.Range vboRange = allocate(gl, contextBuffers, GL.GL_ARRAY_BUFFER, mesh);
+        final BufferArena.Range eboRange = (mesh.getEboData() != null)
+                                           ? allocate(gl, contextBuffers, GL.GL_ELEMENT_ARRAY_BUFFER, mesh) : null;
+        final int vboId, eboId;
+        synchronized(this) {
+            vboId = contextBuffers.bufferIds.get(vboRange.getPage());
+            eboId = (eboRange != null) ? contextBuffers.bufferIds.get(eboRange.getPage()) : 0;
+        }
+        return new MeshBuffers(key, contextBuffers, vboRange, eboRange, vboId, eboId, dataBytes(mesh, GL.GL_ARRAY_BUFFER)
+                                                                                       + dataBytes(mesh, GL.GL_ELEMENT_ARRAY_BUFFER));
+    }
+
+    /**
+     * Allocates a range for the vertex or index data of a mesh and uploads the data: from a free
+     * block, from a free block after compacting the arena, or from a new page, in that order.
+     *
+     * @param target {@link GL#GL_ARRAY_BUFFER} for the vertex data, {@link GL#GL_ELEMENT_ARRAY_BUFFER}
+     *               for the indices
+     */
+    private BufferArena.Range allocate(GL gl, ContextBuffers contextBuffers, int target, Mesh mesh) {
+        final BufferArena arena = (target == GL.GL_ARRAY_BUFFER) ? contextBuffers.vertexArena : contextBuffers.indexArena;
+        final long bytes = dataBytes(mesh, target);
+        final BufferArena.Range range;
+        final List<BufferArena.Move> moves;
+        synchronized(this) {
+            BufferArena.Range allocated = arena.allocate(bytes);
+            List<BufferArena.Move> compacted = Collections.emptyList();
+            if(allocated == null && arena.fitsAfterCompaction(bytes)) {
+                compacted = arena.compact();
+                allocated = arena.allocate(bytes);
+            }
+            range = (allocated != null) ? allocated : arena.allocateInNewPage(bytes);
+            moves = compacted;
+            contextBuffers.rangeMeshes.put(range, mesh);
+        }
+
+        if(!isCreated(contextBuffers, range.getPage())) {
+            final int[] ids = new int[1];
+            gl.glGenBuffers(1, ids, 0);
+            try {
+                gl.glBindBuffer(target, ids[0]);
+                gl.glBufferData(target, range.getPage().getCapacity(), null, GL.GL_STATIC_DRAW);
+            } finally {
+                gl.glBindBuffer(target, 0);
+            }
+            synchronized(this) {
+                contextBuffers.bufferIds.put(range.getPage(), ids[0]);
+            }
+        }
+
+        // the meshes of the moved ranges still have their data, so it is uploaded again
+        for(BufferArena.Move move : moves)
+            uploadRange(gl, contextBuffers, target, move.getRange());
+        uploadRange(gl, contextBuffers, target, range);
+        return range;
+    }
+
+    private synchronized boolean isCreated(ContextBuffers contextBuffers, BufferArena.Page page) {
+        return contextBuffers.bufferIds.containsKey(page);
+    }
+
+    private void uploadRange(GL gl, ContextBuffers contextBuffers, int target, BufferArena.Range range) {
+        final int bufferId;
+        final Mesh mesh;
+        synchronized(this) {
+            if(range.getPage() == null)
+                return;     // evicted meanwhile
+            bufferId = contextBuffers.bufferIds.get(range.getPage());
+            mesh = contextBuffers.rangeMeshes.get(range);
+        }
+        // the VBO data is the interleaved vertex data as is, or encoded in the vertex format, layout is:
+        //  - vertices, normals, and texels: vvvnnnttvvvnnntt...
+        //  - vertices, normals:             vvvnnnvvvnnn...
+        //  - vertices:                      vvvvvv...
+        // it is a direct buffer built with the mesh, so nothing is copied or converted here, and it
+        // is still there to upload again if the buffers are evicted or their range moves
+        final Buffer data = (target == GL.GL_ARRAY_BUFFER) ? mesh.getVboData() : mesh.getEboData();
+        try {
+            gl.glBindBuffer(target, bufferId);
+            gl.glBufferSubData(target, range.getOffset(), dataBytes(mesh, target), data);
+        } finally {
+            gl.glBindBuffer(target, 0);
+        }
+    }
+
+    /**
+     * @return bytes of the vertex data or of the indices of a mesh, see {@link #allocate}
+     */
+    private static long dataBytes(Mesh mesh, int target) {
+        if(target == GL.GL_ARRAY_BUFFER)
+            return mesh.getVboSize();
+        final IntBuffer indices = mesh.getEboData();
+        return (indices != null) ? (long) indices.limit() * Buffers.SIZEOF_INT : 0;
+    }
+
+    /**
+     * Gives back buffers obtained from {@link #acquire}. They stay resident, but may be evicted once
+     * they have no references left. May be called on any thread.
+     *
+     * @param buffers the buffers
+     * @throws IllegalStateException if the buffers have been released more often than acquired
+     */
+    public synchronized void release(MeshBuffers buffers) {
+        if(buffers.references <= 0)
+            throw new IllegalStateException("GL buffers of " + buffers.key.mesh.getName() + " are not acquired");
+        if(--buffers.references > 0)
+            return;
+        if(entries.get(buffers.key) != buffers)
+            return;     // its context was removed
+        unused.put(buffers.key, buffers);
+        evict();
+    }
+
+    /**
+     * Evicts the least recently released buffers until the resident bytes are within the budget.
+     * Their ranges are freed, and the pages left empty are queued for deletion.
+     */
+    private void evict() {
+        final Iterator<MeshBuffers> eldest = unused.values().iterator();
+        Set<ContextBuffers> freed = null;
+        while(bytesResident > budget && eldest.hasNext()) {
+            final MeshBuffers buffers = eldest.next();
+            eldest.remove();
+            entries.remove(buffers.key);
+            bytesResident -= buffers.bytes;
+            evictions++;
+            final ContextBuffers contextBuffers = buffers.contextBuffers;
+            contextBuffers.vertexArena.free(buffers.vboRange);
+            contextBuffers.rangeMeshes.remove(buffers.vboRange);
+            if(buffers.eboRange != null) {
+                contextBuffers.indexArena.free(buffers.eboRange);
+                contextBuffers.rangeMeshes.remove(buffers.eboRange);
+            }
+            if(freed == null)
+                freed = Collections.newSetFromMap(new IdentityHashMap<>());
+            freed.add(contextBuffers);
+        }
+        if(freed == null)
+            return;
+
+        for(ContextBuffers contextBuffers : freed) {
+            final List<BufferArena.Page> emptyPages = new ArrayList<>(contextBuffers.vertexArena.removeEmptyPages());
+            emptyPages.addAll(contextBuffers.indexArena.removeEmptyPages());
+            for(BufferArena.Page page : emptyPages) {
+                final Integer id = contextBuffers.bufferIds.remove(page);
+                if(id != null)
+                    pendingDeletions.computeIfAbsent(contextBuffers.context, context -> new IntList(16)).add(id);
+            }
+        }
+    }
+
+    /**
+     * Deletes the emptied buffers of the current GL context. Must be called on the rendering thread;
+     * {@link #acquire} does so too.
+     *
+     * @param dc the current draw context
+     */
+    public void processPendingDeletions(DrawContext dc) {
+        processPendingDeletions(dc.getGL(), dc.getGLContext());
+    }
+
+    private void processPendingDeletions(GL gl, GLContext context) {
+        final int[] ids;
+        synchronized(this) {
+            if(pendingDeletions.isEmpty())
+                return;
+            final IntList pending = pendingDeletions.remove(context);
+            if(pending == null)
+                return;
+            ids = pending.toArray();
+        }
+        gl.glDeleteBuffers(ids.length, ids, 0);
+    }
+
+    /**
+     * Forgets all buffers of a GL context without deleting them, for a context that has been
+     * destroyed along with its buffers. Buffers of the context that are still acquired must still be
+     * released, but are not resident anymore.
+     *
+     * @param context the destroyed context
+     */
+    public synchronized void removeContext(GLContext context) {
+        final Iterator<MeshBuffers> it = entries.values().iterator();
+        while(it.hasNext()) {
+            final MeshBuffers buffers = it.next();
+            if(buffers.key.context == context) {
+                it.remove();
+                unused.remove(buffers.key);
+                bytesResident -= buffers.bytes;
+            }
+        }
+        contexts.remove(context);
+        pendingDeletions.remove(context);
+    }
+
+    /**
+     * @return bytes of buffers kept before unused ones are evicted
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the budget, evicting unused buffers if they exceed it.
+     *
+     * @param budget bytes of buffers to keep before unused ones are evicted
+     */
+    public synchronized void setBudget(long budget) {
+        if(budget < 0)
+            throw new IllegalArgumentException("budget cannot be negative: " + budget);
+        this.budget = budget;
+        evict();
+    }
+
+    /**
+     * @return the counters of this cache
+     */
+    public synchronized Stats getStats() {
+        int pages = 0;
+        long pageBytes = 0, compactions = 0;
+        for(ContextBuffers contextBuffers : contexts.values()) {
+            for(BufferArena arena : new BufferArena[] { contextBuffers.vertexArena, contextBuffers.indexArena }) {
+                pages += arena.getPages().size();
+                pageBytes += arena.getCapacity();
+                compactions += arena.getCompactions();
+            }
+        }
+        return new Stats(hits, misses, evictions, entries.size(), unused.size(), bytesResident, budget,
+                         pages, pageBytes, compactions);
+    }
+}
@@ -3,16 +3,11 @@ package com.hmorgan.gfx;
 import com.hackoeur.jglm.Vec3;
 import com.hmorgan.gfx.wavefront.WavefrontMaterial;
 import com.jogamp.common.nio.Buffers;
-import gov.nasa.worldwind.render.DrawContext;
-import gov.nasa.worldwind.render.LazilyLoadedTexture;
-import gov.nasa.worldwind.render.WWTexture;
-
-import javax.imageio.ImageIO;
-import javax.media.opengl.GL;
-import javax.media.opengl.GL2;
-import java.awt.image.BufferedImage;
+
 import java.io.File;
-import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.file.Path;
@@ -32,19 +27,22 @@ public class Mesh {
 
     private String name;
 
-    protected  List<Vertex> vertices;
-//    protected FloatBuffer vertices;     // v0x/v0y/v0z/v1x/v1y/v1z...
-//    protected FloatBuffer normals;      // n0x/n0y/n0z/n1x/n1y/n1z...
-//    protected FloatBuffer textureCoords;// t0x/v0y/t1x/t1y...
-    protected IntBuffer indices;        // v1/v2/v3 or v1/n1/v2/n2 or /v1/t1/n1/v2/t2/n2
-    protected FloatBuffer vboBuf;       // vvvvnnnn (if no normals, then just vvvv)
+    protected FloatBuffer vertexData;   // interleaved vvvnnntt per vertex, see getVertexStride(); direct, uploaded as the VBO
+    private boolean hasNormals;
+    private boolean hasTexCoords;
+    protected IntBuffer indices;        // v1/v2/v3 per triangle; direct, uploaded as the EBO
     private WavefrontMaterial material;
-    private WWTexture texture;
-
-    private int[] vboIds;               // vertex buffer object ids
-    private int[] eboIds;               // element buffer object ids
-    private boolean generatedGlBuffers;
-    private boolean hasValidDiffuseTextureMap; // true if material diffuse texture map exists
+    private VertexFormat vertexFormat;
+    private ByteBuffer encodedVertexData;   // the VBO if the vertex format is not VertexFormat.FLOAT, else null
+    private float[] positionTransform;      // maps VBO positions back, see getPositionTransform()
+    private float[] texCoordTransform;      // maps VBO texture coordinates back, see getTexCoordTransform()
+    private MeshOptimizer.Report optimizationReport;    // null if the mesh was not optimized
+    private MeshBounds bounds;                  // of all elements, in model coordinates
+    private int clusterSize;                    // most triangles per cluster, 0 if not clustered
+    private List<MeshBounds> clusters;          // contiguous ranges of the indices, empty if not clustered
+
+    private volatile long contentHash;      // of the VBO and EBO data, 0 until computed
+    private boolean hasValidDiffuseTextureMap; // true if the material has a diffuse texture map
 
     public enum MeshType {
         POINTS_MESH,            // mesh contains just points
@@ -54,25 +52,27 @@ public class Mesh {
 
     protected MeshType meshType;
 
-    // VBO Cache. Whenever a VBO is to be loaded, it first checks here to see if
-    // the mesh already has a VBO. If so, then it will use the existing VBO. The key
-    // is the mesh's name, so take care into keeping unique names for each mesh!
-    private static Map<String, int[]> vboCache = new HashMap<>();
-    private static Map<String, int[]> eboCache = new HashMap<>();
-    private static Map<String, WWTexture> textureCache = new HashMap<>();
-
-
     public static final class Builder {
         private String name;
         private List<Vertex> vertices;
+        private float[] positions;
+        private float[] normals;
+        private float[] texCoords;
+        private FloatBuffer vertexData;
+        private boolean hasNormals;
+        private boolean hasTexCoords;
         private IntBuffer indices;
         private MeshType meshType;
         private WavefrontMaterial material;
+        private VertexFormat vertexFormat;
+        private MeshOptimizer optimizer;
+        private int clusterSize;
 
         public Builder() {
             vertices = new ArrayList<>();
             meshType = MeshType.POLYGON_MESH;   // most common
             material = WavefrontMaterial.GRAY;
+            vertexFormat = VertexFormat.FLOAT;
         }
 
         public Builder setName(String val) {
@@ -85,6 +85,49 @@ public class Mesh {
             return this;
         }
 
+        /**
+         * Sets the vertex positions, which take precedence over {@link #setVertices(List)}.
+         *
+         * @param val x/y/z per vertex
+         */
+        public Builder setPositions(float[] val) {
+            positions = val;
+            return this;
+        }
+
+        /**
+         * @param val x/y/z per vertex, same vertex count as the positions
+         */
+        public Builder setNormals(float[] val) {
+            normals = val;
+            return this;
+        }
+
+        /**
+         * @param val u/v per vertex, same vertex count as the positions
+         */
+        public Builder setTexCoords(float[] val) {
+            texCoords = val;
+            return this;
+        }
+
+        /**
+         * Sets the interleaved vertex data, which takes precedence over the separate attribute
+         * arrays. Each vertex is a position, followed by a normal and a texture coordinate if
+         * present, see {@link Mesh#getVertexStride()}. The buffer is used as is, not copied; it can
+         * be a view of a memory-mapped file.
+         *
+         * @param val          interleaved vertex data
+         * @param withNormals   true if each vertex has a normal
+         * @param withTexCoords true if each vertex has a texture coordinate
+         */
+        public Builder setVertexData(FloatBuffer val, boolean withNormals, boolean withTexCoords) {
+            vertexData = val;
+            hasNormals = withNormals;
+            hasTexCoords = withTexCoords;
+            return this;
+        }
+
         public Builder setIndices(IntBuffer val) {
             indices = val;
             return this;
@@ -100,40 +143,144 @@ public class Mesh {
             return this;
         }
 
+        /**
+         * @param val format of the VBO, {@link VertexFormat#FLOAT} by default
+         */
+        public Builder setVertexFormat(VertexFormat val) {
+            vertexFormat = Objects.requireNonNull(val);
+            return this;
+        }
+
+        /**
+         * @param val reorders the triangles and vertices of a polygon mesh when it is built, null
+         *            (the default) to keep them as they are
+         */
+        public Builder setOptimizer(MeshOptimizer val) {
+            optimizer = val;
+            return this;
+        }
+
+        /**
+         * @param val most triangles per cluster, about 256 is typical; 0 (the default) to not cluster.
+         *            Only indexed polygon meshes are clustered, after they are optimized
+         */
+        public Builder setClusterSize(int val) {
+            if(val < 0)
+                throw new IllegalArgumentException("cluster size must not be negative: " + val);
+            clusterSize = val;
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public MeshType getMeshType() {
+            return meshType;
+        }
+
+        public WavefrontMaterial getMaterial() {
+            return material;
+        }
+
         public Mesh build() {
+            if(vertexData == null) {
+                if(positions == null)
+                    unpackVertices();
+                interleave();
+            }
             return new Mesh(this);
         }
+
+        /**
+         * Interleaves the attribute arrays into the vertex data.
+         */
+        private void interleave() {
+            hasNormals = (normals != null);
+            hasTexCoords = (texCoords != null);
+            final int vertexCount = positions.length / 3;
+            vertexData = Buffers.newDirectFloatBuffer(vertexCount * getVertexStride(hasNormals, hasTexCoords));
+            for(int i = 0; i < vertexCount; i++) {
+                vertexData.put(positions, i * 3, 3);
+                if(hasNormals)
+                    vertexData.put(normals, i * 3, 3);
+                if(hasTexCoords)
+                    vertexData.put(texCoords, i * 2, 2);
+            }
+            vertexData.flip();
+        }
+
+        /**
+         * Converts the {@link Vertex} list into primitive attribute arrays.
+         */
+        private void unpackVertices() {
+            final int vertexCount = vertices.size();
+            positions = new float[vertexCount * 3];
+            normals = null;
+            texCoords = null;
+            for(int i = 0; i < vertexCount; i++) {
+                final Vertex vertex = vertices.get(i);
+                final Vec3 position = vertex.getPosition();
+                positions[i * 3] = position.getX();
+                positions[i * 3 + 1] = position.getY();
+                positions[i * 3 + 2] = position.getZ();
+                if(vertex.getNormal().isPresent()) {
+                    final Vec3 normal = vertex.getNormal().get();
+                    if(normals == null)
+                        normals = new float[vertexCount * 3];
+                    normals[i * 3] = normal.getX();
+                    normals[i * 3 + 1] = normal.getY();
+                    normals[i * 3 + 2] = normal.getZ();
+                }
+                if(vertex.getTexCoord().isPresent()) {
+                    final Vec3 texCoord = vertex.getTexCoord().get();
+                    if(texCoords == null)
+                        texCoords = new float[vertexCount * 2];
+                    texCoords[i * 2] = texCoord.getX();
+                    texCoords[i * 2 + 1] = texCoord.getY();
+                }
+            }
+        }
     }
 
     private Mesh(Builder builder) {
         name = builder.name;
-        vertices = builder.vertices;
-        indices = builder.indices;
+        vertexData = toDirect(builder.vertexData);
+        hasNormals = builder.hasNormals;
+        hasTexCoords = builder.hasTexCoords;
+        indices = (builder.indices != null) ? toDirect(builder.indices) : null;
         meshType = builder.meshType;
-        material = builder.material;
-        vboIds = new int[1];
-        eboIds = new int[1];
-        generatedGlBuffers = false;
-
-        if(material != null) {
-            if(material.getDiffuseTextureMapPath() != null) {
-                if(textureCache.containsKey(material.getDiffuseTextureMapPath().toString())) {
-                    // texture in cache
-                    texture = textureCache.get(material.getDiffuseTextureMapPath().toString());
-                    hasValidDiffuseTextureMap = true;
-                } else {
-                    // texture not in cache, load it (note this does load it into GPU
-                    // memory..since it's lazily loaded)
-                    try {
-                        texture = new LazilyLoadedTexture(ImageIO.read(material.getDiffuseTextureMapPath().toUri().toURL()), true);
-                        textureCache.put(material.getDiffuseTextureMapPath().toString(), texture);
-                        hasValidDiffuseTextureMap = true;
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+        if(builder.optimizer != null && indices != null && meshType == MeshType.POLYGON_MESH) {
+            final MeshOptimizer.Result optimized = builder.optimizer.optimize(vertexData,
+                                                                              getVertexStride(hasNormals, hasTexCoords), indices);
+            vertexData = optimized.vertexData;
+            indices = optimized.indices;
+            optimizationReport = optimized.report;
+        }
+        clusterSize = builder.clusterSize;
+        final int stride = getVertexStride(hasNormals, hasTexCoords);
+        if(clusterSize > 0 && indices != null && meshType == MeshType.POLYGON_MESH) {
+            final MeshBounds.Clustering clustering = MeshBounds.cluster(vertexData, stride, indices, clusterSize);
+            indices = clustering.indices;
+            clusters = clustering.clusters;
+        } else {
+            clusters = Collections.emptyList();
         }
+        bounds = MeshBounds.ofMesh(vertexData, stride, (indices != null) ? indices.limit() : vertexData.limit() / stride);
+        vertexFormat = builder.vertexFormat;
+        if(vertexFormat.isFloat()) {
+            positionTransform = new float[] { 0.0f, 0.0f, 0.0f, 1.0f };
+            texCoordTransform = new float[] { 0.0f, 0.0f, 1.0f, 1.0f };
+        } else {
+            final VertexFormat.Encoded encoded = vertexFormat.encode(vertexData, hasNormals, hasTexCoords);
+            encodedVertexData = encoded.data;
+            positionTransform = encoded.positionTransform;
+            texCoordTransform = encoded.texCoordTransform;
+        }
+        material = builder.material;
+
+        // the texture is decoded and bound by a TextureManager, the mesh only knows its path
+        hasValidDiffuseTextureMap = (material != null && material.getDiffuseTextureMapPath() != null);
 
 //        // check to see if the material texture is valid:
 //        if(material != null) {
@@ -168,109 +315,276 @@ public class Mesh {
 //        }
     }
 
-    public void genGlBuffers(DrawContext dc) {
-        if(vboCache.containsKey(this.name)){
-            this.generatedGlBuffers = true;
-        }
+    /**
+     * @return the buffer itself if it is a direct buffer in native byte order, e.g. one mapped from
+     *         the mesh cache, otherwise a direct copy of it
+     */
+    private static FloatBuffer toDirect(FloatBuffer buffer) {
+        if(buffer.isDirect() && buffer.order() == ByteOrder.nativeOrder())
+            return buffer;
+        final FloatBuffer direct = Buffers.newDirectFloatBuffer(buffer.remaining());
+        direct.put(buffer.duplicate());
+        direct.flip();
+        return direct;
+    }
+
+    private static IntBuffer toDirect(IntBuffer buffer) {
+        if(buffer.isDirect() && buffer.order() == ByteOrder.nativeOrder())
+            return buffer;
+        final IntBuffer direct = Buffers.newDirectIntBuffer(buffer.remaining());
+        direct.put(buffer.duplicate());
+        direct.flip();
+        return direct;
+    }
+
+    public String getName() {
+        return name;
+    }
 
-        final GL2 gl = dc.getGL().getGL2();
+    /**
+     * Gets the vertices of this mesh. The mesh stores its vertices in primitive arrays, so the
+     * returned list is a read-only view that creates {@link Vertex} objects as they are accessed.
+     *
+     * @return the vertices of this mesh
+     */
+    public List<Vertex> getVertices() {
+        return new AbstractList<Vertex>() {
+            @Override
+            public Vertex get(int i) {
+                if(i < 0 || i >= size())
+                    throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+                final int v = i * getVertexStride();
+                final Vertex.Builder vertexBuilder = new Vertex.Builder(new Vec3(vertexData.get(v),
+                                                                                 vertexData.get(v + 1),
+                                                                                 vertexData.get(v + 2)));
+                if(hasNormals)
+                    vertexBuilder.setNormal(new Vec3(vertexData.get(v + 3), vertexData.get(v + 4), vertexData.get(v + 5)));
+                if(hasTexCoords) {
+                    final int t = v + (hasNormals ? 6 : 3);
+                    vertexBuilder.setTexCoord(new Vec3(vertexData.get(t), vertexData.get(t + 1), 0.0f));
+                }
+                return vertexBuilder.build();
+            }
 
+            @Override
+            public int size() {
+                return getVertexCount();
+            }
+        };
+    }
 
+    public int getVertexCount() {
+        return vertexData.limit() / getVertexStride();
+    }
 
-        // create VBO, layout is:
-        //  - vertices, normals, and texels: vvvnnntttvvvnnnttt...
-        //  - vertices, normals:             vvvnnnvvvnnn...
-        //  - vertices:                      vvvvvv...
-        final int stride = (hasValidDiffuseTextureMap) ? 8 : 6;
-        vboBuf = FloatBuffer.allocate(vertices.size() * stride);
-        for(Vertex v : vertices) {
-            vboBuf.put(v.getPosition().getX());
-            vboBuf.put(v.getPosition().getY());
-            vboBuf.put(v.getPosition().getZ());
+    /**
+     * @return number of floats per vertex in the interleaved vertex data
+     */
+    public int getVertexStride() {
+        return getVertexStride(hasNormals, hasTexCoords);
+    }
 
-            v.getNormal().ifPresent(n -> {
-                vboBuf.put(n.getX());
-                vboBuf.put(n.getY());
-                vboBuf.put(n.getZ());
-            });
+    private static int getVertexStride(boolean hasNormals, boolean hasTexCoords) {
+        return 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+    }
 
-            // if diffuse texture map file exists, then include the tex coords
-            if(hasValidDiffuseTextureMap) {
-                final BufferedImage textureBI = (BufferedImage) texture.getImageSource();
-                if(v.getTexCoord().isPresent()) {
-                    final Vec3 t = v.getTexCoord().get();
-                    vboBuf.put(t.getX());
+    public boolean hasNormals() {
+        return hasNormals;
+    }
 
-                    // for some reason the Y/V coordinate is flipped
-                    vboBuf.put(textureBI.getHeight() - t.getY());
-                }
-            }
-        }
+    public boolean hasTexCoords() {
+        return hasTexCoords;
+    }
 
-        vboBuf.flip();
-
-        // gen vbo
-        if(!vboCache.containsKey(name)) {
-            try {
-                gl.glGenBuffers(1, vboIds, 0);                      // gen 1 buffer for VBO
-                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vboIds[0]);     // bind buffer ID as VBO
-                gl.glBufferData(GL.GL_ARRAY_BUFFER, vboBuf.limit() * Buffers.SIZEOF_FLOAT, vboBuf.rewind(), GL.GL_STATIC_DRAW);   // copy data to buffer
-                generatedGlBuffers = true;
-                vboCache.put(name, vboIds);
-            } finally {
-                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);             // unbind buffer
-            }
-        }
+    /**
+     * @return read-only view of the interleaved vertex data: x/y/z, then nx/ny/nz if the mesh has
+     *         normals, then u/v if it has texture coordinates, per vertex
+     */
+    public FloatBuffer getVertexData() {
+        return vertexData.asReadOnlyBuffer();
+    }
 
-        // gen ebo
-        if(!eboCache.containsKey(name)) {
-            getIndices().ifPresent(indices -> {
-                try {
-                    gl.glGenBuffers(1, eboIds, 0);                              // gen 1 buffer for EBO
-                    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, eboIds[0]);     // bind buffer ID as EBO
-                    gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, indices.limit() * Buffers.SIZEOF_INT, indices.rewind(), GL.GL_STATIC_DRAW);   // copy data to buffer
-                    eboCache.put(name, eboIds);
-                } finally {
-                    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);             // unbind buffer
-                }
-            });
-        }
+    /**
+     * @return the vertex positions, x/y/z per vertex
+     */
+    public FloatBuffer getPositions() {
+        return extract(0, 3);
     }
 
-    public String getName() {
-        return name;
+    /**
+     * @return the vertex normals, x/y/z per vertex
+     */
+    public Optional<FloatBuffer> getNormals() {
+        return hasNormals ? Optional.of(extract(3, 3)) : Optional.empty();
     }
 
-    public List<Vertex> getVertices() {
-        return vertices;
+    /**
+     * @return the texture coordinates, u/v per vertex
+     */
+    public Optional<FloatBuffer> getTexCoords() {
+        return hasTexCoords ? Optional.of(extract(hasNormals ? 6 : 3, 2)) : Optional.empty();
+    }
+
+    /**
+     * Copies one attribute out of the interleaved vertex data.
+     *
+     * @param offset     offset of the attribute within a vertex, in floats
+     * @param components number of floats of the attribute
+     * @return a new buffer holding the attribute of every vertex
+     */
+    private FloatBuffer extract(int offset, int components) {
+        final int vertexCount = getVertexCount();
+        final int stride = getVertexStride();
+        final FloatBuffer attribute = FloatBuffer.allocate(vertexCount * components);
+        for(int i = 0; i < vertexCount; i++) {
+            for(int c = 0; c < components; c++)
+                attribute.put(vertexData.get(i * stride + offset + c));
+        }
+        attribute.flip();
+        return attribute;
     }
 
     public Optional<IntBuffer> getIndices() {
         return Optional.ofNullable(indices);
     }
 
+    /**
+     * @return read-only view of the float vertex data, the same as {@link #getVertexData()}; the VBO
+     *         holds it as is for {@link VertexFormat#FLOAT}, encoded in the vertex format otherwise
+     */
     public FloatBuffer getVboBuf() {
-        return vboBuf;
+        return getVertexData();
     }
 
-    public Optional<WavefrontMaterial> getMaterial() {
-        return Optional.ofNullable(material);
+    /**
+     * @return format of the VBO
+     */
+    public VertexFormat getVertexFormat() {
+        return vertexFormat;
+    }
+
+    /**
+     * @return vertex cache efficiency before and after optimizing, if the mesh was built with a
+     *         {@link MeshOptimizer}
+     */
+    public Optional<MeshOptimizer.Report> getOptimizationReport() {
+        return Optional.ofNullable(optimizationReport);
+    }
+
+    /**
+     * @return bounds of all elements of this mesh, in model coordinates
+     */
+    public MeshBounds getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return the clusters of this mesh in index order, empty if it is not clustered
+     */
+    public List<MeshBounds> getClusters() {
+        return clusters;
+    }
+
+    /**
+     * @return most triangles per cluster the mesh was built with, 0 if it is not clustered
+     */
+    public int getClusterSize() {
+        return clusterSize;
+    }
+
+    /**
+     * @return bytes per vertex in the VBO
+     */
+    public int getVboStride() {
+        return vertexFormat.getStride(hasNormals, hasTexCoords);
+    }
+
+    /**
+     * @return size of the VBO in bytes
+     */
+    public long getVboSize() {
+        return (long) getVboStride() * getVertexCount();
     }
 
-    public Optional<WWTexture> getTexture() {
-        return Optional.ofNullable(texture);
+    /**
+     * Positions are stored in the VBO as {@code q}, with {@code position = offset + scale * q}; for
+     * float positions the offset is 0 and the scale 1. Draw with this transform on the modelview matrix.
+     *
+     * @return offset x/y/z and the scale
+     */
+    public float[] getPositionTransform() {
+        return positionTransform.clone();
     }
 
-    public int[] getVboIds() {
-        return vboCache.get(name);
+    /**
+     * Texture coordinates are stored in the VBO as {@code q}, with {@code u = offsetU + scaleU * qu}
+     * and {@code v = offsetV + scaleV * qv}. Draw with this transform on the texture matrix.
+     *
+     * @return offset u/v and scale u/v
+     */
+    public float[] getTexCoordTransform() {
+        return texCoordTransform.clone();
     }
 
-    public int[] getEboIds() {
-        return eboCache.get(name);
+    /**
+     * @return the data of the VBO as it is uploaded: the encoded vertex data, or the float vertex
+     *         data for {@link VertexFormat#FLOAT}
+     */
+    Buffer getVboData() {
+        return (encodedVertexData != null) ? encodedVertexData.duplicate() : vertexData.duplicate();
+    }
+
+    /**
+     * @return the data of the EBO, or null if the mesh has no indices
+     */
+    IntBuffer getEboData() {
+        return (indices != null) ? indices.duplicate() : null;
+    }
+
+    /**
+     * Hashes the data of the VBO and EBO, so that meshes with the same data can share GL buffers
+     * whatever their names. Computed on first use.
+     *
+     * @return the hash, never 0
+     */
+    long getContentHash() {
+        long hash = contentHash;
+        if(hash == 0) {
+            hash = 1125899906842597L;
+            if(encodedVertexData != null) {
+                for(int i = 0; i < encodedVertexData.limit(); i++)
+                    hash = 31 * hash + encodedVertexData.get(i);
+            } else {
+                for(int i = 0; i < vertexData.limit(); i++)
+                    hash = 31 * hash + Float.floatToRawIntBits(vertexData.get(i));
+            }
+            if(indices != null) {
+                for(int i = 0; i < indices.limit(); i++)
+                    hash = 31 * hash + indices.get(i);
+            }
+            if(hash == 0)
+                hash = 1;
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * @return read-only view of the encoded VBO data, or null if the VBO is the float vertex data
+     */
+    ByteBuffer getEncodedVertexData() {
+        return (encodedVertexData != null) ? encodedVertexData.asReadOnlyBuffer().order(encodedVertexData.order()) : null;
+    }
+
+    public Optional<WavefrontMaterial> getMaterial() {
+        return Optional.ofNullable(material);
     }
 
-    public boolean isGeneratedGlBuffers() {
-        return generatedGlBuffers;
+    /**
+     * @return path of the diffuse texture map of the mesh's material, if it has one
+     */
+    public Optional<Path> getTexturePath() {
+        return hasValidDiffuseTextureMap ? Optional.of(material.getDiffuseTextureMapPath()) : Optional.empty();
     }
 
     public MeshType getMeshType() {
@@ -288,13 +602,11 @@ public class Mesh {
 
         Mesh mesh = (Mesh) o;
 
-        if(generatedGlBuffers != mesh.generatedGlBuffers) return false;
         if(!name.equals(mesh.name)) return false;
-        if(!vertices.equals(mesh.vertices)) return false;
+        if(hasNormals != mesh.hasNormals) return false;
+        if(hasTexCoords != mesh.hasTexCoords) return false;
+        if(!vertexData.equals(mesh.vertexData)) return false;
         if(indices != null ? !indices.equals(mesh.indices) : mesh.indices != null) return false;
-        if(!vboBuf.equals(mesh.vboBuf)) return false;
-        if(!Arrays.equals(vboIds, mesh.vboIds)) return false;
-        if(!Arrays.equals(eboIds, mesh.eboIds)) return false;
         return meshType == mesh.meshType;
 
     }
@@ -302,12 +614,10 @@ public class Mesh {
     @Override
     public int hashCode() {
         int result = name.hashCode();
-        result = 31 * result + vertices.hashCode();
+        result = 31 * result + vertexData.hashCode();
+        result = 31 * result + (hasNormals ? 1 : 0);
+        result = 31 * result + (hasTexCoords ? 1 : 0);
         result = 31 * result + (indices != null ? indices.hashCode() : 0);
-        result = 31 * result + vboBuf.hashCode();
-        result = 31 * result + Arrays.hashCode(vboIds);
-        result = 31 * result + Arrays.hashCode(eboIds);
-        result = 31 * result + (generatedGlBuffers ? 1 : 0);
         result = 31 * result + meshType.hashCode();
         return result;
     }
@@ -0,0 +1,342 @@
+package com.hmorgan.gfx;
+
+import com.hmorgan.util.IntList;
+import com.jogamp.common.nio.Buffers;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounds of a range of the elements of a mesh, in model coordinates: an axis-aligned box, a bounding
+ * sphere and, for clusters of triangles, the cone of their normals. A renderer skips the range if its
+ * box is outside the view frustum, or if the eye is in the cone's back side, where all of its
+ * triangles face away.
+ * <p>
+ * A {@link Mesh} has the bounds of all its elements, and of its clusters if it is built with
+ * {@link Mesh.Builder#setClusterSize(int)}. This class is <i>immutable</i>.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class MeshBounds {
+
+    /**
+     * Narrowest a normal cone may be, as the least dot product of a normal with its axis; wider
+     * cones would rarely cull.
+     */
+    private static final double MIN_CONE_DOT = 0.1;
+
+    private final int first;
+    private final int count;
+    private final double[] min;
+    private final double[] max;
+    private final double[] center;
+    private final double radius;
+    private final double[] coneAxis;        // null if there is no cone
+    private final double coneCutoff;
+
+    private MeshBounds(int first, int count, double[] min, double[] max, double[] center, double radius,
+                       double[] coneAxis, double coneCutoff) {
+        this.first = first;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.center = center;
+        this.radius = radius;
+        this.coneAxis = coneAxis;
+        this.coneCutoff = coneCutoff;
+    }
+
+    /**
+     * @return index of the first element, in the index buffer if the mesh has one, else in the
+     *         vertex data
+     */
+    public int getFirst() {
+        return first;
+    }
+
+    /**
+     * @return number of indices, or vertices if the mesh has no index buffer
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return true if the range has no vertices, and so no extent
+     */
+    public boolean isEmpty() {
+        return min[0] > max[0];
+    }
+
+    public double getMinX() {
+        return min[0];
+    }
+
+    public double getMinY() {
+        return min[1];
+    }
+
+    public double getMinZ() {
+        return min[2];
+    }
+
+    public double getMaxX() {
+        return max[0];
+    }
+
+    public double getMaxY() {
+        return max[1];
+    }
+
+    public double getMaxZ() {
+        return max[2];
+    }
+
+    /**
+     * @return radius of the bounding sphere around the center of the box
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return true if the triangles of the range have a normal cone
+     */
+    public boolean hasCone() {
+        return coneAxis != null;
+    }
+
+    /**
+     * Tells whether all triangles of the range face away from an eye position. Only meaningful
+     * when back faces are culled.
+     *
+     * @param eyeX eye position in model coordinates
+     * @param eyeY eye position in model coordinates
+     * @param eyeZ eye position in model coordinates
+     * @return true if every triangle is a back face as seen from the eye
+     */
+    public boolean isBackFacing(double eyeX, double eyeY, double eyeZ) {
+        if(coneAxis == null)
+            return false;
+        // the direction to any point of the bounding sphere is within the back side of the cone
+        final double dx = center[0] - eyeX, dy = center[1] - eyeY, dz = center[2] - eyeZ;
+        final double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return dx * coneAxis[0] + dy * coneAxis[1] + dz * coneAxis[2] >= coneCutoff * distance + radius;
+    }
+
+    /**
+     * Computes the bounds of all elements of a mesh, from its vertices, without a normal cone.
+     *
+     * @param vertexData   interleaved vertex data, positions first
+     * @param stride       floats per vertex
+     * @param elementCount number of indices, or vertices if the mesh has no index buffer
+     * @return the bounds
+     */
+    static MeshBounds ofMesh(FloatBuffer vertexData, int stride, int elementCount) {
+        // reading the vertices in order is cheaper than following the indices, and every mesh has
+        // these bounds, so the loops are kept tight
+        final int end = vertexData.limit() - vertexData.limit() % stride;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for(int i = 0; i < end; i += stride) {
+            final float x = vertexData.get(i), y = vertexData.get(i + 1), z = vertexData.get(i + 2);
+            if(x < minX) minX = x;
+            if(x > maxX) maxX = x;
+            if(y < minY) minY = y;
+            if(y > maxY) maxY = y;
+            if(z < minZ) minZ = z;
+            if(z > maxZ) maxZ = z;
+        }
+        if(end == 0) {
+            return new MeshBounds(0, elementCount, new double[] { minX, minY, minZ }, new double[] { maxX, maxY, maxZ },
+                                  new double[3], 0.0, null, 0.0);
+        }
+        final double centerX = 0.5 * ((double) minX + maxX);
+        final double centerY = 0.5 * ((double) minY + maxY);
+        final double centerZ = 0.5 * ((double) minZ + maxZ);
+        double radiusSquared = 0.0;
+        for(int i = 0; i < end; i += stride) {
+            final double dx = vertexData.get(i) - centerX, dy = vertexData.get(i + 1) - centerY, dz = vertexData.get(i + 2) - centerZ;
+            final double distanceSquared = dx * dx + dy * dy + dz * dz;
+            if(distanceSquared > radiusSquared)
+                radiusSquared = distanceSquared;
+        }
+        return new MeshBounds(0, elementCount, new double[] { minX, minY, minZ }, new double[] { maxX, maxY, maxZ },
+                              new double[] { centerX, centerY, centerZ }, Math.sqrt(radiusSquared), null, 0.0);
+    }
+
+    /**
+     * Computes the bounds of a range of a mesh's elements.
+     *
+     * @param vertexData interleaved vertex data, positions first
+     * @param stride     floats per vertex
+     * @param indices    index buffer of the mesh, or null if the range is of vertices
+     * @param first      index of the first element of the range
+     * @param count      number of elements in the range
+     * @param triangles  true if the elements are triangles, to compute their normal cone
+     * @return the bounds
+     */
+    static MeshBounds compute(FloatBuffer vertexData, int stride, IntBuffer indices, int first, int count, boolean triangles) {
+        final double[] min = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+        final double[] max = { Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+        for(int i = first; i < first + count; i++) {
+            final int v = (indices != null) ? indices.get(i) : i;
+            for(int c = 0; c < 3; c++) {
+                final double value = vertexData.get(v * stride + c);
+                min[c] = Math.min(min[c], value);
+                max[c] = Math.max(max[c], value);
+            }
+        }
+        final double[] center = new double[3];
+        double radiusSquared = 0.0;
+        if(min[0] <= max[0]) {
+            for(int c = 0; c < 3; c++)
+                center[c] = 0.5 * (min[c] + max[c]);
+            for(int i = first; i < first + count; i++) {
+                final int v = (indices != null) ? indices.get(i) : i;
+                final double dx = vertexData.get(v * stride) - center[0];
+                final double dy = vertexData.get(v * stride + 1) - center[1];
+                final double dz = vertexData.get(v * stride + 2) - center[2];
+                radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+            }
+        }
+
+        double[] coneAxis = null;
+        double coneCutoff = 0.0;
+        if(triangles && count >= 3) {
+            // the axis is the mean of the unit normals, the cone opens as far as the widest of them
+            final int triangleCount = count / 3;
+            final double[] normals = new double[triangleCount * 3];
+            final double[] axis = new double[3];
+            for(int t = 0; t < triangleCount; t++) {
+                final int i = first + t * 3;
+                final int a = (indices != null) ? indices.get(i) : i;
+                final int b = (indices != null) ? indices.get(i + 1) : i + 1;
+                final int c = (indices != null) ? indices.get(i + 2) : i + 2;
+                final double ux = vertexData.get(b * stride) - vertexData.get(a * stride);
+                final double uy = vertexData.get(b * stride + 1) - vertexData.get(a * stride + 1);
+                final double uz = vertexData.get(b * stride + 2) - vertexData.get(a * stride + 2);
+                final double vx = vertexData.get(c * stride) - vertexData.get(a * stride);
+                final double vy = vertexData.get(c * stride + 1) - vertexData.get(a * stride + 1);
+                final double vz = vertexData.get(c * stride + 2) - vertexData.get(a * stride + 2);
+                final double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+                final double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if(length == 0.0)
+                    continue;       // covers no pixels, whichever way it faces
+                normals[t * 3] = nx / length;
+                normals[t * 3 + 1] = ny / length;
+                normals[t * 3 + 2] = nz / length;
+                for(int k = 0; k < 3; k++)
+                    axis[k] += normals[t * 3 + k];
+            }
+            final double axisLength = Math.sqrt(axis[0] * axis[0] + axis[1] * axis[1] + axis[2] * axis[2]);
+            if(axisLength > 0.0) {
+                double minDot = 1.0;
+                for(int t = 0; t < triangleCount; t++) {
+                    final double dot = (normals[t * 3] * axis[0] + normals[t * 3 + 1] * axis[1] + normals[t * 3 + 2] * axis[2]) / axisLength;
+                    if(normals[t * 3] != 0.0 || normals[t * 3 + 1] != 0.0 || normals[t * 3 + 2] != 0.0)
+                        minDot = Math.min(minDot, dot);
+                }
+                if(minDot >= MIN_CONE_DOT) {
+                    coneAxis = new double[] { axis[0] / axisLength, axis[1] / axisLength, axis[2] / axisLength };
+                    // a triangle at angle acos(minDot) to the axis faces away from directions within
+                    // 90 degrees minus that angle of the axis
+                    coneCutoff = Math.sqrt(1.0 - minDot * minDot);
+                }
+            }
+        }
+        return new MeshBounds(first, count, min, max, center, Math.sqrt(radiusSquared), coneAxis, coneCutoff);
+    }
+
+    /**
+     * Triangle list reordered into clusters, with the bounds of each.
+     */
+    static final class Clustering {
+        final IntBuffer indices;
+        final List<MeshBounds> clusters;
+
+        Clustering(IntBuffer indices, List<MeshBounds> clusters) {
+            this.indices = indices;
+            this.clusters = clusters;
+        }
+    }
+
+    /**
+     * Groups the triangles of a mesh into clusters of connected triangles. Each cluster grows from
+     * the first triangle not in a cluster yet, breadth first over shared vertices; its triangles keep
+     * their order, so an order optimized for the vertex cache mostly survives.
+     *
+     * @param vertexData   interleaved vertex data, positions first
+     * @param stride       floats per vertex
+     * @param indices      triangle list
+     * @param maxTriangles most triangles in a cluster
+     * @return the reordered triangle list as a direct buffer, and the clusters
+     */
+    static Clustering cluster(FloatBuffer vertexData, int stride, IntBuffer indices, int maxTriangles) {
+        final int vertexCount = vertexData.limit() / stride;
+        final int triangleCount = indices.limit() / 3;
+
+        // triangles of each vertex, compressed rows
+        final int[] adjacencyStart = new int[vertexCount + 1];
+        for(int i = 0; i < triangleCount * 3; i++)
+            adjacencyStart[indices.get(i) + 1]++;
+        for(int v = 0; v < vertexCount; v++)
+            adjacencyStart[v + 1] += adjacencyStart[v];
+        final int[] adjacency = new int[triangleCount * 3];
+        final int[] fill = Arrays.copyOf(adjacencyStart, vertexCount);
+        for(int i = 0; i < triangleCount * 3; i++)
+            adjacency[fill[indices.get(i)]++] = i / 3;
+
+        final boolean[] assigned = new boolean[triangleCount];
+        final int[] queue = new int[triangleCount];
+        final IntList members = new IntList(maxTriangles);
+        final IntBuffer clustered = Buffers.newDirectIntBuffer(triangleCount * 3);
+        final List<MeshBounds> clusters = new ArrayList<>(triangleCount / maxTriangles + 1);
+        int seed = 0;
+        while(true) {
+            while(seed < triangleCount && assigned[seed])
+                seed++;
+            if(seed == triangleCount)
+                break;
+
+            int head = 0, tail = 0;
+            queue[tail++] = seed;
+            assigned[seed] = true;
+            members.clear();
+            while(head < tail && members.size() < maxTriangles) {
+                final int t = queue[head++];
+                members.add(t);
+                for(int k = 0; k < 3; k++) {
+                    final int v = indices.get(t * 3 + k);
+                    for(int a = adjacencyStart[v]; a < adjacencyStart[v + 1]; a++) {
+                        final int neighbour = adjacency[a];
+                        if(!assigned[neighbour]) {
+                            assigned[neighbour] = true;
+                            queue[tail++] = neighbour;
+                        }
+                    }
+                }
+            }
+            // queued triangles that did not fit go to later clusters
+            while(head < tail) {
+                assigned[queue[head]] = false;
+                seed = Math.min(seed, queue[head++]);
+            }
+
+            final int[] triangles = members.toArray();
+            Arrays.sort(triangles);
+            final int first = clustered.position();
+            for(int t : triangles) {
+                for(int k = 0; k < 3; k++)
+                    clustered.put(indices.get(t * 3 + k));
+            }
+            clusters.add(compute(vertexData, stride, clustered, first, triangles.length * 3, true));
+        }
+        clustered.flip();
+        return new Clustering(clustered, Collections.unmodifiableList(clusters));
+    }
+}
@@ -0,0 +1,269 @@
+package com.hmorgan.gfx;
+
+import com.hmorgan.gfx.wavefront.WavefrontMaterial;
+import com.jogamp.common.nio.Buffers;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Merges the triangle meshes of a model that draw the same way, so that the model is drawn with a
+ * draw call per material instead of one per mesh. .OBJ exports often switch between the same few
+ * materials many times, and every switch starts a new mesh.
+ * <p>
+ * Meshes are merged if they have equal materials, the same diffuse texture map, the same vertex
+ * attributes, vertex format and cluster size. The vertex data of the merged meshes is concatenated
+ * and their indices offset accordingly, so each mesh becomes a range of the indices of the merged
+ * mesh, recorded in its {@link Batch}. Meshes without indices are given indices. Merged meshes are
+ * named after their first mesh; meshes that nothing could be merged with are kept as they are.
+ * <p>
+ * Mergers are immutable.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class MeshMerger {
+
+    /**
+     * Most vertices of a merged mesh by default.
+     */
+    public static final int DEFAULT_MAX_VERTICES = 1 << 24;
+
+    private static final String MERGED_SUFFIX = "#merged";
+
+    private final int maxVertices;
+
+    /**
+     * The part of a merged mesh that one of the meshes it was merged from became.
+     */
+    public static final class Range {
+
+        private final String meshName;
+        private final int firstIndex;
+        private final int indexCount;
+        private final int firstVertex;
+        private final int vertexCount;
+
+        private Range(String meshName, int firstIndex, int indexCount, int firstVertex, int vertexCount) {
+            this.meshName = meshName;
+            this.firstIndex = firstIndex;
+            this.indexCount = indexCount;
+            this.firstVertex = firstVertex;
+            this.vertexCount = vertexCount;
+        }
+
+        /**
+         * @return name of the mesh the range was merged from
+         */
+        public String getMeshName() {
+            return meshName;
+        }
+
+        public int getFirstIndex() {
+            return firstIndex;
+        }
+
+        public int getIndexCount() {
+            return indexCount;
+        }
+
+        public int getFirstVertex() {
+            return firstVertex;
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[indices %d+%d, vertices %d+%d]", meshName, firstIndex, indexCount, firstVertex, vertexCount);
+        }
+    }
+
+    /**
+     * A mesh drawn by a model after merging, and the ranges of the meshes it was merged from.
+     */
+    public static final class Batch {
+
+        private final Mesh mesh;
+        private final List<Range> ranges;
+
+        private Batch(Mesh mesh, List<Range> ranges) {
+            this.mesh = mesh;
+            this.ranges = Collections.unmodifiableList(ranges);
+        }
+
+        public Mesh getMesh() {
+            return mesh;
+        }
+
+        /**
+         * @return the ranges in index order, a single one covering the mesh if it was not merged
+         */
+        public List<Range> getRanges() {
+            return ranges;
+        }
+
+        /**
+         * @return true if the mesh was merged from several meshes
+         */
+        public boolean isMerged() {
+            return ranges.size() > 1;
+        }
+    }
+
+    /**
+     * What meshes must share to be merged.
+     */
+    private static final class Key {
+        private final WavefrontMaterial material;   // null for meshes without one
+        private final Path texturePath;             // null for untextured meshes
+        private final boolean hasNormals;
+        private final boolean hasTexCoords;
+        private final VertexFormat vertexFormat;
+        private final int clusterSize;
+
+        private Key(Mesh mesh) {
+            this.material = mesh.getMaterial().orElse(null);
+            this.texturePath = mesh.getTexturePath().orElse(null);
+            this.hasNormals = mesh.hasNormals();
+            this.hasTexCoords = mesh.hasTexCoords();
+            this.vertexFormat = mesh.getVertexFormat();
+            this.clusterSize = mesh.getClusterSize();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof Key))
+                return false;
+            final Key key = (Key) o;
+            return hasNormals == key.hasNormals && hasTexCoords == key.hasTexCoords && clusterSize == key.clusterSize
+                   && Objects.equals(material, key.material) && Objects.equals(texturePath, key.texturePath)
+                   && vertexFormat.equals(key.vertexFormat);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(material, texturePath, hasNormals, hasTexCoords, vertexFormat, clusterSize);
+        }
+    }
+
+    /**
+     * Merges into meshes of up to {@link #DEFAULT_MAX_VERTICES} vertices.
+     */
+    public MeshMerger() {
+        this(DEFAULT_MAX_VERTICES);
+    }
+
+    /**
+     * @param maxVertices most vertices of a merged mesh; meshes that would exceed it start another
+     *                    merged mesh
+     */
+    public MeshMerger(int maxVertices) {
+        if(maxVertices < 1)
+            throw new IllegalArgumentException("max vertices must be positive: " + maxVertices);
+        this.maxVertices = maxVertices;
+    }
+
+    public int getMaxVertices() {
+        return maxVertices;
+    }
+
+    /**
+     * Merges the triangle meshes of a model that draw the same way. Other meshes are kept as they are.
+     *
+     * @param meshes the meshes of a model, keyed by name
+     * @return the batch of each mesh to draw, keyed by the name of its mesh, in the order their first
+     *         meshes come in
+     */
+    public Map<String, Batch> merge(Map<String, Mesh> meshes) {
+        // group the meshes to merge, in order, starting another group where one would grow too large
+        final Map<Key, List<Map.Entry<String, Mesh>>> open = new LinkedHashMap<>();
+        final List<List<Map.Entry<String, Mesh>>> groups = new ArrayList<>();
+        final Map<Key, Integer> openVertices = new LinkedHashMap<>();
+        for(Map.Entry<String, Mesh> entry : meshes.entrySet()) {
+            final Mesh mesh = entry.getValue();
+            if(mesh.getMeshType() != Mesh.MeshType.POLYGON_MESH) {
+                groups.add(Collections.singletonList(entry));
+                continue;
+            }
+            final Key key = new Key(mesh);
+            List<Map.Entry<String, Mesh>> group = open.get(key);
+            final int vertices = openVertices.getOrDefault(key, 0);
+            if(group == null || (long) vertices + mesh.getVertexCount() > maxVertices) {
+                group = new ArrayList<>();
+                open.put(key, group);
+                groups.add(group);
+                openVertices.put(key, 0);
+            }
+            group.add(entry);
+            openVertices.merge(key, mesh.getVertexCount(), Integer::sum);
+        }
+
+        final Map<String, Batch> batches = new LinkedHashMap<>();
+        for(List<Map.Entry<String, Mesh>> group : groups) {
+            final Batch batch = (group.size() == 1) ? single(group.get(0)) : merge(group);
+            batches.put(batch.mesh.getName(), batch);
+        }
+        return batches;
+    }
+
+    private static Batch single(Map.Entry<String, Mesh> entry) {
+        final Mesh mesh = entry.getValue();
+        final int indexCount = mesh.getIndices().map(IntBuffer::limit).orElse(mesh.getVertexCount());
+        return new Batch(mesh, Collections.singletonList(new Range(entry.getKey(), 0, indexCount, 0, mesh.getVertexCount())));
+    }
+
+    private static Batch merge(List<Map.Entry<String, Mesh>> group) {
+        final Mesh first = group.get(0).getValue();
+        final int stride = first.getVertexStride();
+        int vertexCount = 0, indexCount = 0;
+        for(Map.Entry<String, Mesh> entry : group) {
+            final Mesh mesh = entry.getValue();
+            vertexCount += mesh.getVertexCount();
+            indexCount += mesh.getIndices().map(IntBuffer::limit).orElse(mesh.getVertexCount());
+        }
+
+        final FloatBuffer vertexData = Buffers.newDirectFloatBuffer(vertexCount * stride);
+        final IntBuffer indices = Buffers.newDirectIntBuffer(indexCount);
+        final List<Range> ranges = new ArrayList<>(group.size());
+        for(Map.Entry<String, Mesh> entry : group) {
+            final Mesh mesh = entry.getValue();
+            final int firstVertex = vertexData.position() / stride;
+            final int firstIndex = indices.position();
+            vertexData.put(mesh.getVertexData());
+            if(mesh.getIndices().isPresent()) {
+                final IntBuffer meshIndices = mesh.getIndices().get().duplicate();
+                meshIndices.rewind();
+                while(meshIndices.hasRemaining())
+                    indices.put(firstVertex + meshIndices.get());
+            } else {
+                for(int i = 0; i < mesh.getVertexCount(); i++)
+                    indices.put(firstVertex + i);
+            }
+            ranges.add(new Range(entry.getKey(), firstIndex, indices.position() - firstIndex, firstVertex, mesh.getVertexCount()));
+        }
+        vertexData.flip();
+        indices.flip();
+
+        final Mesh merged = new Mesh.Builder()
+                .setName(first.getName() + MERGED_SUFFIX)
+                .setMeshType(Mesh.MeshType.POLYGON_MESH)
+                .setMaterial(first.getMaterial().orElse(null))
+                .setVertexData(vertexData, first.hasNormals(), first.hasTexCoords())
+                .setIndices(indices)
+                .setVertexFormat(first.getVertexFormat())
+                .setClusterSize(first.getClusterSize())
+                .build();
+        return new Batch(merged, ranges);
+    }
+}
@@ -0,0 +1,714 @@
+package com.hmorgan.gfx;
+
+import com.hmorgan.util.IntList;
+import com.jogamp.common.nio.Buffers;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds the levels of detail (LODs) of triangle meshes by quadric error simplification (Garland and
+ * Heckbert, "Surface Simplification Using Quadric Error Metrics", 1997).
+ * <p>
+ * Positions are collapsed into a neighbouring position, cheapest first, so every level uses a subset
+ * of the vertices of the mesh with their normals and texture coordinates unchanged; where a position
+ * has several normals, as in faceted meshes, each takes the closest normal of the neighbour. The error
+ * of a collapse is the sum of the squared distances of the neighbour to the planes of the triangles
+ * the collapsed positions were part of. Positions on the border of the mesh, and on seams where a
+ * position has several texture coordinates, are never collapsed, so levels keep their outline and
+ * their textures do not tear. Collapses that would flip a triangle, or make the mesh non-manifold,
+ * are skipped.
+ * <p>
+ * All levels come from a single run, which stops once the last level has been reached or the error
+ * of the next collapse exceeds the maximum. Simplifiers are immutable.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class MeshSimplifier {
+
+    /**
+     * Fractions of the triangles of a mesh kept by its levels, by default.
+     */
+    private static final double[] DEFAULT_LEVEL_RATIOS = { 0.5, 0.25, 0.125, 0.0625 };
+
+    /**
+     * Largest error by default, relative to the diagonal of the bounding box of a mesh.
+     */
+    public static final double DEFAULT_MAX_ERROR = 0.05;
+
+    /**
+     * Least reduction of the triangles of a level over the previous one; smaller steps are not worth
+     * another level.
+     */
+    private static final double MIN_LEVEL_REDUCTION = 0.9;
+
+    private final double[] levelRatios;
+    private final double maxError;
+
+    /**
+     * Builds levels with 1/2, 1/4, 1/8 and 1/16 of the triangles, up to {@link #DEFAULT_MAX_ERROR}.
+     */
+    public MeshSimplifier() {
+        this(DEFAULT_LEVEL_RATIOS, DEFAULT_MAX_ERROR);
+    }
+
+    /**
+     * @param levelRatios fractions of the triangles kept by each level, decreasing, in (0, 1)
+     * @param maxError    largest error of a level relative to the diagonal of the bounding box of a
+     *                    mesh; a level with more error is not built
+     */
+    public MeshSimplifier(double[] levelRatios, double maxError) {
+        for(int i = 0; i < levelRatios.length; i++) {
+            if(!(levelRatios[i] > 0.0 && levelRatios[i] < ((i == 0) ? 1.0 : levelRatios[i - 1])))
+                throw new IllegalArgumentException("level ratios must decrease within (0, 1): " + Arrays.toString(levelRatios));
+        }
+        if(!(maxError > 0.0))
+            throw new IllegalArgumentException("max error must be positive: " + maxError);
+        this.levelRatios = levelRatios.clone();
+        this.maxError = maxError;
+    }
+
+    public double[] getLevelRatios() {
+        return levelRatios.clone();
+    }
+
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * A level of detail of a mesh.
+     */
+    public static final class Lod {
+        private final Mesh mesh;
+        private final double error;
+
+        Lod(Mesh mesh, double error) {
+            this.mesh = mesh;
+            this.error = error;
+        }
+
+        public Mesh getMesh() {
+            return mesh;
+        }
+
+        /**
+         * @return bound on the distance, in model coordinates, of the collapsed vertices from the
+         *         planes of the triangles of the original mesh they replace
+         */
+        public double getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Builds the levels of detail of a polygon mesh. The levels have the name of the mesh with
+     * {@code #lod} and their number appended, and the material, vertex format and cluster size of the
+     * mesh.
+     *
+     * @param mesh the mesh
+     * @return the levels, coarser ones later; empty if the mesh is not an indexed polygon mesh, or
+     *         cannot be simplified within the maximum error
+     */
+    public List<Lod> buildLods(Mesh mesh) {
+        if(mesh.getMeshType() != Mesh.MeshType.POLYGON_MESH || !mesh.getIndices().isPresent() || levelRatios.length == 0)
+            return Collections.emptyList();
+
+        final FloatBuffer vertexData = mesh.getVertexData();
+        final int stride = mesh.getVertexStride();
+        final IntBuffer indexBuffer = mesh.getIndices().get();
+        final int[] indices = new int[indexBuffer.limit() - indexBuffer.limit() % 3];
+        for(int i = 0; i < indices.length; i++)
+            indices[i] = indexBuffer.get(i);
+
+        final List<int[]> levels = new ArrayList<>();
+        final List<Double> errors = new ArrayList<>();
+        new Collapser(vertexData, stride, mesh.hasNormals(), mesh.hasTexCoords(), indices).run(levels, errors);
+
+        final List<Lod> lods = new ArrayList<>(levels.size());
+        for(int i = 0; i < levels.size(); i++)
+            lods.add(new Lod(buildLevel(mesh, i + 1, vertexData, stride, levels.get(i)), errors.get(i)));
+        return Collections.unmodifiableList(lods);
+    }
+
+    /**
+     * Builds the mesh of a level from the vertices its triangles use, in order of first use.
+     */
+    private static Mesh buildLevel(Mesh mesh, int level, FloatBuffer vertexData, int stride, int[] triangles) {
+        final int[] remap = new int[vertexData.limit() / stride];
+        Arrays.fill(remap, -1);
+        int used = 0;
+        final IntBuffer indices = Buffers.newDirectIntBuffer(triangles.length);
+        for(int v : triangles) {
+            if(remap[v] < 0)
+                remap[v] = used++;
+            indices.put(remap[v]);
+        }
+        indices.flip();
+
+        final FloatBuffer levelData = Buffers.newDirectFloatBuffer(used * stride);
+        for(int v = 0; v < remap.length; v++) {
+            if(remap[v] >= 0) {
+                for(int c = 0; c < stride; c++)
+                    levelData.put(remap[v] * stride + c, vertexData.get(v * stride + c));
+            }
+        }
+
+        return new Mesh.Builder()
+                .setName(mesh.getName() + "#lod" + level)
+                .setMeshType(Mesh.MeshType.POLYGON_MESH)
+                .setMaterial(mesh.getMaterial().orElse(null))
+                .setVertexData(levelData, mesh.hasNormals(), mesh.hasTexCoords())
+                .setIndices(indices)
+                .setVertexFormat(mesh.getVertexFormat())
+                .setClusterSize(mesh.getClusterSize())
+                .build();
+    }
+
+    /**
+     * State of a simplification run. Vertices at the same position form a group, which collapses as
+     * a whole; the topology, quadrics and costs are those of the groups.
+     */
+    private final class Collapser {
+        private final FloatBuffer vertexData;
+        private final int stride;
+        private final boolean hasNormals;
+        private final boolean hasTexCoords;
+        private final int[] triangles;          // vertices, updated as groups collapse
+        private final boolean[] deadTriangles;
+        private int liveTriangles;
+
+        private final int[] groupOf;            // group of each vertex
+        private final int groupCount;
+        private final double[] positions;       // xyz per group
+        private final IntList[] groupVertices;
+        private final IntList[] groupTriangles; // triangles of each group, may hold dead ones
+        private final double[] quadrics;        // 10 per group, see addPlane
+        private final boolean[] locked;         // border and texture seam groups
+        private final boolean[] removed;
+        private final int[] bestTarget;         // cheapest group to collapse into
+        private final VertexHeap heap;
+        private final int[] marks;              // scratch, marks[g] == mark if group g is marked
+        private int mark;
+        private final int[] vertexMap;          // scratch, vertex each vertex of a collapsing group becomes
+
+        Collapser(FloatBuffer vertexData, int stride, boolean hasNormals, boolean hasTexCoords, int[] indices) {
+            this.vertexData = vertexData;
+            this.stride = stride;
+            this.hasNormals = hasNormals;
+            this.hasTexCoords = hasTexCoords;
+            final int vertexCount = vertexData.limit() / stride;
+            groupOf = new int[vertexCount];
+            vertexMap = new int[vertexCount];
+            groupCount = weld(vertexCount);
+
+            positions = new double[groupCount * 3];
+            groupVertices = new IntList[groupCount];
+            for(int v = 0; v < vertexCount; v++) {
+                final int g = groupOf[v];
+                if(groupVertices[g] == null) {
+                    groupVertices[g] = new IntList(4);
+                    for(int c = 0; c < 3; c++)
+                        positions[g * 3 + c] = vertexData.get(v * stride + c);
+                }
+                groupVertices[g].add(v);
+            }
+
+            // triangles with two corners at the same position cover no pixels, and are dropped
+            triangles = indices;
+            deadTriangles = new boolean[indices.length / 3];
+            final int[] degree = new int[groupCount];
+            for(int t = 0; t < deadTriangles.length; t++) {
+                final int a = group(t, 0), b = group(t, 1), c = group(t, 2);
+                if(a == b || b == c || c == a) {
+                    deadTriangles[t] = true;
+                    continue;
+                }
+                liveTriangles++;
+                degree[a]++;
+                degree[b]++;
+                degree[c]++;
+            }
+            groupTriangles = new IntList[groupCount];
+            for(int g = 0; g < groupCount; g++)
+                groupTriangles[g] = new IntList(degree[g]);
+            quadrics = new double[groupCount * 10];
+            for(int t = 0; t < deadTriangles.length; t++) {
+                if(deadTriangles[t])
+                    continue;
+                for(int k = 0; k < 3; k++)
+                    groupTriangles[group(t, k)].add(t);
+                addPlane(t);
+            }
+
+            locked = new boolean[groupCount];
+            removed = new boolean[groupCount];
+            bestTarget = new int[groupCount];
+            marks = new int[groupCount];
+            heap = new VertexHeap(groupCount);
+            lockTextureSeams();
+            lockBorders();
+        }
+
+        /**
+         * Collapses groups until the last level is reached.
+         *
+         * @param levels receives the triangles of each level reached
+         * @param errors receives the error of each level reached
+         */
+        void run(List<int[]> levels, List<Double> errors) {
+            final double diagonal = diagonal();
+            final double maxCost = (maxError * diagonal) * (maxError * diagonal);
+            final int triangleCount = triangles.length / 3;
+
+            for(int g = 0; g < groupCount; g++)
+                updateBest(g);
+
+            double levelCost = 0.0;
+            int level = 0;
+            int previousLevelTriangles = triangleCount;
+            while(level < levelRatios.length) {
+                final int target = (int) Math.ceil(levelRatios[level] * triangleCount);
+                if(liveTriangles <= target) {
+                    if(liveTriangles <= previousLevelTriangles * MIN_LEVEL_REDUCTION) {
+                        levels.add(liveTriangleArray());
+                        errors.add(Math.sqrt(levelCost));
+                        previousLevelTriangles = liveTriangles;
+                    }
+                    level++;
+                    continue;
+                }
+                if(heap.isEmpty() || heap.peekKey() > maxCost)
+                    break;
+
+                final int g = heap.pop();
+                final double cost = heap.lastKey;
+                if(!collapse(g, bestTarget[g]))
+                    continue;           // another collapse nearby may make it valid again
+                levelCost = Math.max(levelCost, cost);
+            }
+
+            // whatever was reached, if the run stopped on the way to the next level
+            if(level < levelRatios.length && liveTriangles <= previousLevelTriangles * MIN_LEVEL_REDUCTION) {
+                levels.add(liveTriangleArray());
+                errors.add(Math.sqrt(levelCost));
+            }
+        }
+
+        private int group(int t, int corner) {
+            return groupOf[triangles[t * 3 + corner]];
+        }
+
+        /**
+         * Assigns the vertices to groups by the bits of their positions.
+         *
+         * @return the number of groups
+         */
+        private int weld(int vertexCount) {
+            final int capacity = Integer.highestOneBit(Math.max(vertexCount, 1) * 2 - 1) << 1;
+            final int[] table = new int[capacity];      // open addressing, first vertex of each group
+            Arrays.fill(table, -1);
+            int groups = 0;
+            for(int v = 0; v < vertexCount; v++) {
+                final int x = Float.floatToIntBits(vertexData.get(v * stride));
+                final int y = Float.floatToIntBits(vertexData.get(v * stride + 1));
+                final int z = Float.floatToIntBits(vertexData.get(v * stride + 2));
+                int slot = ((x * 73856093) ^ (y * 19349663) ^ (z * 83492791)) & (capacity - 1);
+                boolean found = false;
+                while(table[slot] >= 0 && !found) {
+                    final int other = table[slot];
+                    found = x == Float.floatToIntBits(vertexData.get(other * stride))
+                            && y == Float.floatToIntBits(vertexData.get(other * stride + 1))
+                            && z == Float.floatToIntBits(vertexData.get(other * stride + 2));
+                    if(found)
+                        groupOf[v] = groupOf[other];
+                    else
+                        slot = (slot + 1) & (capacity - 1);
+                }
+                if(!found) {
+                    table[slot] = v;
+                    groupOf[v] = groups++;
+                }
+            }
+            return groups;
+        }
+
+        private double diagonal() {
+            final double[] min = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+            final double[] max = { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+            for(int g = 0; g < groupCount; g++) {
+                for(int c = 0; c < 3; c++) {
+                    min[c] = Math.min(min[c], positions[g * 3 + c]);
+                    max[c] = Math.max(max[c], positions[g * 3 + c]);
+                }
+            }
+            final double dx = max[0] - min[0], dy = max[1] - min[1], dz = max[2] - min[2];
+            return Math.sqrt(dx * dx + dy * dy + dz * dz);
+        }
+
+        private int[] liveTriangleArray() {
+            final int[] live = new int[liveTriangles * 3];
+            int written = 0;
+            for(int t = 0; t < deadTriangles.length; t++) {
+                if(!deadTriangles[t]) {
+                    System.arraycopy(triangles, t * 3, live, written, 3);
+                    written += 3;
+                }
+            }
+            return live;
+        }
+
+        /**
+         * Adds the plane of a triangle to the quadrics of its groups. A quadric holds the symmetric
+         * matrix of the plane equation {@code ax + by + cz + d = 0} as a^2, ab, ac, ad, b^2, bc, bd,
+         * c^2, cd, d^2, so it measures the sum of the squared distances to its planes, whose square
+         * root bounds the distance to each of them.
+         */
+        private void addPlane(int t) {
+            final double[] n = normal(t, -1, 0);
+            final double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+            if(length == 0.0)
+                return;
+            final double a = n[0] / length, b = n[1] / length, c = n[2] / length;
+            final int p = group(t, 0) * 3;
+            final double d = -(a * positions[p] + b * positions[p + 1] + c * positions[p + 2]);
+            final double[] plane = { a * a, a * b, a * c, a * d, b * b, b * c, b * d, c * c, c * d, d * d };
+            for(int k = 0; k < 3; k++) {
+                final int q = group(t, k) * 10;
+                for(int i = 0; i < 10; i++)
+                    quadrics[q + i] += plane[i];
+            }
+        }
+
+        /**
+         * @return the squared distance the quadric of a group measures at the position of another
+         */
+        private double evaluate(int quadricGroup, int positionGroup) {
+            final int q = quadricGroup * 10;
+            final double x = positions[positionGroup * 3], y = positions[positionGroup * 3 + 1], z = positions[positionGroup * 3 + 2];
+            final double error = quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z + 2 * quadrics[q + 3] * x
+                                 + quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z + 2 * quadrics[q + 6] * y
+                                 + quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z + quadrics[q + 9];
+            return Math.max(error, 0.0);
+        }
+
+        /**
+         * @return the (unnormalized) normal of a triangle, with group {@code from} moved to the
+         *         position of group {@code to}
+         */
+        private double[] normal(int t, int from, int to) {
+            final int a = group(t, 0), b = group(t, 1), c = group(t, 2);
+            final int pa = ((a == from) ? to : a) * 3, pb = ((b == from) ? to : b) * 3, pc = ((c == from) ? to : c) * 3;
+            final double ux = positions[pb] - positions[pa], uy = positions[pb + 1] - positions[pa + 1], uz = positions[pb + 2] - positions[pa + 2];
+            final double vx = positions[pc] - positions[pa], vy = positions[pc + 1] - positions[pa + 1], vz = positions[pc + 2] - positions[pa + 2];
+            return new double[] { uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx };
+        }
+
+        private boolean hasGroup(int t, int g) {
+            return group(t, 0) == g || group(t, 1) == g || group(t, 2) == g;
+        }
+
+        /**
+         * Locks the groups whose vertices have different texture coordinates; collapsing them would
+         * tear the texture.
+         */
+        private void lockTextureSeams() {
+            if(!hasTexCoords)
+                return;
+            final int offset = hasNormals ? 6 : 3;
+            for(int g = 0; g < groupCount; g++) {
+                final IntList vertices = groupVertices[g];
+                final int first = vertices.get(0);
+                for(int i = 1; i < vertices.size() && !locked[g]; i++) {
+                    final int v = vertices.get(i);
+                    locked[g] = vertexData.get(v * stride + offset) != vertexData.get(first * stride + offset)
+                                || vertexData.get(v * stride + offset + 1) != vertexData.get(first * stride + offset + 1);
+                }
+            }
+        }
+
+        /**
+         * Locks the groups of edges with a single triangle.
+         */
+        private void lockBorders() {
+            final int[] edgeCounts = new int[groupCount];
+            for(int g = 0; g < groupCount; g++) {
+                // count the triangles of the edges from g to its neighbours
+                mark++;
+                final IntList around = groupTriangles[g];
+                for(int i = 0; i < around.size(); i++) {
+                    for(int k = 0; k < 3; k++) {
+                        final int h = group(around.get(i), k);
+                        edgeCounts[h] = (marks[h] == mark) ? edgeCounts[h] + 1 : 1;
+                        marks[h] = mark;
+                    }
+                }
+                for(int i = 0; i < around.size(); i++) {
+                    for(int k = 0; k < 3; k++) {
+                        final int h = group(around.get(i), k);
+                        if(h != g && edgeCounts[h] == 1) {
+                            locked[g] = true;
+                            locked[h] = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Finds the cheapest neighbour to collapse a group into, and files the group in the heap.
+         */
+        private void updateBest(int g) {
+            if(locked[g] || removed[g])
+                return;
+            double best = Double.POSITIVE_INFINITY;
+            final IntList around = groupTriangles[g];
+            for(int i = 0; i < around.size(); i++) {
+                final int t = around.get(i);
+                if(deadTriangles[t])
+                    continue;
+                for(int k = 0; k < 3; k++) {
+                    final int h = group(t, k);
+                    if(h == g)
+                        continue;
+                    final double cost = evaluate(g, h) + evaluate(h, h);
+                    if(cost < best) {
+                        best = cost;
+                        bestTarget[g] = h;
+                    }
+                }
+            }
+            if(best < Double.POSITIVE_INFINITY)
+                heap.update(g, best);
+            else
+                heap.remove(g);
+        }
+
+        /**
+         * Collapses a group into a neighbour, unless that flips a triangle or breaks the manifold.
+         * Each vertex of the group becomes the vertex of the neighbour it shares a triangle with, or
+         * else the one with the closest normal.
+         *
+         * @return true if the group was collapsed
+         */
+        private boolean collapse(int g, int h) {
+            final IntList around = groupTriangles[g];
+            final IntList hAround = groupTriangles[h];
+            compact(around);
+            compact(hAround);
+
+            // the neighbours common to g and h must be exactly those of the triangles of edge gh
+            mark++;
+            for(int i = 0; i < hAround.size(); i++) {
+                for(int k = 0; k < 3; k++)
+                    marks[group(hAround.get(i), k)] = mark;
+            }
+            int shared = 0;
+            int common = 0;
+            mark++;
+            for(int i = 0; i < around.size(); i++) {
+                final int t = around.get(i);
+                if(hasGroup(t, h)) {
+                    shared++;
+                } else {
+                    // the triangle after the collapse must face the same way, and not degenerate
+                    final double[] before = normal(t, -1, 0);
+                    final double[] after = normal(t, g, h);
+                    if(before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0.0)
+                        return false;
+                }
+                for(int k = 0; k < 3; k++) {
+                    final int u = group(t, k);
+                    if(u != g && u != h && marks[u] == mark - 1) {
+                        marks[u] = mark;        // count each common neighbour once
+                        common++;
+                    }
+                }
+            }
+            if(shared == 0 || common != shared)
+                return false;
+
+            final IntList vertices = groupVertices[g];
+            for(int i = 0; i < vertices.size(); i++)
+                vertexMap[vertices.get(i)] = -1;
+            for(int i = 0; i < around.size(); i++) {
+                final int t = around.get(i);
+                if(!hasGroup(t, h))
+                    continue;
+                int from = -1, to = -1;
+                for(int k = 0; k < 3; k++) {
+                    final int v = triangles[t * 3 + k];
+                    if(groupOf[v] == g)
+                        from = v;
+                    else if(groupOf[v] == h)
+                        to = v;
+                }
+                if(vertexMap[from] < 0)
+                    vertexMap[from] = to;
+            }
+            for(int i = 0; i < vertices.size(); i++) {
+                final int v = vertices.get(i);
+                if(vertexMap[v] < 0)
+                    vertexMap[v] = closestVertex(v, h);
+            }
+
+            for(int i = 0; i < around.size(); i++) {
+                final int t = around.get(i);
+                if(hasGroup(t, h)) {
+                    deadTriangles[t] = true;
+                    liveTriangles--;
+                } else {
+                    for(int k = 0; k < 3; k++) {
+                        if(groupOf[triangles[t * 3 + k]] == g)
+                            triangles[t * 3 + k] = vertexMap[triangles[t * 3 + k]];
+                    }
+                    hAround.add(t);
+                }
+            }
+            around.clear();
+            removed[g] = true;
+            for(int i = 0; i < 10; i++)
+                quadrics[h * 10 + i] += quadrics[g * 10 + i];
+
+            // the costs of h and its neighbours have changed
+            compact(hAround);
+            mark++;
+            for(int i = 0; i < hAround.size(); i++) {
+                for(int k = 0; k < 3; k++) {
+                    final int u = group(hAround.get(i), k);
+                    if(marks[u] != mark) {
+                        marks[u] = mark;
+                        updateBest(u);
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the vertex of a group whose normal is closest to that of the given vertex
+         */
+        private int closestVertex(int v, int g) {
+            final IntList vertices = groupVertices[g];
+            int closest = vertices.get(0);
+            if(!hasNormals)
+                return closest;
+            double bestDot = Double.NEGATIVE_INFINITY;
+            for(int i = 0; i < vertices.size(); i++) {
+                final int w = vertices.get(i);
+                double dot = 0.0;
+                for(int c = 3; c < 6; c++)
+                    dot += vertexData.get(v * stride + c) * vertexData.get(w * stride + c);
+                if(dot > bestDot) {
+                    bestDot = dot;
+                    closest = w;
+                }
+            }
+            return closest;
+        }
+
+        /**
+         * Drops the dead triangles from a list.
+         */
+        private void compact(IntList list) {
+            int kept = 0;
+            for(int i = 0; i < list.size(); i++) {
+                final int t = list.get(i);
+                if(!deadTriangles[t])
+                    list.set(kept++, t);
+            }
+            list.truncate(kept);
+        }
+    }
+
+    /**
+     * Binary min-heap of vertex groups keyed by the cost of their collapse.
+     */
+    private static final class VertexHeap {
+        private final int[] heap;
+        private final int[] positions;      // index of each vertex in the heap, -1 if not in it
+        private final double[] keys;
+        private int size;
+        double lastKey;                     // key of the vertex popped last
+
+        VertexHeap(int vertexCount) {
+            heap = new int[vertexCount];
+            positions = new int[vertexCount];
+            Arrays.fill(positions, -1);
+            keys = new double[vertexCount];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double peekKey() {
+            return keys[heap[0]];
+        }
+
+        int pop() {
+            final int v = heap[0];
+            lastKey = keys[v];
+            remove(v);
+            return v;
+        }
+
+        void update(int v, double key) {
+            if(positions[v] < 0) {
+                heap[size] = v;
+                positions[v] = size++;
+            }
+            keys[v] = key;
+            siftDown(siftUp(positions[v]));
+        }
+
+        void remove(int v) {
+            final int i = positions[v];
+            if(i < 0)
+                return;
+            positions[v] = -1;
+            size--;
+            if(i == size)
+                return;
+            heap[i] = heap[size];
+            positions[heap[i]] = i;
+            siftDown(siftUp(i));
+        }
+
+        private int siftUp(int i) {
+            while(i > 0) {
+                final int parent = (i - 1) / 2;
+                if(keys[heap[parent]] <= keys[heap[i]])
+                    break;
+                swap(i, parent);
+                i = parent;
+            }
+            return i;
+        }
+
+        private void siftDown(int i) {
+            while(true) {
+                final int left = 2 * i + 1;
+                if(left >= size)
+                    return;
+                final int child = (left + 1 < size && keys[heap[left + 1]] < keys[heap[left]]) ? left + 1 : left;
+                if(keys[heap[i]] <= keys[heap[child]])
+                    return;
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            final int v = heap[i];
+            heap[i] = heap[j];
+            heap[j] = v;
+            positions[heap[i]] = i;
+            positions[heap[j]] = j;
+        }
+    }
+}
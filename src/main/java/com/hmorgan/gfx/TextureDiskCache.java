@@ -0,0 +1,403 @@
+package com.hmorgan.gfx;
+
+import com.hmorgan.util.CacheFiles;
+import com.jogamp.opengl.util.texture.TextureData;
+import gov.nasa.worldwind.util.Logging;
+
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL;
+import javax.media.opengl.GLProfile;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.logging.Level;
+
+/**
+ * On-disk cache of decoded texture images. A cache file holds the texels of an image, scaled down
+ * to a maximum size, together with its whole mipmap chain, as raw RGB or RGBA bytes in the layout
+ * {@code glTexImage2D} takes them. Reading a cache file is a memory-map and a buffer view per mipmap
+ * level, there is no image decoding; the {@link Texels} returned by {@link #read} are backed by the
+ * mapped file and are uploaded from it as they are.
+ * <p>
+ * A cache file is valid as long as the size and modification time of the image file are the ones
+ * recorded when the file was written, and the maximum size is the same. Cache files are stored next
+ * to the image file, or in a cache directory if one is given. {@link #prewarm} writes the cache files
+ * of images ahead of time, e.g. in an offline step, so that not even the first start decodes them.
+ * <p>
+ * File layout, all values little-endian:
+ * <pre>
+ *   int    magic, version, header size (offset of the data section)
+ *   long   source size, source modification time
+ *   int    maximum size, width, height, mipmap level count, flags
+ *   long   offset of each mipmap level
+ *   data section: the texels of each level, rows top to bottom, 3 or 4 bytes per texel
+ * </pre>
+ * Each level is half the width and height of the previous one, but at least 1, down to 1 x 1.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class TextureDiskCache {
+
+    private static final int MAGIC = 0x43584554;    // "TEXC"
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".texcache";
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final int PREFIX_SIZE = 12 + 16 + 20;
+
+    private static final int HAS_ALPHA = 1;
+
+    private final Path cacheDirectory;      // null to store cache files next to the image files
+
+    /**
+     * The texels of an image and its mipmap levels, ready to be uploaded.
+     */
+    public static final class Texels {
+
+        private final int width;
+        private final int height;
+        private final boolean alpha;
+        private final ByteBuffer[] levels;
+        private final long bytes;
+
+        private Texels(int width, int height, boolean alpha, ByteBuffer[] levels) {
+            this.width = width;
+            this.height = height;
+            this.alpha = alpha;
+            this.levels = levels;
+            long bytes = 0;
+            for(ByteBuffer level : levels)
+                bytes += level.remaining();
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return width of the largest level
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return height of the largest level
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return true if the texels are RGBA, false if they are RGB
+         */
+        public boolean hasAlpha() {
+            return alpha;
+        }
+
+        /**
+         * @return number of mipmap levels, the largest one included
+         */
+        public int getLevelCount() {
+            return levels.length;
+        }
+
+        /**
+         * @param level mipmap level, 0 for the largest one
+         * @return the texels of the level, rows top to bottom
+         */
+        public ByteBuffer getLevel(int level) {
+            return levels[level].duplicate();
+        }
+
+        /**
+         * @return bytes of all levels
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return texture data uploading all levels, as {@link com.jogamp.opengl.util.texture.awt.AWTTextureIO}
+         *         would upload the image
+         */
+        TextureData toTextureData(GLProfile profile) {
+            final int format = alpha ? GL.GL_RGBA : GL.GL_RGB;
+            final Buffer[] mipmapData = new Buffer[levels.length];
+            for(int i = 0; i < levels.length; i++)
+                mipmapData[i] = levels[i].duplicate();
+            return new TextureData(profile, format, width, height, 0, format, GL.GL_UNSIGNED_BYTE,
+                                   false, true, mipmapData, null);
+        }
+    }
+
+    /**
+     * Creates a cache that stores each cache file next to its image file.
+     */
+    public TextureDiskCache() {
+        this.cacheDirectory = null;
+    }
+
+    /**
+     * Creates a cache that stores its files in the given directory.
+     *
+     * @param cacheDirectory directory for the cache files, created when the first file is written
+     */
+    public TextureDiskCache(Path cacheDirectory) {
+        this.cacheDirectory = Objects.requireNonNull(cacheDirectory, "Cache directory cannot be null");
+    }
+
+    /**
+     * @param imagePath path of the image file
+     * @return the cache file of the image file, which may not exist
+     */
+    public Path getCacheFile(Path imagePath) {
+        final String fileName = imagePath.getFileName().toString();
+        if(cacheDirectory == null)
+            return imagePath.resolveSibling(fileName + EXTENSION);
+        // different image files with the same name must not share a cache file
+        return cacheDirectory.resolve(fileName + "." + CacheFiles.digest(imagePath.toAbsolutePath().toUri().toString()) + EXTENSION);
+    }
+
+    /**
+     * Reads the cached texels of an image file.
+     *
+     * @param imagePath path of the image file
+     * @param maxSize   largest width and height the texels were scaled down to
+     * @return the texels, or nothing if there is no valid cache file
+     * @throws IOException if the cache file exists but cannot be read
+     */
+    public Optional<Texels> read(Path imagePath, int maxSize) throws IOException {
+        final Path cacheFile = getCacheFile(imagePath);
+        if(!Files.isRegularFile(cacheFile))
+            return Optional.empty();
+
+        try(FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            final ByteBuffer prefix = readFully(channel, 0, PREFIX_SIZE);
+            if(prefix.getInt() != MAGIC || prefix.getInt() != VERSION)
+                return Optional.empty();
+            final int headerSize = prefix.getInt();
+            if(headerSize < PREFIX_SIZE || headerSize > channel.size())
+                return Optional.empty();
+            if(!isCurrent(imagePath, prefix.getLong(), prefix.getLong()) || prefix.getInt() != maxSize)
+                return Optional.empty();
+            final int width = prefix.getInt();
+            final int height = prefix.getInt();
+            final int levelCount = prefix.getInt();
+            final int flags = prefix.getInt();
+            if(width < 1 || height < 1 || levelCount != getLevelCount(width, height))
+                return Optional.empty();
+            final int components = ((flags & HAS_ALPHA) != 0) ? 4 : 3;
+
+            final ByteBuffer header = readFully(channel, 0, headerSize);
+            header.position(PREFIX_SIZE);
+
+            // a single mapping covers the whole file unless it is too large for one
+            final long fileSize = channel.size();
+            final ByteBuffer mapped = (fileSize <= Integer.MAX_VALUE)
+                                      ? channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize)
+                                      : null;
+            final ByteBuffer[] levels = new ByteBuffer[levelCount];
+            int levelWidth = width, levelHeight = height;
+            for(int i = 0; i < levelCount; i++) {
+                final long offset = header.getLong();
+                final long length = (long) levelWidth * levelHeight * components;
+                if(offset < headerSize || offset + length > fileSize)
+                    return Optional.empty();
+                levels[i] = region(channel, mapped, offset, length);
+                levelWidth = Math.max(1, levelWidth / 2);
+                levelHeight = Math.max(1, levelHeight / 2);
+            }
+            return Optional.of(new Texels(width, height, components == 4, levels));
+        } catch(BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            // truncated or otherwise malformed cache file, it will be rewritten
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Writes the texels of a decoded image, and of its mipmap levels, to the cache file of the image
+     * file, replacing any previous one.
+     *
+     * @param imagePath path of the image file
+     * @param maxSize   largest width and height the image was scaled down to
+     * @param image     the decoded image, already scaled down
+     * @return the texels, read back from the cache file
+     * @throws IOException if the cache file cannot be written
+     */
+    public Texels write(Path imagePath, int maxSize, BufferedImage image) throws IOException {
+        final Path cacheFile = getCacheFile(imagePath);
+        if(cacheDirectory != null)
+            Files.createDirectories(cacheDirectory);
+
+        final int width = image.getWidth(), height = image.getHeight();
+        final boolean alpha = image.getColorModel().hasAlpha();
+        final int components = alpha ? 4 : 3;
+        final int levelCount = getLevelCount(width, height);
+        final int headerSize = PREFIX_SIZE + 8 * levelCount;
+
+        final ByteBuffer header = ByteBuffer.allocate(headerSize).order(ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(headerSize);
+        header.putLong(Files.size(imagePath)).putLong(Files.getLastModifiedTime(imagePath).toMillis());
+        header.putInt(maxSize).putInt(width).putInt(height).putInt(levelCount).putInt(alpha ? HAS_ALPHA : 0);
+        long offset = headerSize;
+        int levelWidth = width, levelHeight = height;
+        for(int i = 0; i < levelCount; i++) {
+            header.putLong(offset);
+            offset += (long) levelWidth * levelHeight * components;
+            levelWidth = Math.max(1, levelWidth / 2);
+            levelHeight = Math.max(1, levelHeight / 2);
+        }
+        header.rewind();
+
+        // write to a temporary file first, so that a reader never sees a partial cache file
+        CacheFiles.replace(cacheFile, tempFile -> {
+            try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                                                                 StandardOpenOption.TRUNCATE_EXISTING,
+                                                                 StandardOpenOption.WRITE)) {
+                writeFully(channel, header);
+                writeLevels(channel, image, components, levelCount);
+            }
+        });
+
+        return read(imagePath, maxSize).orElseThrow(() -> new IOException("Cannot read back " + cacheFile));
+    }
+
+    /**
+     * Writes the cache files of the given image files that have no valid one yet, decoding them on
+     * the calling thread. Images that cannot be decoded are logged and skipped.
+     *
+     * @param imagePaths paths of the image files
+     * @param maxSize    largest width and height of a texture, larger images are scaled down
+     * @return number of cache files written
+     * @throws IOException if a cache file cannot be written
+     */
+    public int prewarm(Collection<Path> imagePaths, int maxSize) throws IOException {
+        int written = 0;
+        for(Path imagePath : imagePaths) {
+            if(read(imagePath, maxSize).isPresent())
+                continue;
+            final BufferedImage image;
+            try {
+                image = ImageIO.read(imagePath.toUri().toURL());
+            } catch(IOException e) {
+                Logging.logger().log(Level.WARNING, "Cannot decode texture " + imagePath, e);
+                continue;
+            }
+            if(image == null) {
+                Logging.logger().warning("Unsupported texture image format: " + imagePath);
+                continue;
+            }
+            write(imagePath, maxSize, TextureManager.scaleDown(image, maxSize));
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * @return number of mipmap levels of an image, down to 1 x 1
+     */
+    private static int getLevelCount(int width, int height) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+    }
+
+    /**
+     * @return the texels of an image, rows top to bottom, RGB or RGBA
+     */
+    private static byte[] getTexels(BufferedImage image, int components) {
+        final int width = image.getWidth(), height = image.getHeight();
+        final byte[] texels = new byte[width * height * components];
+        final int[] row = new int[width];
+        int i = 0;
+        for(int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for(int argb : row) {
+                texels[i++] = (byte) (argb >> 16);
+                texels[i++] = (byte) (argb >> 8);
+                texels[i++] = (byte) argb;
+                if(components == 4)
+                    texels[i++] = (byte) (argb >>> 24);
+            }
+        }
+        return texels;
+    }
+
+    /**
+     * @return the next mipmap level, each texel the average of a 2 x 2 box of the given level
+     */
+    private static byte[] halve(byte[] texels, int width, int height, int components) {
+        final int halfWidth = Math.max(1, width / 2), halfHeight = Math.max(1, height / 2);
+        final byte[] half = new byte[halfWidth * halfHeight * components];
+        int i = 0;
+        for(int y = 0; y < halfHeight; y++) {
+            final int row0 = Math.min(2 * y, height - 1) * width;
+            final int row1 = Math.min(2 * y + 1, height - 1) * width;
+            for(int x = 0; x < halfWidth; x++) {
+                final int x0 = Math.min(2 * x, width - 1);
+                final int x1 = Math.min(2 * x + 1, width - 1);
+                for(int c = 0; c < components; c++) {
+                    final int sum = (texels[(row0 + x0) * components + c] & 0xFF)
+                                    + (texels[(row0 + x1) * components + c] & 0xFF)
+                                    + (texels[(row1 + x0) * components + c] & 0xFF)
+                                    + (texels[(row1 + x1) * components + c] & 0xFF);
+                    half[i++] = (byte) ((sum + 2) >> 2);
+                }
+            }
+        }
+        return half;
+    }
+
+    private static boolean isCurrent(Path file, long size, long modified) throws IOException {
+        return Files.isRegularFile(file)
+               && Files.size(file) == size
+               && Files.getLastModifiedTime(file).toMillis() == modified;
+    }
+
+    /**
+     * @return a view of part of the cache file
+     */
+    private static ByteBuffer region(FileChannel channel, ByteBuffer mapped, long offset, long length) throws IOException {
+        if(mapped == null)
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        final ByteBuffer region = mapped.duplicate();
+        region.position((int) offset);
+        region.limit((int) (offset + length));
+        return region.slice();
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ORDER);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new BufferUnderflowException();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the texels of the image and of its smaller mipmap levels. Each level is built from the
+     * previous one, only two are on the heap at a time.
+     */
+    private static void writeLevels(FileChannel channel, BufferedImage image, int components, int levelCount) throws IOException {
+        byte[] level = getTexels(image, components);
+        int levelWidth = image.getWidth(), levelHeight = image.getHeight();
+        for(int i = 0; i < levelCount; i++) {
+            writeFully(channel, ByteBuffer.wrap(level));
+            if(i + 1 < levelCount) {
+                level = halve(level, levelWidth, levelHeight, components);
+                levelWidth = Math.max(1, levelWidth / 2);
+                levelHeight = Math.max(1, levelHeight / 2);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}
@@ -0,0 +1,561 @@
+package com.hmorgan.gfx;
+
+import com.jogamp.opengl.util.texture.TextureIO;
+import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
+import gov.nasa.worldwind.render.DrawContext;
+import gov.nasa.worldwind.util.Logging;
+
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL;
+import javax.media.opengl.GLContext;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+/**
+ * Decodes the texture images of meshes in the background and keeps them, and their GL textures,
+ * within memory budgets.
+ * <p>
+ * {@link #request(Path)} returns at once with the {@link Texture} of an image file, and starts
+ * decoding it on the decode executor if it is not decoded yet. A texture does not
+ * {@link Texture#bind bind} until its image is decoded, so meshes render untextured meanwhile. Images
+ * larger than the maximum size are scaled down as they are decoded.
+ * <p>
+ * The decoded images are kept on the heap to upload them to each GL context that draws them. Once
+ * they exceed the heap budget, the least recently used images are dropped, to be decoded again if a
+ * GL context still needs them. Likewise, once the GL textures of all contexts exceed the GPU budget,
+ * the least recently bound ones are deleted. GL textures can only be deleted on a thread where their
+ * context is current, so they are queued and deleted by {@link #processPendingDeletions} with their
+ * context.
+ * <p>
+ * With a {@link TextureDiskCache}, an image is read from its cache file instead of being decoded if
+ * the file is valid, and written to it once decoded otherwise. The texels of a cache file are
+ * memory-mapped, mipmap levels included, and count against the heap budget like a decoded image.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class TextureManager {
+
+    public static final long DEFAULT_HEAP_BUDGET = 256L * 1024 * 1024;
+    public static final long DEFAULT_GPU_BUDGET = 512L * 1024 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    private static final TextureManager SHARED = new TextureManager(
+            Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+                final Thread thread = new Thread(runnable, "TextureManager.decode");
+                thread.setDaemon(true);
+                return thread;
+            }),
+            DEFAULT_HEAP_BUDGET, DEFAULT_GPU_BUDGET, DEFAULT_MAX_SIZE);
+
+    private final Executor decodeExecutor;
+    private final long heapBudget;
+    private final long gpuBudget;
+    private final int maxSize;
+    private volatile TextureDiskCache diskCache;        // null if images are not cached on disk
+
+    // all guarded by this
+    private final Map<Path, Texture> textures = new HashMap<>();
+    private final LinkedHashMap<Texture, Boolean> decodedImages = new LinkedHashMap<>(16, 0.75f, true);  // least recently used first
+    private final LinkedHashMap<GlTexture, Boolean> glTextures = new LinkedHashMap<>(16, 0.75f, true);   // least recently bound first
+    private final Map<GLContext, List<com.jogamp.opengl.util.texture.Texture>> pendingDeletions = new HashMap<>();
+    private long heapBytes;
+    private long gpuBytes;
+    private long decodes;
+    private long diskReads;
+    private long imageEvictions;
+    private long glEvictions;
+
+    /**
+     * Told about a texture image once it is decoded, or read from the disk cache, for load metrics.
+     * It is called on the decode executor's thread, so it must be thread-safe.
+     */
+    @FunctionalInterface
+    public interface DecodeListener {
+
+        /**
+         * @param path   path of the texture image
+         * @param width  width of the image, as kept after scaling it down
+         * @param height height of the image, as kept after scaling it down
+         * @param bytes  bytes of the image as kept, mipmap levels included if read from the disk cache
+         * @param nanos  time spent decoding or reading in nanoseconds
+         */
+        void textureDecoded(Path path, int width, int height, long bytes, long nanos);
+    }
+
+    /**
+     * The texture of an image file. There is a single texture per file and manager, shared by all
+     * meshes using the file.
+     */
+    public final class Texture {
+
+        private final Path path;
+        // guarded by the manager
+        private BufferedImage image;        // null until decoded, or once evicted
+        private TextureDiskCache.Texels texels;     // instead of the image if read from the disk cache
+        private long imageBytes;
+        private boolean decoding;
+        private boolean failed;             // the file cannot be decoded, it is not tried again
+        private final Map<GLContext, GlTexture> contextTextures = new HashMap<>(2);
+
+        private Texture(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * @return path of the image file
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return true if the image is decoded and can be bound
+         */
+        public boolean isReady() {
+            synchronized(TextureManager.this) {
+                return image != null || texels != null || !contextTextures.isEmpty();
+            }
+        }
+
+        /**
+         * @return true if the image file could not be decoded
+         */
+        public boolean isFailed() {
+            synchronized(TextureManager.this) {
+                return failed;
+            }
+        }
+
+        /**
+         * Binds the GL texture in the current GL context, uploading the decoded image if the context
+         * has no GL texture yet. Must be called on the rendering thread.
+         *
+         * @param dc the current draw context
+         * @return true if the texture is bound, false if its image is not decoded (yet)
+         */
+        public boolean bind(DrawContext dc) {
+            final GL gl = dc.getGL();
+            final GLContext context = dc.getGLContext();
+            final com.jogamp.opengl.util.texture.Texture resident;
+            final BufferedImage upload;
+            final TextureDiskCache.Texels uploadTexels;
+            synchronized(TextureManager.this) {
+                final GlTexture glTexture = contextTextures.get(context);
+                if(glTexture != null)
+                    glTextures.get(glTexture);      // most recently bound
+                else if(image != null || texels != null)
+                    decodedImages.get(this);        // most recently used
+                resident = (glTexture != null) ? glTexture.texture : null;
+                upload = image;
+                uploadTexels = texels;
+                if(resident == null && upload == null && uploadTexels == null) {
+                    if(decoding || failed)
+                        return false;
+                    decoding = true;                // evicted while a context still needs it
+                }
+            }
+            if(resident != null) {
+                // only deleted on this thread, so still valid even if it has been evicted meanwhile
+                resident.bind(gl);
+                return true;
+            }
+            if(upload == null && uploadTexels == null) {
+                startDecode(this, null);
+                return false;
+            }
+
+            final com.jogamp.opengl.util.texture.Texture texture = (uploadTexels != null)
+                    ? TextureIO.newTexture(uploadTexels.toTextureData(gl.getGLProfile()))
+                    : AWTTextureIO.newTexture(gl.getGLProfile(), upload, true);
+            texture.setTexParameteri(gl, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR_MIPMAP_LINEAR);
+            texture.setTexParameteri(gl, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+            texture.setTexParameteri(gl, GL.GL_TEXTURE_WRAP_S, GL.GL_REPEAT);
+            texture.setTexParameteri(gl, GL.GL_TEXTURE_WRAP_T, GL.GL_REPEAT);
+            synchronized(TextureManager.this) {
+                final GlTexture glTexture = new GlTexture(this, context, texture);
+                contextTextures.put(context, glTexture);
+                glTextures.put(glTexture, Boolean.TRUE);
+                gpuBytes += glTexture.bytes;
+                evictGlTextures(glTexture);
+            }
+            processPendingDeletions(gl, context);
+            texture.bind(gl);
+            return true;
+        }
+    }
+
+    /**
+     * The GL texture of a {@link Texture} in one GL context.
+     */
+    private static final class GlTexture {
+        private final Texture owner;
+        private final GLContext context;
+        private final com.jogamp.opengl.util.texture.Texture texture;
+        private final long bytes;
+
+        private GlTexture(Texture owner, GLContext context, com.jogamp.opengl.util.texture.Texture texture) {
+            this.owner = owner;
+            this.context = context;
+            this.texture = texture;
+            this.bytes = texture.getEstimatedMemorySize();
+        }
+    }
+
+    /**
+     * Counters of a manager at one point in time.
+     */
+    public static final class Stats {
+
+        private final int textures;
+        private final int decodedImages;
+        private final int glTextures;
+        private final long heapBytes;
+        private final long gpuBytes;
+        private final long decodes;
+        private final long diskReads;
+        private final long imageEvictions;
+        private final long glEvictions;
+
+        private Stats(int textures, int decodedImages, int glTextures, long heapBytes, long gpuBytes,
+                      long decodes, long diskReads, long imageEvictions, long glEvictions) {
+            this.textures = textures;
+            this.decodedImages = decodedImages;
+            this.glTextures = glTextures;
+            this.heapBytes = heapBytes;
+            this.gpuBytes = gpuBytes;
+            this.decodes = decodes;
+            this.diskReads = diskReads;
+            this.imageEvictions = imageEvictions;
+            this.glEvictions = glEvictions;
+        }
+
+        /**
+         * @return textures requested so far
+         */
+        public int getTextures() {
+            return textures;
+        }
+
+        /**
+         * @return decoded images on the heap
+         */
+        public int getDecodedImages() {
+            return decodedImages;
+        }
+
+        /**
+         * @return GL textures in all contexts
+         */
+        public int getGlTextures() {
+            return glTextures;
+        }
+
+        /**
+         * @return bytes of the decoded images on the heap
+         */
+        public long getHeapBytes() {
+            return heapBytes;
+        }
+
+        /**
+         * @return estimated bytes of the GL textures, mipmaps included
+         */
+        public long getGpuBytes() {
+            return gpuBytes;
+        }
+
+        /**
+         * @return images decoded so far, again after an eviction included
+         */
+        public long getDecodes() {
+            return decodes;
+        }
+
+        /**
+         * @return images read from the disk cache instead of being decoded
+         */
+        public long getDiskReads() {
+            return diskReads;
+        }
+
+        /**
+         * @return decoded images dropped to stay within the heap budget
+         */
+        public long getImageEvictions() {
+            return imageEvictions;
+        }
+
+        /**
+         * @return GL textures deleted to stay within the GPU budget
+         */
+        public long getGlEvictions() {
+            return glEvictions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("TextureManager[textures=%d, images=%d (%d bytes), glTextures=%d (%d bytes), decodes=%d, diskReads=%d, evictions=%d/%d]",
+                                 textures, decodedImages, heapBytes, glTextures, gpuBytes, decodes, diskReads, imageEvictions, glEvictions);
+        }
+    }
+
+    /**
+     * @param decodeExecutor executor to decode images on
+     * @param heapBudget     bytes of decoded images to keep on the heap
+     * @param gpuBudget      bytes of GL textures to keep, in all GL contexts together
+     * @param maxSize        largest width and height of a texture, larger images are scaled down
+     */
+    public TextureManager(Executor decodeExecutor, long heapBudget, long gpuBudget, int maxSize) {
+        if(heapBudget < 0 || gpuBudget < 0)
+            throw new IllegalArgumentException("budgets cannot be negative: " + heapBudget + ", " + gpuBudget);
+        if(maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        this.decodeExecutor = decodeExecutor;
+        this.heapBudget = heapBudget;
+        this.gpuBudget = gpuBudget;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the process-wide manager, decoding on a pool of daemon threads
+     */
+    public static TextureManager getShared() {
+        return SHARED;
+    }
+
+    /**
+     * @param diskCache cache to read decoded images from and write them to, or null to always decode
+     */
+    public void setDiskCache(TextureDiskCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    /**
+     * @return the disk cache of decoded images, or null if images are always decoded
+     */
+    public TextureDiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Gets the texture of an image file, and starts decoding the image if it is not decoded yet.
+     *
+     * @param imagePath path of the image file
+     * @return the texture
+     */
+    public Texture request(Path imagePath) {
+        return request(imagePath, null);
+    }
+
+    /**
+     * Gets the texture of an image file, and starts decoding the image if it is not decoded yet.
+     *
+     * @param imagePath path of the image file
+     * @param listener  told about the image once this request has decoded it, may be null
+     * @return the texture
+     */
+    public Texture request(Path imagePath, DecodeListener listener) {
+        final Texture texture;
+        synchronized(this) {
+            // meshes ask every frame, mostly with the normalized path already
+            final Texture known = textures.get(imagePath);
+            texture = (known != null) ? known : textures.computeIfAbsent(imagePath.toAbsolutePath().normalize(), Texture::new);
+            if(texture.image != null || texture.texels != null || texture.decoding || texture.failed || !texture.contextTextures.isEmpty())
+                return texture;
+            texture.decoding = true;
+        }
+        startDecode(texture, listener);
+        return texture;
+    }
+
+    /**
+     * Decodes the image of a texture on the decode executor. The caller has marked the texture as
+     * decoding, so that it is decoded once.
+     */
+    private void startDecode(Texture texture, DecodeListener listener) {
+        try {
+            decodeExecutor.execute(() -> decode(texture, listener));
+        } catch(RejectedExecutionException e) {
+            synchronized(this) {
+                texture.decoding = false;       // try again on the next bind
+            }
+        }
+    }
+
+    private void decode(Texture texture, DecodeListener listener) {
+        final TextureDiskCache diskCache = this.diskCache;
+        final long start = System.nanoTime();
+        BufferedImage image = null;
+        TextureDiskCache.Texels texels = null;
+        boolean decoded = false;
+        try {
+            if(diskCache != null)
+                texels = diskCache.read(texture.path, maxSize).orElse(null);
+            if(texels == null) {
+                image = ImageIO.read(texture.path.toUri().toURL());
+                if(image != null)
+                    image = scaleDown(image, maxSize);
+                else
+                    Logging.logger().warning("Unsupported texture image format: " + texture.path);
+                decoded = image != null;
+            }
+        } catch(IOException | RuntimeException e) {
+            Logging.logger().log(Level.WARNING, "Cannot decode texture " + texture.path, e);
+        }
+        if(image != null && diskCache != null) {
+            try {
+                // upload the mipmap levels of the cache file, they are not generated again then
+                texels = diskCache.write(texture.path, maxSize, image);
+                image = null;
+            } catch(IOException | RuntimeException e) {
+                Logging.logger().log(Level.WARNING, "Cannot write texture cache file of " + texture.path, e);
+            }
+        }
+        final long bytes = (texels != null) ? texels.getBytes() : (image != null) ? getImageBytes(image) : 0;
+        if(listener != null && bytes != 0) {
+            listener.textureDecoded(texture.path, (texels != null) ? texels.getWidth() : image.getWidth(),
+                                    (texels != null) ? texels.getHeight() : image.getHeight(), bytes, System.nanoTime() - start);
+        }
+
+        synchronized(this) {
+            texture.decoding = false;
+            if(bytes == 0) {
+                texture.failed = true;
+                return;
+            }
+            if(decoded)
+                decodes++;
+            else
+                diskReads++;
+            texture.image = image;
+            texture.texels = texels;
+            texture.imageBytes = bytes;
+            heapBytes += bytes;
+            decodedImages.put(texture, Boolean.TRUE);
+            evictImages(texture);
+        }
+    }
+
+    private static long getImageBytes(BufferedImage image) {
+        final DataBuffer data = image.getRaster().getDataBuffer();
+        return (long) data.getSize() * data.getNumBanks() * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+    }
+
+    /**
+     * Scales an image down so that neither side is larger than a maximum size, in steps of at most
+     * half, so that every pixel contributes to the result.
+     *
+     * @param image   the image
+     * @param maxSize largest width and height
+     * @return the image itself if it is small enough, else a scaled down copy
+     */
+    static BufferedImage scaleDown(BufferedImage image, int maxSize) {
+        final int width = image.getWidth(), height = image.getHeight();
+        if(width <= maxSize && height <= maxSize)
+            return image;
+        final double scale = (double) maxSize / Math.max(width, height);
+        final int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        final int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        final int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage scaled = image;
+        int w = width, h = height;
+        do {
+            w = Math.max(targetWidth, w / 2);
+            h = Math.max(targetHeight, h / 2);
+            final BufferedImage step = new BufferedImage(w, h, type);
+            final Graphics2D g = step.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(scaled, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            scaled = step;
+        } while(w != targetWidth || h != targetHeight);
+        return scaled;
+    }
+
+    /**
+     * Drops the least recently used images until the heap budget is met, but never the given one,
+     * which would otherwise be decoded again and again.
+     */
+    private void evictImages(Texture keep) {
+        final Iterator<Texture> eldest = decodedImages.keySet().iterator();
+        while(heapBytes > heapBudget && eldest.hasNext()) {
+            final Texture texture = eldest.next();
+            if(texture == keep)
+                continue;
+            eldest.remove();
+            heapBytes -= texture.imageBytes;
+            texture.image = null;
+            texture.texels = null;
+            texture.imageBytes = 0;
+            imageEvictions++;
+        }
+    }
+
+    /**
+     * Deletes the least recently bound GL textures until the GPU budget is met, but never the given
+     * one, which is about to be bound.
+     */
+    private void evictGlTextures(GlTexture keep) {
+        final Iterator<GlTexture> eldest = glTextures.keySet().iterator();
+        while(gpuBytes > gpuBudget && eldest.hasNext()) {
+            final GlTexture glTexture = eldest.next();
+            if(glTexture == keep)
+                continue;
+            eldest.remove();
+            glTexture.owner.contextTextures.remove(glTexture.context);
+            gpuBytes -= glTexture.bytes;
+            glEvictions++;
+            pendingDeletions.computeIfAbsent(glTexture.context, context -> new ArrayList<>()).add(glTexture.texture);
+        }
+    }
+
+    /**
+     * Deletes the evicted GL textures of the current GL context. Must be called on the rendering
+     * thread, once per frame.
+     *
+     * @param dc the current draw context
+     */
+    public void processPendingDeletions(DrawContext dc) {
+        processPendingDeletions(dc.getGL(), dc.getGLContext());
+    }
+
+    private void processPendingDeletions(GL gl, GLContext context) {
+        final List<com.jogamp.opengl.util.texture.Texture> pending;
+        synchronized(this) {
+            if(pendingDeletions.isEmpty())
+                return;
+            pending = pendingDeletions.remove(context);
+        }
+        if(pending != null)
+            pending.forEach(texture -> texture.destroy(gl));
+    }
+
+    /**
+     * @return the counters of this manager
+     */
+    public synchronized Stats getStats() {
+        return new Stats(textures.size(), decodedImages.size(), glTextures.size(), heapBytes, gpuBytes,
+                         decodes, diskReads, imageEvictions, glEvictions);
+    }
+}
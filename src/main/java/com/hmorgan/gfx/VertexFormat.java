@@ -0,0 +1,478 @@
+package com.hmorgan.gfx;
+
+import com.hmorgan.util.HalfFloat;
+import com.jogamp.common.nio.Buffers;
+
+import javax.media.opengl.GL;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Objects;
+
+/**
+ * How the vertices of a {@link Mesh} are stored in its VBO. The mesh always keeps its vertex data as
+ * floats (see {@link Mesh#getVertexData()}); a format other than {@link #FLOAT} only changes the copy
+ * that is uploaded to the GPU, which is encoded once when the mesh is built.
+ * <p>
+ * All encodings can be drawn by the fixed function pipeline of {@code ObjModel}:
+ * <ul>
+ *     <li>{@link PositionEncoding#SHORT} positions are 16 bit integers on a uniform grid over the mesh
+ *     bounds, the modelview matrix maps them back (see {@link Mesh#getPositionTransform()}). The
+ *     grid is uniform so that normals are not skewed. The error is at most half a grid step,
+ *     the largest extent of the mesh / 131070.</li>
+ *     <li>{@link NormalEncoding#BYTE} and {@link NormalEncoding#SHORT} normals are signed
+ *     normalized integers, which GL converts to floats itself; {@code GL_NORMALIZE} makes up for the
+ *     rounding of their length. BYTE normals are packed into one int, with an error of up to about
+ *     0.5 degrees.</li>
+ *     <li>{@link TexCoordEncoding#SHORT} texture coordinates are 16 bit integers over the texture
+ *     coordinate bounds of the mesh, the texture matrix maps them back (see
+ *     {@link Mesh#getTexCoordTransform()}). {@link TexCoordEncoding#HALF_FLOAT} needs OpenGL 3.0 or
+ *     {@code GL_ARB_half_float_vertex}, and its error grows with the magnitude of the coordinates.</li>
+ * </ul>
+ * Octahedral normals would need a vertex shader to decode them, so they are not offered. Every
+ * attribute is padded to a multiple of 4 bytes. {@link #COMPACT} halves the size of a vertex: 16
+ * instead of 32 bytes with normals and texture coordinates. {@link #measureError(Mesh)} reports the
+ * actual error of an encoded mesh.
+ * <p>
+ * Formats are immutable.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class VertexFormat {
+
+    public enum PositionEncoding {
+        FLOAT(12, GL.GL_FLOAT),
+        SHORT(8, GL.GL_SHORT);          // 3 shorts and a pad
+
+        private final int bytes;
+        private final int glType;
+
+        PositionEncoding(int bytes, int glType) {
+            this.bytes = bytes;
+            this.glType = glType;
+        }
+
+        /**
+         * @return bytes per vertex
+         */
+        public int getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the GL type of the components, for {@code glVertexPointer}
+         */
+        public int getGlType() {
+            return glType;
+        }
+    }
+
+    public enum NormalEncoding {
+        FLOAT(12, GL.GL_FLOAT),
+        SHORT(8, GL.GL_SHORT),          // 3 shorts and a pad
+        BYTE(4, GL.GL_BYTE);            // 3 bytes and a pad
+
+        private final int bytes;
+        private final int glType;
+
+        NormalEncoding(int bytes, int glType) {
+            this.bytes = bytes;
+            this.glType = glType;
+        }
+
+        /**
+         * @return bytes per vertex
+         */
+        public int getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the GL type of the components, for {@code glNormalPointer}
+         */
+        public int getGlType() {
+            return glType;
+        }
+    }
+
+    public enum TexCoordEncoding {
+        FLOAT(8, GL.GL_FLOAT),
+        HALF_FLOAT(4, GL.GL_HALF_FLOAT),
+        SHORT(4, GL.GL_SHORT);
+
+        private final int bytes;
+        private final int glType;
+
+        TexCoordEncoding(int bytes, int glType) {
+            this.bytes = bytes;
+            this.glType = glType;
+        }
+
+        /**
+         * @return bytes per vertex
+         */
+        public int getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the GL type of the components, for {@code glTexCoordPointer}
+         */
+        public int getGlType() {
+            return glType;
+        }
+    }
+
+    /**
+     * Floats for every attribute, the VBO is the mesh's vertex data itself.
+     */
+    public static final VertexFormat FLOAT = new VertexFormat(PositionEncoding.FLOAT, NormalEncoding.FLOAT, TexCoordEncoding.FLOAT);
+
+    /**
+     * 16 bit positions, byte normals and 16 bit texture coordinates; half the size of {@link #FLOAT}.
+     */
+    public static final VertexFormat COMPACT = new VertexFormat(PositionEncoding.SHORT, NormalEncoding.BYTE, TexCoordEncoding.SHORT);
+
+    private static final int SHORT_STEPS = 65535;       // steps of a 16 bit grid
+    private static final int SHORT_BIAS = 32768;        // grid step 0 is stored as Short.MIN_VALUE
+
+    private final PositionEncoding positionEncoding;
+    private final NormalEncoding normalEncoding;
+    private final TexCoordEncoding texCoordEncoding;
+
+    public VertexFormat(PositionEncoding positionEncoding, NormalEncoding normalEncoding, TexCoordEncoding texCoordEncoding) {
+        this.positionEncoding = Objects.requireNonNull(positionEncoding);
+        this.normalEncoding = Objects.requireNonNull(normalEncoding);
+        this.texCoordEncoding = Objects.requireNonNull(texCoordEncoding);
+    }
+
+    public PositionEncoding getPositionEncoding() {
+        return positionEncoding;
+    }
+
+    public NormalEncoding getNormalEncoding() {
+        return normalEncoding;
+    }
+
+    public TexCoordEncoding getTexCoordEncoding() {
+        return texCoordEncoding;
+    }
+
+    /**
+     * @return true if every attribute is stored as floats
+     */
+    public boolean isFloat() {
+        return positionEncoding == PositionEncoding.FLOAT && normalEncoding == NormalEncoding.FLOAT
+            && texCoordEncoding == TexCoordEncoding.FLOAT;
+    }
+
+    /**
+     * @return bytes per vertex of a mesh with the given attributes
+     */
+    public int getStride(boolean hasNormals, boolean hasTexCoords) {
+        return positionEncoding.bytes + (hasNormals ? normalEncoding.bytes : 0) + (hasTexCoords ? texCoordEncoding.bytes : 0);
+    }
+
+    /**
+     * @return byte offset of the normal within a vertex
+     */
+    public int getNormalOffset() {
+        return positionEncoding.bytes;
+    }
+
+    /**
+     * @return byte offset of the texture coordinate within a vertex of a mesh with or without normals
+     */
+    public int getTexCoordOffset(boolean hasNormals) {
+        return positionEncoding.bytes + (hasNormals ? normalEncoding.bytes : 0);
+    }
+
+    /**
+     * Vertex data encoded for the GPU, and the transforms that map the stored positions and texture
+     * coordinates back to the original ones.
+     */
+    static final class Encoded {
+        final ByteBuffer data;
+        final float[] positionTransform;    // offset x/y/z, scale
+        final float[] texCoordTransform;    // offset u/v, scale u/v
+
+        Encoded(ByteBuffer data, float[] positionTransform, float[] texCoordTransform) {
+            this.data = data;
+            this.positionTransform = positionTransform;
+            this.texCoordTransform = texCoordTransform;
+        }
+    }
+
+    /**
+     * Encodes interleaved float vertex data in this format.
+     *
+     * @param vertexData    x/y/z, then nx/ny/nz if there are normals, then u/v if there are texture
+     *                      coordinates, per vertex
+     * @param hasNormals    true if each vertex has a normal
+     * @param hasTexCoords  true if each vertex has a texture coordinate
+     * @return a direct buffer in native byte order, and the transforms to decode it
+     */
+    Encoded encode(FloatBuffer vertexData, boolean hasNormals, boolean hasTexCoords) {
+        final int floatStride = 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+        final int vertexCount = vertexData.limit() / floatStride;
+        final int texCoordFloat = hasNormals ? 6 : 3;
+
+        final float[] positionTransform = { 0.0f, 0.0f, 0.0f, 1.0f };
+        if(positionEncoding == PositionEncoding.SHORT && vertexCount > 0) {
+            // one grid step for all axes, so that the modelview scale is uniform
+            final float[] min = new float[3];
+            final float[] max = new float[3];
+            bounds(vertexData, floatStride, 0, 3, min, max);
+            final float extent = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+            final float step = (extent > 0.0f) ? extent / SHORT_STEPS : 1.0f;
+            for(int c = 0; c < 3; c++)
+                positionTransform[c] = min[c] + SHORT_BIAS * step;
+            positionTransform[3] = step;
+        }
+
+        final float[] texCoordTransform = { 0.0f, 0.0f, 1.0f, 1.0f };
+        if(hasTexCoords && texCoordEncoding == TexCoordEncoding.SHORT && vertexCount > 0) {
+            final float[] min = new float[2];
+            final float[] max = new float[2];
+            bounds(vertexData, floatStride, texCoordFloat, 2, min, max);
+            for(int c = 0; c < 2; c++) {
+                final float step = (max[c] > min[c]) ? (max[c] - min[c]) / SHORT_STEPS : 1.0f;
+                texCoordTransform[c] = min[c] + SHORT_BIAS * step;
+                texCoordTransform[2 + c] = step;
+            }
+        }
+
+        final ByteBuffer data = Buffers.newDirectByteBuffer(vertexCount * getStride(hasNormals, hasTexCoords));
+        for(int i = 0; i < vertexCount; i++) {
+            final int v = i * floatStride;
+            if(positionEncoding == PositionEncoding.FLOAT) {
+                data.putFloat(vertexData.get(v)).putFloat(vertexData.get(v + 1)).putFloat(vertexData.get(v + 2));
+            } else {
+                for(int c = 0; c < 3; c++)
+                    data.putShort(quantize(vertexData.get(v + c), positionTransform[c], positionTransform[3]));
+                data.putShort((short) 0);
+            }
+
+            if(hasNormals) {
+                switch(normalEncoding) {
+                    case FLOAT:
+                        data.putFloat(vertexData.get(v + 3)).putFloat(vertexData.get(v + 4)).putFloat(vertexData.get(v + 5));
+                        break;
+                    case SHORT:
+                        for(int c = 3; c < 6; c++)
+                            data.putShort((short) toSignedNormalized(vertexData.get(v + c), 16));
+                        data.putShort((short) 0);
+                        break;
+                    case BYTE:
+                        for(int c = 3; c < 6; c++)
+                            data.put((byte) toSignedNormalized(vertexData.get(v + c), 8));
+                        data.put((byte) 0);
+                        break;
+                }
+            }
+
+            if(hasTexCoords) {
+                final int t = v + texCoordFloat;
+                switch(texCoordEncoding) {
+                    case FLOAT:
+                        data.putFloat(vertexData.get(t)).putFloat(vertexData.get(t + 1));
+                        break;
+                    case HALF_FLOAT:
+                        data.putShort(HalfFloat.fromFloat(vertexData.get(t))).putShort(HalfFloat.fromFloat(vertexData.get(t + 1)));
+                        break;
+                    case SHORT:
+                        data.putShort(quantize(vertexData.get(t), texCoordTransform[0], texCoordTransform[2]));
+                        data.putShort(quantize(vertexData.get(t + 1), texCoordTransform[1], texCoordTransform[3]));
+                        break;
+                }
+            }
+        }
+        data.flip();
+        return new Encoded(data, positionTransform, texCoordTransform);
+    }
+
+    private static void bounds(FloatBuffer vertexData, int floatStride, int offset, int components, float[] min, float[] max) {
+        for(int c = 0; c < components; c++) {
+            min[c] = Float.POSITIVE_INFINITY;
+            max[c] = Float.NEGATIVE_INFINITY;
+        }
+        for(int v = offset; v < vertexData.limit(); v += floatStride) {
+            for(int c = 0; c < components; c++) {
+                min[c] = Math.min(min[c], vertexData.get(v + c));
+                max[c] = Math.max(max[c], vertexData.get(v + c));
+            }
+        }
+    }
+
+    /**
+     * @return the grid step nearest to {@code value}, on a grid where {@code offset} is step 0
+     */
+    private static short quantize(float value, float offset, float step) {
+        final long q = Math.round((value - offset) / (double) step);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    /**
+     * Converts a value in [-1, 1] to a signed normalized integer as GL 2 decodes them for normals:
+     * {@code (2c + 1) / (2^bits - 1)}.
+     */
+    private static int toSignedNormalized(float value, int bits) {
+        final int max = (1 << (bits - 1)) - 1;
+        final long c = Math.round((Math.max(-1.0f, Math.min(1.0f, value)) * ((1 << bits) - 1) - 1.0) / 2.0);
+        return (int) Math.max(-max - 1, Math.min(max, c));
+    }
+
+    private static float fromSignedNormalized(int c, int bits) {
+        return (2.0f * c + 1.0f) / ((1 << bits) - 1);
+    }
+
+    /**
+     * The largest errors of an encoded mesh, see {@link #measureError(Mesh)}.
+     */
+    public static final class QuantizationError {
+        private final double maxPositionError;
+        private final double maxNormalAngleError;
+        private final double maxTexCoordError;
+
+        QuantizationError(double maxPositionError, double maxNormalAngleError, double maxTexCoordError) {
+            this.maxPositionError = maxPositionError;
+            this.maxNormalAngleError = maxNormalAngleError;
+            this.maxTexCoordError = maxTexCoordError;
+        }
+
+        /**
+         * @return largest distance between a decoded and the original position, in model units
+         */
+        public double getMaxPositionError() {
+            return maxPositionError;
+        }
+
+        /**
+         * @return largest angle between a decoded and the original normal, in degrees
+         */
+        public double getMaxNormalAngleError() {
+            return maxNormalAngleError;
+        }
+
+        /**
+         * @return largest difference between a decoded and the original texture coordinate component
+         */
+        public double getMaxTexCoordError() {
+            return maxTexCoordError;
+        }
+
+        @Override
+        public String toString() {
+            return "position " + maxPositionError + ", normal " + maxNormalAngleError + " deg, tex coord " + maxTexCoordError;
+        }
+    }
+
+    /**
+     * Decodes the VBO data of a mesh the way GL does and compares it to the mesh's float vertex data.
+     *
+     * @param mesh a mesh
+     * @return the largest errors of the mesh's encoding, all 0 for {@link #FLOAT}
+     */
+    public static QuantizationError measureError(Mesh mesh) {
+        final VertexFormat format = mesh.getVertexFormat();
+        final ByteBuffer data = mesh.getEncodedVertexData();
+        if(data == null)
+            return new QuantizationError(0.0, 0.0, 0.0);
+
+        final FloatBuffer vertexData = mesh.getVertexData();
+        final boolean hasNormals = mesh.hasNormals();
+        final boolean hasTexCoords = mesh.hasTexCoords();
+        final int floatStride = mesh.getVertexStride();
+        final int stride = format.getStride(hasNormals, hasTexCoords);
+        final float[] positionTransform = mesh.getPositionTransform();
+        final float[] texCoordTransform = mesh.getTexCoordTransform();
+
+        double positionError = 0.0;
+        double normalError = 0.0;
+        double texCoordError = 0.0;
+        for(int i = 0; i < mesh.getVertexCount(); i++) {
+            final int v = i * floatStride;
+            final int b = i * stride;
+
+            double distance = 0.0;
+            for(int c = 0; c < 3; c++) {
+                final double decoded = (format.positionEncoding == PositionEncoding.FLOAT) ? data.getFloat(b + 4 * c)
+                        : positionTransform[c] + (double) positionTransform[3] * data.getShort(b + 2 * c);
+                distance += (decoded - vertexData.get(v + c)) * (decoded - vertexData.get(v + c));
+            }
+            positionError = Math.max(positionError, Math.sqrt(distance));
+
+            if(hasNormals) {
+                final int n = b + format.getNormalOffset();
+                final double[] decoded = new double[3];
+                for(int c = 0; c < 3; c++) {
+                    switch(format.normalEncoding) {
+                        case FLOAT:
+                            decoded[c] = data.getFloat(n + 4 * c);
+                            break;
+                        case SHORT:
+                            decoded[c] = fromSignedNormalized(data.getShort(n + 2 * c), 16);
+                            break;
+                        case BYTE:
+                            decoded[c] = fromSignedNormalized(data.get(n + c), 8);
+                            break;
+                    }
+                }
+                normalError = Math.max(normalError, angle(decoded, vertexData.get(v + 3), vertexData.get(v + 4), vertexData.get(v + 5)));
+            }
+
+            if(hasTexCoords) {
+                final int t = b + format.getTexCoordOffset(hasNormals);
+                for(int c = 0; c < 2; c++) {
+                    final double decoded;
+                    switch(format.texCoordEncoding) {
+                        case HALF_FLOAT:
+                            decoded = HalfFloat.toFloat(data.getShort(t + 2 * c));
+                            break;
+                        case SHORT:
+                            decoded = texCoordTransform[c] + (double) texCoordTransform[2 + c] * data.getShort(t + 2 * c);
+                            break;
+                        default:
+                            decoded = data.getFloat(t + 4 * c);
+                            break;
+                    }
+                    texCoordError = Math.max(texCoordError, Math.abs(decoded - vertexData.get(v + floatStride - 2 + c)));
+                }
+            }
+        }
+        return new QuantizationError(positionError, normalError, texCoordError);
+    }
+
+    /**
+     * @return angle between two directions in degrees, 0 if either has no length
+     */
+    private static double angle(double[] a, double bx, double by, double bz) {
+        final double lengths = Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]) * Math.sqrt(bx * bx + by * by + bz * bz);
+        if(lengths == 0.0)
+            return 0.0;
+        final double cos = (a[0] * bx + a[1] * by + a[2] * bz) / lengths;
+        return Math.toDegrees(Math.acos(Math.max(-1.0, Math.min(1.0, cos))));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(o == null || getClass() != o.getClass()) return false;
+
+        VertexFormat that = (VertexFormat) o;
+        return positionEncoding == that.positionEncoding && normalEncoding == that.normalEncoding
+            && texCoordEncoding == that.texCoordEncoding;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = positionEncoding.hashCode();
+        result = 31 * result + normalEncoding.hashCode();
+        result = 31 * result + texCoordEncoding.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "VertexFormat{" + positionEncoding + ", " + normalEncoding + ", " + texCoordEncoding + '}';
+    }
+}
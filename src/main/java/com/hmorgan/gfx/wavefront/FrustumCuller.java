@@ -0,0 +1,125 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshBounds;
+import com.hmorgan.util.IntList;
+import gov.nasa.worldwind.geom.Frustum;
+import gov.nasa.worldwind.geom.Matrix;
+import gov.nasa.worldwind.geom.Plane;
+import gov.nasa.worldwind.geom.Vec4;
+import gov.nasa.worldwind.render.DrawContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the bounds of meshes and their clusters against the view frustum, or the pick frustums
+ * while picking, in the model coordinates of a model: the frustums are transformed once per frame
+ * instead of every box.
+ *
+ * @author Hunter N. Morgan
+ */
+final class FrustumCuller {
+
+    private final List<double[]> frustums;     // 6 planes of 4 coefficients each, inside where positive
+    private final double eyeX;
+    private final double eyeY;
+    private final double eyeZ;
+
+    /**
+     * @param dc          the current draw context
+     * @param modelMatrix transforms model coordinates into the Cartesian coordinates of the globe
+     */
+    FrustumCuller(DrawContext dc, Matrix modelMatrix) {
+        // a plane transforms by the transpose of the matrix that transforms points the other way
+        final Matrix planeTransform = modelMatrix.getTranspose();
+        frustums = new ArrayList<>();
+        if(dc.isPickingMode()) {
+            for(Frustum frustum : dc.getPickFrustums())
+                frustums.add(toModelPlanes(frustum, planeTransform));
+        } else {
+            frustums.add(toModelPlanes(dc.getView().getFrustumInModelCoordinates(), planeTransform));
+        }
+        final Vec4 eye = dc.getView().getEyePoint().transformBy4(modelMatrix.getInverse());
+        eyeX = eye.getX();
+        eyeY = eye.getY();
+        eyeZ = eye.getZ();
+    }
+
+    private static double[] toModelPlanes(Frustum frustum, Matrix planeTransform) {
+        final Plane[] planes = frustum.getAllPlanes();
+        final double[] coefficients = new double[planes.length * 4];
+        for(int i = 0; i < planes.length; i++) {
+            final Vec4 plane = planes[i].getVector().transformBy4(planeTransform);
+            coefficients[i * 4] = plane.getX();
+            coefficients[i * 4 + 1] = plane.getY();
+            coefficients[i * 4 + 2] = plane.getZ();
+            coefficients[i * 4 + 3] = plane.getW();
+        }
+        return coefficients;
+    }
+
+    /**
+     * @param bounds     bounds of a mesh or cluster
+     * @param backFacing true if back faces are culled, so that ranges facing away are invisible
+     * @return true if the range may be visible
+     */
+    boolean isVisible(MeshBounds bounds, boolean backFacing) {
+        if(bounds.isEmpty())
+            return false;
+        if(backFacing && bounds.isBackFacing(eyeX, eyeY, eyeZ))
+            return false;
+        for(double[] planes : frustums) {
+            if(intersects(planes, bounds))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the box is entirely on the outside of any of the planes
+     */
+    private static boolean intersects(double[] planes, MeshBounds bounds) {
+        for(int i = 0; i < planes.length; i += 4) {
+            // the corner of the box farthest inside the plane
+            final double x = (planes[i] > 0) ? bounds.getMaxX() : bounds.getMinX();
+            final double y = (planes[i + 1] > 0) ? bounds.getMaxY() : bounds.getMinY();
+            final double z = (planes[i + 2] > 0) ? bounds.getMaxZ() : bounds.getMinZ();
+            if(planes[i] * x + planes[i + 1] * y + planes[i + 2] * z + planes[i + 3] < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Collects the ranges of a mesh to draw: nothing if the mesh is culled, else its visible
+     * clusters, adjacent ones merged, or all of it if it has no clusters.
+     *
+     * @param mesh       the mesh
+     * @param backFacing true if back faces are culled
+     * @param ranges     receives the first element and count of each range
+     */
+    void collectVisibleRanges(Mesh mesh, boolean backFacing, IntList ranges) {
+        ranges.clear();
+        final MeshBounds bounds = mesh.getBounds();
+        if(!isVisible(bounds, backFacing))
+            return;
+        final List<MeshBounds> clusters = mesh.getClusters();
+        if(clusters.isEmpty()) {
+            ranges.add(bounds.getFirst());
+            ranges.add(bounds.getCount());
+            return;
+        }
+        for(MeshBounds cluster : clusters) {
+            if(!isVisible(cluster, backFacing))
+                continue;
+            final int last = ranges.size() - 2;
+            if(last >= 0 && ranges.get(last) + ranges.get(last + 1) == cluster.getFirst()) {
+                ranges.set(last + 1, ranges.get(last + 1) + cluster.getCount());
+            } else {
+                ranges.add(cluster.getFirst());
+                ranges.add(cluster.getCount());
+            }
+        }
+    }
+}
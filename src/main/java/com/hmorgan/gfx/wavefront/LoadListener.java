@@ -0,0 +1,19 @@
+package com.hmorgan.gfx.wavefront;
+
+/**
+ * Receives the {@link LoadMetrics} of every load of an {@link ObjLoader}, e.g. to log slow loads or
+ * feed them to a monitoring system. See {@link ObjLoader#setLoadListener(LoadListener)}.
+ * <p>
+ * The listener is called on the loading thread once the load has succeeded or failed, so it should
+ * be quick, and it must be thread-safe if the loader is used by several threads. It must not throw.
+ *
+ * @author Hunter N. Morgan
+ */
+@FunctionalInterface
+public interface LoadListener {
+
+    /**
+     * @param metrics metrics of the finished load; check {@link LoadMetrics#getFailure()}
+     */
+    void loadFinished(LoadMetrics metrics);
+}
@@ -0,0 +1,260 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.TextureManager;
+
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What a single load of a .OBJ file did and where its time went, reported to a {@link LoadListener}.
+ * Metrics are only collected when the {@link ObjLoader} has a listener.
+ * <p>
+ * Phase durations are exclusive and add up to about the {@link #getTotalNanos() total}. Textures are
+ * decoded by the {@link TextureManager} on its own threads, concurrently with the load, so their
+ * decode time is reported apart from the phases, see {@link #getTextureDecodeNanos()}.
+ * <p>
+ * Metrics are filled in by the loading thread and must not be read before they are reported. The
+ * texture counters are the exception: they are updated by the decode threads, and grow after the
+ * report for textures that were still being decoded.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class LoadMetrics {
+
+    /**
+     * The phases of a load.
+     */
+    public enum Phase {
+        CACHE_READ,         // looking up and reading the mesh cache
+        IO,                 // waiting for reads of the .OBJ file (streaming loads only)
+        PARSE,              // tokenizing and parsing records; includes page faults for parallel loads
+        MATERIALS,          // reading .MTL files, or taking them from the material library cache
+        MESH_BUILD,         // building meshes from the parsed attributes and faces
+        TEXTURE_ATLAS,      // packing the diffuse texture maps into atlases, see TextureAtlasBuilder
+        MESH_MERGE,         // merging the meshes that draw the same way, see MeshMerger
+        CACHE_WRITE         // writing the mesh cache
+    }
+
+    private final Path filePath;
+    private final long startNanos;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private long totalNanos;
+    private boolean fromCache;
+    private Throwable failure;
+
+    private long bytesRead;
+    private long lines;
+    private long faces;
+    private int meshes;
+    private long vertices;
+    // updated by the decode threads
+    private final AtomicInteger texturesDecoded = new AtomicInteger();
+    private final AtomicLong decodedTextureBytes = new AtomicLong();
+    private final AtomicLong textureDecodeNanos = new AtomicLong();
+    private int peakScanBufferBytes;
+    private long peakVertexDataBytes;
+    private long peakIndexBytes;
+
+    LoadMetrics(Path filePath) {
+        this.filePath = filePath;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the .OBJ file that was loaded
+     */
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * @return wall time of the whole load in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @param phase a phase of the load
+     * @return time spent in the phase in nanoseconds
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return true if the meshes were read from the mesh cache instead of being parsed
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    /**
+     * @return the reason the load failed, or empty if it succeeded
+     */
+    public Optional<Throwable> getFailure() {
+        return Optional.ofNullable(failure);
+    }
+
+    /**
+     * @return number of bytes of the .OBJ file read
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return number of records (lines other than blank lines and comments) of the .OBJ file
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return number of faces in the built meshes, or of triangles for meshes read from the cache
+     */
+    public long getFaces() {
+        return faces;
+    }
+
+    /**
+     * @return number of meshes built or read from the cache
+     */
+    public int getMeshes() {
+        return meshes;
+    }
+
+    /**
+     * @return number of (deduplicated) vertices in all meshes
+     */
+    public long getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return number of textures decoded or read from the texture disk cache; textures already decoded
+     *         for other meshes are not counted
+     */
+    public int getTexturesDecoded() {
+        return texturesDecoded.get();
+    }
+
+    /**
+     * @return size of the decoded images of {@link #getTexturesDecoded()} in bytes, mipmap levels included
+     *         for those read from the texture disk cache
+     */
+    public long getDecodedTextureBytes() {
+        return decodedTextureBytes.get();
+    }
+
+    /**
+     * @return time the decode threads spent on the textures of {@link #getTexturesDecoded()} in
+     *         nanoseconds; it overlaps the phases of the load and is not part of the total
+     */
+    public long getTextureDecodeNanos() {
+        return textureDecodeNanos.get();
+    }
+
+    /**
+     * @return largest size of the scanner's read buffer in bytes, which grows for very long lines
+     */
+    public int getPeakScanBufferBytes() {
+        return peakScanBufferBytes;
+    }
+
+    /**
+     * @return size of the largest vertex data buffer of a mesh in bytes
+     */
+    public long getPeakVertexDataBytes() {
+        return peakVertexDataBytes;
+    }
+
+    /**
+     * @return size of the largest index buffer of a mesh in bytes
+     */
+    public long getPeakIndexBytes() {
+        return peakIndexBytes;
+    }
+
+    void addPhaseNanos(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()] += nanos;
+    }
+
+    /**
+     * Adds the time since {@code startNanos} to a phase.
+     *
+     * @return the current time, for timing the next phase
+     */
+    long endPhase(Phase phase, long startNanos) {
+        final long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - startNanos;
+        return now;
+    }
+
+    void addScanned(long bytes, long lines, int scanBufferBytes) {
+        bytesRead += bytes;
+        this.lines += lines;
+        peakScanBufferBytes = Math.max(peakScanBufferBytes, scanBufferBytes);
+    }
+
+    void addMesh(long faces, long vertices, long vertexDataBytes, long indexBytes) {
+        meshes++;
+        this.faces += faces;
+        this.vertices += vertices;
+        peakVertexDataBytes = Math.max(peakVertexDataBytes, vertexDataBytes);
+        peakIndexBytes = Math.max(peakIndexBytes, indexBytes);
+    }
+
+    void addCachedMeshes(Map<String, Mesh> cachedMeshes) {
+        fromCache = true;
+        for(Mesh mesh : cachedMeshes.values()) {
+            final long indexCount = mesh.getIndices().map(IntBuffer::limit).orElse(0);
+            addMesh(indexCount / 3, mesh.getVertexCount(), 4L * mesh.getVertexData().limit(), 4L * indexCount);
+        }
+    }
+
+    /**
+     * A {@link TextureManager.DecodeListener}, called on the decode threads.
+     */
+    void textureDecoded(Path path, int width, int height, long bytes, long nanos) {
+        texturesDecoded.incrementAndGet();
+        decodedTextureBytes.addAndGet(bytes);
+        textureDecodeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Ends the load. The time not attributed to any other phase is counted as parsing.
+     */
+    void finish(Throwable failure) {
+        this.failure = failure;
+        totalNanos = System.nanoTime() - startNanos;
+        long attributed = 0;
+        for(long nanos : phaseNanos)
+            attributed += nanos;
+        phaseNanos[Phase.PARSE.ordinal()] += Math.max(0, totalNanos - attributed);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(filePath).append(": ").append(totalNanos / 1000000).append(" ms");
+        if(failure != null)
+            sb.append(" FAILED (").append(failure).append(')');
+        if(fromCache)
+            sb.append(" from cache");
+        for(Phase phase : Phase.values()) {
+            if(phaseNanos[phase.ordinal()] > 0)
+                sb.append(", ").append(phase).append(' ').append(phaseNanos[phase.ordinal()] / 1000000).append(" ms");
+        }
+        sb.append(", ").append(bytesRead).append(" bytes, ").append(lines).append(" lines, ")
+          .append(faces).append(" faces, ").append(meshes).append(" meshes, ").append(vertices).append(" vertices, ")
+          .append(texturesDecoded).append(" textures (").append(decodedTextureBytes).append(" bytes, ")
+          .append(textureDecodeNanos.get() / 1000000).append(" ms)");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,189 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of parsed .MTL material libraries, so that a library referenced by many .OBJ files is
+ * parsed once and its {@link WavefrontMaterial}s are shared by all of them.
+ * <p>
+ * Libraries are keyed by their normalized absolute path and validated against the file's last
+ * modified time and size on every {@link #acquire(Path)}; a library whose file changed is parsed
+ * again. Each library is reference counted: a library that has been acquired and not yet
+ * {@link #release(Library) released} is never evicted. Of the libraries that are not in use, the
+ * {@code maxUnused} most recently released ones are kept, older ones are evicted.
+ * <p>
+ * {@link ObjLoader} uses the process-wide {@link #getShared() shared} cache unless it is given
+ * another one. {@link WavefrontMaterial}s are immutable, so handing the same instances to several
+ * models is safe.
+ * <p>
+ * This class is thread-safe. A library is parsed by the first thread that needs it, other threads
+ * asking for the same library wait for that parse instead of starting their own.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class MaterialLibraryCache {
+
+    /**
+     * Number of unused libraries kept by the {@link #getShared() shared} cache.
+     */
+    public static final int DEFAULT_MAX_UNUSED = 64;
+
+    private static final MaterialLibraryCache SHARED = new MaterialLibraryCache(DEFAULT_MAX_UNUSED);
+
+    private final int maxUnused;
+    private final Map<Path, Library> libraries;         // current library of each file, guarded by this
+    private final LinkedHashMap<Path, Library> unused;  // libraries without references, least recently released first
+
+    /**
+     * A parsed material library. Obtained from {@link #acquire(Path)}, and given back with
+     * {@link #release(Library)} once its materials are no longer needed.
+     */
+    public static final class Library {
+
+        private final Path path;
+        private final FileTime lastModified;
+        private final long size;
+        private int references;                             // guarded by the cache
+        private volatile Map<String, WavefrontMaterial> materials;     // null until parsed
+
+        private Library(Path path, FileTime lastModified, long size) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        /**
+         * @return normalized absolute path of the .MTL file
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the materials of the library, keyed by name; the map cannot be modified
+         */
+        public Map<String, WavefrontMaterial> getMaterials() {
+            return materials;
+        }
+
+        private boolean isCurrent(BasicFileAttributes attributes) {
+            return lastModified.equals(attributes.lastModifiedTime()) && size == attributes.size();
+        }
+
+        private synchronized void parse() throws IOException {
+            if(materials != null)
+                return;
+            final Map<String, WavefrontMaterial> parsed = new HashMap<>();
+            ObjReader.readMaterials(path, new ObjVisitor() {
+                @Override
+                public void visitMaterial(String name, WavefrontMaterial material) {
+                    parsed.put(name, material);
+                }
+            });
+            materials = Collections.unmodifiableMap(parsed);
+        }
+    }
+
+    /**
+     * @param maxUnused number of libraries without references to keep
+     */
+    public MaterialLibraryCache(int maxUnused) {
+        if(maxUnused < 0)
+            throw new IllegalArgumentException("maxUnused cannot be negative: " + maxUnused);
+        this.maxUnused = maxUnused;
+        this.libraries = new HashMap<>();
+        this.unused = new LinkedHashMap<>();
+    }
+
+    /**
+     * @return the process-wide cache
+     */
+    public static MaterialLibraryCache getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Gets a material library, parsing the .MTL file if it is not cached or has changed since it was
+     * parsed. Every successful call must be matched by a call to {@link #release(Library)}.
+     *
+     * @param mtlFilePath Path to the .MTL file
+     * @return the library
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public Library acquire(Path mtlFilePath) throws IOException {
+        final Path path = mtlFilePath.toAbsolutePath().normalize();
+        final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        final Library library;
+        synchronized(this) {
+            Library current = libraries.get(path);
+            if(current == null || !current.isCurrent(attributes)) {
+                // a stale library stays usable by its holders, it is just no longer handed out
+                current = new Library(path, attributes.lastModifiedTime(), attributes.size());
+                libraries.put(path, current);
+            }
+            unused.remove(path);
+            current.references++;
+            library = current;
+        }
+
+        try {
+            library.parse();
+        } catch(IOException | RuntimeException e) {
+            release(library);
+            throw e;
+        }
+        return library;
+    }
+
+    /**
+     * Gives back a library obtained from {@link #acquire(Path)}. Its materials stay valid, but the
+     * cache may evict the library once it has no references left.
+     *
+     * @param library the library
+     * @throws IllegalStateException if the library has been released more often than it was acquired
+     */
+    public synchronized void release(Library library) {
+        if(library.references <= 0)
+            throw new IllegalStateException("Material library " + library.path + " is not acquired");
+        if(--library.references > 0)
+            return;
+
+        if(libraries.get(library.path) != library)
+            return;     // replaced by a newer version of the file
+        if(library.materials == null) {
+            libraries.remove(library.path);     // failed to parse, try again on the next acquire
+            return;
+        }
+        unused.put(library.path, library);
+        final Iterator<Library> eldest = unused.values().iterator();
+        while(unused.size() > maxUnused) {
+            libraries.remove(eldest.next().path);
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return number of libraries currently cached, in use or not
+     */
+    public synchronized int size() {
+        return libraries.size();
+    }
+
+    /**
+     * Evicts all libraries that are not in use.
+     */
+    public synchronized void clear() {
+        libraries.keySet().removeAll(unused.keySet());
+        unused.clear();
+    }
+}
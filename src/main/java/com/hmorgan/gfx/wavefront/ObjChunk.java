@@ -0,0 +1,258 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.util.FloatList;
+import com.hmorgan.util.IntList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The records of one chunk of a Wavefront .OBJ file. Chunks are parsed independently of each other
+ * so that a large file can be parsed in parallel, see {@link ObjLoader#loadObjMeshesParallel}.
+ * <p>
+ * Attribute records are collected into float pools and face corners into a flat int array. All other
+ * records are kept in file order so that they can be replayed through the state machine of an
+ * {@link ObjMeshVisitor}, see {@link ObjMeshVisitor#processRecord}. A run of consecutive attribute
+ * records, or of consecutive face records, is collapsed into a single {@link Record}.
+ * <p>
+ * Face indices are resolved to 0-based indices while parsing. Relative (negative) indices depend on
+ * the number of attributes in the preceding chunks, so they are resolved against this chunk only
+ * and fixed up by {@link #copyFaces} when the chunks are merged. Whether an index is in range also
+ * depends on the preceding chunks, so it is checked by {@link #checkIndices} before the merge.
+ *
+ * @author Hunter N. Morgan
+ */
+final class ObjChunk {
+
+    private static final int ABSENT = Integer.MIN_VALUE;
+
+    /**
+     * A record that affects the parser state, or a run of attribute ('v', 'vn', 'vt') or face
+     * records. Attribute runs use {@link ObjScanner.Keyword#V}.
+     */
+    static final class Record {
+        private final ObjScanner.Keyword keyword;
+        private final String argument;
+        private final int firstFace;
+        private int endFace;
+
+        private Record(ObjScanner.Keyword keyword, String argument, int firstFace) {
+            this.keyword = keyword;
+            this.argument = argument;
+            this.firstFace = firstFace;
+            this.endFace = firstFace;
+        }
+
+        public ObjScanner.Keyword getKeyword() {
+            return keyword;
+        }
+
+        public String getArgument() {
+            return argument;
+        }
+
+        /**
+         * @return index of the first face of a face run
+         */
+        public int getFirstFace() {
+            return firstFace;
+        }
+
+        /**
+         * @return index after the last face of a face run
+         */
+        public int getEndFace() {
+            return endFace;
+        }
+    }
+
+    private final FloatList vertices = new FloatList(1 << 12);         // x/y/z per vertex
+    private final FloatList textureCoords = new FloatList(1 << 12);    // u/v per texture coordinate
+    private final FloatList normals = new FloatList(1 << 12);          // x/y/z per normal
+    private final List<Record> records = new ArrayList<>();
+
+    private int[] corners = new int[3 * 1024];      // v/t/n triples
+    private int cornerCount;
+    private final IntList faceEnds = new IntList(1024);   // corner index after the last corner of each face
+    private int[] relativeSlots = new int[16];      // ascending slots in corners that hold relative indices
+    private int relativeCount;
+    // per v/vt/vn: the attributes the preceding chunks need for all indices to be in range, and the
+    // index that needs the most along with the number of this chunk's attributes read before it
+    private final long[] requiredBase = new long[3];
+    private final int[] requiredIndex = new int[3];
+    private final int[] requiredCount = new int[3];
+    private long lineCount;
+
+    private ObjChunk() {
+
+    }
+
+    /**
+     * Parses a chunk. The chunk must start at the beginning of a line and end at the end of a line.
+     *
+     * @param region the bytes of the chunk
+     * @return the parsed chunk
+     * @throws IOException if a record is malformed
+     */
+    static ObjChunk parse(ByteBuffer region) throws IOException {
+        final ObjChunk chunk = new ObjChunk();
+        final ObjScanner scanner = new ObjScanner(region);
+        final int[] corner = new int[3];
+        Record run = null;
+
+        while(scanner.nextLine()) {
+            final ObjScanner.Keyword keyword = scanner.keyword();
+            switch(keyword) {
+                case V:
+                case VN:
+                case VT:
+                    if(run == null || run.keyword != ObjScanner.Keyword.V) {
+                        run = new Record(ObjScanner.Keyword.V, null, chunk.faceEnds.size());
+                        chunk.records.add(run);
+                    }
+                    chunk.addAttribute(keyword, scanner);
+                    break;
+                case F:
+                    if(run == null || run.keyword != ObjScanner.Keyword.F) {
+                        run = new Record(ObjScanner.Keyword.F, null, chunk.faceEnds.size());
+                        chunk.records.add(run);
+                    }
+                    while(scanner.nextFaceCorner(corner))
+                        chunk.addCorner(corner, scanner);
+                    chunk.faceEnds.add(chunk.cornerCount);
+                    run.endFace = chunk.faceEnds.size();
+                    break;
+                default:
+                    run = new Record(keyword, ObjReader.recordArgument(scanner), chunk.faceEnds.size());
+                    chunk.records.add(run);
+                    break;
+            }
+        }
+        chunk.lineCount = scanner.getLineCount();
+        return chunk;
+    }
+
+    private void addAttribute(ObjScanner.Keyword keyword, ObjScanner scanner) throws IOException {
+        switch(keyword) {
+            case V:
+                vertices.add(scanner.nextFloat(), scanner.nextFloat(), scanner.nextFloat());
+                break;
+            case VN:
+                normals.add(scanner.nextFloat(), scanner.nextFloat(), scanner.nextFloat());
+                break;
+            default:
+                // u, v (optional), w (optional, ignored)
+                textureCoords.add(scanner.nextFloat());
+                textureCoords.add(scanner.nextFloat(0.0f));
+                break;
+        }
+    }
+
+    private void addCorner(int[] corner, ObjScanner scanner) throws IOException {
+        if(corner[0] == 0)
+            throw new IOException("Index 0 out of range in " + scanner.keywordText() + " record");
+        if(corners.length < (cornerCount + 1) * 3)
+            corners = Arrays.copyOf(corners, corners.length * 2);
+
+        final int slot = cornerCount * 3;
+        corners[slot] = resolve(slot, corner[0], vertices.size() / 3);
+        corners[slot + 1] = (corner[1] != 0) ? resolve(slot + 1, corner[1], textureCoords.size() / 2) : ABSENT;
+        corners[slot + 2] = (corner[2] != 0) ? resolve(slot + 2, corner[2], normals.size() / 3) : ABSENT;
+        cornerCount++;
+    }
+
+    private int resolve(int slot, int objIndex, int count) {
+        // index n (1-based) or -n is in range if the preceding chunks have at least n - count attributes
+        final int attribute = slot % 3;
+        final long required = Math.abs((long) objIndex) - count;
+        if(required > requiredBase[attribute]) {
+            requiredBase[attribute] = required;
+            requiredIndex[attribute] = objIndex;
+            requiredCount[attribute] = count;
+        }
+
+        if(objIndex > 0)
+            return objIndex - 1;
+
+        // relative to the attributes read so far, only this chunk's part is known yet
+        if(relativeSlots.length == relativeCount)
+            relativeSlots = Arrays.copyOf(relativeSlots, relativeCount * 2);
+        relativeSlots[relativeCount++] = slot;
+        return count + objIndex;
+    }
+
+    /**
+     * Appends faces to a face index stream, with indices into the merged attribute pools.
+     *
+     * @param first            index of the first face within this chunk
+     * @param end              index after the last face within this chunk
+     * @param vertexBase       number of vertices in the preceding chunks
+     * @param textureCoordBase number of texture coordinates in the preceding chunks
+     * @param normalBase       number of normals in the preceding chunks
+     * @param dest             face index stream to append to
+     */
+    void copyFaces(int first, int end, int vertexBase, int textureCoordBase, int normalBase, ObjIndexBuffer dest) {
+        for(int f = first; f < end; f++) {
+            final int faceStart = (f == 0) ? 0 : faceEnds.get(f - 1);
+            for(int slot = faceStart * 3; slot < faceEnds.get(f) * 3; slot += 3) {
+                dest.add(corners[slot] + base(slot, vertexBase),
+                         (corners[slot + 1] != ABSENT) ? corners[slot + 1] + base(slot + 1, textureCoordBase) : ObjIndexBuffer.ABSENT,
+                         (corners[slot + 2] != ABSENT) ? corners[slot + 2] + base(slot + 2, normalBase) : ObjIndexBuffer.ABSENT);
+            }
+            dest.endFace();
+        }
+    }
+
+    /**
+     * Checks that the face indices of this chunk are in range once the chunk is merged after the
+     * preceding ones.
+     *
+     * @param vertexBase       number of vertices in the preceding chunks
+     * @param textureCoordBase number of texture coordinates in the preceding chunks
+     * @param normalBase       number of normals in the preceding chunks
+     * @throws IOException if an index does not refer to an attribute read before its face
+     */
+    void checkIndices(int vertexBase, int textureCoordBase, int normalBase) throws IOException {
+        checkIndex(0, vertexBase, "vertices");
+        checkIndex(1, textureCoordBase, "texture coordinates");
+        checkIndex(2, normalBase, "normals");
+    }
+
+    private void checkIndex(int attribute, int base, String attributes) throws IOException {
+        if(requiredBase[attribute] > base)
+            throw new IOException("Index " + requiredIndex[attribute] + " out of range in f record, " +
+                                  ((long) base + requiredCount[attribute]) + " " + attributes + " read so far");
+    }
+
+    private int base(int slot, int base) {
+        if(relativeCount == 0)
+            return 0;
+        return (Arrays.binarySearch(relativeSlots, 0, relativeCount, slot) >= 0) ? base : 0;
+    }
+
+    FloatList getVertices() {
+        return vertices;
+    }
+
+    FloatList getTextureCoords() {
+        return textureCoords;
+    }
+
+    FloatList getNormals() {
+        return normals;
+    }
+
+    List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * @return number of records in the chunk, before runs are collapsed
+     */
+    long getLineCount() {
+        return lineCount;
+    }
+}
@@ -0,0 +1,120 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.util.IntList;
+
+/**
+ * A packed stream of .OBJ face corner indices. Each corner is stored as a v/t/n triple of 0-based
+ * indices in a single int array, with {@link #ABSENT} for a missing texture coordinate or normal
+ * index. This replaces a list of {@link ObjIndex} objects, which costs an object and three boxed
+ * Integers per face corner. Face boundaries are kept in a second int array, see {@link #endFace()}.
+ * <p>
+ * {@link #get(int)} still provides an {@link ObjIndex} for code that wants one, but the primitive
+ * accessors should be preferred.
+ * <p>
+ * This class is <i>not</i> thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class ObjIndexBuffer {
+
+    /**
+     * Sentinel for a texture coordinate or normal index that is not present.
+     */
+    public static final int ABSENT = -1;
+
+    private final IntList triples;
+    private final IntList faceEnds;         // corner index after the last corner of each face
+
+    public ObjIndexBuffer() {
+        triples = new IntList(3 * 1024);
+        faceEnds = new IntList(1024);
+    }
+
+    /**
+     * Appends a face corner.
+     *
+     * @param vertexIndex       0-based vertex index
+     * @param textureCoordIndex 0-based texture coordinate index, or {@link #ABSENT}
+     * @param normalIndex       0-based normal index, or {@link #ABSENT}
+     */
+    public void add(int vertexIndex, int textureCoordIndex, int normalIndex) {
+        triples.add(vertexIndex, textureCoordIndex, normalIndex);
+    }
+
+    /**
+     * Ends the current face, whose corners are the ones added since the previous face ended.
+     */
+    public void endFace() {
+        faceEnds.add(size());
+    }
+
+    /**
+     * @return the number of faces
+     */
+    public int getFaceCount() {
+        return faceEnds.size();
+    }
+
+    /**
+     * @return the index of the first corner of face f
+     */
+    public int getFaceStart(int f) {
+        return (f == 0) ? 0 : faceEnds.get(f - 1);
+    }
+
+    /**
+     * @return the index after the last corner of face f
+     */
+    public int getFaceEnd(int f) {
+        return faceEnds.get(f);
+    }
+
+    /**
+     * @return the number of face corners
+     */
+    public int size() {
+        return triples.size() / 3;
+    }
+
+    public int getVertexIndex(int i) {
+        return triples.get(i * 3);
+    }
+
+    /**
+     * @return the texture coordinate index of corner i, or {@link #ABSENT}
+     */
+    public int getTextureCoordIndex(int i) {
+        return triples.get(i * 3 + 1);
+    }
+
+    /**
+     * @return the normal index of corner i, or {@link #ABSENT}
+     */
+    public int getNormalIndex(int i) {
+        return triples.get(i * 3 + 2);
+    }
+
+    public boolean hasTextureCoordIndex(int i) {
+        return getTextureCoordIndex(i) != ABSENT;
+    }
+
+    public boolean hasNormalIndex(int i) {
+        return getNormalIndex(i) != ABSENT;
+    }
+
+    /**
+     * Creates an {@link ObjIndex} for a face corner.
+     *
+     * @param i face corner index
+     * @return a new {@link ObjIndex} holding the indices of corner i
+     */
+    public ObjIndex get(int i) {
+        final ObjIndex.Builder objIndexBuilder = new ObjIndex.Builder();
+        objIndexBuilder.setVertexIndex(getVertexIndex(i));
+        if(hasTextureCoordIndex(i))
+            objIndexBuilder.setTextureCoordIndex(getTextureCoordIndex(i));
+        if(hasNormalIndex(i))
+            objIndexBuilder.setNormalIndex(getNormalIndex(i));
+        return objIndexBuilder.build();
+    }
+}
@@ -0,0 +1,170 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Loads a .OBJ file into a placeholder {@link ObjModel} on an executor thread, see
+ * {@link ObjLoader#loadObjModelAsync}. The records are passed on to an {@link ObjMeshVisitor}; every
+ * {@link #CHECKPOINT_RECORDS} records the task checks for cancellation, reports progress and hands
+ * the bounds of the vertices read so far to the placeholder.
+ *
+ * @author Hunter N. Morgan
+ */
+final class ObjLoadTask implements ObjVisitor, Runnable {
+
+    private static final int CHECKPOINT_RECORDS = 1 << 14;
+
+    private final ObjLoader loader;
+    private final Path filePath;
+    private final ObjModel placeholder;
+    private final ObjLoader.ProgressListener progressListener;     // null if progress is not reported
+
+    private ObjMeshVisitor visitor;
+    private ObjScanner scanner;
+    private long fileSize;
+    private int records;
+    private float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+    private float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+
+    ObjLoadTask(ObjLoader loader, Path filePath, ObjModel placeholder, ObjLoader.ProgressListener progressListener) {
+        this.loader = loader;
+        this.filePath = filePath;
+        this.placeholder = placeholder;
+        this.progressListener = progressListener;
+    }
+
+    @Override
+    public void run() {
+        final LoadMetrics metrics = loader.newMetrics(filePath);   // null if no metrics are collected
+        boolean metricsReported = false;
+        try {
+            checkCancelled();
+            fileSize = Files.size(filePath);
+
+            final Map<String, Mesh> meshes = loader.loadMeshes(filePath, loader.getMaterialLibraryCache(), metrics,
+                                                               placeholder, meshVisitor -> parse(meshVisitor, metrics));
+            checkCancelled();
+            metricsReported = true;
+            loader.finishMetrics(metrics, null);
+            placeholder.setMeshes(meshes);
+            if(progressListener != null)
+                progressListener.progress(fileSize, fileSize);
+            placeholder.getLoadFuture().complete(placeholder);
+        } catch(Throwable t) {
+            if(!metricsReported)
+                loader.finishMetrics(metrics, t);
+            // a failed or cancelled placeholder stops drawing its bounds
+            placeholder.setMeshes(Collections.emptyMap());
+            placeholder.getLoadFuture().completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Streams the file through this task on to the visitor building the meshes.
+     */
+    private void parse(ObjMeshVisitor meshVisitor, LoadMetrics metrics) throws IOException {
+        visitor = meshVisitor;
+        ObjLoader.scan(filePath, this, metrics, scanner -> this.scanner = scanner);
+        checkCancelled();
+    }
+
+    private void checkCancelled() {
+        if(placeholder.getLoadFuture().isCancelled())
+            throw new CancellationException("Loading " + filePath + " was cancelled");
+    }
+
+    private void record() {
+        if(++records % CHECKPOINT_RECORDS != 0)
+            return;
+        checkCancelled();
+        if(minX <= maxX)
+            placeholder.setPendingBounds(minX, minY, minZ, maxX, maxY, maxZ);
+        if(progressListener != null)
+            progressListener.progress(scanner.getBytesScanned(), fileSize);
+    }
+
+    @Override
+    public void visitVertex(float x, float y, float z) throws IOException {
+        record();
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+        visitor.visitVertex(x, y, z);
+    }
+
+    @Override
+    public void visitTextureCoord(float u, float v) throws IOException {
+        record();
+        visitor.visitTextureCoord(u, v);
+    }
+
+    @Override
+    public void visitNormal(float x, float y, float z) throws IOException {
+        record();
+        visitor.visitNormal(x, y, z);
+    }
+
+    @Override
+    public void visitFace(int[] corners, int cornerCount) throws IOException {
+        record();
+        visitor.visitFace(corners, cornerCount);
+    }
+
+    @Override
+    public void visitLine(int[] corners, int cornerCount) throws IOException {
+        record();
+        visitor.visitLine(corners, cornerCount);
+    }
+
+    @Override
+    public void visitObject(String name) throws IOException {
+        visitor.visitObject(name);
+    }
+
+    @Override
+    public void visitGroup(String name) throws IOException {
+        visitor.visitGroup(name);
+    }
+
+    @Override
+    public void visitUseMaterial(String name) throws IOException {
+        visitor.visitUseMaterial(name);
+    }
+
+    @Override
+    public void visitSmoothingGroup(String group) throws IOException {
+        visitor.visitSmoothingGroup(group);
+    }
+
+    @Override
+    public boolean visitMaterialLibrary(Path mtlFilePath) throws IOException {
+        return visitor.visitMaterialLibrary(mtlFilePath);
+    }
+
+    @Override
+    public void visitMaterial(String name, WavefrontMaterial material) throws IOException {
+        visitor.visitMaterial(name, material);
+    }
+
+    @Override
+    public void visitUnknown(String keyword) throws IOException {
+        visitor.visitUnknown(keyword);
+    }
+
+    @Override
+    public void visitEnd() throws IOException {
+        // building the last mesh can take a while
+        checkCancelled();
+        visitor.visitEnd();
+    }
+}
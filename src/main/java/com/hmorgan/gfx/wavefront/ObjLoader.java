@@ -1,48 +1,65 @@
 package com.hmorgan.gfx.wavefront;
 
-import com.hackoeur.jglm.Vec3;
 import com.hmorgan.gfx.Mesh;
-import com.hmorgan.gfx.Vertex;
-import gov.nasa.worldwind.render.Material;
-import gov.nasa.worldwind.render.WWTexture;
+import com.hmorgan.gfx.MeshMerger;
+import com.hmorgan.gfx.MeshOptimizer;
+import com.hmorgan.gfx.TextureManager;
+import com.hmorgan.gfx.VertexFormat;
+import gov.nasa.worldwind.util.Logging;
 
-import java.awt.*;
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.IntBuffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.util.*;
-import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 
 /**
+ * Loads Wavefront .OBJ files into {@link Mesh}es. A loader keeps no state between loads, all parse
+ * state lives in the {@link ObjMeshVisitor} of each load, so a single loader can be used by any
+ * number of threads at the same time.
+ *
  * @author Hunter N. Morgan
  */
 public class ObjLoader {
 
-    private Map<String, Mesh> meshes;
-    private ParserState state;
-    private List<Vec3> vertices;
-    private List<Vec3> textureCoords;
-    private List<Vec3> normals;
-    private List<ObjIndex> indices;
-    private Map<String, WavefrontMaterial> materials;
-    private List<WWTexture> textures;
+    private final ObjMeshCache meshCache;   // null if meshes are not cached
+    private final MaterialLibraryCache materialLibraryCache;  // null if every load parses its MTL files
+    private volatile LoadListener loadListener;                 // null if no metrics are collected
+    private volatile VertexFormat vertexFormat = VertexFormat.FLOAT;
+    private volatile MeshOptimizer meshOptimizer;               // null if meshes are not optimized
+    private volatile int meshClusterSize;                       // 0 if meshes are not clustered
+    private volatile TextureManager textureManager = TextureManager.getShared();
+    private volatile TextureAtlasBuilder textureAtlasBuilder;   // null if textures are not atlased
+    private volatile MeshMerger meshMerger;                     // null if meshes are not merged
 
-    private static final Map<String, FileSystem> fileSystemCache = new HashMap<>(); // FileSystem cache
+    private static final long MIN_CHUNK_SIZE = 1 << 20;             // smallest chunk parsed in parallel
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;   // limit of a single mapping
 
-    private enum ParserState {
-        START,
-        INIT,
-        NEW_OBJECT,
-        PROCESS_VNT,
-        NEW_GROUP,
-        PROCESS_VERTS,
-        READ_EOF
+    /**
+     * Receives the progress of an asynchronous load, on the loading thread.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * @param bytesRead  number of bytes of the .OBJ file read so far
+         * @param totalBytes size of the .OBJ file
+         */
+        void progress(long bytesRead, long totalBytes);
     }
 
+    private static final ConcurrentMap<String, FileSystem> fileSystemCache = new ConcurrentHashMap<>(); // FileSystem cache
+
     /**
      * Convenience method to convert a resource into a path. This allows a {@link Path} to be created for a resource
      * that resides in a JAR file (e.g. if the project is packaged in a JAR).
@@ -74,18 +91,157 @@ public class ObjLoader {
 
         // create a FileSystem to allow loading resource from JAR
         // apparently one cannot create another FileSystem object on a certain path if there is already one open
-        // so a cache is used here
-        FileSystem fs = fileSystemCache.get(fileURI.toString());
-        if(fs == null) {
-            fs = FileSystems.newFileSystem(fileURI, Collections.<String, Object>emptyMap());
-            fileSystemCache.put(fileURI.toString(), fs);
+        // so a cache is used here, which creates the FileSystem at most once even if several threads ask for it
+        final FileSystem fs;
+        try {
+            fs = fileSystemCache.computeIfAbsent(fileURI.toString(), key -> {
+                try {
+                    return FileSystems.newFileSystem(fileURI, Collections.<String, Object>emptyMap());
+                } catch(FileSystemAlreadyExistsException e) {
+                    // opened by someone else
+                    return FileSystems.getFileSystem(fileURI);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
         }
         return fs.getPath(entryName);
     }
 
 
     public ObjLoader() {
+        this(null);
+    }
+
+    /**
+     * Creates a loader that caches the meshes it builds. A .OBJ file whose cache file is still valid
+     * is loaded from the cache file without being parsed.
+     *
+     * @param meshCache the mesh cache, or null to always parse
+     */
+    public ObjLoader(ObjMeshCache meshCache) {
+        this(meshCache, MaterialLibraryCache.getShared());
+    }
+
+    /**
+     * Creates a loader with the given caches.
+     *
+     * @param meshCache            the mesh cache, or null to always parse
+     * @param materialLibraryCache the cache of MTL files, or null to parse the MTL files of every
+     *                             .OBJ file again; by default the {@link MaterialLibraryCache#getShared()
+     *                             shared} cache is used
+     */
+    public ObjLoader(ObjMeshCache meshCache, MaterialLibraryCache materialLibraryCache) {
+        this.meshCache = meshCache;
+        this.materialLibraryCache = materialLibraryCache;
+    }
+
+    /**
+     * Sets the listener that receives the {@link LoadMetrics} of every load. Without a listener, no
+     * metrics are collected at all.
+     *
+     * @param loadListener the listener, or null
+     */
+    public void setLoadListener(LoadListener loadListener) {
+        this.loadListener = loadListener;
+    }
+
+    public LoadListener getLoadListener() {
+        return loadListener;
+    }
+
+    /**
+     * Sets the format of the VBOs of the meshes loaded from now on. Compact formats take less GPU
+     * memory; the float vertex data of the meshes, and the mesh cache, are the same for all formats.
+     *
+     * @param vertexFormat the format, {@link VertexFormat#FLOAT} by default
+     */
+    public void setVertexFormat(VertexFormat vertexFormat) {
+        this.vertexFormat = Objects.requireNonNull(vertexFormat);
+    }
+
+    public VertexFormat getVertexFormat() {
+        return vertexFormat;
+    }
+
+    /**
+     * Sets the optimizer of the meshes loaded from now on. The mesh cache records the optimizer
+     * settings its meshes were built with, and cache files written with other settings are parsed
+     * again.
+     *
+     * @param meshOptimizer the optimizer, null (the default) to keep meshes in file order
+     */
+    public void setMeshOptimizer(MeshOptimizer meshOptimizer) {
+        this.meshOptimizer = meshOptimizer;
+    }
+
+    public MeshOptimizer getMeshOptimizer() {
+        return meshOptimizer;
+    }
+
+    /**
+     * Sets the size of the clusters the meshes loaded from now on are split into, so that a renderer
+     * can cull them separately, see {@link Mesh.Builder#setClusterSize(int)}.
+     *
+     * @param meshClusterSize most triangles per cluster, 0 (the default) to not cluster
+     */
+    public void setMeshClusterSize(int meshClusterSize) {
+        if(meshClusterSize < 0)
+            throw new IllegalArgumentException("cluster size must not be negative: " + meshClusterSize);
+        this.meshClusterSize = meshClusterSize;
+    }
+
+    public int getMeshClusterSize() {
+        return meshClusterSize;
+    }
+
+    /**
+     * Sets the texture manager that decodes the textures of the meshes parsed from now on, as soon as
+     * each mesh is built, and that the models loaded by this loader draw their textures with.
+     *
+     * @param textureManager the manager, the {@link TextureManager#getShared() shared} one by default
+     */
+    public void setTextureManager(TextureManager textureManager) {
+        this.textureManager = Objects.requireNonNull(textureManager);
+    }
 
+    public TextureManager getTextureManager() {
+        return textureManager;
+    }
+
+    /**
+     * Sets the builder that packs the textures of each model loaded from now on into texture
+     * atlases, once its meshes are built or read from the mesh cache. The mesh cache stores meshes
+     * as they were built, before packing. Selective loads are not packed.
+     *
+     * @param textureAtlasBuilder the builder, null (the default) to keep the textures of the meshes
+     * @see ObjModel#getTextureAtlas()
+     */
+    public void setTextureAtlasBuilder(TextureAtlasBuilder textureAtlasBuilder) {
+        this.textureAtlasBuilder = textureAtlasBuilder;
+    }
+
+    public TextureAtlasBuilder getTextureAtlasBuilder() {
+        return textureAtlasBuilder;
+    }
+
+    /**
+     * Sets the merger that merges the meshes of each model loaded from now on that draw the same
+     * way, so the model draws one mesh per material. Merging follows texture atlas packing, so meshes
+     * whose textures were packed into the same atlas are merged too. The mesh cache stores meshes as
+     * they were built, before merging. Selective loads are not merged.
+     *
+     * @param meshMerger the merger, null (the default) to keep the meshes as they are
+     * @see ObjModel#getMeshBatches()
+     */
+    public void setMeshMerger(MeshMerger meshMerger) {
+        this.meshMerger = meshMerger;
+    }
+
+    public MeshMerger getMeshMerger() {
+        return meshMerger;
     }
 
     /**f
@@ -95,7 +251,60 @@ public class ObjLoader {
      * @throws IOException
      */
     public ObjModel loadObjModel(Path filePath) throws IOException {
-        return new ObjModel(loadObjMeshes(filePath));
+        final ObjModel model = new ObjModel(Collections.emptyMap());
+        model.setTextureManager(textureManager);
+        model.setMeshes(loadObjMeshes(filePath, materialLibraryCache, model));
+        return model;
+    }
+
+    /**
+     * Loads the given .OBJ file on an executor, see {@link #loadObjModelAsync}.
+     *
+     * @param filePath Path to .OBJ file
+     * @param executor executor to load the file on
+     * @return a future that completes with the loaded model
+     */
+    public CompletableFuture<ObjModel> loadAsync(Path filePath, Executor executor) {
+        return loadAsync(filePath, executor, null);
+    }
+
+    /**
+     * Loads the given .OBJ file on an executor, see {@link #loadObjModelAsync}.
+     *
+     * @param filePath         Path to .OBJ file
+     * @param executor         executor to load the file on
+     * @param progressListener listener for the load progress, or null
+     * @return a future that completes with the loaded model
+     */
+    public CompletableFuture<ObjModel> loadAsync(Path filePath, Executor executor, ProgressListener progressListener) {
+        return loadObjModelAsync(filePath, executor, progressListener).getLoadFuture();
+    }
+
+    /**
+     * Starts loading the given .OBJ file on an executor and returns a placeholder model right away.
+     * The placeholder can be added to a layer at once: it renders the bounding box of the vertices
+     * read so far, and the meshes once they are ready. Parsing and building the meshes happen on the
+     * executor, and their textures are decoded by the {@link #getTextureManager() texture manager}, so
+     * this method can be called from the event dispatch thread.
+     * <p>
+     * Cancelling the {@link ObjModel#getLoadFuture() load future} stops the load at the next
+     * checkpoint. A placeholder whose load failed or was cancelled renders nothing.
+     *
+     * @param filePath         Path to .OBJ file
+     * @param executor         executor to load the file on
+     * @param progressListener listener for the load progress, or null
+     * @return the placeholder model
+     */
+    public ObjModel loadObjModelAsync(Path filePath, Executor executor, ProgressListener progressListener) {
+        final ObjModel placeholder = ObjModel.newPlaceholder();
+        placeholder.setTextureManager(textureManager);
+        try {
+            executor.execute(new ObjLoadTask(this, filePath, placeholder, progressListener));
+        } catch(RejectedExecutionException e) {
+            placeholder.setMeshes(Collections.emptyMap());
+            placeholder.getLoadFuture().completeExceptionally(e);
+        }
+        return placeholder;
     }
 
     /**
@@ -114,429 +323,485 @@ public class ObjLoader {
 
     /**
      * Parses the given .OBJ file and attempts to extract the useful Mesh data
-     * from it, populating this class's meshes map.
+     * from it. The file is streamed through an {@link ObjReader}, and the meshes
+     * are built by an {@link ObjMeshVisitor}.
      *
      * @param filePath Path to .OBJ file
      * @throws IOException
      */
     public Map<String, Mesh> loadObjMeshes(Path filePath) throws IOException {
-        meshes = new HashMap<>();
-        state = ParserState.INIT;
-
-        vertices = new ArrayList<>();
-        textureCoords = new ArrayList<>();
-        normals = new ArrayList<>();
-        indices = new ArrayList<>();
-        materials = new HashMap<>();
-
-        boolean builtFirstMesh = false;
-        Mesh.Builder meshBuilder = null;
-        final String fileName = filePath.getFileName().toString();
-        String currObjName = "";
-
-        textures = new ArrayList<>();
-
-        try(BufferedReader bufferedReader = Files.newBufferedReader(filePath)) {
-            String line;
-            while((line = bufferedReader.readLine()) != null) {
-                final String[] tokens = line.split("\\s+");
-                if(tokens.length <= 0)
-                    continue;
-                final String firstToken = tokens[0];
-
-                if(firstToken.trim().length() <= 0)
-                    continue;
-                if(firstToken.trim().charAt(0) == '#') // ignore comments
-                    continue;
-
-                switch(state) {
-                    case INIT:
-                        switch(firstToken) {
-                            case "o":
-                                state = ParserState.PROCESS_VNT;
-                                indices = new ArrayList<>();
-                                currObjName = fileName + ". " + tokens[1];
-                                break;
-                            case "mtllib":
-                                // load MTL files
-                                // mtllib filename1 filename2 . . .
-                                final String restLine = line.replace("mtllib ", "");
-                                final String[] mtlTokens = restLine.split("\\.mtl");
-
-                                for (String mtlToken : mtlTokens) {
-                                    final String mtlFileName = mtlToken + ".mtl";
-                                    // filename is likely relative
-                                    final Path mtlFilePath = filePath.resolveSibling(mtlFileName);
-                                    Map<String, WavefrontMaterial> parsedMaterials = parseMtlFile(mtlFilePath);
-                                    materials.putAll(parsedMaterials);
-                                }
-                                break;
-                            default:
-                                throw new IOException("Illegal token " + firstToken);
-                        }
-                        break;
-                    case PROCESS_VNT:
-                        switch(firstToken) {
-                            case "v":
-                                vertices.add(new Vec3(Float.parseFloat(tokens[1]),
-                                                      Float.parseFloat(tokens[2]),
-                                                      Float.parseFloat(tokens[3])));
-                                break;
-                            case "vn":
-                                normals.add(new Vec3(Float.parseFloat(tokens[1]),
-                                                     Float.parseFloat(tokens[2]),
-                                                     Float.parseFloat(tokens[3])));
-                                break;
-                            case "vt":
-                                // u, v, w (optional)
-                                Vec3 texCoord = null;
-                                if (tokens.length == 3) {
-                                    texCoord = new Vec3(Float.parseFloat(tokens[1]),
-                                                        Float.parseFloat(tokens[2]),
-                                                        0.0f);
-                                } else {
-                                    new Vec3(Float.parseFloat(tokens[1]),
-                                             Float.parseFloat(tokens[2]),
-                                             Float.parseFloat(tokens[3]));
-                                }
-                                textureCoords.add(texCoord);
-                                break;
-                            case "f":
-                                state = ParserState.PROCESS_VERTS;
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName);
-                                meshBuilder.setMeshType(Mesh.MeshType.POLYGON_MESH);
-                                processVertLine(line, tokens);
-                                break;
-                            case "g":
-                                state = ParserState.PROCESS_VERTS;
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName + "." + tokens[1]);
-                                break;
-                            case "usemtl":
-                                state = ParserState.PROCESS_VERTS;
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName);
-                                final WavefrontMaterial material = materials.get(tokens[1]);
-                                if(material != null) {
-                                    meshBuilder.setMaterial(material);
-                                } else {
-                                    throw new IOException("material " + tokens[1] + " not found in any of the MTL files");
-                                }
-                                break;
-                            case "s":
-                                // ignore smoothing group
-                                break;
-                            default:
-                                throw new IOException("Illegal token " + firstToken);
-                        }
-                        break;
-                    case PROCESS_VERTS:
-                        switch(firstToken) {
-                            case "o": {
-                                state = ParserState.PROCESS_VNT;
-//                                vertices = new ArrayList<>();
-//                                textureCoords = new ArrayList<>();
-//                                normals = new ArrayList<>();
-
-                                // current mesh builder needs to be built and put in list
-                                final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
-//                                final MeshTreeNode meshTreeNode = new MeshTreeNode(mesh, null, null);
-                                meshes.put(mesh.getName(), mesh);
-
-
-                                indices = new ArrayList<>();
-                                currObjName = fileName + ". " + tokens[1];
-
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName + "." + tokens[1]);
-                                break;
-                            }
-                            case "g": {
-                                // current mesh builder needs to be built and put in list
-                                final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
-//                                final MeshTreeNode meshTreeNode = new MeshTreeNode(mesh, null, null);
-                                meshes.put(mesh.getName(), mesh);
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName + "." + tokens[1]);
-                                break;
-                            }
-
-                            case "f":
-                                meshBuilder.setMeshType(Mesh.MeshType.POLYGON_MESH);
-                                processVertLine(line, tokens);
-                                break;
-
-                            case "l":
-                                break;
-
-                            case "usemtl": {
-                                // current mesh builder needs to be built and put in list
-                                final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
-//                                final MeshTreeNode meshTreeNode = new MeshTreeNode(mesh, null, null);
-                                meshes.put(mesh.getName(), mesh);
-                                meshBuilder = new Mesh.Builder();
-                                meshBuilder.setName(currObjName + "." + String.valueOf(meshes.size()));
-                                final WavefrontMaterial material = materials.get(tokens[1]);
-                                if(material != null) {
-                                    meshBuilder.setMaterial(material);
-                                } else {
-                                    throw new IOException("material " + tokens[1] + " not found in any of the MTL files");
-                                }
-                                break;
-                            }
-
-                            case "s":
-                                // ignore smoothing groups
-                                break;
-
-                            default:
-                                throw new IOException("Illegal token " + firstToken);
-                        }
-                        break;
-                    case READ_EOF:
-                        break;
-                }
-            }
+        return loadObjMeshes(filePath, materialLibraryCache, null);
+    }
 
-            state = ParserState.READ_EOF;
+    /**
+     * @param model receives the texture atlas and the mesh batches of the meshes, if they are packed
+     *              and merged; may be null
+     */
+    private Map<String, Mesh> loadObjMeshes(Path filePath, MaterialLibraryCache materialLibraryCache,
+                                            ObjModel model) throws IOException {
+        final LoadMetrics metrics = newMetrics(filePath);
+        try {
+            final Map<String, Mesh> meshes = loadMeshes(filePath, materialLibraryCache, metrics, model,
+                                                        visitor -> scan(filePath, visitor, metrics, null));
+            finishMetrics(metrics, null);
+            return meshes;
+        } catch(IOException | RuntimeException | Error e) {
+            finishMetrics(metrics, e);
+            throw e;
+        }
+    }
 
-            final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
-            meshes.put(mesh.getName(), mesh);
+    /**
+     * Loads only the meshes of the given .OBJ file whose names are accepted by a filter. The file is
+     * indexed first (see {@link #indexObjMeshes(Path)}), which does not parse the attributes of the
+     * meshes that are skipped. If the mesh cache holds the file, the meshes are taken from it.
+     * Selective loads do not fill the mesh cache.
+     *
+     * @param filePath   Path to .OBJ file
+     * @param meshFilter accepts the names of the meshes to load
+     * @return the accepted meshes, keyed by name
+     * @throws IOException
+     */
+    public Map<String, Mesh> loadObjMeshes(Path filePath, Predicate<String> meshFilter) throws IOException {
+        final Optional<Map<String, Mesh>> cached = readCache(filePath, null);
+        if(cached.isPresent()) {
+            final Map<String, Mesh> meshes = new HashMap<>();
+            cached.get().forEach((name, mesh) -> {
+                if(meshFilter.test(name))
+                    meshes.put(name, mesh);
+            });
+            return meshes;
         }
+        return loadObjMeshes(indexObjMeshes(filePath), meshFilter);
+    }
 
+    /**
+     * Loads the meshes of an indexed .OBJ file whose names are accepted by a filter. Only the parts of
+     * the file these meshes need are read, so an index can be kept to load further meshes on demand.
+     *
+     * @param index      index of the .OBJ file
+     * @param meshFilter accepts the names of the meshes to load
+     * @return the accepted meshes, keyed by name
+     * @throws IOException if the file cannot be read, or has been modified since it was indexed
+     */
+    public Map<String, Mesh> loadObjMeshes(ObjMeshIndex index, Predicate<String> meshFilter) throws IOException {
+        return index.loadMeshes(meshFilter, vertexFormat, meshOptimizer, meshClusterSize);
+    }
+
+    /**
+     * Indexes the objects and groups of the given .OBJ file, for {@link #loadObjMeshes(ObjMeshIndex, Predicate)}.
+     * The whole file is scanned, but attributes are not parsed and no meshes are built.
+     *
+     * @param filePath Path to .OBJ file
+     * @return the index
+     * @throws IOException
+     */
+    public ObjMeshIndex indexObjMeshes(Path filePath) throws IOException {
+        return ObjMeshIndex.build(filePath, materialLibraryCache);
+    }
+
+    /**
+     * Loads many .OBJ files at once, on a pool with one thread per available processor.
+     *
+     * @param filePaths Paths to .OBJ files
+     * @return the meshes of each file, keyed by file, in the order of {@code filePaths}
+     * @throws IOException if any of the files cannot be loaded
+     * @see #loadAll(Collection, Executor)
+     */
+    public Map<Path, Map<String, Mesh>> loadAll(Collection<Path> filePaths) throws IOException {
+        final int threads = Math.max(1, Math.min(filePaths.size(), Runtime.getRuntime().availableProcessors()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "ObjLoader.loadAll");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            return loadAll(filePaths, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads many .OBJ files at once, one file per task on the given executor. Each MTL file is parsed
+     * only once for the whole batch (even if this loader has no {@link MaterialLibraryCache}), and a
+     * texture used by several files is only read once (see {@link TextureManager}). Parsing is CPU
+     * bound, so an executor with about one thread per core gives the best wall time; an executor with
+     * more threads, e.g. a virtual thread per task executor on newer JDKs, works as well.
+     * <p>
+     * If a file fails to load, the files that have not been started yet are skipped and the failure is
+     * thrown once the running loads have finished.
+     *
+     * @param filePaths Paths to .OBJ files
+     * @param executor  executor to load the files on
+     * @return the meshes of each file, keyed by file, in the order of {@code filePaths}
+     * @throws IOException if any of the files cannot be loaded
+     */
+    public Map<Path, Map<String, Mesh>> loadAll(Collection<Path> filePaths, Executor executor) throws IOException {
+        final MaterialLibraryCache batchLibraryCache = (materialLibraryCache != null) ? materialLibraryCache
+                                                                                      : new MaterialLibraryCache(Integer.MAX_VALUE);
+        final AtomicBoolean failed = new AtomicBoolean();
+        final Map<Path, CompletableFuture<Map<String, Mesh>>> futures = new LinkedHashMap<>();
+        for(Path filePath : filePaths) {
+            futures.put(filePath, CompletableFuture.supplyAsync(() -> {
+                if(failed.get())
+                    throw new CancellationException("Skipped " + filePath + " after an earlier failure");
+                try {
+                    return loadObjMeshes(filePath, batchLibraryCache, null);
+                } catch(IOException e) {
+                    failed.set(true);
+                    throw new UncheckedIOException(new IOException("Cannot load " + filePath, e));
+                } catch(RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }, executor));
+        }
+
+        final Map<Path, Map<String, Mesh>> meshes = new LinkedHashMap<>();
+        Throwable failure = null;
+        for(Map.Entry<Path, CompletableFuture<Map<String, Mesh>>> entry : futures.entrySet()) {
+            try {
+                meshes.put(entry.getKey(), entry.getValue().join());
+            } catch(CompletionException e) {
+                if(failure == null || failure instanceof CancellationException)
+                    failure = e.getCause();
+            } catch(CancellationException e) {
+                if(failure == null)
+                    failure = e;
+            }
+        }
+
+        if(failure instanceof UncheckedIOException)
+            throw ((UncheckedIOException) failure).getCause();
+        if(failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if(failure instanceof Error)
+            throw (Error) failure;
         return meshes;
     }
 
-    private void processVertLine(String line, String[] tokens) {
-        // split each token with '/'
-        // f vi/ti/ni vi/ti/ni vi/ti/ni
-        // or
-        // f vi vi vi
-        if (line.contains("/")) {
-            for (int i = 1; i < tokens.length; i++) {
-                final String faceToken = tokens[i];
-                final String[] faceTokens = faceToken.split("/");
-                ObjIndex.Builder objIndexBuilder = new ObjIndex.Builder();
-                objIndexBuilder.setVertexIndex(Integer.valueOf(faceTokens[0]) - 1);
-                if (!faceTokens[1].isEmpty())
-                    objIndexBuilder.setTextureCoordIndex(Integer.valueOf(faceTokens[1]) - 1);
-                if (!faceTokens[2].isEmpty())
-                    objIndexBuilder.setNormalIndex(Integer.valueOf(faceTokens[2]) - 1);
-                indices.add(objIndexBuilder.build());
+    /**
+     * Parses the given .OBJ file like {@link #loadObjMeshes(Path)}, but spreads the work over the
+     * common {@link ForkJoinPool}.
+     *
+     * @param filePath Path to .OBJ file
+     * @return the meshes, keyed by name
+     * @throws IOException
+     * @see #loadObjMeshesParallel(Path, ForkJoinPool)
+     */
+    public Map<String, Mesh> loadObjMeshesParallel(Path filePath) throws IOException {
+        return loadObjMeshesParallel(filePath, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses the given .OBJ file in parallel. The file is memory-mapped and split into chunks at line
+     * boundaries; the 'v', 'vn', 'vt' and 'f' records of each chunk are parsed on the given pool.
+     * The chunk results are then merged in file order and the object/group/material records are
+     * replayed through the same state machine as {@link #loadObjMeshes(Path)}, so both methods
+     * produce the same meshes.
+     *
+     * @param filePath Path to .OBJ file
+     * @param pool     pool to parse the chunks on
+     * @return the meshes, keyed by name
+     * @throws IOException
+     */
+    public Map<String, Mesh> loadObjMeshesParallel(Path filePath, ForkJoinPool pool) throws IOException {
+        final LoadMetrics metrics = newMetrics(filePath);
+        try {
+            final Map<String, Mesh> meshes = loadMeshes(filePath, materialLibraryCache, metrics, null,
+                                                        visitor -> parseParallel(filePath, pool, visitor, metrics));
+            finishMetrics(metrics, null);
+            return meshes;
+        } catch(IOException | RuntimeException | Error e) {
+            finishMetrics(metrics, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Parses the chunks of the given .OBJ file on a pool, and replays them in file order through a
+     * visitor.
+     */
+    private static void parseParallel(Path filePath, ForkJoinPool pool, ObjMeshVisitor visitor,
+                                      LoadMetrics metrics) throws IOException {
+        final List<ObjChunk> chunks = new ArrayList<>();
+        try(FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            final long[] bounds = splitAtLines(channel, pool.getParallelism());
+            final List<ForkJoinTask<ObjChunk>> tasks = new ArrayList<>();
+            for(int i = 0; i < bounds.length - 1; i++) {
+                final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+                tasks.add(pool.submit(() -> ObjChunk.parse(region)));
             }
-        } else {
-            // uses spaces for each face vertex
-            for (int i = 1; i < tokens.length; i++) {
-                ObjIndex.Builder objIndexBuilder = new ObjIndex.Builder();
-                objIndexBuilder.setVertexIndex(Integer.valueOf(tokens[i]) - 1);
-                indices.add(objIndexBuilder.build());
+            for(ForkJoinTask<ObjChunk> task : tasks)
+                chunks.add(task.join());
+        } catch(RuntimeException e) {
+            // join() wraps the wrapper of a chunk's IOException once more, rethrown on this thread
+            for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if(cause instanceof IOException)
+                    throw (IOException) cause;
             }
+            throw e;
         }
+
+        for(ObjChunk chunk : chunks) {
+            if(metrics != null)
+                metrics.addScanned(0, chunk.getLineCount(), 0);
+            final int vertexBase = visitor.getVertexCount();
+            final int textureCoordBase = visitor.getTextureCoordCount();
+            final int normalBase = visitor.getNormalCount();
+            chunk.checkIndices(vertexBase, textureCoordBase, normalBase);
+            visitor.addAttributes(chunk.getVertices(), chunk.getTextureCoords(), chunk.getNormals());
+
+            for(ObjChunk.Record record : chunk.getRecords()) {
+                switch(record.getKeyword()) {
+                    case MTLLIB:
+                        ObjReader.readMaterialLibraries(filePath, record.getArgument(), visitor);
+                        break;
+                    case F:
+                        visitor.processRecord(record.getKeyword(), null);
+                        chunk.copyFaces(record.getFirstFace(), record.getEndFace(),
+                                        vertexBase, textureCoordBase, normalBase, visitor.getIndices());
+                        break;
+                    default:
+                        visitor.processRecord(record.getKeyword(), record.getArgument());
+                        break;
+                }
+            }
+        }
+        visitor.visitEnd();
+        if(metrics != null)
+            metrics.addScanned(Files.size(filePath), 0, 0);
+    }
+
+    /**
+     * Parses a .OBJ file into a visitor, see {@link #loadMeshes}.
+     */
+    @FunctionalInterface
+    interface MeshParser {
+
+        /**
+         * @param visitor the visitor to report the records of the file to, up to its
+         *                {@link ObjMeshVisitor#visitEnd() end}
+         */
+        void parse(ObjMeshVisitor visitor) throws IOException;
     }
 
     /**
-     * Builds a new Mesh object and stores it in meshes map.
+     * Loads the meshes of a .OBJ file. The meshes are read from the mesh cache, or else built by a
+     * visitor that {@code parser} reports the file to and written to the mesh cache. Their textures
+     * are then packed into atlases and the meshes merged, if this loader does so.
      *
-     * @param meshBuilder   mesh builder to store rest of arguments into
-     * @param vertices      vertices list
-     * @param textureCoords texture coordinates list
-     * @param normals       normals list
-     * @param indices       indices list
-     * @return new Mesh object
-     */
-    private static Mesh buildMesh(Mesh.Builder meshBuilder,
-                                  List<Vec3> vertices,
-                                  List<Vec3> textureCoords,
-                                  List<Vec3> normals,
-                                  List<ObjIndex> indices,
-                                  int currVertexCount,
-                                  int currNormalCount,
-                                  int currTexCoordCount) {
-
-        // TODO: Can optimize using element index buffer if we can remove all v/n/t duplicates
-
-        // build vertex list and index buffer
-        final List<Vertex> vertexList = new ArrayList<>();
-
-        for(ObjIndex index : indices) {
-            Vertex.Builder vertexBuilder = new Vertex.Builder(vertices.get(index.getVertexIndex()-currVertexCount));
-            index.getNormalIndex()
-                 .ifPresent(ni -> vertexBuilder.setNormal(normals.get(ni-currNormalCount)));
-            index.getTextureCoordIndex()
-                 .ifPresent(ti -> vertexBuilder.setTexCoord(textureCoords.get(ti-currTexCoordCount)));
-            vertexList.add(vertexBuilder.build());
+     * @param materialLibraryCache the cache of MTL files, may be null
+     * @param metrics              metrics of the load, may be null
+     * @param model                receives the texture atlas and the mesh batches of the meshes, if
+     *                             they are packed and merged; may be null
+     * @param parser               parses the file, unless the meshes are cached
+     * @return the meshes, keyed by name
+     */
+    Map<String, Mesh> loadMeshes(Path filePath, MaterialLibraryCache materialLibraryCache, LoadMetrics metrics,
+                                 ObjModel model, MeshParser parser) throws IOException {
+        Map<String, Mesh> meshes;
+        final Optional<Map<String, Mesh>> cached = readCache(filePath, metrics);
+        if(cached.isPresent()) {
+            meshes = cached.get();
+        } else {
+            final ObjMeshVisitor visitor = newMeshVisitor(filePath, materialLibraryCache);
+            visitor.setMetrics(metrics);
+            parser.parse(visitor);
+            writeCache(filePath, visitor, metrics);
+            meshes = visitor.getMeshes();
         }
+        meshes = applyTextureAtlas(filePath, meshes, metrics, (model != null) ? model::setTextureAtlas : null);
+        return applyMeshMerger(filePath, meshes, metrics, (model != null) ? model::setMeshBatches : null);
+    }
 
-        final IntBuffer indicesBuf = IntBuffer.allocate(vertexList.size());
-        for(int i = 0; i < vertexList.size(); i++) {
-            indicesBuf.put(i);
+    /**
+     * Streams a .OBJ file through an {@link ObjReader}.
+     *
+     * @param visitor        receives the records of the file
+     * @param metrics        metrics to add the scanned bytes and lines to, may be null
+     * @param scannerHandler is handed the scanner before the file is read, may be null
+     */
+    static void scan(Path filePath, ObjVisitor visitor, LoadMetrics metrics,
+                     Consumer<ObjScanner> scannerHandler) throws IOException {
+        try(ObjScanner scanner = ObjScanner.open(filePath)) {
+            scanner.setMetrics(metrics);
+            if(scannerHandler != null)
+                scannerHandler.accept(scanner);
+            ObjReader.read(scanner, filePath, visitor);
+            if(metrics != null)
+                metrics.addScanned(scanner.getBytesScanned(), scanner.getLineCount(), scanner.getBufferCapacity());
         }
-        indicesBuf.flip();
-        meshBuilder.setVertices(vertexList);
-        meshBuilder.setIndices(indicesBuf);
+    }
+
+    /**
+     * @param materialLibraryCache the cache to take the materials of MTL files from, may be null
+     * @return a visitor building the meshes of the given file as this loader is configured to
+     */
+    ObjMeshVisitor newMeshVisitor(Path filePath, MaterialLibraryCache materialLibraryCache) {
+        final ObjMeshVisitor visitor = new ObjMeshVisitor(filePath, materialLibraryCache);
+        visitor.setVertexFormat(vertexFormat);
+        visitor.setMeshOptimizer(meshOptimizer);
+        visitor.setMeshClusterSize(meshClusterSize);
+        // textures that may be packed into atlases are requested once they are packed
+        visitor.setTextureManager((textureAtlasBuilder == null) ? textureManager : null);
+        return visitor;
+    }
+
+    /**
+     * @return the cache of MTL files, or null if every load parses its MTL files
+     */
+    MaterialLibraryCache getMaterialLibraryCache() {
+        return materialLibraryCache;
+    }
 
-        return meshBuilder.build();
+    /**
+     * @return metrics for a load of the given file, or null if nobody listens
+     */
+    LoadMetrics newMetrics(Path filePath) {
+        return (loadListener != null) ? new LoadMetrics(filePath) : null;
     }
 
     /**
-     * Builds a new Mesh object and stores it in meshes map.
+     * Ends a load and reports its metrics, if they are collected.
      *
-     * @param meshBuilder   mesh builder to store rest of arguments into
-     * @param vertices      vertices list
-     * @param textureCoords texture coordinates list
-     * @param normals       normals list
-     * @param indices       indices list
-     * @return new Mesh object
-     */
-    private static Mesh buildMeshV2(Mesh.Builder meshBuilder,
-                                    List<Vec3> vertices,
-                                    List<Vec3> textureCoords,
-                                    List<Vec3> normals,
-                                    List<ObjIndex> indices) {
-
-        // TODO: Can optimize using element index buffer if we can remove all v/n/t duplicates
-
-        // build vertex list and index buffer
-        final List<Vertex> vertexList = new ArrayList<>();
-
-        for(ObjIndex index : indices) {
-            Vertex.Builder vertexBuilder = new Vertex.Builder(vertices.get(index.getVertexIndex()));
-            index.getNormalIndex()
-                 .ifPresent(ni -> vertexBuilder.setNormal(normals.get(ni)));
-            index.getTextureCoordIndex()
-                 .ifPresent(ti -> vertexBuilder.setTexCoord(textureCoords.get(ti)));
-            vertexList.add(vertexBuilder.build());
+     * @param metrics metrics from {@link #newMetrics(Path)}, may be null
+     * @param failure why the load failed, or null if it succeeded
+     */
+    void finishMetrics(LoadMetrics metrics, Throwable failure) {
+        final LoadListener listener = loadListener;
+        if(metrics == null || listener == null)
+            return;
+        metrics.finish(failure);
+        listener.loadFinished(metrics);
+    }
+
+    Optional<Map<String, Mesh>> readCache(Path filePath, LoadMetrics metrics) throws IOException {
+        if(meshCache == null)
+            return Optional.empty();
+        final long start = (metrics != null) ? System.nanoTime() : 0;
+        final Optional<Map<String, Mesh>> cached = meshCache.read(filePath, vertexFormat, meshClusterSize, meshOptimizer);
+        if(metrics != null) {
+            metrics.endPhase(LoadMetrics.Phase.CACHE_READ, start);
+            cached.ifPresent(metrics::addCachedMeshes);
+        }
+        return cached;
+    }
+
+    /**
+     * Writes freshly built meshes to the mesh cache. The cache is only an optimization, so a cache
+     * file that cannot be written (e.g. next to a .OBJ file inside a JAR) does not fail the load.
+     */
+    void writeCache(Path filePath, ObjMeshVisitor visitor, LoadMetrics metrics) {
+        if(meshCache == null)
+            return;
+        final long start = (metrics != null) ? System.nanoTime() : 0;
+        try {
+            meshCache.write(filePath, visitor.getMeshes(), visitor.getMaterialLibraries(), visitor.getMeshOptimizer());
+        } catch(IOException | UnsupportedOperationException e) {
+            Logging.logger().log(Level.WARNING, "Cannot write mesh cache of " + filePath, e);
         }
+        if(metrics != null)
+            metrics.endPhase(LoadMetrics.Phase.CACHE_WRITE, start);
+    }
 
-        final IntBuffer indicesBuf = IntBuffer.allocate(vertexList.size());
-        for(int i = 0; i < vertexList.size(); i++) {
-            indicesBuf.put(i);
+    /**
+     * Packs the textures of freshly loaded meshes into atlases, if this loader has a
+     * {@link TextureAtlasBuilder}, and starts decoding the textures the meshes end up with. Atlases
+     * are only an optimization, so meshes whose atlas cannot be built keep their own textures.
+     *
+     * @param atlasConsumer receives the atlas, may be null
+     * @return the meshes drawing from the atlases
+     */
+    Map<String, Mesh> applyTextureAtlas(Path filePath, Map<String, Mesh> meshes, LoadMetrics metrics,
+                                        Consumer<TextureAtlas> atlasConsumer) {
+        final TextureAtlasBuilder builder = textureAtlasBuilder;
+        if(builder == null)
+            return meshes;
+        final long start = (metrics != null) ? System.nanoTime() : 0;
+        Map<String, Mesh> atlasMeshes = meshes;
+        try {
+            final TextureAtlas atlas = builder.build(meshes);
+            atlasMeshes = atlas.getMeshes();
+            if(atlasConsumer != null)
+                atlasConsumer.accept(atlas);
+        } catch(IOException | UnsupportedOperationException e) {
+            Logging.logger().log(Level.WARNING, "Cannot build texture atlas of " + filePath, e);
         }
-        indicesBuf.flip();
-        meshBuilder.setVertices(vertexList);
-        meshBuilder.setIndices(indicesBuf);
+        if(metrics != null)
+            metrics.endPhase(LoadMetrics.Phase.TEXTURE_ATLAS, start);
+
+        final Set<Path> texturePaths = new LinkedHashSet<>();
+        atlasMeshes.values().forEach(mesh -> mesh.getTexturePath().ifPresent(texturePaths::add));
+        final TextureManager.DecodeListener listener = (metrics != null) ? metrics::textureDecoded : null;
+        texturePaths.forEach(path -> textureManager.request(path, listener));
+        return atlasMeshes;
+    }
 
-        return meshBuilder.build();
+    /**
+     * Merges the meshes of a freshly loaded model that draw the same way, if this loader has a
+     * {@link MeshMerger}.
+     *
+     * @param batchConsumer receives the batches the meshes were merged into, may be null
+     * @return the merged meshes, keyed by name
+     */
+    Map<String, Mesh> applyMeshMerger(Path filePath, Map<String, Mesh> meshes, LoadMetrics metrics,
+                                      Consumer<Map<String, MeshMerger.Batch>> batchConsumer) {
+        final MeshMerger merger = meshMerger;
+        if(merger == null)
+            return meshes;
+        final long start = (metrics != null) ? System.nanoTime() : 0;
+        final Map<String, MeshMerger.Batch> batches = merger.merge(meshes);
+        final Map<String, Mesh> merged = new LinkedHashMap<>();
+        batches.forEach((name, batch) -> merged.put(name, batch.getMesh()));
+        if(batchConsumer != null)
+            batchConsumer.accept(Collections.unmodifiableMap(batches));
+        if(metrics != null)
+            metrics.endPhase(LoadMetrics.Phase.MESH_MERGE, start);
+        return merged;
     }
 
     /**
-     * Parses a MTL file
+     * Chooses chunk boundaries for parallel parsing. Every boundary except the first and last sits
+     * right after a '\n', so that no line is split between chunks.
      *
-     * @param mtlFilePath the {@link Path} to the MTL file
-     * @return the {@link Material}s parsed from the MTL file
-     */
-    private static Map<String, WavefrontMaterial> parseMtlFile(Path mtlFilePath) throws IOException {
-        final Map<String, WavefrontMaterial> materials = new HashMap<>();
-
-        String name = null;
-        Color ambient = null;
-        Color diffuse = null;
-        Color specular = null;
-        Float shininess = null;
-        float alpha = 1.0f;
-        Path diffuseTextureMapFilepath = null;
-        boolean createdFirstMtl = false;
-        String line;
-        BufferedReader bufferedReader = Files.newBufferedReader(mtlFilePath);
-
-        while((line = bufferedReader.readLine()) != null) {
-            if(!line.isEmpty() && line.charAt(0) != '#') {  // ignore comments
-                final String[] tokens = line.split("\\s+");
-                if (tokens.length > 0) {
-                    final String firstToken = tokens[0];
-                    switch (firstToken) {
-                        case "newmtl":
-                            // start of a new material
-                            if(createdFirstMtl) {
-                                diffuse = new Color(diffuse.getRed() / 255f,
-                                                    diffuse.getGreen() / 255f,
-                                                    diffuse.getBlue() / 255f,
-                                                    alpha);
-                                materials.put(name, new WavefrontMaterial(specular,
-                                                                          diffuse,
-                                                                          ambient,
-                                                                          new Color(0, 0, 0),
-                                                                          shininess,
-                                                                          diffuseTextureMapFilepath));
-
-                                ambient = null;
-                                diffuse = null;
-                                specular = null;
-                                shininess = null;
-                                alpha = 1.0f;
-                                diffuseTextureMapFilepath = null;
-                            } else {
-                                createdFirstMtl = true;
-                            }
-                            name = tokens[1];
-                            break;
-                        case "Ka":
-                            // ambient color
-                            ambient = new Color(Float.parseFloat(tokens[1]),
-                                                Float.parseFloat(tokens[2]),
-                                                Float.parseFloat(tokens[3]));
-                            break;
-                        case "Kd":
-                            // diffuse color
-                            diffuse = new Color(Float.parseFloat(tokens[1]),
-                                                Float.parseFloat(tokens[2]),
-                                                Float.parseFloat(tokens[3]));
-                            break;
-                        case "Ks":
-                            // specular color
-                            specular = new Color(Float.parseFloat(tokens[1]),
-                                                 Float.parseFloat(tokens[2]),
-                                                 Float.parseFloat(tokens[3]));
-                            break;
-                        case "Ns":
-                            // specular exponent / shininess
-                            shininess = Float.parseFloat(tokens[1]);
-                            break;
-                        case "d":
-                            // transparency
-                            alpha = Float.parseFloat(tokens[1]);
-                            break;
-                        case "Tr":
-                            // transparency (1-d)
-                            alpha = 1.0f - Float.parseFloat(tokens[1]);
-                            break;
-                        case "illum":
-                            // 0 This is a constant color illumination model. The color is the specified Kd for the material. The formula is:
-                            //   color = Kd
-                            // 1 This is a diffuse illumination model using Lambertian shading. The color includes an ambient and diffuse shading terms for each light source. The formula is
-                            //   color = KaIa + Kd { SUM j=1..ls, (N * Lj)Ij }
-                            // 2 This is a diffuse and specular illumination model using Lambertian shading and Blinn's interpretation of Phong's specular illumination model (BLIN77).
-                            //   The color includes an ambient constant term, and a diffuse and specular shading term for each light source. The formula is:
-                            //   color = KaIa + Kd { SUM j=1..ls, (N*Lj)Ij } + Ks { SUM j=1..ls, ((H*Hj)^Ns)Ij }
-                            //
-                            // ...yeah ignore for now
-                            break;
-                        case "map_Ka":  // ambient texture map
-                            // ignore for now
-                            break;
-                        case "map_Kd":  // diffuse texture map
-                            String textureFilename = tokens[1];
-                            // filepath is likely relative
-                            diffuseTextureMapFilepath = mtlFilePath.resolveSibling(textureFilename);
-                            break;
-                    }
+     * @param channel     channel of the .OBJ file
+     * @param parallelism number of threads that will parse the chunks
+     * @return ascending chunk boundaries, starting with 0 and ending with the file size
+     */
+    private static long[] splitAtLines(FileChannel channel, int parallelism) throws IOException {
+        final long size = channel.size();
+        // a few chunks per thread evens out chunks with different record mixes
+        final long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (parallelism * 4L) + 1));
+
+        final List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        final ByteBuffer probe = ByteBuffer.allocate(4096);
+        long boundary = chunkSize;
+        while(boundary < size) {
+            // move the boundary past the end of the line it falls in
+            long newline = -1;
+            long probePosition = boundary;
+            while(newline < 0 && probePosition < size) {
+                probe.clear();
+                final int n = channel.read(probe, probePosition);
+                for(int i = 0; i < n && newline < 0; i++) {
+                    if(probe.get(i) == '\n')
+                        newline = probePosition + i;
                 }
-            } // end ignore comments
-        } // end while read line;
-
-        diffuse = new Color(diffuse.getRed() / 255f,
-                            diffuse.getGreen() / 255f,
-                            diffuse.getBlue() / 255f,
-                            alpha);
-        materials.put(name, new WavefrontMaterial(specular,
-                                                  diffuse,
-                                                  ambient,
-                                                  new Color(0, 0, 0),
-                                                  shininess,
-                                                  diffuseTextureMapFilepath));
-
-        bufferedReader.close();
-        return materials;
+                probePosition += n;
+            }
+            if(newline < 0 || newline + 1 >= size)
+                break;
+            bounds.add(newline + 1);
+            boundary = newline + 1 + chunkSize;
+        }
+        bounds.add(size);
+
+        final long[] result = new long[bounds.size()];
+        for(int i = 0; i < result.length; i++)
+            result[i] = bounds.get(i);
+        return result;
     }
 }
@@ -0,0 +1,398 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshOptimizer;
+import com.hmorgan.gfx.VertexFormat;
+import com.hmorgan.util.CacheFiles;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * On-disk cache of the meshes built from a .OBJ file. A cache file holds every mesh of a model in a
+ * compact binary form: the name, mesh type and material (colors and diffuse texture map path) of
+ * each mesh, followed by its interleaved vertex data (see {@link Mesh#getVertexData()}) and its
+ * element indices. Reading a cache file is a memory-map and a buffer view per mesh, there is no text
+ * parsing; the meshes returned by {@link #read(Path)} are backed by the mapped file.
+ * <p>
+ * A cache file is valid as long as the size and modification time of the .OBJ file and of the MTL
+ * files it references are the ones recorded when the file was written, and as long as the meshes are
+ * read for the {@link MeshOptimizer} settings they were written with. Cache files are stored next
+ * to the .OBJ file, or in a cache directory if one is given.
+ * <p>
+ * File layout, all values little-endian:
+ * <pre>
+ *   int    magic, version, header size (offset of the data section)
+ *   long   source size, source modification time
+ *   int    optimizer cache size (0 if the meshes were not optimized), optimizer flags
+ *   int    dependency count, then per dependency: string path, long size, long modification time
+ *   int    mesh count, then per mesh:
+ *            string name, byte mesh type, byte flags,
+ *            int specular, diffuse, ambient, emission (ARGB), float shininess, string texture path,
+ *            int vertex float count, int index count, long vertex data offset, long index offset
+ *   data section: float vertex data and int indices of each mesh
+ * </pre>
+ * Strings are an int byte count followed by UTF-8 bytes. Paths are stored relative to the .OBJ file
+ * where possible.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class ObjMeshCache {
+
+    private static final int MAGIC = 0x4D4A424F;    // "OBJM"
+    private static final int VERSION = 2;
+    private static final String EXTENSION = ".meshcache";
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int HAS_NORMALS = 1;
+    private static final int HAS_TEX_COORDS = 2;
+    private static final int HAS_INDICES = 4;
+    private static final int HAS_MATERIAL = 8;
+
+    private static final int REDUCE_OVERDRAW = 1;
+
+    private final Path cacheDirectory;      // null to store cache files next to the .OBJ files
+
+    /**
+     * Creates a cache that stores each cache file next to its .OBJ file.
+     */
+    public ObjMeshCache() {
+        this.cacheDirectory = null;
+    }
+
+    /**
+     * Creates a cache that stores its files in the given directory.
+     *
+     * @param cacheDirectory directory for the cache files, created when the first file is written
+     */
+    public ObjMeshCache(Path cacheDirectory) {
+        this.cacheDirectory = Objects.requireNonNull(cacheDirectory, "Cache directory cannot be null");
+    }
+
+    /**
+     * @param objFilePath Path to .OBJ file
+     * @return the cache file of the .OBJ file, which may not exist
+     */
+    public Path getCacheFile(Path objFilePath) {
+        final String fileName = objFilePath.getFileName().toString();
+        if(cacheDirectory == null)
+            return objFilePath.resolveSibling(fileName + EXTENSION);
+        // different .OBJ files with the same name must not share a cache file
+        return cacheDirectory.resolve(fileName + "." + CacheFiles.digest(objFilePath.toUri().toString()) + EXTENSION);
+    }
+
+    /**
+     * Reads the cached meshes of a .OBJ file.
+     *
+     * @param objFilePath Path to .OBJ file
+     * @return the meshes, keyed by name, or nothing if there is no valid cache file
+     * @throws IOException if the cache file exists but cannot be read
+     */
+    public Optional<Map<String, Mesh>> read(Path objFilePath) throws IOException {
+        return read(objFilePath, VertexFormat.FLOAT);
+    }
+
+    /**
+     * Reads the cached meshes of a .OBJ file, with their VBOs in the given format.
+     *
+     * @param objFilePath  Path to .OBJ file
+     * @param vertexFormat format of the meshes' VBOs
+     * @return the meshes, keyed by name, or nothing if there is no valid cache file
+     * @throws IOException if the cache file exists but cannot be read
+     */
+    public Optional<Map<String, Mesh>> read(Path objFilePath, VertexFormat vertexFormat) throws IOException {
+        return read(objFilePath, vertexFormat, 0);
+    }
+
+    /**
+     * Reads the cached meshes of a .OBJ file, with their VBOs in the given format, split into
+     * clusters of the given size.
+     *
+     * @param objFilePath  Path to .OBJ file
+     * @param vertexFormat format of the meshes' VBOs
+     * @param clusterSize  most triangles per cluster, 0 to not cluster
+     * @return the meshes, keyed by name, or nothing if there is no valid cache file
+     * @throws IOException if the cache file exists but cannot be read
+     */
+    public Optional<Map<String, Mesh>> read(Path objFilePath, VertexFormat vertexFormat, int clusterSize) throws IOException {
+        return read(objFilePath, vertexFormat, clusterSize, null);
+    }
+
+    /**
+     * Reads the cached meshes of a .OBJ file, with their VBOs in the given format, split into
+     * clusters of the given size. Meshes written with other optimizer settings are not read, so
+     * that a cache file never hands out meshes optimized differently than asked for. Optimized
+     * meshes read from the cache have no {@link Mesh#getOptimizationReport() optimization report}.
+     *
+     * @param objFilePath  Path to .OBJ file
+     * @param vertexFormat format of the meshes' VBOs
+     * @param clusterSize  most triangles per cluster, 0 to not cluster
+     * @param optimizer    optimizer the meshes must have been built with, null for meshes that were
+     *                     not optimized
+     * @return the meshes, keyed by name, or nothing if there is no valid cache file
+     * @throws IOException if the cache file exists but cannot be read
+     */
+    public Optional<Map<String, Mesh>> read(Path objFilePath, VertexFormat vertexFormat, int clusterSize,
+                                            MeshOptimizer optimizer) throws IOException {
+        final Path cacheFile = getCacheFile(objFilePath);
+        if(!Files.isRegularFile(cacheFile))
+            return Optional.empty();
+
+        try(FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            final ByteBuffer prefix = readFully(channel, 0, 12);
+            if(prefix.getInt() != MAGIC || prefix.getInt() != VERSION)
+                return Optional.empty();
+            final int headerSize = prefix.getInt();
+            if(headerSize < 12 || headerSize > channel.size())
+                return Optional.empty();
+            final ByteBuffer header = readFully(channel, 0, headerSize);
+            header.position(12);
+
+            if(!isCurrent(objFilePath, header.getLong(), header.getLong()))
+                return Optional.empty();
+            if(header.getInt() != optimizerCacheSize(optimizer) || header.getInt() != optimizerFlags(optimizer))
+                return Optional.empty();
+            final int dependencyCount = header.getInt();
+            for(int i = 0; i < dependencyCount; i++) {
+                final Path dependency = objFilePath.resolveSibling(getString(header));
+                if(!isCurrent(dependency, header.getLong(), header.getLong()))
+                    return Optional.empty();
+            }
+
+            // a single mapping covers the whole file unless it is too large for one
+            final long fileSize = channel.size();
+            final ByteBuffer mapped = (fileSize <= Integer.MAX_VALUE)
+                                      ? channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize)
+                                      : null;
+
+            final int meshCount = header.getInt();
+            final Map<String, Mesh> meshes = new HashMap<>(meshCount * 2);
+            for(int i = 0; i < meshCount; i++) {
+                final Mesh mesh = readMesh(objFilePath, header, channel, mapped, vertexFormat, clusterSize);
+                meshes.put(mesh.getName(), mesh);
+            }
+            return Optional.of(meshes);
+        } catch(BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            // truncated or otherwise malformed cache file, it will be rewritten
+            return Optional.empty();
+        }
+    }
+
+    private static Mesh readMesh(Path objFilePath, ByteBuffer header, FileChannel channel, ByteBuffer mapped,
+                                 VertexFormat vertexFormat, int clusterSize) throws IOException {
+        final Mesh.Builder meshBuilder = new Mesh.Builder();
+        meshBuilder.setVertexFormat(vertexFormat);
+        meshBuilder.setClusterSize(clusterSize);
+        meshBuilder.setName(getString(header));
+        meshBuilder.setMeshType(Mesh.MeshType.values()[header.get()]);
+        final int flags = header.get();
+
+        final Color specular = new Color(header.getInt(), true);
+        final Color diffuse = new Color(header.getInt(), true);
+        final Color ambient = new Color(header.getInt(), true);
+        final Color emission = new Color(header.getInt(), true);
+        final float shininess = header.getFloat();
+        final String texturePath = getString(header);
+        if((flags & HAS_MATERIAL) != 0) {
+            meshBuilder.setMaterial(WavefrontMaterial.restore(specular, diffuse, ambient, emission, shininess,
+                                                              texturePath.isEmpty() ? null : objFilePath.resolveSibling(texturePath)));
+        } else {
+            meshBuilder.setMaterial(null);
+        }
+
+        final int vertexFloatCount = header.getInt();
+        final int indexCount = header.getInt();
+        final long vertexOffset = header.getLong();
+        final long indexOffset = header.getLong();
+
+        final FloatBuffer vertexData = region(channel, mapped, vertexOffset, vertexFloatCount * 4L).asFloatBuffer();
+        meshBuilder.setVertexData(vertexData, (flags & HAS_NORMALS) != 0, (flags & HAS_TEX_COORDS) != 0);
+        if((flags & HAS_INDICES) != 0)
+            meshBuilder.setIndices(region(channel, mapped, indexOffset, indexCount * 4L).asIntBuffer());
+        return meshBuilder.build();
+    }
+
+    /**
+     * Writes the meshes of a .OBJ file to its cache file, replacing any previous one.
+     *
+     * @param objFilePath  Path to .OBJ file
+     * @param meshes       the meshes built from the .OBJ file
+     * @param dependencies other files the meshes were built from, e.g. MTL files
+     * @throws IOException if the cache file cannot be written
+     */
+    public void write(Path objFilePath, Map<String, Mesh> meshes, List<Path> dependencies) throws IOException {
+        write(objFilePath, meshes, dependencies, null);
+    }
+
+    /**
+     * Writes the meshes of a .OBJ file to its cache file, replacing any previous one.
+     *
+     * @param objFilePath  Path to .OBJ file
+     * @param meshes       the meshes built from the .OBJ file
+     * @param dependencies other files the meshes were built from, e.g. MTL files
+     * @param optimizer    optimizer the meshes were built with, or null if they were not optimized
+     * @throws IOException if the cache file cannot be written
+     */
+    public void write(Path objFilePath, Map<String, Mesh> meshes, List<Path> dependencies,
+                      MeshOptimizer optimizer) throws IOException {
+        final Path cacheFile = getCacheFile(objFilePath);
+        if(cacheDirectory != null)
+            Files.createDirectories(cacheDirectory);
+
+        // encode the strings first, the header size depends on them
+        final List<Mesh> meshList = new ArrayList<>(meshes.values());
+        final byte[][] dependencyNames = new byte[dependencies.size()][];
+        final byte[][] meshNames = new byte[meshList.size()][];
+        final byte[][] texturePaths = new byte[meshList.size()][];
+        int headerSize = 12 + 16 + 8 + 4 + 4;
+        for(int i = 0; i < dependencyNames.length; i++) {
+            dependencyNames[i] = encode(relativePath(objFilePath, dependencies.get(i)));
+            headerSize += 4 + dependencyNames[i].length + 16;
+        }
+        for(int i = 0; i < meshList.size(); i++) {
+            final Mesh mesh = meshList.get(i);
+            meshNames[i] = encode(mesh.getName());
+            final Path texturePath = mesh.getMaterial().map(WavefrontMaterial::getDiffuseTextureMapPath).orElse(null);
+            texturePaths[i] = encode((texturePath != null) ? relativePath(objFilePath, texturePath) : "");
+            headerSize += 4 + meshNames[i].length + 2 + 20 + 4 + texturePaths[i].length + 24;
+        }
+        headerSize = (headerSize + 3) & ~3;     // keep the data section 4-byte aligned
+
+        final ByteBuffer header = ByteBuffer.allocate(headerSize).order(ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(headerSize);
+        header.putLong(Files.size(objFilePath)).putLong(Files.getLastModifiedTime(objFilePath).toMillis());
+        header.putInt(optimizerCacheSize(optimizer)).putInt(optimizerFlags(optimizer));
+        header.putInt(dependencies.size());
+        for(int i = 0; i < dependencyNames.length; i++) {
+            putString(header, dependencyNames[i]);
+            header.putLong(Files.size(dependencies.get(i))).putLong(Files.getLastModifiedTime(dependencies.get(i)).toMillis());
+        }
+        header.putInt(meshList.size());
+        long dataOffset = headerSize;
+        for(int i = 0; i < meshList.size(); i++) {
+            final Mesh mesh = meshList.get(i);
+            putString(header, meshNames[i]);
+            header.put((byte) mesh.getMeshType().ordinal());
+            int flags = 0;
+            flags |= mesh.hasNormals() ? HAS_NORMALS : 0;
+            flags |= mesh.hasTexCoords() ? HAS_TEX_COORDS : 0;
+            flags |= mesh.getIndices().isPresent() ? HAS_INDICES : 0;
+            flags |= mesh.getMaterial().isPresent() ? HAS_MATERIAL : 0;
+            header.put((byte) flags);
+
+            final WavefrontMaterial material = mesh.getMaterial().orElse(WavefrontMaterial.GRAY);
+            header.putInt(material.getSpecular().getRGB());
+            header.putInt(material.getDiffuse().getRGB());
+            header.putInt(material.getAmbient().getRGB());
+            header.putInt(material.getEmission().getRGB());
+            header.putFloat((float) material.getShininess());
+            putString(header, texturePaths[i]);
+
+            final int vertexFloatCount = mesh.getVertexData().limit();
+            final int indexCount = mesh.getIndices().map(IntBuffer::limit).orElse(0);
+            header.putInt(vertexFloatCount).putInt(indexCount);
+            header.putLong(dataOffset).putLong(dataOffset + vertexFloatCount * 4L);
+            dataOffset += (vertexFloatCount + indexCount) * 4L;
+        }
+        header.rewind();
+
+        // write to a temporary file first, so that a reader never sees a partial cache file
+        CacheFiles.replace(cacheFile, tempFile -> {
+            try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                                                                 StandardOpenOption.TRUNCATE_EXISTING,
+                                                                 StandardOpenOption.WRITE)) {
+                writeFully(channel, header);
+                for(Mesh mesh : meshList) {
+                    final FloatBuffer vertexData = mesh.getVertexData();
+                    final ByteBuffer vertexBytes = ByteBuffer.allocate(vertexData.limit() * 4).order(ORDER);
+                    vertexBytes.asFloatBuffer().put(vertexData);
+                    writeFully(channel, vertexBytes);
+
+                    if(mesh.getIndices().isPresent()) {
+                        final IntBuffer indices = mesh.getIndices().get().duplicate();
+                        indices.rewind();
+                        final ByteBuffer indexBytes = ByteBuffer.allocate(indices.limit() * 4).order(ORDER);
+                        indexBytes.asIntBuffer().put(indices);
+                        writeFully(channel, indexBytes);
+                    }
+                }
+            }
+        });
+    }
+
+    private static int optimizerCacheSize(MeshOptimizer optimizer) {
+        return (optimizer != null) ? optimizer.getCacheSize() : 0;
+    }
+
+    private static int optimizerFlags(MeshOptimizer optimizer) {
+        return (optimizer != null && optimizer.isReduceOverdraw()) ? REDUCE_OVERDRAW : 0;
+    }
+
+    private static boolean isCurrent(Path file, long size, long modified) throws IOException {
+        return Files.isRegularFile(file)
+               && Files.size(file) == size
+               && Files.getLastModifiedTime(file).toMillis() == modified;
+    }
+
+    /**
+     * @return a view of part of the cache file, in the cache file byte order
+     */
+    private static ByteBuffer region(FileChannel channel, ByteBuffer mapped, long offset, long length) throws IOException {
+        if(mapped == null)
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ORDER);
+        final ByteBuffer region = mapped.duplicate();
+        region.position((int) offset);
+        region.limit((int) (offset + length));
+        return region.slice().order(ORDER);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ORDER);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new BufferUnderflowException();
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    private static String relativePath(Path objFilePath, Path path) {
+        try {
+            final Path parent = objFilePath.toAbsolutePath().getParent();
+            if(parent != null)
+                return parent.relativize(path.toAbsolutePath()).toString();
+        } catch(IllegalArgumentException e) {
+            // different file system or root, fall through
+        }
+        return path.toAbsolutePath().toString();
+    }
+
+    private static byte[] encode(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
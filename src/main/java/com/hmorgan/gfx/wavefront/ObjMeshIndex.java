@@ -0,0 +1,441 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshOptimizer;
+import com.hmorgan.gfx.VertexFormat;
+import com.hmorgan.util.FloatList;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Byte offset index of the meshes of a .OBJ file, so that some of its meshes can be loaded without
+ * parsing the rest of the file. See {@link ObjLoader#indexObjMeshes(Path)}.
+ * <p>
+ * Indexing scans the whole file once, but neither parses vertex attributes nor builds meshes. It
+ * remembers where the runs of 'v', 'vt' and 'vn' records are, and for every mesh where its 'f' records
+ * are and which attributes they refer to. Loading a mesh then only reads and parses those parts of
+ * the file. Meshes are named, and later meshes replace earlier ones of the same name, exactly as in
+ * {@link ObjLoader#loadObjMeshes(Path)}.
+ * <p>
+ * The index is immutable and can be used by several threads. It belongs to one version of the file:
+ * loading from it fails once the file has been modified.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class ObjMeshIndex {
+
+    private static final int MAX_RUN_BYTES = 16 << 20;     // bounds the buffer a run is read into
+
+    /**
+     * A run of consecutive attribute or face records: its byte range, and how many vertices, texture
+     * coordinates and normals precede it and the records in it.
+     */
+    private static final class Run {
+        final long start;
+        long end;
+        final int[] countsBefore;
+        int[] countsAfter;
+        int faces;
+
+        Run(long start, int[] counts) {
+            this.start = start;
+            this.end = start;
+            this.countsBefore = counts.clone();
+            this.countsAfter = countsBefore;
+        }
+    }
+
+    /**
+     * Where the faces of a mesh are, and the range of attributes they refer to.
+     */
+    private static final class Entry {
+        final String name;
+        final Mesh.MeshType meshType;
+        final WavefrontMaterial material;
+        final List<Run> faceRuns;
+        final int[] minIndex;       // smallest referenced vertex, texture coordinate and normal index
+        final int[] maxIndex;       // largest ones, -1 if none is referenced
+        final int faceCount;
+
+        Entry(Mesh.Builder builder, List<Run> faceRuns, int[] minIndex, int[] maxIndex) {
+            this.name = builder.getName();
+            this.meshType = builder.getMeshType();
+            this.material = builder.getMaterial();
+            this.faceRuns = faceRuns;
+            this.minIndex = minIndex;
+            this.maxIndex = maxIndex;
+            int faces = 0;
+            for(Run run : faceRuns)
+                faces += run.faces;
+            this.faceCount = faces;
+        }
+    }
+
+    private final Path filePath;
+    private final long fileSize;
+    private final FileTime lastModified;
+    private final List<Run> attributeRuns;      // in file order
+    private final Map<String, Entry> entries;   // in file order
+
+    private ObjMeshIndex(Path filePath, BasicFileAttributes attributes, List<Run> attributeRuns,
+                         Map<String, Entry> entries) {
+        this.filePath = filePath;
+        this.fileSize = attributes.size();
+        this.lastModified = attributes.lastModifiedTime();
+        this.attributeRuns = attributeRuns;
+        this.entries = entries;
+    }
+
+    /**
+     * @return the indexed .OBJ file
+     */
+    public Path getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * @return names of the meshes of the file, in file order
+     */
+    public Set<String> getMeshNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * @param meshName name of a mesh
+     * @return number of faces of the mesh, or 0 if the file has no such mesh
+     */
+    public int getFaceCount(String meshName) {
+        final Entry entry = entries.get(meshName);
+        return (entry != null) ? entry.faceCount : 0;
+    }
+
+    /**
+     * Indexes a .OBJ file. The MTL files it refers to are read, since a mesh needs its material.
+     *
+     * @param filePath             Path to .OBJ file
+     * @param materialLibraryCache cache to take the materials of MTL files from, or null to parse
+     *                             every MTL file
+     * @return the index
+     * @throws IOException if the file cannot be read, or is not a valid .OBJ file
+     */
+    static ObjMeshIndex build(Path filePath, MaterialLibraryCache materialLibraryCache) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        try(ObjScanner scanner = ObjScanner.open(filePath)) {
+            final IndexingVisitor visitor = new IndexingVisitor(scanner, new ObjMeshVisitor(filePath, materialLibraryCache));
+            ObjReader.scan(scanner, filePath, visitor);
+            return new ObjMeshIndex(filePath, attributes, visitor.attributeRuns, visitor.entries);
+        }
+    }
+
+    /**
+     * Loads the meshes accepted by a filter.
+     *
+     * @param meshFilter   accepts the names of the meshes to load
+     * @param vertexFormat format of the meshes' VBOs
+     * @param optimizer    optimizer of the meshes, may be null
+     * @param clusterSize  most triangles per cluster of the meshes, 0 to not cluster
+     * @return the meshes, keyed by name
+     * @throws IOException if the file cannot be read, or has been modified since it was indexed
+     */
+    Map<String, Mesh> loadMeshes(Predicate<String> meshFilter, VertexFormat vertexFormat, MeshOptimizer optimizer,
+                                 int clusterSize) throws IOException {
+        final Map<String, Mesh> meshes = new LinkedHashMap<>();
+        try(FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            final BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            if(attributes.size() != fileSize || !attributes.lastModifiedTime().equals(lastModified))
+                throw new IOException(filePath + " has been modified since it was indexed");
+
+            for(Entry entry : entries.values()) {
+                if(meshFilter.test(entry.name))
+                    meshes.put(entry.name, loadMesh(channel, entry, vertexFormat, optimizer, clusterSize));
+            }
+        }
+        return meshes;
+    }
+
+    /**
+     * Reads the attribute runs the mesh refers to and its face runs, and builds the mesh from the
+     * referenced attributes only; indices are rebased to the smallest referenced ones.
+     */
+    private Mesh loadMesh(FileChannel channel, Entry entry, VertexFormat vertexFormat, MeshOptimizer optimizer,
+                          int clusterSize) throws IOException {
+        final AttributeCollector attributes = new AttributeCollector(entry);
+        for(Run run : attributeRuns) {
+            if(isReferenced(entry, run))
+                read(channel, run, attributes);
+        }
+
+        final ObjIndexBuffer indices = new ObjIndexBuffer();
+        final ObjVisitor faceCollector = new ObjVisitor() {
+            @Override
+            public void visitFace(int[] corners, int cornerCount) {
+                for(int slot = 0; slot < cornerCount * 3; slot += 3) {
+                    indices.add(corners[slot] - entry.minIndex[0],
+                                rebase(corners[slot + 1], entry.minIndex[1]),
+                                rebase(corners[slot + 2], entry.minIndex[2]));
+                }
+                indices.endFace();
+            }
+        };
+        for(Run run : entry.faceRuns)
+            read(channel, run, faceCollector);
+
+        final Mesh.Builder builder = new Mesh.Builder()
+                .setName(entry.name)
+                .setMeshType(entry.meshType)
+                .setMaterial(entry.material)
+                .setVertexFormat(vertexFormat)
+                .setOptimizer(optimizer)
+                .setClusterSize(clusterSize);
+        return ObjMeshVisitor.buildMeshV2(builder, attributes.vertices, attributes.textureCoords, attributes.normals, indices);
+    }
+
+    /**
+     * Parses a run with the records before it taken into account.
+     */
+    private void read(FileChannel channel, Run run, ObjVisitor visitor) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) (run.end - run.start));
+        long position = run.start;
+        while(buffer.hasRemaining()) {
+            final int n = channel.read(buffer, position);
+            if(n < 0)
+                throw new EOFException("Unexpected end of " + filePath + " at byte " + position);
+            position += n;
+        }
+        buffer.flip();
+
+        if(visitor instanceof AttributeCollector)
+            ((AttributeCollector) visitor).startRun(run);
+        ObjReader.read(new ObjScanner(buffer), filePath, visitor,
+                       run.countsBefore[0], run.countsBefore[1], run.countsBefore[2]);
+    }
+
+    private static boolean isReferenced(Entry entry, int attribute, int index) {
+        return entry.minIndex[attribute] <= index && index <= entry.maxIndex[attribute];
+    }
+
+    private static boolean isReferenced(Entry entry, Run run) {
+        for(int attribute = 0; attribute < 3; attribute++) {
+            if(entry.minIndex[attribute] < run.countsAfter[attribute] && run.countsBefore[attribute] <= entry.maxIndex[attribute])
+                return true;
+        }
+        return false;
+    }
+
+    private static int rebase(int index, int minIndex) {
+        return (index == ObjIndexBuffer.ABSENT) ? ObjIndexBuffer.ABSENT : index - minIndex;
+    }
+
+    /**
+     * Collects the attributes a mesh refers to from the attribute runs, in file order.
+     */
+    private static final class AttributeCollector implements ObjVisitor {
+        final FloatList vertices = new FloatList();
+        final FloatList textureCoords = new FloatList();
+        final FloatList normals = new FloatList();
+        private final Entry entry;
+        private final int[] index = new int[3];     // of the next vertex, texture coordinate and normal
+
+        AttributeCollector(Entry entry) {
+            this.entry = entry;
+        }
+
+        void startRun(Run run) {
+            System.arraycopy(run.countsBefore, 0, index, 0, 3);
+        }
+
+        @Override
+        public void visitVertex(float x, float y, float z) {
+            if(isReferenced(entry, 0, index[0]++))
+                vertices.add(x, y, z);
+        }
+
+        @Override
+        public void visitTextureCoord(float u, float v) {
+            if(isReferenced(entry, 1, index[1]++)) {
+                textureCoords.add(u);
+                textureCoords.add(v);
+            }
+        }
+
+        @Override
+        public void visitNormal(float x, float y, float z) {
+            if(isReferenced(entry, 2, index[2]++))
+                normals.add(x, y, z);
+        }
+    }
+
+    /**
+     * Drives an {@link ObjMeshVisitor} through the records of a file, so that meshes are named and
+     * get their materials exactly as in a full load, and records the runs of attribute and face
+     * records and the meshes they belong to.
+     */
+    private static final class IndexingVisitor implements ObjVisitor {
+        final List<Run> attributeRuns = new ArrayList<>();
+        final Map<String, Entry> entries = new LinkedHashMap<>();
+        private final ObjScanner scanner;
+        private final ObjMeshVisitor meshVisitor;
+        private final int[] counts = new int[3];    // vertices, texture coordinates and normals so far
+        private long recordStart;                   // end of the previous record
+        private Run attributeRun;                   // null unless the previous record was an attribute
+        private Run faceRun;                        // null unless the previous record was a face
+
+        // the mesh being indexed
+        private List<Run> faceRuns;
+        private int[] minIndex;
+        private int[] maxIndex;
+
+        IndexingVisitor(ObjScanner scanner, ObjMeshVisitor meshVisitor) {
+            this.scanner = scanner;
+            this.meshVisitor = meshVisitor;
+            meshVisitor.setMeshSink(this::addEntry);
+            startMesh();
+        }
+
+        private void startMesh() {
+            faceRuns = new ArrayList<>();
+            minIndex = new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE };
+            maxIndex = new int[] { -1, -1, -1 };
+            faceRun = null;
+        }
+
+        private void addEntry(Mesh.Builder builder) {
+            // a later mesh of the same name replaces the earlier one, also in the iteration order
+            entries.remove(builder.getName());
+            entries.put(builder.getName(), new Entry(builder, faceRuns, minIndex, maxIndex));
+            startMesh();
+        }
+
+        @Override
+        public void visitVertex(float x, float y, float z) throws IOException {
+            visitAttribute(ObjScanner.Keyword.V, 0);
+        }
+
+        @Override
+        public void visitTextureCoord(float u, float v) throws IOException {
+            visitAttribute(ObjScanner.Keyword.VT, 1);
+        }
+
+        @Override
+        public void visitNormal(float x, float y, float z) throws IOException {
+            visitAttribute(ObjScanner.Keyword.VN, 2);
+        }
+
+        private void visitAttribute(ObjScanner.Keyword keyword, int attribute) throws IOException {
+            meshVisitor.processRecord(keyword, null);
+            faceRun = null;
+            if(attributeRun == null || attributeRun.end - attributeRun.start >= MAX_RUN_BYTES) {
+                attributeRun = new Run(recordStart, counts);
+                attributeRuns.add(attributeRun);
+            }
+            counts[attribute]++;
+            attributeRun.countsAfter = counts.clone();
+            endRecord();
+        }
+
+        @Override
+        public void visitFace(int[] corners, int cornerCount) throws IOException {
+            meshVisitor.processRecord(ObjScanner.Keyword.F, null);
+            attributeRun = null;
+            if(faceRun == null || faceRun.end - faceRun.start >= MAX_RUN_BYTES) {
+                faceRun = new Run(recordStart, counts);
+                faceRuns.add(faceRun);
+            }
+            faceRun.faces++;
+            for(int slot = 0; slot < cornerCount * 3; slot++) {
+                final int index = corners[slot];
+                if(index != ObjIndexBuffer.ABSENT) {
+                    minIndex[slot % 3] = Math.min(minIndex[slot % 3], index);
+                    maxIndex[slot % 3] = Math.max(maxIndex[slot % 3], index);
+                }
+            }
+            endRecord();
+        }
+
+        @Override
+        public void visitLine(int[] corners, int cornerCount) throws IOException {
+            meshVisitor.visitLine(corners, cornerCount);
+            endOtherRecord();
+        }
+
+        @Override
+        public void visitObject(String name) throws IOException {
+            meshVisitor.visitObject(name);
+            endOtherRecord();
+        }
+
+        @Override
+        public void visitGroup(String name) throws IOException {
+            meshVisitor.visitGroup(name);
+            endOtherRecord();
+        }
+
+        @Override
+        public void visitUseMaterial(String name) throws IOException {
+            meshVisitor.visitUseMaterial(name);
+            endOtherRecord();
+        }
+
+        @Override
+        public void visitSmoothingGroup(String group) throws IOException {
+            meshVisitor.visitSmoothingGroup(group);
+            endOtherRecord();
+        }
+
+        @Override
+        public boolean visitMaterialLibrary(Path mtlFilePath) throws IOException {
+            final boolean readMaterials = meshVisitor.visitMaterialLibrary(mtlFilePath);
+            endOtherRecord();
+            return readMaterials;
+        }
+
+        @Override
+        public void visitMaterial(String name, WavefrontMaterial material) {
+            meshVisitor.visitMaterial(name, material);
+        }
+
+        @Override
+        public void visitUnknown(String keyword) throws IOException {
+            meshVisitor.visitUnknown(keyword);
+            endOtherRecord();
+        }
+
+        @Override
+        public void visitEnd() {
+            meshVisitor.visitEnd();
+        }
+
+        private void endOtherRecord() {
+            attributeRun = null;
+            faceRun = null;
+            endRecord();
+        }
+
+        /**
+         * Extends the current run up to the end of the record just visited. Blank lines and comments
+         * before a record belong to it.
+         */
+        private void endRecord() {
+            recordStart = scanner.getBytesScanned();
+            if(attributeRun != null)
+                attributeRun.end = recordStart;
+            if(faceRun != null)
+                faceRun.end = recordStart;
+        }
+    }
+}
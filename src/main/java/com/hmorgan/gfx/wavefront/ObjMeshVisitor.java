@@ -0,0 +1,564 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshOptimizer;
+import com.hmorgan.gfx.TextureManager;
+import com.hmorgan.gfx.VertexFormat;
+import com.hmorgan.util.FloatList;
+import com.hmorgan.util.IntTripleMap;
+import com.jogamp.common.nio.Buffers;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The {@link ObjVisitor} behind {@link ObjLoader}. It collects the vertex attributes and face corners
+ * reported by an {@link ObjReader} and builds a {@link Mesh} for every object, group and material
+ * change, following the state machine below.
+ * <p>
+ * {@link ObjLoader#loadObjMeshesParallel} does not go through {@link ObjReader}; it appends whole
+ * attribute pools and face runs and replays the remaining records through {@link #processRecord}.
+ * <p>
+ * A visitor builds the meshes of a single file, and is <i>not</i> thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+final class ObjMeshVisitor implements ObjVisitor {
+
+    private final Map<String, Mesh> meshes;
+    private final Set<String> meshNames;    // names of the meshes finished so far, built or not
+    private ParserState state;
+    private final FloatList vertices;       // x/y/z per vertex
+    private final FloatList textureCoords;  // u/v per texture coordinate
+    private final FloatList normals;        // x/y/z per normal
+    private ObjIndexBuffer indices;         // face corners of the mesh being built
+    private final Map<String, WavefrontMaterial> materials;
+    private final List<Path> materialLibraries;
+    private final MaterialLibraryCache materialLibraryCache;   // null if every MTL file is parsed
+    private LoadMetrics metrics;            // null if no metrics are collected
+    private Consumer<Mesh.Builder> meshSink;    // non-null if meshes are only indexed, not built
+    private VertexFormat vertexFormat = VertexFormat.FLOAT;
+    private MeshOptimizer meshOptimizer;    // null if meshes are not optimized
+    private int meshClusterSize;            // 0 if meshes are not clustered
+    private TextureManager textureManager;  // null if textures are not requested while loading
+
+    private Mesh.Builder meshBuilder;       // mesh currently being built
+    private final String fileName;
+    private String currObjName;
+
+    private enum ParserState {
+        START,
+        INIT,
+        NEW_OBJECT,
+        PROCESS_VNT,
+        NEW_GROUP,
+        PROCESS_VERTS,
+        READ_EOF
+    }
+
+    /**
+     * @param filePath Path to .OBJ file being loaded
+     */
+    ObjMeshVisitor(Path filePath) {
+        this(filePath, null);
+    }
+
+    /**
+     * @param filePath             Path to .OBJ file being loaded
+     * @param materialLibraryCache cache to take the materials of MTL files from, or null to parse
+     *                             every MTL file
+     */
+    ObjMeshVisitor(Path filePath, MaterialLibraryCache materialLibraryCache) {
+        this.materialLibraryCache = materialLibraryCache;
+        meshes = new HashMap<>();
+        meshNames = new HashSet<>();
+        state = ParserState.INIT;
+
+        vertices = new FloatList();
+        textureCoords = new FloatList();
+        normals = new FloatList();
+        indices = new ObjIndexBuffer();
+        materials = new HashMap<>();
+        materialLibraries = new ArrayList<>();
+
+        meshBuilder = null;
+        fileName = filePath.getFileName().toString();
+        currObjName = "";
+    }
+
+    /**
+     * @param metrics metrics to add material, mesh building and texture decoding to, or null
+     */
+    void setMetrics(LoadMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param vertexFormat format of the VBOs of the meshes built
+     */
+    void setVertexFormat(VertexFormat vertexFormat) {
+        this.vertexFormat = vertexFormat;
+    }
+
+    /**
+     * @param meshOptimizer optimizer of the meshes built, may be null
+     */
+    void setMeshOptimizer(MeshOptimizer meshOptimizer) {
+        this.meshOptimizer = meshOptimizer;
+    }
+
+    /**
+     * @return optimizer of the meshes built, may be null
+     */
+    MeshOptimizer getMeshOptimizer() {
+        return meshOptimizer;
+    }
+
+    /**
+     * @param meshClusterSize most triangles per cluster of the meshes built, 0 to not cluster
+     */
+    void setMeshClusterSize(int meshClusterSize) {
+        this.meshClusterSize = meshClusterSize;
+    }
+
+    /**
+     * @param textureManager decodes the textures of the meshes built as they are built, may be null
+     */
+    void setTextureManager(TextureManager textureManager) {
+        this.textureManager = textureManager;
+    }
+
+    /**
+     * Makes the visitor hand the builder of every finished mesh to {@code meshSink} instead of
+     * building the mesh. Used by {@link ObjMeshIndex}, which only drives the state machine.
+     *
+     * @param meshSink receives the builder of each mesh, in file order
+     */
+    void setMeshSink(Consumer<Mesh.Builder> meshSink) {
+        this.meshSink = meshSink;
+    }
+
+    /**
+     * @return the meshes, keyed by name, complete once {@link #visitEnd()} has been called; empty if
+     *         the builders are handed to a {@link #setMeshSink mesh sink}
+     */
+    Map<String, Mesh> getMeshes() {
+        return meshes;
+    }
+
+    /**
+     * @return the MTL files referenced by the .OBJ file, in file order
+     */
+    List<Path> getMaterialLibraries() {
+        return materialLibraries;
+    }
+
+    @Override
+    public void visitVertex(float x, float y, float z) throws IOException {
+        processRecord(ObjScanner.Keyword.V, null);
+        vertices.add(x, y, z);
+    }
+
+    @Override
+    public void visitTextureCoord(float u, float v) throws IOException {
+        processRecord(ObjScanner.Keyword.VT, null);
+        textureCoords.add(u);
+        textureCoords.add(v);
+    }
+
+    @Override
+    public void visitNormal(float x, float y, float z) throws IOException {
+        processRecord(ObjScanner.Keyword.VN, null);
+        normals.add(x, y, z);
+    }
+
+    @Override
+    public void visitFace(int[] corners, int cornerCount) throws IOException {
+        processRecord(ObjScanner.Keyword.F, null);
+        for(int slot = 0; slot < cornerCount * 3; slot += 3)
+            indices.add(corners[slot], corners[slot + 1], corners[slot + 2]);
+        indices.endFace();
+    }
+
+    @Override
+    public void visitLine(int[] corners, int cornerCount) throws IOException {
+        processRecord(ObjScanner.Keyword.L, null);
+    }
+
+    @Override
+    public void visitObject(String name) throws IOException {
+        processRecord(ObjScanner.Keyword.O, name);
+    }
+
+    @Override
+    public void visitGroup(String name) throws IOException {
+        processRecord(ObjScanner.Keyword.G, name);
+    }
+
+    @Override
+    public void visitUseMaterial(String name) throws IOException {
+        processRecord(ObjScanner.Keyword.USEMTL, name);
+    }
+
+    @Override
+    public void visitSmoothingGroup(String group) throws IOException {
+        processRecord(ObjScanner.Keyword.S, null);
+    }
+
+    @Override
+    public boolean visitMaterialLibrary(Path mtlFilePath) throws IOException {
+        processRecord(ObjScanner.Keyword.MTLLIB, null);
+        materialLibraries.add(mtlFilePath);
+        final long start = (metrics != null) ? System.nanoTime() : 0;
+        try {
+            if(materialLibraryCache == null) {
+                ObjReader.readMaterials(mtlFilePath, this);
+                return false;
+            }
+
+            // the materials are copied out right away, so the library need not stay acquired
+            final MaterialLibraryCache.Library library = materialLibraryCache.acquire(mtlFilePath);
+            try {
+                materials.putAll(library.getMaterials());
+            } finally {
+                materialLibraryCache.release(library);
+            }
+            return false;
+        } finally {
+            if(metrics != null)
+                metrics.endPhase(LoadMetrics.Phase.MATERIALS, start);
+        }
+    }
+
+    @Override
+    public void visitMaterial(String name, WavefrontMaterial material) {
+        materials.put(name, material);
+    }
+
+    @Override
+    public void visitUnknown(String keyword) throws IOException {
+        processRecord(ObjScanner.Keyword.UNKNOWN, keyword);
+    }
+
+    /**
+     * Builds the last mesh once all records have been processed.
+     */
+    @Override
+    public void visitEnd() {
+        state = ParserState.READ_EOF;
+
+        buildMesh();
+    }
+
+    /**
+     * Builds the mesh of the current builder from the faces collected for it.
+     */
+    private void buildMesh() {
+        // later meshes are numbered by the number of distinct names so far
+        meshNames.add(meshBuilder.getName());
+        if(meshSink != null) {
+            meshSink.accept(meshBuilder);
+            return;
+        }
+        meshBuilder.setVertexFormat(vertexFormat)
+                   .setOptimizer(meshOptimizer)
+                   .setClusterSize(meshClusterSize);
+        if(metrics == null) {
+            final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
+            meshes.put(mesh.getName(), mesh);
+            requestTexture(mesh, null);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final Mesh mesh = buildMeshV2(meshBuilder, vertices, textureCoords, normals, indices);
+        meshes.put(mesh.getName(), mesh);
+        metrics.endPhase(LoadMetrics.Phase.MESH_BUILD, start);
+        requestTexture(mesh, metrics::textureDecoded);
+        metrics.addMesh(indices.getFaceCount(), mesh.getVertexCount(), 4L * mesh.getVertexData().limit(),
+                        4L * mesh.getIndices().map(IntBuffer::limit).orElse(0));
+    }
+
+    /**
+     * Starts decoding the texture of a mesh, so that it is likely ready once the mesh is drawn.
+     *
+     * @param listener told about the texture once it is decoded, may be null
+     */
+    private void requestTexture(Mesh mesh, TextureManager.DecodeListener listener) {
+        if(textureManager != null)
+            mesh.getTexturePath().ifPresent(path -> textureManager.request(path, listener));
+    }
+
+    /**
+     * Appends parsed attribute pools, as if their 'v', 'vt' and 'vn' records had been visited.
+     * Only valid while the state machine accepts attributes.
+     */
+    void addAttributes(FloatList chunkVertices, FloatList chunkTextureCoords, FloatList chunkNormals) {
+        vertices.addAll(chunkVertices);
+        textureCoords.addAll(chunkTextureCoords);
+        normals.addAll(chunkNormals);
+    }
+
+    int getVertexCount() {
+        return vertices.size() / 3;
+    }
+
+    int getTextureCoordCount() {
+        return textureCoords.size() / 2;
+    }
+
+    int getNormalCount() {
+        return normals.size() / 3;
+    }
+
+    /**
+     * @return the face corners of the mesh currently being built
+     */
+    ObjIndexBuffer getIndices() {
+        return indices;
+    }
+
+    /**
+     * Advances the parser state machine by one record. Attribute ('v', 'vn', 'vt') and face corner data
+     * is not handled here, only the effect the record has on the state and on the mesh being built.
+     *
+     * @param keyword  the record keyword
+     * @param argument the name for 'o', 'g' and 'usemtl', or the keyword text for unknown records
+     * @throws IOException if the record is not allowed in the current state
+     */
+    void processRecord(ObjScanner.Keyword keyword, String argument) throws IOException {
+        switch(state) {
+            case INIT:
+                switch(keyword) {
+                    case O:
+                        state = ParserState.PROCESS_VNT;
+                        indices = new ObjIndexBuffer();
+                        currObjName = fileName + ". " + argument;
+                        break;
+                    case MTLLIB:
+                        // materials arrive through visitMaterial
+                        break;
+                    default:
+                        throw illegalToken(keyword, argument);
+                }
+                break;
+            case PROCESS_VNT:
+                switch(keyword) {
+                    case V:
+                    case VN:
+                    case VT:
+                        break;
+                    case F:
+                        state = ParserState.PROCESS_VERTS;
+                        meshBuilder = new Mesh.Builder();
+                        meshBuilder.setName(currObjName);
+                        meshBuilder.setMeshType(Mesh.MeshType.POLYGON_MESH);
+                        break;
+                    case G:
+                        state = ParserState.PROCESS_VERTS;
+                        meshBuilder = new Mesh.Builder();
+                        meshBuilder.setName(currObjName + "." + argument);
+                        break;
+                    case USEMTL: {
+                        state = ParserState.PROCESS_VERTS;
+                        meshBuilder = new Mesh.Builder();
+                        meshBuilder.setName(currObjName);
+                        final WavefrontMaterial material = materials.get(argument);
+                        if(material != null) {
+                            meshBuilder.setMaterial(material);
+                        } else {
+                            throw new IOException("material " + argument + " not found in any of the MTL files");
+                        }
+                        break;
+                    }
+                    case S:
+                        // ignore smoothing group
+                        break;
+                    default:
+                        throw illegalToken(keyword, argument);
+                }
+                break;
+            case PROCESS_VERTS:
+                switch(keyword) {
+                    case O: {
+                        state = ParserState.PROCESS_VNT;
+
+                        // current mesh builder needs to be built and put in list
+                        buildMesh();
+
+                        indices = new ObjIndexBuffer();
+                        currObjName = fileName + ". " + argument;
+
+                        meshBuilder = new Mesh.Builder();
+                        meshBuilder.setName(currObjName + "." + argument);
+                        break;
+                    }
+                    case G: {
+                        // current mesh builder needs to be built and put in list
+                        buildMesh();
+                        indices = new ObjIndexBuffer();
+                        meshBuilder = new Mesh.Builder();
+                        meshBuilder.setName(currObjName + "." + argument);
+                        break;
+                    }
+
+                    case F:
+                        meshBuilder.setMeshType(Mesh.MeshType.POLYGON_MESH);
+                        break;
+
+                    case L:
+                        break;
+
+                    case USEMTL: {
+                        // current mesh builder needs to be built and put in list
+                        buildMesh();
+                        indices = new ObjIndexBuffer();
+                        meshBuilder = new Mesh.Builder();
+                        meshBuilder.setName(currObjName + "." + String.valueOf(meshNames.size()));
+                        final WavefrontMaterial material = materials.get(argument);
+                        if(material != null) {
+                            meshBuilder.setMaterial(material);
+                        } else {
+                            throw new IOException("material " + argument + " not found in any of the MTL files");
+                        }
+                        break;
+                    }
+
+                    case S:
+                        // ignore smoothing groups
+                        break;
+
+                    default:
+                        throw illegalToken(keyword, argument);
+                }
+                break;
+            case READ_EOF:
+                break;
+        }
+    }
+
+    private static IOException illegalToken(ObjScanner.Keyword keyword, String argument) {
+        final String token = (keyword == ObjScanner.Keyword.UNKNOWN) ? argument : keyword.name().toLowerCase(Locale.ROOT);
+        return new IOException("Illegal token " + token);
+    }
+
+    /**
+     * Builds a new Mesh object and stores it in meshes map. Face corners that share the same
+     * vertex/texture coordinate/normal indices become a single vertex, and the faces are
+     * triangulated (as fans) into an element index buffer that refers to these vertices. Vertex
+     * attributes are copied straight from the primitive attribute pools into the mesh's interleaved
+     * vertex data, which is only allocated once the number of unique vertices is known.
+     * <p>
+     * Package-private so that the benchmarks can measure mesh building on its own.
+     *
+     * @param meshBuilder   mesh builder to store rest of arguments into
+     * @param vertices      vertex pool, x/y/z per vertex
+     * @param textureCoords texture coordinate pool, u/v per texture coordinate
+     * @param normals       normal pool, x/y/z per normal
+     * @param indices       face corners of the mesh
+     * @return new Mesh object
+     */
+    static Mesh buildMeshV2(Mesh.Builder meshBuilder,
+                            FloatList vertices,
+                            FloatList textureCoords,
+                            FloatList normals,
+                            ObjIndexBuffer indices) {
+
+        // normals and tex coords are stored for the whole mesh if any face corner has them
+        boolean hasNormals = false;
+        boolean hasTexCoords = false;
+        for(int i = 0; i < indices.size(); i++) {
+            hasNormals |= indices.hasNormalIndex(i);
+            hasTexCoords |= indices.hasTextureCoordIndex(i);
+        }
+
+        // map each face corner to a unique vertex, faces with less than 3 corners are dropped
+        final int cornerCount = indices.size();
+        final int[] cornerVertices = new int[cornerCount];
+        final IntTripleMap vertexMap = new IntTripleMap(cornerCount / 2);
+        final int stride = 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+        final int texCoordOffset = hasNormals ? 6 : 3;
+        int vertexCount = 0;
+        int triangleCount = 0;
+
+        for(int f = 0; f < indices.getFaceCount(); f++) {
+            final int faceStart = indices.getFaceStart(f);
+            final int faceEnd = indices.getFaceEnd(f);
+            if(faceEnd - faceStart < 3)
+                continue;
+            triangleCount += faceEnd - faceStart - 2;
+
+            for(int i = faceStart; i < faceEnd; i++) {
+                final int existing = vertexMap.putIfAbsent(indices.getVertexIndex(i),
+                                                           indices.getTextureCoordIndex(i),
+                                                           indices.getNormalIndex(i),
+                                                           vertexCount);
+                cornerVertices[i] = (existing >= 0) ? existing : vertexCount++;
+            }
+        }
+
+        // vertices are numbered in corner order, so the first corner of each vertex is the one whose
+        // vertex is the next one to copy; direct buffers are uploaded to the GPU as they are, see
+        // GpuBufferCache
+        final FloatBuffer vertexDataBuf = Buffers.newDirectFloatBuffer(vertexCount * stride);
+        int nextVertex = 0;
+        for(int f = 0; f < indices.getFaceCount(); f++) {
+            final int faceStart = indices.getFaceStart(f);
+            final int faceEnd = indices.getFaceEnd(f);
+            if(faceEnd - faceStart < 3)
+                continue;
+            for(int i = faceStart; i < faceEnd; i++) {
+                if(cornerVertices[i] != nextVertex)
+                    continue;
+                final int v = nextVertex++ * stride;
+                copy(vertices, indices.getVertexIndex(i), 3, vertexDataBuf, v);
+                if(indices.hasNormalIndex(i))
+                    copy(normals, indices.getNormalIndex(i), 3, vertexDataBuf, v + 3);
+                if(indices.hasTextureCoordIndex(i))
+                    copy(textureCoords, indices.getTextureCoordIndex(i), 2, vertexDataBuf, v + texCoordOffset);
+            }
+        }
+
+        // triangle fan for each face: (0, 1, 2), (0, 2, 3), ...
+        final IntBuffer indicesBuf = Buffers.newDirectIntBuffer(triangleCount * 3);
+        for(int f = 0; f < indices.getFaceCount(); f++) {
+            final int faceStart = indices.getFaceStart(f);
+            final int faceEnd = indices.getFaceEnd(f);
+            for(int i = faceStart + 2; i < faceEnd; i++) {
+                indicesBuf.put(cornerVertices[faceStart]);
+                indicesBuf.put(cornerVertices[i - 1]);
+                indicesBuf.put(cornerVertices[i]);
+            }
+        }
+        indicesBuf.flip();
+
+        meshBuilder.setVertexData(vertexDataBuf, hasNormals, hasTexCoords);
+        meshBuilder.setIndices(indicesBuf);
+
+        return meshBuilder.build();
+    }
+
+    /**
+     * Copies one element of an attribute pool into a buffer.
+     *
+     * @param pool       attribute pool
+     * @param poolIndex  index of the element in the pool
+     * @param components number of floats per element
+     * @param dest       destination buffer
+     * @param destOffset offset of the element in the destination buffer, in floats
+     */
+    private static void copy(FloatList pool, int poolIndex, int components, FloatBuffer dest, int destOffset) {
+        for(int c = 0; c < components; c++)
+            dest.put(destOffset + c, pool.get(poolIndex * components + c));
+    }
+}
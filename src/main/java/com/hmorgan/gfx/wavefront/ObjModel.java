@@ -1,7 +1,13 @@
 package com.hmorgan.gfx.wavefront;
 
+import com.hmorgan.gfx.GpuBufferCache;
 import com.hmorgan.gfx.Mesh;
-import com.jogamp.common.nio.Buffers;
+import com.hmorgan.gfx.MeshMerger;
+import com.hmorgan.gfx.MeshSimplifier;
+import com.hmorgan.gfx.TextureManager;
+import com.hmorgan.gfx.VertexFormat;
+import com.hmorgan.util.IntList;
+import gov.nasa.worldwind.Disposable;
 import gov.nasa.worldwind.Locatable;
 import gov.nasa.worldwind.Movable;
 import gov.nasa.worldwind.geom.*;
@@ -10,16 +16,21 @@ import gov.nasa.worldwind.pick.PickSupport;
 import gov.nasa.worldwind.render.DrawContext;
 import gov.nasa.worldwind.render.Material;
 import gov.nasa.worldwind.render.OrderedRenderable;
+import gov.nasa.worldwind.util.BufferWrapper;
 import gov.nasa.worldwind.util.OGLStackHandler;
 import gov.nasa.worldwind.util.OGLUtil;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
+import javax.media.opengl.GLContext;
 import java.awt.*;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 
 /**
@@ -39,14 +50,43 @@ import java.util.stream.Collectors;
  * </ul>
  * Each object in the .OBJ file are represented in this class as a {@link Mesh} object,
  * and are stored in a map keyed by their name.
+ * <p>
+ * A model returned by {@link ObjLoader#loadObjModelAsync} is a placeholder while its file is being
+ * loaded: it renders the bounding box of the vertices read so far, and switches to the meshes once
+ * they are ready. The switch is a single volatile write, so the render thread never waits for the
+ * loader.
+ * <p>
+ * A model with levels of detail, see {@link #generateLods}, draws each mesh at the coarsest level
+ * whose error is at most {@link #getLodPixelError()} pixels where the model is nearest to the eye.
+ * A level is only dropped for a coarser one once that is well within the error, see
+ * {@link #getLodHysteresis()}, so meshes do not switch back and forth while the view moves slightly.
+ * <p>
+ * Meshes outside the view frustum (the pick frustums while picking) are not drawn, and neither are
+ * the clusters of clustered meshes, see {@link ObjLoader#setMeshClusterSize(int)}. The bounds are
+ * tested in model coordinates, against frustums transformed once per frame.
+ * <p>
+ * The GL buffers of the meshes come from the {@link GpuBufferCache#getShared() shared}
+ * {@link GpuBufferCache}, so models with the same meshes share them. A model holds the buffers of
+ * the meshes it draws in each GL context until it draws other meshes or is {@link #dispose()
+ * disposed}; buffers of other levels of detail are left to the cache to evict. The buffers of many
+ * meshes are ranges of one GL buffer, which is only bound again when a mesh is in another one.
+ * <p>
+ * Meshes are drawn grouped by texture, and a texture is only bound when it differs from the one of
+ * the previous mesh, so a model whose textures are packed into atlases, see
+ * {@link ObjLoader#setTextureAtlasBuilder}, binds one texture per atlas. A model whose meshes were
+ * merged by material, see {@link ObjLoader#setMeshMerger}, draws one mesh per material; the meshes
+ * it was loaded from are ranges of those, see {@link #getMeshBatches()}.
  *
  * @author Hunter N. Morgan
  */
-public class ObjModel implements OrderedRenderable, Movable, Locatable {
+public class ObjModel implements OrderedRenderable, Movable, Locatable, Disposable {
 
-    private Map<String, Mesh> meshes;       // collection of Meshes
+    public static final double DEFAULT_LOD_PIXEL_ERROR = 1.0;
+    public static final double DEFAULT_LOD_HYSTERESIS = 0.25;
+
+    private volatile Geometry geometry;     // meshes and extent, replaced as a whole while loading
+    private final CompletableFuture<ObjModel> loadFuture;
     private Material material;
-    private List<Vec4> verts;               // list of all verticies of all meshes
     private boolean textureDisabled;        // true to disable texture (if available)
     private float opacity;
     private Position position;              // geographic position of the cube
@@ -54,6 +94,12 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
     private double pitch;                   // pitch (degrees)
     private double yaw;                     // yaw (degrees)
     private double scale;                   // scale (1.0 is normal)
+    private double lodPixelError;           // largest error of a level of detail on screen (pixels)
+    private double lodHysteresis;           // margin below the error before a coarser level is used
+    private boolean backFaceCulling;        // true to cull the back faces of opaque meshes
+    private TextureManager textureManager;  // decodes and binds the textures of the meshes
+    private volatile TextureAtlas textureAtlas; // null if the textures of the meshes are not packed
+    private volatile Map<String, MeshMerger.Batch> meshBatches; // null if the meshes are not merged
 
     // Determined each frame
     protected long frameTimestamp = -1L;    // frame timestamp, increments during each render cycle
@@ -61,17 +107,66 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
     protected double eyeDistance;           // distance from the eye point to the cube
     private Box boundingBox;                // extent of this model which is used to compute frustum intersection
     private boolean needToComputeBoundingBox;   // flag to indicate bounding box needs to be computed on render cycle
+    private Geometry boundingBoxGeometry;       // geometry the bounding box was computed for
+    private Geometry orderedGeometry;           // geometry whose GL buffers were generated for this frame
+    private final Map<String, Integer> lodLevels = new HashMap<>();    // level drawn per mesh, 0 for the mesh itself
+    private Path boundTexture;              // texture bound by the mesh drawn last, null if none
+    private int boundVboId;                 // VBO bound by the mesh drawn last, 0 if none
+    private int boundEboId;                 // EBO bound by the mesh drawn last, 0 if none
+    // GL buffers of the meshes drawn in each context, guarded by itself as dispose may be called on any thread
+    private final Map<GLContext, Map<Mesh, GpuBufferCache.MeshBuffers>> heldBuffers = new HashMap<>();
 
     private static final OGLStackHandler oglStackHandler = new OGLStackHandler(); // used in beginDrawing/endDrawing
     protected PickSupport pickSupport = new PickSupport();
 
+    /**
+     * The meshes of a model together with the corners of their bounding box, in model coordinates,
+     * and their levels of detail.
+     */
+    private static final class Geometry {
+        private final Map<String, Mesh> meshes;
+        private final List<Vec4> extentCorners;     // null if there are no vertices (yet)
+        private final boolean loaded;               // false for the geometry of a placeholder
+        private final Map<String, List<MeshSimplifier.Lod>> lods;  // coarser levels of the meshes that have any
+        private final List<String> drawOrder;       // names of the meshes, those with the same texture in a row
+
+        private Geometry(Map<String, Mesh> meshes, List<Vec4> extentCorners, boolean loaded) {
+            this(meshes, extentCorners, loaded, Collections.emptyMap());
+        }
 
+        private Geometry(Map<String, Mesh> meshes, List<Vec4> extentCorners, boolean loaded,
+                         Map<String, List<MeshSimplifier.Lod>> lods) {
+            this.meshes = meshes;
+            this.extentCorners = extentCorners;
+            this.loaded = loaded;
+            this.lods = lods;
+            this.drawOrder = new ArrayList<>(meshes.keySet());
+            drawOrder.sort(Comparator.comparing((String name) -> meshes.get(name).getTexturePath().map(Path::toString).orElse(""))
+                                     .thenComparing(Comparator.naturalOrder()));
+        }
+    }
 
     private ObjModel() {
+        this(true);
+    }
+
+    private ObjModel(boolean loaded) {
         opacity = 1.0f;
         scale = 1.0f;
+        lodPixelError = DEFAULT_LOD_PIXEL_ERROR;
+        lodHysteresis = DEFAULT_LOD_HYSTERESIS;
+        textureManager = TextureManager.getShared();
         position = Position.ZERO;
         needToComputeBoundingBox = true;
+        geometry = new Geometry(Collections.emptyMap(), null, loaded);
+        loadFuture = loaded ? CompletableFuture.completedFuture(this) : new CompletableFuture<>();
+    }
+
+    /**
+     * Creates a placeholder model, see {@link ObjLoader#loadObjModelAsync}.
+     */
+    static ObjModel newPlaceholder() {
+        return new ObjModel(false);
     }
 
     /**
@@ -83,8 +178,7 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
     public ObjModel(String fileName) throws IOException {
         this();
         final ObjLoader objLoader = new ObjLoader();
-        this.meshes = objLoader.loadObjMeshes(fileName);
-        initVerts();
+        setMeshes(objLoader.loadObjMeshes(fileName));
     }
 
     /**
@@ -96,8 +190,7 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
     public ObjModel(Path filePath) throws IOException {
         this();
         final ObjLoader objLoader = new ObjLoader();
-        this.meshes = objLoader.loadObjMeshes(filePath);
-        initVerts();
+        setMeshes(objLoader.loadObjMeshes(filePath));
     }
 
     /**
@@ -107,43 +200,125 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
      */
     public ObjModel(Map<String, Mesh> meshes) {
         this();
-        this.meshes = meshes;
-        initVerts();
+        setMeshes(meshes);
     }
 
     /**
      * Copy constructor. This only does a shallow copy but is ok because all fields
-     * are either immutable or primitive.
+     * are either immutable or primitive. A copy of a model that is still loading
+     * receives the meshes when they are ready.
      *
      * @param other the {@link ObjModel} to copy
      */
     public ObjModel(ObjModel other) {
-        this.meshes = other.meshes;
+        this.geometry = other.geometry;
+        this.textureAtlas = other.textureAtlas;
+        this.meshBatches = other.meshBatches;
+        this.loadFuture = other.loadFuture.thenApply(loaded -> {
+            this.textureAtlas = loaded.textureAtlas;
+            this.meshBatches = loaded.meshBatches;
+            this.geometry = loaded.geometry;
+            return this;
+        });
         this.opacity = other.opacity;
         this.position = other.position;
         this.roll = other.roll;
         this.pitch = other.pitch;
         this.yaw = other.yaw;
         this.scale = other.scale;
+        this.lodPixelError = other.lodPixelError;
+        this.lodHysteresis = other.lodHysteresis;
+        this.backFaceCulling = other.backFaceCulling;
+        this.textureManager = other.textureManager;
         this.frameTimestamp = other.frameTimestamp;
         this.placePoint = other.placePoint;
         this.eyeDistance = other.eyeDistance;
         this.pickSupport = other.pickSupport;
         this.boundingBox = other.boundingBox;
-        this.verts = other.verts;
         this.needToComputeBoundingBox = other.needToComputeBoundingBox;
     }
 
     /**
-     * Create a List<Vec4> from all of our meshs' vertices
+     * Sets the meshes of this model, which completes loading of a placeholder.
+     *
+     * @param meshes the meshes, keyed by name
+     */
+    void setMeshes(Map<String, Mesh> meshes) {
+        // the extent encloses the boxes of the meshes, which are computed straight from their vertex
+        // data, so that no object is created per vertex
+        final List<Vec4> meshCorners = new ArrayList<>();
+        for(Mesh mesh : meshes.values()) {
+            if(mesh.getVertexCount() > 0) {
+                final Box meshBox = Box.computeBoundingBox(new BufferWrapper.FloatBufferWrapper(mesh.getVertexData()),
+                                                           mesh.getVertexStride());
+                meshCorners.addAll(Arrays.asList(meshBox.getCorners()));
+            }
+        }
+        final List<Vec4> extentCorners = meshCorners.isEmpty() ? null : Arrays.asList(Box.computeBoundingBox(meshCorners).getCorners());
+        geometry = new Geometry(meshes, extentCorners, true);
+    }
+
+    /**
+     * Sets the axis-aligned bounds of the vertices a placeholder has read so far.
+     */
+    void setPendingBounds(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        final List<Vec4> extentCorners = new ArrayList<>(8);
+        for(int i = 0; i < 8; i++) {
+            extentCorners.add(new Vec4(((i & 1) == 0) ? minX : maxX,
+                                       ((i & 2) == 0) ? minY : maxY,
+                                       ((i & 4) == 0) ? minZ : maxZ));
+        }
+        geometry = new Geometry(Collections.emptyMap(), extentCorners, false);
+    }
+
+    /**
+     * @return true once the meshes of this model are available
+     */
+    public boolean isLoaded() {
+        return geometry.loaded;
+    }
+
+    /**
+     * Gets the future that completes with this model once its meshes are available. Cancelling it
+     * stops the load of a placeholder; a model that is not a placeholder is already loaded.
+     *
+     * @return the load future
+     */
+    public CompletableFuture<ObjModel> getLoadFuture() {
+        return loadFuture;
+    }
+
+    /**
+     * Builds the levels of detail of the meshes of this loaded model. Meshes that cannot be
+     * simplified are always drawn in full.
+     *
+     * @param simplifier builds the levels of each mesh
      */
-    private void initVerts() {
-        verts = meshes
-                .values()
-                .parallelStream()
-                .flatMap(mesh -> mesh.getVertices().stream())
-                .map(vertex -> new Vec4(vertex.getPosition().getX(), vertex.getPosition().getY(), vertex.getPosition().getZ(), 1f))
-                .collect(Collectors.toList());
+    public void generateLods(MeshSimplifier simplifier) {
+        final Geometry loaded = geometry;
+        final Map<String, List<MeshSimplifier.Lod>> lods = new HashMap<>();
+        loaded.meshes.forEach((name, mesh) -> {
+            final List<MeshSimplifier.Lod> meshLods = simplifier.buildLods(mesh);
+            if(!meshLods.isEmpty())
+                lods.put(name, meshLods);
+        });
+        // like loading, a single volatile write, so the render thread never waits
+        geometry = new Geometry(loaded.meshes, loaded.extentCorners, loaded.loaded, lods);
+    }
+
+    /**
+     * Builds the levels of detail of the meshes of this model on an executor, once it is loaded, see
+     * {@link #generateLods(MeshSimplifier)}. The meshes are drawn in full until then.
+     *
+     * @param simplifier builds the levels of each mesh
+     * @param executor   executor to simplify the meshes on
+     * @return a future that completes with this model once its levels are available
+     */
+    public CompletableFuture<ObjModel> generateLodsAsync(MeshSimplifier simplifier, Executor executor) {
+        return loadFuture.thenApplyAsync(loaded -> {
+            generateLods(simplifier);
+            return this;
+        }, executor);
     }
 
     @Override
@@ -155,9 +330,14 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
         // 2) As a normal renderable. The cube is added to the ordered renderable queue.
         // 3) As an OrderedRenderable. The cube is drawn.
 
+        // The ordered renderable draws the geometry that makeOrderedRenderable prepared, even if a
+        // placeholder has finished loading in between
+        final Geometry geometry = (dc.isOrderedRenderingMode() && orderedGeometry != null) ? orderedGeometry : this.geometry;
+
         // Compute bounding box for frustum intersection calculation (if needed)
-        if(needToComputeBoundingBox) {
-            boundingBox = computeBoundingBox(dc);
+        if(needToComputeBoundingBox || geometry != boundingBoxGeometry) {
+            boundingBox = computeBoundingBox(dc, geometry);
+            boundingBoxGeometry = geometry;
             needToComputeBoundingBox = false;
         }
 
@@ -171,7 +351,10 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
         }
 
         if(dc.isOrderedRenderingMode()) {
-            drawObjModel(dc);
+            if(geometry.loaded)
+                drawObjModel(dc, geometry);
+            else if(boundingBox != null && !dc.isPickingMode())
+                boundingBox.render(dc);     // placeholder
         } else {
             makeOrderedRenderable(dc);
         }
@@ -213,15 +396,20 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
     /**
      * Computes the bounding box of this ObjModel, which includes all of the meshes.
      *
-     * @param dc the active draw context
+     * @param dc       the active draw context
+     * @param geometry the geometry to compute the bounding box of
+     * @return the bounding box, or null if the geometry has no vertices
      */
-    private Box computeBoundingBox(DrawContext dc) {
+    private Box computeBoundingBox(DrawContext dc, Geometry geometry) {
+        if(geometry.extentCorners == null)
+            return null;
+
         // compute the bounding box then transform the vertices by the modelview matrix
         // instead of transforming all the coords, we can just transform the corners of
         // the bounding box, much faster!
         final Matrix modelMatrix = computeModelMatrix(dc).multiply(Matrix.fromScale(scale));
         final List<Vec4> transformedCorners =
-                Arrays.stream(Box.computeBoundingBox(verts).getCorners())
+                geometry.extentCorners.stream()
                         .map(vec4 -> vec4.transformBy4(modelMatrix))
                         .collect(Collectors.toList());
 
@@ -292,6 +480,12 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
             // before lighting is computed.
             gl.glEnable(GL2.GL_NORMALIZE);
 
+            // The VBOs hold the texture coordinates as written in the .OBJ file, whose V axis points up,
+            // while the textures are stored top row first, so flip V (v' = 1 - v) for all meshes.
+            oglStackHandler.pushTextureIdentity(gl);
+            gl.glTranslated(0.0, 1.0, 0.0);
+            gl.glScaled(1.0, -1.0, 1.0);
+
 //            gl.glEnable(GL.GL_TEXTURE_2D);
 //            gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
 
@@ -350,10 +544,7 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
      * @param dc Current draw context.
      */
     protected void makeOrderedRenderable(DrawContext dc) {
-        meshes.values()
-                .stream()
-                .filter(mesh -> !mesh.isGeneratedGlBuffers())
-                .forEach(mesh -> mesh.genGlBuffers(dc));
+        orderedGeometry = boundingBoxGeometry;
 
         // This method is called twice each frame: once during picking and once during rendering. We only need to
         // compute the placePoint and eye distance once per frame, so check the frame timestamp to see if this is a
@@ -365,21 +556,123 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
             // Compute the distance from the eye to the cube's position.
             eyeDistance = dc.getView().getEyePoint().distanceTo3(placePoint);
 
+            selectLods(dc, orderedGeometry);
+
+            // buffers and textures evicted since the last frame, perhaps released by other threads
+            GpuBufferCache.getShared().processPendingDeletions(dc);
+            textureManager.processPendingDeletions(dc);
+
             frameTimestamp = dc.getFrameTimeStamp();
         }
 
+        acquireBuffers(dc, orderedGeometry);
+
         // Add the cube to the ordered renderable list. The SceneController sorts the ordered renderables by eye
         // distance, and then renders them back to front. render will be called again in ordered rendering mode, and at
         // that point we will actually draw the cube.
         dc.addOrderedRenderable(this);
     }
 
+    /**
+     * Selects the level of detail of each mesh for this frame. The error a level may have is
+     * {@link #lodPixelError} pixels at the point of the bounding box nearest to the eye, in model
+     * coordinates.
+     *
+     * @param dc       Current draw context.
+     * @param geometry geometry to draw
+     */
+    private void selectLods(DrawContext dc, Geometry geometry) {
+        if(geometry.lods.isEmpty() || boundingBox == null)
+            return;
+
+        final double distance = Math.max(dc.getView().getEyePoint().distanceTo3(boundingBox.getCenter()) - boundingBox.getRadius(), 0.0);
+        final double maxError = lodPixelError * dc.getView().computePixelSizeAtDistance(distance) / scale;
+        geometry.lods.forEach((name, lods) -> {
+            int level = Math.min(lodLevels.getOrDefault(name, 0), lods.size());
+            // finer while the current level is too coarse, coarser only well within the error
+            while(level > 0 && lods.get(level - 1).getError() > maxError)
+                level--;
+            while(level < lods.size() && lods.get(level).getError() <= maxError / (1.0 + lodHysteresis))
+                level++;
+            lodLevels.put(name, level);
+        });
+    }
+
+    /**
+     * @return the level of detail of a mesh selected for this frame, or the mesh itself
+     */
+    private Mesh getLodMesh(Geometry geometry, String name, Mesh mesh) {
+        final List<MeshSimplifier.Lod> lods = geometry.lods.get(name);
+        final int level = lodLevels.getOrDefault(name, 0);
+        if(lods == null || level == 0 || level > lods.size())
+            return mesh;
+        return lods.get(level - 1).getMesh();
+    }
+
+    /**
+     * Acquires the GL buffers of the meshes drawn this frame in the current GL context, and releases
+     * those of meshes that are not drawn anymore: other levels of detail, or the meshes of a
+     * replaced geometry.
+     *
+     * @param dc       Current draw context.
+     * @param geometry geometry to draw
+     */
+    private void acquireBuffers(DrawContext dc, Geometry geometry) {
+        final GpuBufferCache cache = GpuBufferCache.getShared();
+        synchronized(heldBuffers) {
+            final Map<Mesh, GpuBufferCache.MeshBuffers> held = heldBuffers.computeIfAbsent(dc.getGLContext(),
+                                                                                           context -> new IdentityHashMap<>());
+            geometry.meshes.forEach((name, mesh) -> {
+                final Mesh lodMesh = getLodMesh(geometry, name, mesh);
+                if(!held.containsKey(lodMesh))
+                    held.put(lodMesh, cache.acquire(dc, lodMesh));
+            });
+
+            // a single mesh is drawn per name, so any more buffers are of meshes drawn before
+            if(held.size() > geometry.meshes.size()) {
+                final Set<Mesh> drawn = Collections.newSetFromMap(new IdentityHashMap<>());
+                geometry.meshes.forEach((name, mesh) -> drawn.add(getLodMesh(geometry, name, mesh)));
+                final Iterator<Map.Entry<Mesh, GpuBufferCache.MeshBuffers>> it = held.entrySet().iterator();
+                while(it.hasNext()) {
+                    final Map.Entry<Mesh, GpuBufferCache.MeshBuffers> entry = it.next();
+                    if(!drawn.contains(entry.getKey())) {
+                        cache.release(entry.getValue());
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the GL buffers of a mesh in the current GL context, null if they are not acquired
+     */
+    private GpuBufferCache.MeshBuffers getBuffers(DrawContext dc, Mesh mesh) {
+        synchronized(heldBuffers) {
+            final Map<Mesh, GpuBufferCache.MeshBuffers> held = heldBuffers.get(dc.getGLContext());
+            return (held != null) ? held.get(mesh) : null;
+        }
+    }
+
+    /**
+     * Releases the GL buffers of this model in all GL contexts. They are deleted once the
+     * {@link GpuBufferCache} evicts them. The model acquires them again if it is drawn afterwards.
+     */
+    @Override
+    public void dispose() {
+        synchronized(heldBuffers) {
+            heldBuffers.values().forEach(held -> held.values().forEach(GpuBufferCache.getShared()::release));
+            heldBuffers.clear();
+        }
+    }
+
     /**
      * Draws this Obj model.
      *
-     * @param dc Current draw context.
+     * @param dc       Current draw context.
+     * @param geometry geometry to draw
      */
-    private void drawObjModel(DrawContext dc) {
+    private void drawObjModel(DrawContext dc, Geometry geometry) {
         final GL2 gl = dc.getGL().getGL2();
         beginDrawing(dc);
         try {
@@ -392,28 +685,17 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
 
 
             gl.glScaled(scale, scale, scale);
-            // for each mesh, draw it
-            meshes.values().forEach(mesh -> {
-                final int strideCount = (mesh.getTexture().isPresent()) ? 8 : 6;
-                final int vboBufNumVerts = (mesh.getVboBuf().limit() / strideCount);
-                gl.glBindBuffer(GL.GL_ARRAY_BUFFER, mesh.getVboIds()[0]);
-                gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, mesh.getEboIds()[0]);
-
-                final int stride = Buffers.SIZEOF_FLOAT * strideCount;
-                // VBO layout: vvvnnnttvvvnnntt or just vvvnnnvvvnnn (interleaved)
-                gl.glVertexPointer(3, GL.GL_FLOAT, stride, 0);
-
-                if (!dc.isPickingMode())
-                    gl.glNormalPointer(GL.GL_FLOAT, stride, Buffers.SIZEOF_FLOAT * 3);
-
-                if (!dc.isPickingMode() && !textureDisabled && mesh.getTexture().isPresent() && mesh.getTexture().get().bind(dc)) {
-                    gl.glEnable(GL.GL_TEXTURE_2D);
-                    gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-                    gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_REPEAT);
-                    gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_REPEAT);
-                    gl.glTexCoordPointer(2, GL.GL_FLOAT, stride, Buffers.SIZEOF_FLOAT * 6);
-                }
-
+            final FrustumCuller culler = new FrustumCuller(dc, computeModelMatrix(dc).multiply(Matrix.fromScale(scale)));
+            final IntList ranges = new IntList();
+            boundTexture = null;
+            boundVboId = 0;
+            boundEboId = 0;
+            // for each mesh, draw its visible parts
+            geometry.drawOrder.forEach(name -> {
+                final Mesh mesh = getLodMesh(geometry, name, geometry.meshes.get(name));
+                final GpuBufferCache.MeshBuffers buffers = getBuffers(dc, mesh);
+                if(buffers == null)
+                    return;     // disposed since the frame began
                 float opacityToUse = opacity;
                 Material materialToUse = null;
                 if(this.material != null) {
@@ -429,6 +711,69 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
                     materialToUse = Material.GRAY;
                 }
 
+                // transparent meshes show their back faces, so only opaque ones can cull them
+                final boolean cullBackFaces = backFaceCulling && opacityToUse >= 1.0f;
+                culler.collectVisibleRanges(mesh, cullBackFaces, ranges);
+                if(ranges.size() == 0)
+                    return;
+
+                final VertexFormat format = mesh.getVertexFormat();
+                if(buffers.getVboId() != boundVboId) {
+                    gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffers.getVboId());
+                    boundVboId = buffers.getVboId();
+                }
+                if(buffers.getEboId() != 0 && buffers.getEboId() != boundEboId) {
+                    gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffers.getEboId());
+                    boundEboId = buffers.getEboId();
+                }
+
+                final int stride = mesh.getVboStride();
+                // VBO layout: vvvnnnttvvvnnntt, vvvnnnvvvnnn, vvvttvvvtt or just vvvvvv (interleaved),
+                // each attribute encoded as the mesh's vertex format says; the vertices of the mesh
+                // start at its offset in the shared VBO, so indices need no base vertex
+                final long vboOffset = buffers.getVboOffset();
+                gl.glVertexPointer(3, format.getPositionEncoding().getGlType(), stride, vboOffset);
+
+                // quantized positions are mapped back to model coordinates by the modelview matrix
+                final boolean quantizedPositions = format.getPositionEncoding() != VertexFormat.PositionEncoding.FLOAT;
+                if(quantizedPositions) {
+                    final float[] transform = mesh.getPositionTransform();
+                    gl.glPushMatrix();
+                    gl.glTranslatef(transform[0], transform[1], transform[2]);
+                    gl.glScalef(transform[3], transform[3], transform[3]);
+                }
+
+                if (!dc.isPickingMode()) {
+                    if(mesh.hasNormals()) {
+                        gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+                        gl.glNormalPointer(format.getNormalEncoding().getGlType(), stride, vboOffset + format.getNormalOffset());
+                    } else {
+                        gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+                    }
+                }
+
+                // drawn untextured until the texture manager has decoded the image; the texture of
+                // the previous mesh stays bound and enabled for the next mesh using it
+                final Path texturePath = (!dc.isPickingMode() && !textureDisabled && mesh.hasTexCoords())
+                                         ? mesh.getTexturePath().orElse(null) : null;
+                final boolean textured = texturePath != null
+                                         && (texturePath.equals(boundTexture) || textureManager.request(texturePath).bind(dc));
+                if(textured != (boundTexture != null))
+                    setTextureEnabled(gl, textured);
+                boundTexture = textured ? texturePath : null;
+                final boolean quantizedTexCoords = textured && format.getTexCoordEncoding() == VertexFormat.TexCoordEncoding.SHORT;
+                if (textured)
+                    gl.glTexCoordPointer(2, format.getTexCoordEncoding().getGlType(), stride, vboOffset + format.getTexCoordOffset(mesh.hasNormals()));
+                if(quantizedTexCoords) {
+                    // applied after the V flip of beginDrawing
+                    final float[] transform = mesh.getTexCoordTransform();
+                    gl.glMatrixMode(GL.GL_TEXTURE);
+                    gl.glPushMatrix();
+                    gl.glTranslatef(transform[0], transform[1], 0.0f);
+                    gl.glScalef(transform[2], transform[3], 1.0f);
+                    gl.glMatrixMode(GL2.GL_MODELVIEW);
+                }
+
                 if (opacityToUse < 1.0f) {
 //                    gl.glDepthMask(false);
 
@@ -479,29 +824,73 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
                         materialToUse.apply(gl, GL2.GL_FRONT_AND_BACK, opacityToUse);
                     gl.glEnable(GL.GL_CULL_FACE);
                     gl.glCullFace(GL.GL_FRONT);
-                    gl.glDrawArrays(GL.GL_TRIANGLES, 0, vboBufNumVerts);
+                    drawTriangles(gl, mesh, buffers.getEboOffset(), ranges);
                     gl.glCullFace(GL.GL_BACK);
-                    gl.glDrawArrays(GL.GL_TRIANGLES, 0, vboBufNumVerts);
+                    drawTriangles(gl, mesh, buffers.getEboOffset(), ranges);
                     gl.glDisable(GL.GL_CULL_FACE);
                 } else {
                     if(!dc.isPickingMode())
                         materialToUse.apply(gl, GL2.GL_FRONT_AND_BACK, opacityToUse);
-                    gl.glDrawArrays(GL.GL_TRIANGLES, 0, vboBufNumVerts);
+                    if(cullBackFaces) {
+                        gl.glEnable(GL.GL_CULL_FACE);
+                        gl.glCullFace(GL.GL_BACK);
+                    }
+                    drawTriangles(gl, mesh, buffers.getEboOffset(), ranges);
+                    if(cullBackFaces)
+                        gl.glDisable(GL.GL_CULL_FACE);
                 }
 
-                if (!textureDisabled && mesh.getTexture().isPresent() && !dc.isPickingMode()) {
-                    gl.glDisable(GL.GL_TEXTURE_2D);
-                    gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+                if(quantizedTexCoords) {
+                    gl.glMatrixMode(GL.GL_TEXTURE);
+                    gl.glPopMatrix();
+                    gl.glMatrixMode(GL2.GL_MODELVIEW);
                 }
-//                gl.glDrawElements(GL.GL_TRIANGLES, mesh.getIndices().get().limit(), GL.GL_UNSIGNED_INT, 0);
+                if(quantizedPositions)
+                    gl.glPopMatrix();
             });
         } finally {
+            if(boundTexture != null) {
+                setTextureEnabled(gl, false);
+                boundTexture = null;
+            }
             gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
             gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
             endDrawing(dc);
         }
     }
 
+    /**
+     * Enables or disables texturing and the texture coordinate array.
+     */
+    private static void setTextureEnabled(GL2 gl, boolean enabled) {
+        if(enabled) {
+            gl.glEnable(GL.GL_TEXTURE_2D);
+            gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+        } else {
+            gl.glDisable(GL.GL_TEXTURE_2D);
+            gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+        }
+    }
+
+    /**
+     * Draws ranges of the triangles of a mesh whose buffers are bound. Meshes with an element index
+     * buffer are drawn indexed, others as a plain triangle list.
+     *
+     * @param gl        the GL context
+     * @param mesh      the mesh to draw
+     * @param eboOffset offset of the indices of the mesh in the bound EBO, in bytes
+     * @param ranges    first index (or vertex) and count of each range
+     */
+    private static void drawTriangles(GL2 gl, Mesh mesh, long eboOffset, IntList ranges) {
+        for(int i = 0; i < ranges.size(); i += 2) {
+            if(mesh.getIndices().isPresent()) {
+                gl.glDrawElements(GL.GL_TRIANGLES, ranges.get(i + 1), GL.GL_UNSIGNED_INT, eboOffset + (long) ranges.get(i) * Integer.BYTES);
+            } else {
+                gl.glDrawArrays(GL.GL_TRIANGLES, ranges.get(i), ranges.get(i + 1));
+            }
+        }
+    }
+
     ////////////////////////
     // GETTERS AND SETTERS
     ////////////////////////
@@ -514,8 +903,11 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
         this.position = position;
     }
 
+    /**
+     * @return the meshes of this model, empty while a placeholder is loading
+     */
     public Map<String, Mesh> getMeshes() {
-        return meshes;
+        return geometry.meshes;
     }
 
     public Material getMaterial() {
@@ -590,6 +982,95 @@ public class ObjModel implements OrderedRenderable, Movable, Locatable {
         needToComputeBoundingBox = true;
     }
 
+    public double getLodPixelError() {
+        return lodPixelError;
+    }
+
+    /**
+     * Sets the largest error of the levels of detail drawn, in pixels on screen.
+     *
+     * @param lodPixelError the error, {@link #DEFAULT_LOD_PIXEL_ERROR} by default
+     */
+    public void setLodPixelError(double lodPixelError) {
+        this.lodPixelError = lodPixelError;
+    }
+
+    public double getLodHysteresis() {
+        return lodHysteresis;
+    }
+
+    /**
+     * Sets how far within the error a coarser level of detail must be before it replaces the level
+     * drawn: its error must be at most the largest error divided by one plus the hysteresis.
+     *
+     * @param lodHysteresis the hysteresis, {@link #DEFAULT_LOD_HYSTERESIS} by default
+     */
+    public void setLodHysteresis(double lodHysteresis) {
+        this.lodHysteresis = lodHysteresis;
+    }
+
+    /**
+     * @param meshName name of a mesh of this model
+     * @return the level of detail the mesh was drawn at last, 0 for the full mesh
+     */
+    public int getLodLevel(String meshName) {
+        return lodLevels.getOrDefault(meshName, 0);
+    }
+
+    public boolean isBackFaceCulling() {
+        return backFaceCulling;
+    }
+
+    /**
+     * Sets whether the back faces of opaque meshes are culled. Culling them also skips the clusters
+     * of meshes that face away from the eye; models whose triangles are not consistently wound
+     * counter-clockwise lose faces.
+     *
+     * @param backFaceCulling true to cull back faces, false (the default) to draw both sides
+     */
+    public void setBackFaceCulling(boolean backFaceCulling) {
+        this.backFaceCulling = backFaceCulling;
+    }
+
+    public TextureManager getTextureManager() {
+        return textureManager;
+    }
+
+    /**
+     * Sets the texture manager that decodes and binds the textures of the meshes. Meshes are drawn
+     * untextured until their texture is decoded.
+     *
+     * @param textureManager the manager, the {@link TextureManager#getShared() shared} one by default
+     */
+    public void setTextureManager(TextureManager textureManager) {
+        this.textureManager = Objects.requireNonNull(textureManager);
+    }
+
+    /**
+     * @return the texture atlases the meshes of this model draw from, or nothing if their textures
+     *         are not packed
+     */
+    public Optional<TextureAtlas> getTextureAtlas() {
+        return Optional.ofNullable(textureAtlas);
+    }
+
+    void setTextureAtlas(TextureAtlas textureAtlas) {
+        this.textureAtlas = textureAtlas;
+    }
+
+    /**
+     * @return the batch of each mesh of this model, keyed by name, with the ranges of the meshes it
+     *         was merged from; empty if the meshes are not merged
+     */
+    public Map<String, MeshMerger.Batch> getMeshBatches() {
+        final Map<String, MeshMerger.Batch> batches = meshBatches;
+        return (batches != null) ? batches : Collections.emptyMap();
+    }
+
+    void setMeshBatches(Map<String, MeshMerger.Batch> meshBatches) {
+        this.meshBatches = meshBatches;
+    }
+
     @Override
     public Position getReferencePosition() {
         return getPosition();
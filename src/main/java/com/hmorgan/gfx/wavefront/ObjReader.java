@@ -0,0 +1,355 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming parser for Wavefront .OBJ files. Every record is reported to an {@link ObjVisitor} as soon
+ * as it has been scanned and then forgotten, so the memory used is bounded by the {@link ObjScanner}
+ * buffer size (and the longest line) rather than by the size of the file. MTL files referenced by
+ * 'mtllib' records are parsed in the same way, one {@link ObjVisitor#visitMaterial} event per material.
+ * <p>
+ * The only state kept across records is the number of vertices, texture coordinates and normals seen
+ * so far, which is needed to resolve relative face indices.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class ObjReader {
+
+    private final ObjScanner scanner;
+    private final Path filePath;
+    private final ObjVisitor visitor;
+    private final boolean skipAttributeValues;
+
+    private int vertexCount;
+    private int textureCoordCount;
+    private int normalCount;
+    private final int[] corner = new int[3];        // raw v/t/n indices of one corner
+    private int[] corners = new int[3 * 8];         // resolved v/t/n triples of the current face
+
+    private ObjReader(ObjScanner scanner, Path filePath, ObjVisitor visitor, boolean skipAttributeValues) {
+        this.scanner = scanner;
+        this.filePath = filePath;
+        this.visitor = visitor;
+        this.skipAttributeValues = skipAttributeValues;
+    }
+
+    /**
+     * Parses the given .OBJ file, reporting each record to the visitor.
+     *
+     * @param filePath Path to .OBJ file
+     * @param visitor  visitor to report the records to
+     * @throws IOException if the file cannot be read or parsed, or if the visitor throws
+     */
+    public static void read(Path filePath, ObjVisitor visitor) throws IOException {
+        try(ObjScanner scanner = ObjScanner.open(filePath)) {
+            read(scanner, filePath, visitor);
+        }
+    }
+
+    /**
+     * Parses the records of a scanner, reporting each record to the visitor. The scanner is not closed.
+     *
+     * @param scanner  scanner to read the records from
+     * @param filePath Path to the .OBJ file, MTL file names are resolved against it
+     * @param visitor  visitor to report the records to
+     * @throws IOException if the input cannot be read or parsed, or if the visitor throws
+     */
+    public static void read(ObjScanner scanner, Path filePath, ObjVisitor visitor) throws IOException {
+        new ObjReader(scanner, filePath, visitor, false).run();
+    }
+
+    /**
+     * Like {@link #read(ObjScanner, Path, ObjVisitor)}, but without parsing the values of 'v', 'vt'
+     * and 'vn' records; the visitor is told about them with all values 0. Used to index a file.
+     */
+    static void scan(ObjScanner scanner, Path filePath, ObjVisitor visitor) throws IOException {
+        new ObjReader(scanner, filePath, visitor, true).run();
+    }
+
+    /**
+     * Reads a part of a file as if {@code vertexCount} vertices, {@code textureCoordCount} texture
+     * coordinates and {@code normalCount} normals had been read before it, so that relative face
+     * indices resolve the same as when the whole file is read.
+     */
+    static void read(ObjScanner scanner, Path filePath, ObjVisitor visitor,
+                     int vertexCount, int textureCoordCount, int normalCount) throws IOException {
+        final ObjReader reader = new ObjReader(scanner, filePath, visitor, false);
+        reader.vertexCount = vertexCount;
+        reader.textureCoordCount = textureCoordCount;
+        reader.normalCount = normalCount;
+        reader.run();
+    }
+
+    private void run() throws IOException {
+        while(scanner.nextLine()) {
+            switch(scanner.keyword()) {
+                case V:
+                    vertexCount++;
+                    if(skipAttributeValues)
+                        visitor.visitVertex(0.0f, 0.0f, 0.0f);
+                    else
+                        visitor.visitVertex(scanner.nextFloat(), scanner.nextFloat(), scanner.nextFloat());
+                    break;
+                case VN:
+                    normalCount++;
+                    if(skipAttributeValues)
+                        visitor.visitNormal(0.0f, 0.0f, 0.0f);
+                    else
+                        visitor.visitNormal(scanner.nextFloat(), scanner.nextFloat(), scanner.nextFloat());
+                    break;
+                case VT:
+                    // u, v (optional), w (optional, ignored)
+                    textureCoordCount++;
+                    if(skipAttributeValues)
+                        visitor.visitTextureCoord(0.0f, 0.0f);
+                    else
+                        visitor.visitTextureCoord(scanner.nextFloat(), scanner.nextFloat(0.0f));
+                    break;
+                case F:
+                    visitor.visitFace(corners, readCorners());
+                    break;
+                case L:
+                    visitor.visitLine(corners, readCorners());
+                    break;
+                case O:
+                    visitor.visitObject(scanner.nextName());
+                    break;
+                case G:
+                    visitor.visitGroup(scanner.nextName());
+                    break;
+                case USEMTL:
+                    visitor.visitUseMaterial(scanner.nextName());
+                    break;
+                case S:
+                    visitor.visitSmoothingGroup(scanner.nextName());
+                    break;
+                case MTLLIB:
+                    readMaterialLibraries(filePath, scanner.restOfLine(), visitor);
+                    break;
+                default:
+                    visitor.visitUnknown(scanner.keywordText());
+                    break;
+            }
+        }
+        visitor.visitEnd();
+    }
+
+    /**
+     * Reads the corners of the current 'f' or 'l' record into {@link #corners}.
+     *
+     * @return number of corners read
+     */
+    private int readCorners() throws IOException {
+        // f vi/ti/ni vi/ti/ni vi/ti/ni
+        // or
+        // f vi vi vi
+        int cornerCount = 0;
+        while(scanner.nextFaceCorner(corner)) {
+            if(corners.length < (cornerCount + 1) * 3)
+                corners = Arrays.copyOf(corners, corners.length * 2);
+            final int slot = cornerCount * 3;
+            corners[slot] = resolveIndex(corner[0], vertexCount, "vertices");
+            corners[slot + 1] = (corner[1] != 0) ? resolveIndex(corner[1], textureCoordCount, "texture coordinates") : ObjIndexBuffer.ABSENT;
+            corners[slot + 2] = (corner[2] != 0) ? resolveIndex(corner[2], normalCount, "normals") : ObjIndexBuffer.ABSENT;
+            cornerCount++;
+        }
+        return cornerCount;
+    }
+
+    /**
+     * Converts a raw OBJ index (1-based, or negative if relative to the end of the list) into a
+     * 0-based list index.
+     *
+     * @param objIndex raw index as written in the .OBJ file
+     * @param count    number of elements read so far
+     * @param elements name of the elements, for the error message
+     * @return the 0-based index
+     * @throws IOException if the index does not refer to an element read so far
+     */
+    private int resolveIndex(int objIndex, int count, String elements) throws IOException {
+        final int index = (objIndex > 0) ? objIndex - 1 : count + objIndex;
+        if(index < 0 || index >= count)
+            throw new IOException("Index " + objIndex + " out of range in " + scanner.keywordText() + " record, " +
+                                  count + " " + elements + " read so far");
+        return index;
+    }
+
+    /**
+     * Reads the argument of an 'o', 'g', 'usemtl', 'mtllib' or unknown record.
+     *
+     * @param scanner scanner positioned on the record
+     * @return the argument, or null if the record has none
+     */
+    static String recordArgument(ObjScanner scanner) {
+        switch(scanner.keyword()) {
+            case O:
+            case G:
+            case USEMTL:
+                return scanner.nextName();
+            case MTLLIB:
+                return scanner.restOfLine();
+            case UNKNOWN:
+                return scanner.keywordText();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reports the MTL files of a 'mtllib' record to the visitor, and parses the ones it asks for.
+     *
+     * @param filePath Path to the .OBJ file
+     * @param mtlLibs  rest of the 'mtllib' line
+     * @param visitor  visitor to report the files and materials to
+     */
+    static void readMaterialLibraries(Path filePath, String mtlLibs, ObjVisitor visitor) throws IOException {
+        // mtllib filename1 filename2 . . .
+        for(String mtlFileName : splitMtlLibs(mtlLibs)) {
+            // filename is likely relative
+            final Path mtlFilePath = filePath.resolveSibling(mtlFileName);
+            if(visitor.visitMaterialLibrary(mtlFilePath))
+                readMaterials(mtlFilePath, visitor);
+        }
+    }
+
+    /**
+     * Splits the argument of a 'mtllib' record into MTL file names. File names may contain spaces,
+     * so the split is done on the ".mtl" extension rather than on whitespace.
+     *
+     * @param mtlLibs rest of the 'mtllib' line, e.g. "a.mtl other file.mtl"
+     * @return the MTL file names
+     */
+    private static List<String> splitMtlLibs(String mtlLibs) {
+        final List<String> mtlFileNames = new ArrayList<>();
+        for(String mtlToken : mtlLibs.split("\\.mtl")) {
+            if(!mtlToken.trim().isEmpty())
+                mtlFileNames.add(mtlToken.trim() + ".mtl");
+        }
+        return mtlFileNames;
+    }
+
+    /**
+     * Parses a MTL file, reporting each material to the visitor.
+     *
+     * @param mtlFilePath the {@link Path} to the MTL file
+     * @param visitor     visitor to report the materials to
+     * @throws IOException if the file cannot be read, or if the visitor throws
+     */
+    public static void readMaterials(Path mtlFilePath, ObjVisitor visitor) throws IOException {
+        String name = null;
+        Color ambient = null;
+        Color diffuse = null;
+        Color specular = null;
+        Float shininess = null;
+        float alpha = 1.0f;
+        Path diffuseTextureMapFilepath = null;
+        boolean createdFirstMtl = false;
+        String line;
+
+        try(BufferedReader bufferedReader = Files.newBufferedReader(mtlFilePath)) {
+            while((line = bufferedReader.readLine()) != null) {
+                if(!line.isEmpty() && line.charAt(0) != '#') {  // ignore comments
+                    final String[] tokens = line.split("\\s+");
+                    if (tokens.length > 0) {
+                        final String firstToken = tokens[0];
+                        switch (firstToken) {
+                            case "newmtl":
+                                // start of a new material
+                                if(createdFirstMtl) {
+                                    visitor.visitMaterial(name, newMaterial(ambient, diffuse, specular, shininess,
+                                                                            alpha, diffuseTextureMapFilepath));
+                                    ambient = null;
+                                    diffuse = null;
+                                    specular = null;
+                                    shininess = null;
+                                    alpha = 1.0f;
+                                    diffuseTextureMapFilepath = null;
+                                } else {
+                                    createdFirstMtl = true;
+                                }
+                                name = tokens[1];
+                                break;
+                            case "Ka":
+                                // ambient color
+                                ambient = new Color(Float.parseFloat(tokens[1]),
+                                                    Float.parseFloat(tokens[2]),
+                                                    Float.parseFloat(tokens[3]));
+                                break;
+                            case "Kd":
+                                // diffuse color
+                                diffuse = new Color(Float.parseFloat(tokens[1]),
+                                                    Float.parseFloat(tokens[2]),
+                                                    Float.parseFloat(tokens[3]));
+                                break;
+                            case "Ks":
+                                // specular color
+                                specular = new Color(Float.parseFloat(tokens[1]),
+                                                     Float.parseFloat(tokens[2]),
+                                                     Float.parseFloat(tokens[3]));
+                                break;
+                            case "Ns":
+                                // specular exponent / shininess
+                                shininess = Float.parseFloat(tokens[1]);
+                                break;
+                            case "d":
+                                // transparency
+                                alpha = Float.parseFloat(tokens[1]);
+                                break;
+                            case "Tr":
+                                // transparency (1-d)
+                                alpha = 1.0f - Float.parseFloat(tokens[1]);
+                                break;
+                            case "illum":
+                                // 0 This is a constant color illumination model. The color is the specified Kd for the material. The formula is:
+                                //   color = Kd
+                                // 1 This is a diffuse illumination model using Lambertian shading. The color includes an ambient and diffuse shading terms for each light source. The formula is
+                                //   color = KaIa + Kd { SUM j=1..ls, (N * Lj)Ij }
+                                // 2 This is a diffuse and specular illumination model using Lambertian shading and Blinn's interpretation of Phong's specular illumination model (BLIN77).
+                                //   The color includes an ambient constant term, and a diffuse and specular shading term for each light source. The formula is:
+                                //   color = KaIa + Kd { SUM j=1..ls, (N*Lj)Ij } + Ks { SUM j=1..ls, ((H*Hj)^Ns)Ij }
+                                //
+                                // ...yeah ignore for now
+                                break;
+                            case "map_Ka":  // ambient texture map
+                                // ignore for now
+                                break;
+                            case "map_Kd":  // diffuse texture map
+                                String textureFilename = tokens[1];
+                                // filepath is likely relative
+                                diffuseTextureMapFilepath = mtlFilePath.resolveSibling(textureFilename);
+                                break;
+                        }
+                    }
+                } // end ignore comments
+            } // end while read line;
+        }
+
+        visitor.visitMaterial(name, newMaterial(ambient, diffuse, specular, shininess,
+                                                alpha, diffuseTextureMapFilepath));
+    }
+
+    private static WavefrontMaterial newMaterial(Color ambient,
+                                                 Color diffuse,
+                                                 Color specular,
+                                                 Float shininess,
+                                                 float alpha,
+                                                 Path diffuseTextureMapFilepath) {
+        diffuse = new Color(diffuse.getRed() / 255f,
+                            diffuse.getGreen() / 255f,
+                            diffuse.getBlue() / 255f,
+                            alpha);
+        return new WavefrontMaterial(specular,
+                                     diffuse,
+                                     ambient,
+                                     new Color(0, 0, 0),
+                                     shininess,
+                                     diffuseTextureMapFilepath);
+    }
+}
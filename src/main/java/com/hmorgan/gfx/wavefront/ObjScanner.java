@@ -0,0 +1,448 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.util.AsciiNumbers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Byte-level tokenizer for Wavefront .OBJ files. The scanner reads bytes straight from a channel
+ * (or from an in-memory region) and recognizes the record keyword of each line without creating a
+ * String per line. Tokens are consumed through typed accessors such as {@link #nextFloat()} and
+ * {@link #nextFaceCorner(int[])}; only names (e.g. 'o', 'g' and 'usemtl' arguments) allocate Strings.
+ * <p>
+ * Blank lines and comment lines are skipped by {@link #nextLine()}. A line is always fully resident
+ * in the buffer while it is being scanned, the buffer grows if a single line does not fit.
+ * <p>
+ * This class is <i>not</i> thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class ObjScanner implements Closeable {
+
+    /**
+     * Record keywords recognized by the scanner.
+     */
+    public enum Keyword {
+        V,          // geometric vertex
+        VN,         // vertex normal
+        VT,         // texture coordinate
+        F,          // face
+        L,          // line
+        O,          // object name
+        G,          // group name
+        S,          // smoothing group
+        USEMTL,     // material name
+        MTLLIB,     // material library
+        UNKNOWN     // anything else
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;  // null when scanning a fixed region
+    private ByteBuffer buf;
+    private byte[] byteScratch;                 // scratch space used to decode names
+    private int pos;                            // start of unscanned data
+    private int limit;                          // end of valid data
+    private boolean eof;
+    private long bytesConsumed;                 // bytes discarded from the buffer by refills
+    private long lineCount;                     // records returned by nextLine()
+    private LoadMetrics metrics;                // null if reads are not timed
+
+    private int lineStart;
+    private int lineEnd;
+    private int cursor;                         // current position within the line
+    private Keyword keyword;
+    private int keywordStart;
+    private int keywordEnd;
+
+    /**
+     * Creates a scanner that streams from the given channel.
+     *
+     * @param channel    channel to read from
+     * @param bufferSize initial read buffer size in bytes
+     */
+    public ObjScanner(ReadableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buf = ByteBuffer.allocate(Math.max(bufferSize, 64));
+        this.limit = 0;
+        this.eof = false;
+        init();
+    }
+
+    /**
+     * Creates a scanner over a fixed region, from the buffer's position to its limit. The buffer is
+     * not modified; it can be a heap buffer or a memory-mapped region of a file.
+     *
+     * @param region bytes to scan
+     */
+    public ObjScanner(ByteBuffer region) {
+        this.channel = null;
+        this.buf = region;
+        this.pos = region.position();
+        this.limit = region.limit();
+        this.eof = true;
+        this.bytesConsumed = -region.position();
+        init();
+    }
+
+    /**
+     * Opens a streaming scanner on the given file.
+     *
+     * @param filePath path to the .OBJ file
+     * @return a new {@link ObjScanner}, which must be closed by the caller
+     * @throws IOException
+     */
+    public static ObjScanner open(Path filePath) throws IOException {
+        return new ObjScanner(FileChannel.open(filePath, StandardOpenOption.READ), DEFAULT_BUFFER_SIZE);
+    }
+
+    private void init() {
+        byteScratch = new byte[64];
+        keyword = Keyword.UNKNOWN;
+    }
+
+    /**
+     * Advances to the next line that holds a record, skipping blank lines and comments.
+     *
+     * @return false if the end of input has been reached
+     * @throws IOException
+     */
+    public boolean nextLine() throws IOException {
+        while(true) {
+            int eol = findEndOfLine();
+            if(eol < 0)
+                return false;
+
+            lineStart = pos;
+            lineEnd = (eol > pos && buf.get(eol - 1) == '\r') ? eol - 1 : eol;
+            pos = (eol < limit) ? eol + 1 : eol;
+
+            cursor = lineStart;
+            skipWhitespace();
+            if(cursor >= lineEnd || buf.get(cursor) == '#')
+                continue;   // ignore blank lines and comments
+
+            keywordStart = cursor;
+            while(cursor < lineEnd && !isWhitespace(buf.get(cursor)))
+                cursor++;
+            keywordEnd = cursor;
+            keyword = classify(keywordStart, keywordEnd);
+            lineCount++;
+            return true;
+        }
+    }
+
+    /**
+     * Finds the end of the next line, refilling the buffer as needed.
+     *
+     * @return index of the '\n' terminating the line, or {@link #limit} for a last unterminated line,
+     *         or -1 if there is no more input
+     */
+    private int findEndOfLine() throws IOException {
+        int scan = pos;
+        while(true) {
+            for(; scan < limit; scan++) {
+                if(buf.get(scan) == '\n')
+                    return scan;
+            }
+            if(eof)
+                return (pos < limit) ? limit : -1;
+
+            final int scanned = scan - pos;
+            fill();
+            scan = pos + scanned;
+        }
+    }
+
+    /**
+     * Moves unscanned bytes to the front of the buffer (growing it if full) and reads more input.
+     */
+    private void fill() throws IOException {
+        final int remaining = limit - pos;
+        if(remaining == buf.capacity()) {
+            // single line larger than the buffer
+            final ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+            buf.limit(limit).position(pos);
+            bigger.put(buf);
+            buf = bigger;
+        } else {
+            buf.limit(limit).position(pos);
+            buf.compact();
+        }
+        bytesConsumed += pos;
+        pos = 0;
+        limit = remaining;
+
+        buf.limit(buf.capacity()).position(limit);
+        final long readStart = (metrics != null) ? System.nanoTime() : 0;
+        int n;
+        do {
+            n = channel.read(buf);
+        } while(n == 0);
+        if(metrics != null)
+            metrics.endPhase(LoadMetrics.Phase.IO, readStart);
+        if(n < 0)
+            eof = true;
+        else
+            limit += n;
+    }
+
+    private Keyword classify(int start, int end) {
+        final int length = end - start;
+        final byte c0 = buf.get(start);
+        if(length == 1) {
+            switch(c0) {
+                case 'v': return Keyword.V;
+                case 'f': return Keyword.F;
+                case 'l': return Keyword.L;
+                case 'o': return Keyword.O;
+                case 'g': return Keyword.G;
+                case 's': return Keyword.S;
+                default: return Keyword.UNKNOWN;
+            }
+        }
+        if(length == 2 && c0 == 'v') {
+            switch(buf.get(start + 1)) {
+                case 'n': return Keyword.VN;
+                case 't': return Keyword.VT;
+                default: return Keyword.UNKNOWN;
+            }
+        }
+        if(length == 6) {
+            if(regionEquals(start, "usemtl"))
+                return Keyword.USEMTL;
+            if(regionEquals(start, "mtllib"))
+                return Keyword.MTLLIB;
+        }
+        return Keyword.UNKNOWN;
+    }
+
+    private boolean regionEquals(int start, String ascii) {
+        for(int i = 0; i < ascii.length(); i++) {
+            if(buf.get(start + i) != ascii.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private void skipWhitespace() {
+        while(cursor < lineEnd && isWhitespace(buf.get(cursor)))
+            cursor++;
+    }
+
+    private int tokenEnd() {
+        int end = cursor;
+        while(end < lineEnd && !isWhitespace(buf.get(end)))
+            end++;
+        return end;
+    }
+
+    /**
+     * @return the keyword of the current line
+     */
+    public Keyword keyword() {
+        return keyword;
+    }
+
+    /**
+     * @return the keyword of the current line as text, mostly useful for error messages
+     */
+    public String keywordText() {
+        return decode(keywordStart, keywordEnd);
+    }
+
+    /**
+     * @return true if the current line has another token
+     */
+    public boolean hasNextToken() {
+        skipWhitespace();
+        return cursor < lineEnd;
+    }
+
+    /**
+     * Parses the next token of the current line as a float, giving the same value as
+     * {@link Float#parseFloat} without allocating (see {@link AsciiNumbers}).
+     *
+     * @return the parsed value
+     * @throws IOException if the line has no more tokens or the token is not a number
+     */
+    public float nextFloat() throws IOException {
+        if(!hasNextToken())
+            throw new IOException("Missing number in " + keywordText() + " record");
+        final int start = cursor;
+        final int end = tokenEnd();
+        cursor = end;
+
+        try {
+            return AsciiNumbers.parseFloat(buf, start, end);
+        } catch(NumberFormatException e) {
+            throw new IOException("Illegal number in " + keywordText() + " record", e);
+        }
+    }
+
+    /**
+     * Parses the next token of the current line as a float, if there is one.
+     *
+     * @param defaultValue value returned when the line has no more tokens
+     * @return the parsed value, or the default value
+     * @throws IOException if the token is not a number
+     */
+    public float nextFloat(float defaultValue) throws IOException {
+        return hasNextToken() ? nextFloat() : defaultValue;
+    }
+
+    /**
+     * Parses the next token of the current line as an integer.
+     *
+     * @return the parsed value
+     * @throws IOException if the line has no more tokens or the token is not an integer
+     */
+    public int nextInt() throws IOException {
+        if(!hasNextToken())
+            throw new IOException("Missing integer in " + keywordText() + " record");
+        final int end = tokenEnd();
+        final int value = parseInt(end);
+        if(cursor != end)
+            throw new IOException("Illegal integer in " + keywordText() + " record");
+        return value;
+    }
+
+    /**
+     * Parses an optionally signed integer starting at the cursor, stopping at the first byte that is
+     * not a digit (or at end).
+     *
+     * @throws IOException if there are no digits, or the value does not fit into an int
+     */
+    private int parseInt(int end) throws IOException {
+        boolean negative = false;
+        if(cursor < end && (buf.get(cursor) == '-' || buf.get(cursor) == '+')) {
+            negative = buf.get(cursor) == '-';
+            cursor++;
+        }
+        final int digitsStart = cursor;
+        // accumulated negatively, like Integer.parseInt, so that Integer.MIN_VALUE fits as well
+        final int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int value = 0;
+        while(cursor < end) {
+            final int digit = buf.get(cursor) - '0';
+            if(digit < 0 || digit > 9)
+                break;
+            if(value < limit / 10 || value * 10 < limit + digit)
+                throw new IOException("Index out of range in " + keywordText() + " record");
+            value = value * 10 - digit;
+            cursor++;
+        }
+        if(cursor == digitsStart)
+            throw new IOException("Illegal index in " + keywordText() + " record");
+        return negative ? value : -value;
+    }
+
+    /**
+     * Parses the next face corner of an 'f' (or 'l') record. A corner has the form v, v/t, v//n or
+     * v/t/n. The raw OBJ indices are stored in {@code corner}: 1-based, negative if relative to the
+     * end of the attribute list, or 0 if the component is absent.
+     *
+     * @param corner array of length 3 receiving the vertex, texture coordinate and normal indices
+     * @return false if the line has no more corners
+     * @throws IOException if the corner is malformed
+     */
+    public boolean nextFaceCorner(int[] corner) throws IOException {
+        if(!hasNextToken())
+            return false;
+        final int end = tokenEnd();
+
+        corner[0] = parseInt(end);
+        corner[1] = 0;
+        corner[2] = 0;
+        if(cursor < end && buf.get(cursor) == '/') {
+            cursor++;
+            if(cursor < end && buf.get(cursor) != '/')
+                corner[1] = parseInt(end);
+            if(cursor < end && buf.get(cursor) == '/') {
+                cursor++;
+                corner[2] = parseInt(end);
+            }
+        }
+        if(cursor != end)
+            throw new IOException("Illegal face corner in " + keywordText() + " record");
+        return true;
+    }
+
+    /**
+     * @return the next token of the current line as a String, or null if there is none
+     */
+    public String nextName() {
+        if(!hasNextToken())
+            return null;
+        final int start = cursor;
+        cursor = tokenEnd();
+        return decode(start, cursor);
+    }
+
+    /**
+     * @return the rest of the current line, without surrounding whitespace
+     */
+    public String restOfLine() {
+        skipWhitespace();
+        int end = lineEnd;
+        while(end > cursor && isWhitespace(buf.get(end - 1)))
+            end--;
+        final String rest = decode(cursor, end);
+        cursor = lineEnd;
+        return rest;
+    }
+
+    private String decode(int start, int end) {
+        final int length = end - start;
+        if(byteScratch.length < length)
+            byteScratch = new byte[length];
+        for(int i = 0; i < length; i++)
+            byteScratch[i] = buf.get(start + i);
+        return new String(byteScratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return number of records returned by {@link #nextLine()} so far
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return current size of the read buffer in bytes
+     */
+    public int getBufferCapacity() {
+        return buf.capacity();
+    }
+
+    /**
+     * @param metrics metrics to add the time spent reading the channel to, or null
+     */
+    void setMetrics(LoadMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return number of bytes scanned so far, up to the end of the current line
+     */
+    public long getBytesScanned() {
+        return bytesConsumed + pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(channel != null)
+            channel.close();
+    }
+}
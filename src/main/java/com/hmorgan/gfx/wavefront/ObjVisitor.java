@@ -0,0 +1,122 @@
+package com.hmorgan.gfx.wavefront;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Callback interface for streaming Wavefront .OBJ parsing, see {@link ObjReader}. The reader calls
+ * one method per record, in file order, without keeping the records around. This is useful when only
+ * statistics, a bounding box or a re-export is needed and building every {@link com.hmorgan.gfx.Mesh}
+ * would be wasteful.
+ * <p>
+ * All methods do nothing by default, so a visitor only overrides the events it cares about. Any
+ * method may throw an {@link IOException} to abort parsing.
+ *
+ * @author Hunter N. Morgan
+ */
+public interface ObjVisitor {
+
+    /**
+     * A geometric vertex ('v').
+     */
+    default void visitVertex(float x, float y, float z) throws IOException {
+
+    }
+
+    /**
+     * A texture coordinate ('vt'). A missing v coordinate is reported as 0, w is ignored.
+     */
+    default void visitTextureCoord(float u, float v) throws IOException {
+
+    }
+
+    /**
+     * A vertex normal ('vn').
+     */
+    default void visitNormal(float x, float y, float z) throws IOException {
+
+    }
+
+    /**
+     * A face ('f'). Each corner is a v/t/n triple of 0-based indices, relative indices have already
+     * been resolved. A missing texture coordinate or normal index is {@link ObjIndexBuffer#ABSENT}.
+     * <p>
+     * The array is reused for the next face, so it must not be kept after this method returns.
+     *
+     * @param corners     v/t/n triples, 3 ints per corner
+     * @param cornerCount number of corners of the face
+     */
+    default void visitFace(int[] corners, int cornerCount) throws IOException {
+
+    }
+
+    /**
+     * A polyline ('l'), with corners laid out as in {@link #visitFace}.
+     */
+    default void visitLine(int[] corners, int cornerCount) throws IOException {
+
+    }
+
+    /**
+     * An object name ('o').
+     */
+    default void visitObject(String name) throws IOException {
+
+    }
+
+    /**
+     * A group name ('g').
+     */
+    default void visitGroup(String name) throws IOException {
+
+    }
+
+    /**
+     * A material change ('usemtl').
+     */
+    default void visitUseMaterial(String name) throws IOException {
+
+    }
+
+    /**
+     * A smoothing group ('s').
+     *
+     * @param group the group number or "off", or null if the record has none
+     */
+    default void visitSmoothingGroup(String group) throws IOException {
+
+    }
+
+    /**
+     * A MTL file referenced by a 'mtllib' record, reported once per file.
+     *
+     * @param mtlFilePath the MTL file, resolved against the .OBJ file
+     * @return true to have the file parsed and its materials reported to {@link #visitMaterial}
+     */
+    default boolean visitMaterialLibrary(Path mtlFilePath) throws IOException {
+        return true;
+    }
+
+    /**
+     * A material defined by a MTL file ('newmtl' and the statements following it).
+     */
+    default void visitMaterial(String name, WavefrontMaterial material) throws IOException {
+
+    }
+
+    /**
+     * A record with a keyword the reader does not know.
+     *
+     * @param keyword the keyword as written in the file
+     */
+    default void visitUnknown(String keyword) throws IOException {
+
+    }
+
+    /**
+     * The end of the file has been reached.
+     */
+    default void visitEnd() throws IOException {
+
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * The texture atlases of a model, built by a {@link TextureAtlasBuilder}: the atlas image files, where
+ * each diffuse texture map was packed in them, and the meshes of the model drawing from them.
+ * <p>
+ * Instances are immutable.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class TextureAtlas {
+
+    private final Map<String, Mesh> meshes;
+    private final List<Path> atlasPaths;
+    private final Map<Path, Region> regions;
+    private final Set<String> fallbackMeshes;
+
+    /**
+     * Where a texture image was packed in an atlas.
+     */
+    public static final class Region {
+
+        private final Path atlasPath;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final int atlasWidth;
+        private final int atlasHeight;
+
+        Region(Path atlasPath, int x, int y, int width, int height, int atlasWidth, int atlasHeight) {
+            this.atlasPath = atlasPath;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.atlasWidth = atlasWidth;
+            this.atlasHeight = atlasHeight;
+        }
+
+        /**
+         * @return path of the atlas image file
+         */
+        public Path getAtlasPath() {
+            return atlasPath;
+        }
+
+        /**
+         * @return left edge of the image in the atlas, in pixels
+         */
+        public int getX() {
+            return x;
+        }
+
+        /**
+         * @return top edge of the image in the atlas, in pixels
+         */
+        public int getY() {
+            return y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getAtlasWidth() {
+            return atlasWidth;
+        }
+
+        public int getAtlasHeight() {
+            return atlasHeight;
+        }
+
+        /**
+         * @param u texture coordinate in the image, within [0, 1]
+         * @return the texture coordinate in the atlas
+         */
+        public float mapU(float u) {
+            return (x + u * width) / atlasWidth;
+        }
+
+        /**
+         * @param v texture coordinate in the image, within [0, 1], pointing up as in .OBJ files
+         * @return the texture coordinate in the atlas, pointing up as well
+         */
+        public float mapV(float v) {
+            return 1.0f - (y + (1.0f - v) * height) / atlasHeight;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%d, %d, %d x %d]", atlasPath.getFileName(), x, y, width, height);
+        }
+    }
+
+    TextureAtlas(Map<String, Mesh> meshes, List<Path> atlasPaths, Map<Path, Region> regions, Set<String> fallbackMeshes) {
+        this.meshes = Collections.unmodifiableMap(meshes);
+        this.atlasPaths = Collections.unmodifiableList(atlasPaths);
+        this.regions = Collections.unmodifiableMap(regions);
+        this.fallbackMeshes = Collections.unmodifiableSet(fallbackMeshes);
+    }
+
+    /**
+     * @return the meshes of the model, keyed by name; packed meshes have their texture coordinates in
+     *         atlas space and an atlas as their diffuse texture map, the others are unchanged
+     */
+    public Map<String, Mesh> getMeshes() {
+        return meshes;
+    }
+
+    /**
+     * @return paths of the atlas image files, empty if no texture was packed
+     */
+    public List<Path> getAtlasPaths() {
+        return atlasPaths;
+    }
+
+    /**
+     * @return the region of each packed texture image, keyed by its absolute, normalized path
+     */
+    public Map<Path, Region> getRegions() {
+        return regions;
+    }
+
+    /**
+     * @param imagePath path of a texture image
+     * @return where the image was packed, or nothing if it was not
+     */
+    public Optional<Region> getRegion(Path imagePath) {
+        return Optional.ofNullable(regions.get(imagePath.toAbsolutePath().normalize()));
+    }
+
+    /**
+     * @return names of the textured meshes that keep their own texture, because their texture
+     *         coordinates repeat across triangles or their image cannot be packed
+     */
+    public Set<String> getFallbackMeshes() {
+        return fallbackMeshes;
+    }
+
+    @Override
+    public String toString() {
+        return "TextureAtlas[" + atlasPaths.size() + " atlases, " + regions.size() + " images, "
+               + fallbackMeshes.size() + " fallback meshes]";
+    }
+}
@@ -0,0 +1,416 @@
+package com.hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.util.CacheFiles;
+import com.hmorgan.util.FloatList;
+import com.hmorgan.util.IntList;
+import com.jogamp.common.nio.Buffers;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Packs the diffuse texture maps ({@code map_Kd}) of the meshes of a model into one or a few texture
+ * atlases, so that the model binds one or two textures per frame instead of one per mesh.
+ * <p>
+ * The images are packed on shelves, tallest first, each surrounded by a border of its own edge
+ * pixels so that filtering and mipmaps do not bleed neighbouring images into it. The texture
+ * coordinates of the packed meshes are rewritten into atlas space. That only works for texture
+ * coordinates within a single repetition of the image: a mesh whose triangles each lie within one
+ * unit square of texture space is split, its vertices shared by triangles in different squares
+ * duplicated, and its texture coordinates moved into [0, 1]; a mesh with a triangle that spans
+ * several squares relies on the texture repeating and keeps its own texture. So do meshes whose
+ * image cannot be read or does not fit an atlas.
+ * <p>
+ * The atlases are written as PNG files to an atlas directory, named after the images they hold and
+ * the size and modification time of these, so that later loads of the model only read the sizes of
+ * its images and reuse the atlases. Atlases larger than the maximum size of the
+ * {@link com.hmorgan.gfx.TextureManager} are scaled down when they are decoded, which the texture
+ * coordinates allow for.
+ * <p>
+ * Builders are immutable.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class TextureAtlasBuilder {
+
+    public static final int DEFAULT_MAX_ATLAS_SIZE = 4096;
+    public static final int DEFAULT_PADDING = 4;
+
+    private static final int VERSION = 1;           // of the atlas layout, part of the atlas file names
+    private static final float EPSILON = 1e-4f;     // texture coordinates this close to a square still lie in it
+    private static final int MAX_TILE = Short.MAX_VALUE;
+    private static final int NO_TILE = Integer.MIN_VALUE;
+
+    private final Path atlasDirectory;
+    private final int maxAtlasSize;
+    private final int padding;
+
+    /**
+     * A texture image to pack.
+     */
+    private static final class Image {
+        private final Path path;                // absolute and normalized
+        private final int width;
+        private final int height;
+        private final boolean alpha;
+        private int page;
+        private int x;                          // of the image itself, inside its border
+        private int y;
+
+        private Image(Path path, int width, int height, boolean alpha) {
+            this.path = path;
+            this.width = width;
+            this.height = height;
+            this.alpha = alpha;
+        }
+    }
+
+    /**
+     * Packs into atlases of up to {@link #DEFAULT_MAX_ATLAS_SIZE} pixels a side, with borders of
+     * {@link #DEFAULT_PADDING} pixels.
+     *
+     * @param atlasDirectory directory for the atlas files, created when the first atlas is written
+     */
+    public TextureAtlasBuilder(Path atlasDirectory) {
+        this(atlasDirectory, DEFAULT_MAX_ATLAS_SIZE, DEFAULT_PADDING);
+    }
+
+    /**
+     * @param atlasDirectory directory for the atlas files, created when the first atlas is written
+     * @param maxAtlasSize   largest width and height of an atlas
+     * @param padding        width of the border around each image in pixels
+     */
+    public TextureAtlasBuilder(Path atlasDirectory, int maxAtlasSize, int padding) {
+        if(maxAtlasSize < 1)
+            throw new IllegalArgumentException("max atlas size must be positive: " + maxAtlasSize);
+        if(padding < 0)
+            throw new IllegalArgumentException("padding must not be negative: " + padding);
+        this.atlasDirectory = Objects.requireNonNull(atlasDirectory, "Atlas directory cannot be null");
+        this.maxAtlasSize = maxAtlasSize;
+        this.padding = padding;
+    }
+
+    public Path getAtlasDirectory() {
+        return atlasDirectory;
+    }
+
+    public int getMaxAtlasSize() {
+        return maxAtlasSize;
+    }
+
+    public int getPadding() {
+        return padding;
+    }
+
+    /**
+     * Packs the textures of the given meshes, writing the atlases that do not exist yet. Models with
+     * fewer than two textures to pack are left as they are.
+     *
+     * @param meshes the meshes of a model, keyed by name
+     * @return the atlases and the meshes drawing from them
+     * @throws IOException if a texture image cannot be decoded or an atlas cannot be written
+     */
+    public TextureAtlas build(Map<String, Mesh> meshes) throws IOException {
+        final Map<String, Mesh> result = new LinkedHashMap<>(meshes);
+        final Set<String> fallbackMeshes = new TreeSet<>();
+
+        // the square of texture space each triangle of a packable mesh lies in
+        final Map<String, int[]> meshTiles = new HashMap<>();
+        final Map<Path, List<String>> meshesByImage = new TreeMap<>();
+        meshes.forEach((name, mesh) -> {
+            if(!mesh.hasTexCoords() || !mesh.getTexturePath().isPresent() || mesh.getMeshType() != Mesh.MeshType.POLYGON_MESH)
+                return;
+            final int[] tiles = computeTiles(mesh);
+            if(tiles == null) {
+                fallbackMeshes.add(name);
+                return;
+            }
+            meshTiles.put(name, tiles);
+            meshesByImage.computeIfAbsent(mesh.getTexturePath().get().toAbsolutePath().normalize(), path -> new ArrayList<>()).add(name);
+        });
+
+        final List<Image> images = new ArrayList<>();
+        for(Map.Entry<Path, List<String>> entry : meshesByImage.entrySet()) {
+            final Image image = readImageInfo(entry.getKey());
+            if(image != null && image.width + 2 * padding <= maxAtlasSize && image.height + 2 * padding <= maxAtlasSize)
+                images.add(image);
+            else
+                fallbackMeshes.addAll(entry.getValue());
+        }
+        if(images.size() < 2) {
+            // a single texture is bound once anyway
+            return new TextureAtlas(result, Collections.emptyList(), Collections.emptyMap(), fallbackMeshes);
+        }
+
+        final List<int[]> pageSizes = pack(images);
+        final String key = digest(images);
+        final List<Path> atlasPaths = new ArrayList<>();
+        for(int page = 0; page < pageSizes.size(); page++) {
+            final Path atlasPath = atlasDirectory.resolve("atlas-" + key + "-" + page + ".png");
+            if(!Files.isRegularFile(atlasPath))
+                writeAtlas(atlasPath, images, page, pageSizes.get(page));
+            atlasPaths.add(atlasPath);
+        }
+
+        final Map<Path, TextureAtlas.Region> regions = new LinkedHashMap<>();
+        for(Image image : images) {
+            final int[] size = pageSizes.get(image.page);
+            final TextureAtlas.Region region = new TextureAtlas.Region(atlasPaths.get(image.page), image.x, image.y,
+                                                                       image.width, image.height, size[0], size[1]);
+            regions.put(image.path, region);
+            for(String name : meshesByImage.get(image.path))
+                result.put(name, rewrite(meshes.get(name), meshTiles.get(name), region));
+        }
+        return new TextureAtlas(result, atlasPaths, regions, fallbackMeshes);
+    }
+
+    /**
+     * Finds the unit square of texture space each triangle of a mesh lies in.
+     *
+     * @return the square of each triangle, its integer u and v packed into an int, or null if a
+     *         triangle spans several squares
+     */
+    private static int[] computeTiles(Mesh mesh) {
+        final FloatBuffer vertexData = mesh.getVertexData();
+        final int stride = mesh.getVertexStride();
+        final int texCoordOffset = mesh.hasNormals() ? 6 : 3;
+        final IntBuffer indices = mesh.getIndices().map(IntBuffer::duplicate).orElse(null);
+        final int cornerCount = (indices != null) ? indices.limit() : vertexData.limit() / stride;
+
+        final int[] tiles = new int[cornerCount / 3];
+        for(int t = 0; t < tiles.length; t++) {
+            float minU = Float.POSITIVE_INFINITY, minV = Float.POSITIVE_INFINITY;
+            float maxU = Float.NEGATIVE_INFINITY, maxV = Float.NEGATIVE_INFINITY;
+            for(int c = 3 * t; c < 3 * t + 3; c++) {
+                final int base = ((indices != null) ? indices.get(c) : c) * stride + texCoordOffset;
+                final float u = vertexData.get(base), v = vertexData.get(base + 1);
+                minU = Math.min(minU, u);
+                minV = Math.min(minV, v);
+                maxU = Math.max(maxU, u);
+                maxV = Math.max(maxV, v);
+            }
+            final float tileU = (float) Math.floor(minU + EPSILON);
+            final float tileV = (float) Math.floor(minV + EPSILON);
+            // also false for NaN
+            if(!(maxU <= tileU + 1.0f + EPSILON && maxV <= tileV + 1.0f + EPSILON
+                 && Math.abs(tileU) < MAX_TILE && Math.abs(tileV) < MAX_TILE))
+                return null;
+            tiles[t] = ((int) tileU << 16) | ((int) tileV & 0xFFFF);
+        }
+        return tiles;
+    }
+
+    /**
+     * @return the image with its size, or null if it cannot be read
+     */
+    private static Image readImageInfo(Path path) {
+        try(InputStream input = Files.newInputStream(path);
+            ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            final Iterator<ImageReader> readers = (stream != null) ? ImageIO.getImageReaders(stream) : Collections.emptyIterator();
+            if(!readers.hasNext())
+                return null;
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                final Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                final boolean alpha = !types.hasNext() || types.next().getColorModel().hasAlpha();
+                return new Image(path, reader.getWidth(0), reader.getHeight(0), alpha);
+            } finally {
+                reader.dispose();
+            }
+        } catch(IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Places the images on shelves of atlases about as wide as they are tall, tallest images first.
+     *
+     * @return width and height of each atlas
+     */
+    private List<int[]> pack(List<Image> images) {
+        final List<Image> order = new ArrayList<>(images);
+        order.sort(Comparator.comparingInt((Image image) -> -image.height)
+                             .thenComparingInt(image -> -image.width)
+                             .thenComparing(image -> image.path));
+        long area = 0;
+        int widest = 0;
+        for(Image image : order) {
+            area += (long) (image.width + 2 * padding) * (image.height + 2 * padding);
+            widest = Math.max(widest, image.width + 2 * padding);
+        }
+        final int shelfWidth = Math.min(maxAtlasSize, Math.max(widest, (int) Math.ceil(Math.sqrt(area))));
+
+        final List<int[]> pageSizes = new ArrayList<>();
+        int page = 0, x = 0, shelfY = 0, shelfHeight = 0, usedWidth = 0;
+        for(Image image : order) {
+            final int w = image.width + 2 * padding, h = image.height + 2 * padding;
+            if(x + w > shelfWidth) {
+                shelfY += shelfHeight;
+                x = 0;
+                shelfHeight = 0;
+            }
+            if(shelfY + h > maxAtlasSize) {
+                pageSizes.add(new int[] { usedWidth, shelfY });
+                page++;
+                x = shelfY = shelfHeight = usedWidth = 0;
+            }
+            image.page = page;
+            image.x = x + padding;
+            image.y = shelfY + padding;
+            x += w;
+            shelfHeight = Math.max(shelfHeight, h);
+            usedWidth = Math.max(usedWidth, x);
+        }
+        pageSizes.add(new int[] { usedWidth, shelfY + shelfHeight });
+        return pageSizes;
+    }
+
+    private void writeAtlas(Path atlasPath, List<Image> images, int page, int[] size) throws IOException {
+        boolean alpha = false;
+        for(Image image : images)
+            alpha |= image.page == page && image.alpha;
+        final BufferedImage atlas = new BufferedImage(size[0], size[1], alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = atlas.createGraphics();
+        try {
+            for(Image image : images) {
+                if(image.page != page)
+                    continue;
+                final BufferedImage decoded = ImageIO.read(image.path.toUri().toURL());
+                if(decoded == null)
+                    throw new IOException("Unsupported texture image format: " + image.path);
+                g.drawImage(decoded, image.x, image.y, image.width, image.height, null);
+                extendEdges(atlas, image);
+            }
+        } finally {
+            g.dispose();
+        }
+
+        // write to a temporary file first, so that a reader never sees a partial atlas
+        Files.createDirectories(atlasDirectory);
+        CacheFiles.replace(atlasPath, tempFile -> {
+            try(OutputStream output = Files.newOutputStream(tempFile)) {
+                if(!ImageIO.write(atlas, "png", output))
+                    throw new IOException("No PNG writer for " + atlasPath);
+            }
+        });
+    }
+
+    /**
+     * Fills the border around an image with copies of its edge pixels.
+     */
+    private void extendEdges(BufferedImage atlas, Image image) {
+        final int right = image.x + image.width - 1, bottom = image.y + image.height - 1;
+        for(int k = 1; k <= padding; k++) {
+            for(int y = image.y; y <= bottom; y++) {
+                atlas.setRGB(image.x - k, y, atlas.getRGB(image.x, y));
+                atlas.setRGB(right + k, y, atlas.getRGB(right, y));
+            }
+        }
+        for(int k = 1; k <= padding; k++) {
+            for(int x = image.x - padding; x <= right + padding; x++) {
+                atlas.setRGB(x, image.y - k, atlas.getRGB(x, image.y));
+                atlas.setRGB(x, bottom + k, atlas.getRGB(x, bottom));
+            }
+        }
+    }
+
+    /**
+     * Moves the texture coordinates of each triangle of a mesh into [0, 1], then into the region of
+     * its image. Vertices shared by triangles in different squares of texture space are duplicated.
+     */
+    private static Mesh rewrite(Mesh mesh, int[] tiles, TextureAtlas.Region region) {
+        final int stride = mesh.getVertexStride();
+        final int texCoordOffset = mesh.hasNormals() ? 6 : 3;
+        final FloatBuffer vertexData = mesh.getVertexData();
+        final int vertexCount = vertexData.limit() / stride;
+        final FloatList data = new FloatList(vertexData.limit());
+        for(int i = 0; i < vertexData.limit(); i++)
+            data.add(vertexData.get(i));
+
+        final boolean indexed = mesh.getIndices().isPresent();
+        final IntBuffer meshIndices = indexed ? mesh.getIndices().get().duplicate() : null;
+        final int[] indices = new int[indexed ? meshIndices.limit() : vertexCount];
+        for(int i = 0; i < indices.length; i++)
+            indices[i] = indexed ? meshIndices.get(i) : i;
+
+        final IntList vertexTiles = new IntList(vertexCount);
+        for(int i = 0; i < vertexCount; i++)
+            vertexTiles.add(NO_TILE);
+        final Map<Long, Integer> copies = new HashMap<>();
+        for(int c = 0; c < tiles.length * 3; c++) {
+            final int tile = tiles[c / 3];
+            final int vertex = indices[c];
+            if(vertexTiles.get(vertex) == NO_TILE) {
+                vertexTiles.set(vertex, tile);
+            } else if(vertexTiles.get(vertex) != tile) {
+                final long copyKey = ((long) vertex << 32) | (tile & 0xFFFFFFFFL);
+                Integer copy = copies.get(copyKey);
+                if(copy == null) {
+                    copy = vertexTiles.size();
+                    copies.put(copyKey, copy);
+                    for(int k = 0; k < stride; k++)
+                        data.add(data.get(vertex * stride + k));
+                    vertexTiles.add(tile);
+                }
+                indices[c] = copy;
+            }
+        }
+
+        final float[] rewritten = data.toArray();
+        for(int vertex = 0; vertex < vertexTiles.size(); vertex++) {
+            final int tile = vertexTiles.get(vertex);
+            final int tileU = (tile == NO_TILE) ? 0 : tile >> 16;
+            final int tileV = (tile == NO_TILE) ? 0 : (short) tile;
+            final int base = vertex * stride + texCoordOffset;
+            rewritten[base] = region.mapU(clamp(rewritten[base] - tileU));
+            rewritten[base + 1] = region.mapV(clamp(rewritten[base + 1] - tileV));
+        }
+
+        final WavefrontMaterial material = mesh.getMaterial().get();
+        final Mesh.Builder meshBuilder = new Mesh.Builder()
+                .setName(mesh.getName())
+                .setMeshType(mesh.getMeshType())
+                .setMaterial(WavefrontMaterial.restore(material.getSpecular(), material.getDiffuse(), material.getAmbient(),
+                                                       material.getEmission(), (float) material.getShininess(),
+                                                       region.getAtlasPath()))
+                .setVertexData(Buffers.newDirectFloatBuffer(rewritten), mesh.hasNormals(), true)
+                .setVertexFormat(mesh.getVertexFormat())
+                .setClusterSize(mesh.getClusterSize());
+        // without indices every vertex is a corner of a single triangle, so none is duplicated
+        if(indexed)
+            meshBuilder.setIndices(Buffers.newDirectIntBuffer(indices));
+        return meshBuilder.build();
+    }
+
+    private static float clamp(float t) {
+        return Math.max(0.0f, Math.min(1.0f, t));
+    }
+
+    /**
+     * @return a digest of the layout parameters and of the path, size and modification time of the
+     *         packed images
+     */
+    private String digest(List<Image> images) throws IOException {
+        final StringBuilder key = new StringBuilder();
+        key.append(VERSION).append(' ').append(maxAtlasSize).append(' ').append(padding);
+        for(Image image : images) {
+            key.append('\n').append(image.path.toUri()).append(' ').append(Files.size(image.path))
+               .append(' ').append(Files.getLastModifiedTime(image.path).toMillis());
+        }
+        return CacheFiles.digest(key.toString());
+    }
+}
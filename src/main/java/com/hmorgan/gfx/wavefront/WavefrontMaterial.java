@@ -51,10 +51,31 @@ public class WavefrontMaterial extends Material {
                              Color emission,
                              float shininess,
                              Path diffuseTextureMapPath) {
-        super(specular, diffuse, makeDarker2(ambient), emission, shininess);
+        this(new Material(specular, diffuse, makeDarker2(ambient), emission, shininess), diffuseTextureMapPath);
+    }
+
+    /**
+     * Creates a material with exactly the colors of {@code colors}; callers darken the ambient color
+     * beforehand if they need to.
+     */
+    private WavefrontMaterial(Material colors, Path diffuseTextureMapPath) {
+        super(colors.getSpecular(), colors.getDiffuse(), colors.getAmbient(), colors.getEmission(),
+                (float) colors.getShininess());
         this.diffuseTextureMapPath = diffuseTextureMapPath;
     }
 
+    /**
+     * Restores a material from the values returned by its getters, see {@link ObjMeshCache}.
+     */
+    static WavefrontMaterial restore(Color specular,
+                                     Color diffuse,
+                                     Color ambient,
+                                     Color emission,
+                                     float shininess,
+                                     Path diffuseTextureMapPath) {
+        return new WavefrontMaterial(new Material(specular, diffuse, ambient, emission, shininess), diffuseTextureMapPath);
+    }
+
     protected static Color makeDarker2(Color var1) {
         if(var1 == null) {
             String var7 = Logging.getMessage("nullValue.ColorIsNull");
@@ -0,0 +1,129 @@
+package com.hmorgan.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses ASCII numbers straight from a byte range, without creating a String.
+ * <p>
+ * {@link #parseFloat(ByteBuffer, int, int)} returns exactly the float that {@link Float#parseFloat}
+ * returns for the same text. Plain decimal numbers with up to 15 significant digits and a small
+ * decimal exponent (the form that .OBJ and .MTL exporters write) are converted with a single exact
+ * double operation; everything else (long mantissas, large exponents, "NaN", hex floats, ...) is
+ * handed to the JDK.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class AsciiNumbers {
+
+    private static final int MAX_FAST_DIGITS = 15;      // any 15 digit mantissa is exact in a double
+    private static final int MAX_FAST_EXPONENT = 22;    // largest power of ten that is exact in a double
+
+    private static final double[] POWERS_OF_TEN = new double[MAX_FAST_EXPONENT + 1];
+
+    static {
+        double power = 1.0;
+        for(int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10.0;
+        }
+    }
+
+    private AsciiNumbers() {
+    }
+
+    /**
+     * Parses the bytes from {@code start} to {@code end} as a float. The buffer's position and limit
+     * are not used or modified.
+     *
+     * @param buf   buffer holding the number
+     * @param start index of the first byte of the number
+     * @param end   index after the last byte of the number
+     * @return the same value as {@code Float.parseFloat} of the text
+     * @throws NumberFormatException if the text is not a number
+     */
+    public static float parseFloat(ByteBuffer buf, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if(i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;         // significant digits in the mantissa
+        int exponent = 0;
+        boolean anyDigit = false;
+        for(; i < end; i++) {
+            final int digit = buf.get(i) - '0';
+            if(digit < 0 || digit > 9)
+                break;
+            anyDigit = true;
+            if(mantissa == 0 && digit == 0)
+                continue;       // leading zero
+            if(++digits > MAX_FAST_DIGITS)
+                return parseFloatSlow(buf, start, end);
+            mantissa = mantissa * 10 + digit;
+        }
+        if(i < end && buf.get(i) == '.') {
+            for(i++; i < end; i++) {
+                final int digit = buf.get(i) - '0';
+                if(digit < 0 || digit > 9)
+                    break;
+                anyDigit = true;
+                exponent--;
+                if(mantissa == 0 && digit == 0)
+                    continue;
+                if(++digits > MAX_FAST_DIGITS)
+                    return parseFloatSlow(buf, start, end);
+                mantissa = mantissa * 10 + digit;
+            }
+        }
+        if(!anyDigit)
+            return parseFloatSlow(buf, start, end);
+
+        if(i < end && (buf.get(i) == 'e' || buf.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if(i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+                negativeExponent = buf.get(i) == '-';
+                i++;
+            }
+            final int exponentStart = i;
+            int value = 0;
+            for(; i < end; i++) {
+                final int digit = buf.get(i) - '0';
+                if(digit < 0 || digit > 9)
+                    break;
+                if(value < 10000)
+                    value = value * 10 + digit;   // anything larger is out of the fast range anyway
+            }
+            if(i == exponentStart)
+                return parseFloatSlow(buf, start, end);
+            exponent += negativeExponent ? -value : value;
+        }
+        if(i != end)
+            return parseFloatSlow(buf, start, end);   // e.g. a 'f' or 'd' suffix, or garbage
+
+        if(mantissa == 0)
+            return negative ? -0.0f : 0.0f;
+        if(exponent < -MAX_FAST_EXPONENT || exponent > MAX_FAST_EXPONENT)
+            return parseFloatSlow(buf, start, end);
+
+        // mantissa and power of ten are both exact, so this is the correctly rounded double
+        final double value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent]
+                                            : mantissa * POWERS_OF_TEN[exponent];
+        // Rounding that double to float gives the correctly rounded float, unless the double landed
+        // exactly halfway between two floats. The dropped 29 mantissa bits then are 1000...0.
+        if((Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L)
+            return parseFloatSlow(buf, start, end);
+        final float result = (float) value;
+        return negative ? -result : result;
+    }
+
+    private static float parseFloatSlow(ByteBuffer buf, int start, int end) {
+        final char[] chars = new char[end - start];
+        for(int i = 0; i < chars.length; i++)
+            chars[i] = (char) (buf.get(start + i) & 0xFF);
+        return Float.parseFloat(new String(chars));
+    }
+}
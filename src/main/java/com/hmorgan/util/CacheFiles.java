@@ -0,0 +1,77 @@
+package com.hmorgan.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers shared by the on-disk caches: naming cache files after a digest of their key, and
+ * replacing them without a reader ever seeing a partial file.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class CacheFiles {
+
+    /**
+     * Writes the contents of a cache file.
+     */
+    @FunctionalInterface
+    public interface Writer {
+
+        /**
+         * @param file an empty temporary file to write
+         */
+        void write(Path file) throws IOException;
+    }
+
+    private CacheFiles() {
+    }
+
+    /**
+     * Writes a file through a temporary sibling file and moves it over {@code file}, atomically where
+     * the file system supports it. Every call gets its own temporary file, so concurrent writers of
+     * the same file (e.g. two loads of one model) never write into each other's file; the last move
+     * wins. The temporary file is deleted if the write or the move fails.
+     *
+     * @param file   path of the file to replace
+     * @param writer writes the contents of the temporary file
+     * @throws IOException if the file cannot be written or moved
+     */
+    public static void replace(Path file, Writer writer) throws IOException {
+        final Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp");
+        boolean moved = false;
+        try {
+            writer.write(tempFile);
+            try {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+        } finally {
+            if(!moved)
+                Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @return the first 8 bytes of the SHA-1 hash of the UTF-8 bytes of {@code s}, as 16 hex digits
+     */
+    public static String digest(String s) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder();
+            for(int i = 0; i < 8; i++)
+                hex.append(String.format("%02x", hash[i]));
+            return hex.toString();
+        } catch(NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.hmorgan.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive floats. Unlike a {@code List<Float>} or a list of vector objects,
+ * the values are stored in a single {@code float[]} without any per-element object overhead.
+ * <p>
+ * This class is <i>not</i> thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class FloatList {
+
+    private float[] values;
+    private int size;
+
+    public FloatList() {
+        this(64);
+    }
+
+    /**
+     * @param initialCapacity number of floats that can be added before the list grows
+     */
+    public FloatList(int initialCapacity) {
+        values = new float[Math.max(initialCapacity, 4)];
+    }
+
+    public void add(float value) {
+        if(size == values.length)
+            grow(size + 1);
+        values[size++] = value;
+    }
+
+    public void add(float x, float y, float z) {
+        if(size + 3 > values.length)
+            grow(size + 3);
+        values[size] = x;
+        values[size + 1] = y;
+        values[size + 2] = z;
+        size += 3;
+    }
+
+    public void addAll(FloatList other) {
+        if(size + other.size > values.length)
+            grow(size + other.size);
+        System.arraycopy(other.values, 0, values, size, other.size);
+        size += other.size;
+    }
+
+    public float get(int i) {
+        if(i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return a copy of the values, trimmed to the size of this list
+     */
+    public float[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    private void grow(int minCapacity) {
+        // grow by 1.5x like ArrayList, but never overflow into a negative size
+        int capacity = values.length + (values.length >> 1);
+        if(capacity < minCapacity || capacity < 0)
+            capacity = minCapacity;
+        values = Arrays.copyOf(values, capacity);
+    }
+}
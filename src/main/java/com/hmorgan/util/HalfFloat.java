@@ -0,0 +1,75 @@
+package com.hmorgan.util;
+
+/**
+ * Conversions between floats and IEEE 754 half-precision floats (binary16), as stored in vertex
+ * buffers of type {@code GL_HALF_FLOAT}.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class HalfFloat {
+
+    private HalfFloat() {
+    }
+
+    /**
+     * Converts a float to the nearest half-precision float, rounding ties to even. Values too large
+     * for a half become infinity, values too small become (signed) zero.
+     *
+     * @param value a float
+     * @return the bits of the half-precision float
+     */
+    public static short fromFloat(float value) {
+        final int bits = Float.floatToRawIntBits(value);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+
+        if(exponent == 0xff)                                // infinity or NaN, keep NaNs quiet
+            return (short) (sign | 0x7c00 | ((mantissa != 0) ? 0x200 : 0));
+
+        final int halfExponent = exponent - 127 + 15;
+        if(halfExponent >= 0x1f)                            // overflow
+            return (short) (sign | 0x7c00);
+
+        final int shift;
+        int half;
+        if(halfExponent <= 0) {                             // subnormal half, or zero
+            if(halfExponent < -10)
+                return (short) sign;
+            mantissa |= 0x800000;
+            shift = 14 - halfExponent;
+            half = mantissa >> shift;
+        } else {
+            shift = 13;
+            half = (halfExponent << 10) | (mantissa >> shift);
+        }
+
+        // round to nearest even; a carry into the exponent is what rounding up must do
+        final int remainder = mantissa & ((1 << shift) - 1);
+        final int halfway = 1 << (shift - 1);
+        if(remainder > halfway || (remainder == halfway && (half & 1) != 0))
+            half++;
+        return (short) (sign | half);
+    }
+
+    /**
+     * Converts a half-precision float to a float, which is exact.
+     *
+     * @param half the bits of a half-precision float
+     * @return the float
+     */
+    public static float toFloat(short half) {
+        final int bits = half & 0xffff;
+        final int sign = (bits & 0x8000) << 16;
+        final int exponent = (bits >>> 10) & 0x1f;
+        final int mantissa = bits & 0x3ff;
+
+        if(exponent == 0) {                                 // zero or subnormal
+            final float magnitude = mantissa * 0x1p-24f;
+            return (sign != 0) ? -magnitude : magnitude;
+        }
+        if(exponent == 0x1f)                                // infinity or NaN
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
@@ -0,0 +1,95 @@
+package com.hmorgan.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, the int counterpart of {@link FloatList}.
+ * <p>
+ * This class is <i>not</i> thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class IntList {
+
+    private int[] values;
+    private int size;
+
+    public IntList() {
+        this(64);
+    }
+
+    /**
+     * @param initialCapacity number of ints that can be added before the list grows
+     */
+    public IntList(int initialCapacity) {
+        values = new int[Math.max(initialCapacity, 4)];
+    }
+
+    public void add(int value) {
+        if(size == values.length)
+            grow(size + 1);
+        values[size++] = value;
+    }
+
+    public void add(int a, int b, int c) {
+        if(size + 3 > values.length)
+            grow(size + 3);
+        values[size] = a;
+        values[size + 1] = b;
+        values[size + 2] = c;
+        size += 3;
+    }
+
+    public void addAll(IntList other) {
+        if(size + other.size > values.length)
+            grow(size + other.size);
+        System.arraycopy(other.values, 0, values, size, other.size);
+        size += other.size;
+    }
+
+    public int get(int i) {
+        if(i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        return values[i];
+    }
+
+    public void set(int i, int value) {
+        if(i >= size)
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        values[i] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Drops the values from the given index on.
+     *
+     * @param newSize size of the list afterwards, at most its current size
+     */
+    public void truncate(int newSize) {
+        if(newSize < 0 || newSize > size)
+            throw new IndexOutOfBoundsException("Size: " + newSize + ", current size: " + size);
+        size = newSize;
+    }
+
+    /**
+     * @return a copy of the values, trimmed to the size of this list
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    private void grow(int minCapacity) {
+        // grow by 1.5x like ArrayList, but never overflow into a negative size
+        int capacity = values.length + (values.length >> 1);
+        if(capacity < minCapacity || capacity < 0)
+            capacity = minCapacity;
+        values = Arrays.copyOf(values, capacity);
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmorgan.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from int triples to non-negative ints. Keys and values are stored in
+ * primitive arrays, so lookups and inserts do not allocate. Typical use is mapping v/t/n index
+ * triples to vertex indices when removing duplicate vertices.
+ * <p>
+ * This class is <i>not</i> thread-safe.
+ *
+ * @author Hunter N. Morgan
+ */
+public final class IntTripleMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;         // a/b/c per slot
+    private int[] values;       // EMPTY for a free slot
+    private int mask;
+    private int size;
+
+    /**
+     * @param expectedSize number of entries the map should hold without resizing
+     */
+    public IntTripleMap(int expectedSize) {
+        int capacity = 16;
+        while(capacity < expectedSize * 2L && capacity < (1 << 30))
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity * 3];
+        values = new int[capacity];
+        Arrays.fill(values, EMPTY);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Associates the value with the key triple, unless the key is already present.
+     *
+     * @param a     first key component
+     * @param b     second key component
+     * @param c     third key component
+     * @param value value to store, must not be negative
+     * @return the value already associated with the key, or -1 if the value was stored
+     */
+    public int putIfAbsent(int a, int b, int c, int value) {
+        int slot = hash(a, b, c) & mask;
+        while(values[slot] != EMPTY) {
+            final int k = slot * 3;
+            if(keys[k] == a && keys[k + 1] == b && keys[k + 2] == c)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        final int k = slot * 3;
+        keys[k] = a;
+        keys[k + 1] = b;
+        keys[k + 2] = c;
+        values[slot] = value;
+        if(++size * 2 > values.length)
+            rehash();
+        return EMPTY;
+    }
+
+    /**
+     * @return the value associated with the key triple, or -1 if there is none
+     */
+    public int get(int a, int b, int c) {
+        int slot = hash(a, b, c) & mask;
+        while(values[slot] != EMPTY) {
+            final int k = slot * 3;
+            if(keys[k] == a && keys[k + 1] == b && keys[k + 2] == c)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        final int[] oldKeys = keys;
+        final int[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for(int slot = 0; slot < oldValues.length; slot++) {
+            if(oldValues[slot] == EMPTY)
+                continue;
+            final int k = slot * 3;
+            int newSlot = hash(oldKeys[k], oldKeys[k + 1], oldKeys[k + 2]) & mask;
+            while(values[newSlot] != EMPTY)
+                newSlot = (newSlot + 1) & mask;
+            keys[newSlot * 3] = oldKeys[k];
+            keys[newSlot * 3 + 1] = oldKeys[k + 1];
+            keys[newSlot * 3 + 2] = oldKeys[k + 2];
+            values[newSlot] = oldValues[slot];
+        }
+    }
+
+    private static int hash(int a, int b, int c) {
+        // combine, then spread the bits (murmur3 finalizer) so linear probing stays short
+        int h = a * 0x9E3779B1 + b * 0x85EBCA77 + c * 0xC2B2AE3D;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
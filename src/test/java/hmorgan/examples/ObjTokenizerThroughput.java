@@ -0,0 +1,126 @@
+package hmorgan.examples;
+
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjScanner;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Compares the throughput of the String based tokenizing that {@link ObjLoader} used to do
+ * (a {@code line.split("\\s+")} per line and {@code Float.parseFloat} per token) with the byte-level
+ * {@link ObjScanner}.
+ * <p>
+ * Usage: {@code ObjTokenizerThroughput [file.obj]}. Without an argument, monkey.obj is scaled up to
+ * a temporary file of about 140 MB.
+ *
+ * @author Hunter N. Morgan
+ */
+public class ObjTokenizerThroughput {
+
+    private static final int COPIES = 2000;     // monkey.obj copies in the generated file
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        final Path filePath;
+        if(args.length > 0) {
+            filePath = Paths.get(args[0]);
+        } else {
+            filePath = Files.createTempFile("monkey-scaled", ".obj");
+            filePath.toFile().deleteOnExit();
+            writeScaledMonkey(filePath);
+        }
+        final double megabytes = Files.size(filePath) / (1024.0 * 1024.0);
+        System.out.printf("%s: %.1f MB%n", filePath, megabytes);
+
+        for(int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            final double splitSum = tokenizeWithSplit(filePath);
+            final double splitSeconds = (System.nanoTime() - start) / 1e9;
+
+            start = System.nanoTime();
+            final double scannerSum = tokenizeWithScanner(filePath);
+            final double scannerSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("round %d: split %.1f MB/s, scanner %.1f MB/s (%.1fx) checksums %s%n",
+                              round,
+                              megabytes / splitSeconds,
+                              megabytes / scannerSeconds,
+                              splitSeconds / scannerSeconds,
+                              (splitSum == scannerSum) ? "match" : "DIFFER");
+        }
+    }
+
+    /**
+     * Tokenizes the way the old line based parser did. Returns a checksum so the work is not
+     * optimized away.
+     */
+    private static double tokenizeWithSplit(Path filePath) throws IOException {
+        double sum = 0;
+        try(BufferedReader bufferedReader = Files.newBufferedReader(filePath)) {
+            String line;
+            while((line = bufferedReader.readLine()) != null) {
+                final String[] tokens = line.split("\\s+");
+                if(tokens[0].isEmpty() || tokens[0].charAt(0) == '#')
+                    continue;
+                switch(tokens[0]) {
+                    case "v":
+                    case "vn":
+                    case "vt":
+                        for(int i = 1; i < tokens.length; i++)
+                            sum += Float.parseFloat(tokens[i]);
+                        break;
+                    case "f":
+                        for(int i = 1; i < tokens.length; i++) {
+                            for(String index : tokens[i].split("/")) {
+                                if(!index.isEmpty())
+                                    sum += Integer.valueOf(index);
+                            }
+                        }
+                        break;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static double tokenizeWithScanner(Path filePath) throws IOException {
+        double sum = 0;
+        final int[] corner = new int[3];
+        try(ObjScanner scanner = ObjScanner.open(filePath)) {
+            while(scanner.nextLine()) {
+                switch(scanner.keyword()) {
+                    case V:
+                    case VN:
+                    case VT:
+                        while(scanner.hasNextToken())
+                            sum += scanner.nextFloat();
+                        break;
+                    case F:
+                        while(scanner.nextFaceCorner(corner))
+                            sum += corner[0] + corner[1] + corner[2];
+                        break;
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static void writeScaledMonkey(Path target) throws Exception {
+        final List<String> lines = Files.readAllLines(ObjLoader.resourceToPath(
+                ObjTokenizerThroughput.class.getClassLoader().getResource("monkey.obj")));
+        try(BufferedWriter writer = Files.newBufferedWriter(target)) {
+            for(int i = 0; i < COPIES; i++) {
+                for(String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package hmorgan.examples;
+
+import com.hmorgan.gfx.TextureDiskCache;
+import com.hmorgan.gfx.TextureManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes the {@link TextureDiskCache} files of texture images ahead of time, so that textured models
+ * do not decode any image on their first start either.
+ * <p>
+ * Usage: {@code PrewarmTextureCache cacheDirectory (image file | directory)...}. Directories are
+ * searched for .png, .jpg, .jpeg, .gif and .bmp files. Images are scaled down to
+ * {@link TextureManager#DEFAULT_MAX_SIZE}, as the shared texture manager would.
+ *
+ * @author Hunter N. Morgan
+ */
+public class PrewarmTextureCache {
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 2) {
+            System.err.println("Usage: PrewarmTextureCache cacheDirectory (image file | directory)...");
+            System.exit(1);
+        }
+        final TextureDiskCache cache = new TextureDiskCache(Paths.get(args[0]));
+        final List<Path> imagePaths = new ArrayList<>();
+        for(int i = 1; i < args.length; i++) {
+            final Path path = Paths.get(args[i]);
+            if(Files.isDirectory(path)) {
+                try(Stream<Path> files = Files.walk(path)) {
+                    imagePaths.addAll(files.filter(PrewarmTextureCache::isImage).collect(Collectors.toList()));
+                }
+            } else {
+                imagePaths.add(path);
+            }
+        }
+
+        final long start = System.nanoTime();
+        final int written = cache.prewarm(imagePaths, TextureManager.DEFAULT_MAX_SIZE);
+        System.out.printf("%d of %d images written in %.1f s%n", written, imagePaths.size(), (System.nanoTime() - start) / 1e9);
+    }
+
+    private static boolean isImage(Path path) {
+        final String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg")
+               || name.endsWith(".gif") || name.endsWith(".bmp");
+    }
+}
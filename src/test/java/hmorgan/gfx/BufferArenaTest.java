@@ -0,0 +1,147 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.BufferArena;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class BufferArenaTest {
+
+    @Test
+    public void testFreedRangesMergedAndReused() {
+        final BufferArena arena = new BufferArena(1024, 16);
+        assertNull(arena.allocate(100));
+        final BufferArena.Range a = arena.allocateInNewPage(100);
+        final BufferArena.Range b = arena.allocate(200);
+        final BufferArena.Range c = arena.allocate(16);
+        assertEquals(0, a.getOffset());
+        assertEquals(112, a.getSize());         // rounded up to the alignment
+        assertEquals(112, b.getOffset());
+        assertEquals(320, c.getOffset());
+        assertEquals(112 + 208 + 16, arena.getBytesAllocated());
+
+        // the hole b leaves is reused first fit
+        arena.free(b);
+        assertNull(b.getPage());
+        final BufferArena.Range e = arena.allocate(208);
+        assertEquals(112, e.getOffset());
+        final BufferArena.Range d = arena.allocate(48);
+        assertEquals(336, d.getOffset());
+
+        // freeing a and then e leaves one block before c, merged from both
+        arena.free(a);
+        arena.free(e);
+        final BufferArena.Page page = arena.getPages().get(0);
+        assertEquals(2, page.getRangeCount());
+        assertEquals(1024 - 16 - 48, page.getBytesFree());
+        assertEquals(1024 - 384, page.getLargestFreeBlock());
+        assertEquals(0, arena.allocate(320).getOffset());
+
+        try {
+            arena.free(a);
+            fail("Expected an IllegalStateException");
+        } catch(IllegalStateException expected) {
+            // freed twice
+        }
+    }
+
+    @Test
+    public void testCompactionRemovesHoles() {
+        final BufferArena arena = new BufferArena(4096, 4);
+        final List<BufferArena.Range> ranges = new ArrayList<>();
+        ranges.add(arena.allocateInNewPage(64));
+        for(int i = 1; i < 64; i++)
+            ranges.add(arena.allocate(64));
+        assertNull(arena.allocate(64));
+        assertEquals(0.0, arena.getFragmentation(), 0.0);
+
+        // every other range freed: plenty of free bytes, but no block larger than 64
+        for(int i = 0; i < ranges.size(); i += 2)
+            arena.free(ranges.get(i));
+        assertNull(arena.allocate(128));
+        assertTrue(arena.getFragmentation() > 0.9);
+        assertTrue(arena.fitsAfterCompaction(128));
+        assertFalse(arena.fitsAfterCompaction(4096));
+
+        final List<BufferArena.Move> moves = arena.compact();
+        assertEquals(32, moves.size());
+        for(int i = 0; i < moves.size(); i++) {
+            final BufferArena.Move move = moves.get(i);
+            assertSame(ranges.get(i * 2 + 1), move.getRange());
+            assertEquals((i * 2 + 1) * 64, move.getFromOffset());
+            assertEquals(i * 64, move.getToOffset());
+        }
+        assertEquals(0.0, arena.getFragmentation(), 0.0);
+        assertEquals(1, arena.getCompactions());
+        assertEquals(2048, arena.allocate(128).getOffset());
+        assertTrue(arena.compact().isEmpty());
+        assertEquals(1, arena.getCompactions());
+    }
+
+    @Test
+    public void testPagesAddedAndRemoved() {
+        final BufferArena arena = new BufferArena(1024, 4);
+        final BufferArena.Range a = arena.allocateInNewPage(1000);
+        final BufferArena.Range large = arena.allocateInNewPage(5000);
+        final BufferArena.Range b = arena.allocateInNewPage(1000);
+        assertEquals(3, arena.getPages().size());
+        assertEquals(5000, large.getPage().getCapacity());
+        assertEquals(1024 + 5000 + 1024, arena.getCapacity());
+
+        // the first page stays even when empty, the others go
+        arena.free(a);
+        arena.free(large);
+        final List<BufferArena.Page> removed = arena.removeEmptyPages();
+        assertEquals(1, removed.size());
+        assertEquals(5000, removed.get(0).getCapacity());
+        assertEquals(2, arena.getPages().size());
+        assertSame(b.getPage(), arena.getPages().get(1));
+    }
+
+    @Test
+    public void testRandomAllocationsStayDisjoint() {
+        final BufferArena arena = new BufferArena(1 << 16, 16);
+        final Random random = new Random(3);
+        final List<BufferArena.Range> live = new ArrayList<>();
+        for(int step = 0; step < 5000; step++) {
+            if(!live.isEmpty() && random.nextInt(3) == 0) {
+                arena.free(live.remove(random.nextInt(live.size())));
+            } else {
+                final long size = 1 + random.nextInt(4000);
+                BufferArena.Range range = arena.allocate(size);
+                if(range == null && arena.fitsAfterCompaction(size)) {
+                    arena.compact();
+                    range = arena.allocate(size);
+                    assertNotNull(range);
+                }
+                if(range == null)
+                    range = arena.allocateInNewPage(size);
+                live.add(range);
+            }
+        }
+
+        long allocated = 0;
+        for(BufferArena.Range range : live) {
+            allocated += range.getSize();
+            assertEquals(0, range.getOffset() % 16);
+            assertTrue(range.getOffset() + range.getSize() <= range.getPage().getCapacity());
+            for(BufferArena.Range other : live) {
+                if(other != range && other.getPage() == range.getPage())
+                    assertTrue(other.getOffset() + other.getSize() <= range.getOffset()
+                               || range.getOffset() + range.getSize() <= other.getOffset());
+            }
+        }
+        assertEquals(allocated, arena.getBytesAllocated());
+        long free = 0;
+        for(BufferArena.Page page : arena.getPages())
+            free += page.getBytesFree();
+        assertEquals(arena.getCapacity() - allocated, free);
+    }
+}
@@ -0,0 +1,96 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshBounds;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class MeshBoundsTest {
+
+    private static final int SIZE = 41;
+
+    /**
+     * A flat grid in the z = 0 plane, facing +z.
+     */
+    private static Mesh buildGrid(int clusterSize) {
+        return TestGrids.builder("grid", SIZE, TestGrids.FLAT)
+                        .setClusterSize(clusterSize)
+                        .build();
+    }
+
+    private static List<String> triangles(Mesh mesh) {
+        final IntBuffer indices = mesh.getIndices().get();
+        final List<String> triangles = new ArrayList<>();
+        for(int t = 0; t < indices.limit() / 3; t++)
+            triangles.add(indices.get(t * 3) + " " + indices.get(t * 3 + 1) + " " + indices.get(t * 3 + 2));
+        Collections.sort(triangles);
+        return triangles;
+    }
+
+    @Test
+    public void testMeshBoundsAndClusterCone() {
+        final Mesh grid = buildGrid(0);
+        assertTrue(grid.getClusters().isEmpty());
+        final MeshBounds bounds = grid.getBounds();
+        assertEquals(0, bounds.getFirst());
+        assertEquals(grid.getIndices().get().limit(), bounds.getCount());
+        assertEquals(0.0, bounds.getMinX(), 0.0);
+        assertEquals(SIZE - 1, bounds.getMaxY(), 0.0);
+        assertEquals(0.0, bounds.getMaxZ(), 0.0);
+        assertEquals(Math.sqrt(2) * (SIZE - 1) / 2, bounds.getRadius(), 1e-9);
+
+        assertFalse(bounds.hasCone());
+        assertFalse(bounds.isBackFacing(20, 20, -100));
+
+        // every triangle faces +z, so a cluster faces away from eyes below it; the test holds for
+        // the whole bounding sphere, so it is conservative at grazing angles
+        final MeshBounds cluster = buildGrid(SIZE * SIZE * 2).getClusters().get(0);
+        assertEquals(bounds.getRadius(), cluster.getRadius(), 0.0);
+        assertTrue(cluster.hasCone());
+        assertTrue(cluster.isBackFacing(20, 20, -cluster.getRadius()));
+        assertTrue(cluster.isBackFacing(-50, 20, -100));
+        assertFalse(cluster.isBackFacing(-500, 20, -1));
+        assertFalse(cluster.isBackFacing(20, 20, 1));
+        // close to the plane, the near side of the grid is seen at a grazing angle from above
+        assertFalse(cluster.isBackFacing(-500, 20, 0.5));
+    }
+
+    @Test
+    public void testClusters() {
+        final Mesh grid = buildGrid(0);
+        final Mesh clustered = buildGrid(64);
+        assertEquals(64, clustered.getClusterSize());
+        assertEquals(triangles(grid), triangles(clustered));
+
+        // the clusters cover the indices in order, and their boxes hold their vertices
+        final FloatBuffer positions = clustered.getPositions();
+        final IntBuffer indices = clustered.getIndices().get();
+        int next = 0;
+        double area = 0.0;
+        for(MeshBounds cluster : clustered.getClusters()) {
+            assertEquals(next, cluster.getFirst());
+            assertTrue(cluster.getCount() <= 64 * 3);
+            next += cluster.getCount();
+            for(int i = cluster.getFirst(); i < cluster.getFirst() + cluster.getCount(); i++) {
+                final int v = indices.get(i);
+                assertTrue(positions.get(v * 3) >= cluster.getMinX() && positions.get(v * 3) <= cluster.getMaxX());
+                assertTrue(positions.get(v * 3 + 1) >= cluster.getMinY() && positions.get(v * 3 + 1) <= cluster.getMaxY());
+            }
+            area += (cluster.getMaxX() - cluster.getMinX()) * (cluster.getMaxY() - cluster.getMinY());
+        }
+        assertEquals(indices.limit(), next);
+
+        // the clusters are compact patches, whose boxes overlap little
+        assertTrue(area < 2.0 * (SIZE - 1) * (SIZE - 1));
+    }
+}
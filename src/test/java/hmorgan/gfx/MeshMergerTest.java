@@ -0,0 +1,99 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshMerger;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class MeshMergerTest {
+
+    private static Mesh mesh(String name, Mesh.MeshType type, float[] positions, float[] texCoords, int... indices) {
+        final Mesh.Builder builder = new Mesh.Builder()
+                .setName(name)
+                .setMeshType(type)
+                .setPositions(positions);
+        if(texCoords != null)
+            builder.setTexCoords(texCoords);
+        if(indices.length > 0)
+            builder.setIndices(IntBuffer.wrap(indices));
+        return builder.build();
+    }
+
+    private static Map<String, Mesh> meshes() {
+        final Map<String, Mesh> meshes = new LinkedHashMap<>();
+        // an indexed quad, a triangle without indices, a polyline, a textured triangle, another triangle
+        meshes.put("quad", mesh("quad", Mesh.MeshType.POLYGON_MESH,
+                                new float[] { 0, 0, 0, 1, 0, 0, 1, 1, 0, 0, 1, 0 }, null, 0, 1, 2, 0, 2, 3));
+        meshes.put("tri", mesh("tri", Mesh.MeshType.POLYGON_MESH, new float[] { 2, 0, 0, 3, 0, 0, 2, 1, 0 }, null));
+        meshes.put("line", mesh("line", Mesh.MeshType.POLYLINE_MESH, new float[] { 0, 0, 0, 0, 0, 1 }, null));
+        meshes.put("textured", mesh("textured", Mesh.MeshType.POLYGON_MESH,
+                                    new float[] { 0, 0, 0, 1, 0, 0, 0, 1, 0 }, new float[] { 0, 0, 1, 0, 0, 1 }, 0, 1, 2));
+        meshes.put("last", mesh("last", Mesh.MeshType.POLYGON_MESH, new float[] { 4, 0, 0, 5, 0, 0, 4, 1, 0 }, null, 2, 1, 0));
+        return meshes;
+    }
+
+    /**
+     * @return the corners of every triangle by position
+     */
+    private static List<String> triangles(Mesh mesh, int firstIndex, int indexCount) {
+        final FloatBuffer positions = mesh.getPositions();
+        final IntBuffer indices = mesh.getIndices().get().duplicate();
+        final List<String> corners = new ArrayList<>();
+        for(int i = firstIndex; i < firstIndex + indexCount; i++) {
+            final int vertex = indices.get(i);
+            corners.add(positions.get(vertex * 3) + "," + positions.get(vertex * 3 + 1) + "," + positions.get(vertex * 3 + 2));
+        }
+        return corners;
+    }
+
+    @Test
+    public void testMeshesWithTheSameAttributesMerged() {
+        final Map<String, Mesh> meshes = meshes();
+        final Map<String, MeshMerger.Batch> batches = new MeshMerger().merge(meshes);
+        assertEquals(Arrays.asList("quad#merged", "line", "textured"), new ArrayList<>(batches.keySet()));
+
+        final MeshMerger.Batch merged = batches.get("quad#merged");
+        assertTrue(merged.isMerged());
+        assertEquals(4 + 3 + 3, merged.getMesh().getVertexCount());
+        assertEquals(Mesh.MeshType.POLYGON_MESH, merged.getMesh().getMeshType());
+        final List<MeshMerger.Range> ranges = merged.getRanges();
+        assertEquals(Arrays.asList("quad", "tri", "last"),
+                     Arrays.asList(ranges.get(0).getMeshName(), ranges.get(1).getMeshName(), ranges.get(2).getMeshName()));
+        assertEquals(6, ranges.get(1).getFirstIndex());
+        assertEquals(4, ranges.get(1).getFirstVertex());
+
+        // every range draws the triangles of its mesh
+        assertEquals(Arrays.asList("0.0,0.0,0.0", "1.0,0.0,0.0", "1.0,1.0,0.0", "0.0,0.0,0.0", "1.0,1.0,0.0", "0.0,1.0,0.0"),
+                     triangles(merged.getMesh(), ranges.get(0).getFirstIndex(), ranges.get(0).getIndexCount()));
+        assertEquals(Arrays.asList("2.0,0.0,0.0", "3.0,0.0,0.0", "2.0,1.0,0.0"),
+                     triangles(merged.getMesh(), ranges.get(1).getFirstIndex(), ranges.get(1).getIndexCount()));
+        assertEquals(Arrays.asList("4.0,1.0,0.0", "5.0,0.0,0.0", "4.0,0.0,0.0"),
+                     triangles(merged.getMesh(), ranges.get(2).getFirstIndex(), ranges.get(2).getIndexCount()));
+
+        // meshes that nothing could be merged with are kept
+        assertSame(meshes.get("line"), batches.get("line").getMesh());
+        assertSame(meshes.get("textured"), batches.get("textured").getMesh());
+        assertFalse(batches.get("textured").isMerged());
+    }
+
+    @Test
+    public void testMaxVerticesStartsAnotherMesh() {
+        // the quad and the triangle fill the first mesh, so the last triangle is kept on its own
+        final Map<String, MeshMerger.Batch> batches = new MeshMerger(7).merge(meshes());
+        assertEquals(Arrays.asList("quad#merged", "line", "textured", "last"), new ArrayList<>(batches.keySet()));
+        assertEquals(2, batches.get("quad#merged").getRanges().size());
+        assertEquals(7, batches.get("quad#merged").getMesh().getVertexCount());
+    }
+}
@@ -0,0 +1,90 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshOptimizer;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class MeshOptimizerTest {
+
+    private static final int SIZE = 48;
+
+    /**
+     * A grid of quads on a sphere cap, split into triangles, in random order.
+     */
+    private static Mesh buildShuffledGrid(MeshOptimizer optimizer) {
+        final TestGrids.Surface sphereCap = (column, row, positions, offset) -> {
+            final double theta = column * 0.02, phi = row * 0.02;
+            positions[offset] = (float) (Math.sin(theta) * Math.cos(phi));
+            positions[offset + 1] = (float) (Math.sin(theta) * Math.sin(phi));
+            positions[offset + 2] = (float) Math.cos(theta);
+        };
+        return TestGrids.builder("grid", SIZE, sphereCap)
+                        .setIndices(TestGrids.triangles(SIZE, new Random(7)))
+                        .setOptimizer(optimizer)
+                        .build();
+    }
+
+    /**
+     * @return the corners of every triangle by position, in drawing order within the triangle
+     */
+    private static List<String> trianglesByPosition(Mesh mesh) {
+        final FloatBuffer positions = mesh.getPositions();
+        final IntBuffer indices = mesh.getIndices().get();
+        final List<String> triangles = new ArrayList<>();
+        for(int t = 0; t < indices.limit() / 3; t++) {
+            final StringBuilder triangle = new StringBuilder();
+            for(int c = 0; c < 3; c++) {
+                final int v = indices.get(t * 3 + c);
+                triangle.append(positions.get(v * 3)).append(',')
+                        .append(positions.get(v * 3 + 1)).append(',')
+                        .append(positions.get(v * 3 + 2)).append(' ');
+            }
+            triangles.add(triangle.toString());
+        }
+        Collections.sort(triangles);
+        return triangles;
+    }
+
+    @Test
+    public void testOptimizeShuffledGrid() {
+        final Mesh original = buildShuffledGrid(null);
+        assertFalse(original.getOptimizationReport().isPresent());
+
+        for(boolean reduceOverdraw : new boolean[] { false, true }) {
+            final Mesh optimized = buildShuffledGrid(new MeshOptimizer(MeshOptimizer.DEFAULT_CACHE_SIZE, reduceOverdraw));
+            final MeshOptimizer.Report report = optimized.getOptimizationReport().get();
+
+            // a random order transforms almost every corner, a regular grid needs about 0.5 per triangle
+            assertTrue(report.toString(), report.getBefore().getAcmr() > 2.0);
+            assertTrue(report.toString(), report.getAfter().getAcmr() < 0.8);
+            assertTrue(report.toString(), report.getAfter().getAtvr() < 1.5);
+
+            final MeshOptimizer.CacheStats after = MeshOptimizer.analyze(optimized.getIndices().get(),
+                                                                         optimized.getVertexCount(), MeshOptimizer.DEFAULT_CACHE_SIZE);
+            assertEquals(report.getAfter().getAcmr(), after.getAcmr(), 0.0);
+
+            // the same triangles with the same winding, and vertices in order of first use
+            assertEquals(trianglesByPosition(original), trianglesByPosition(optimized));
+            assertEquals(original.getVertexCount(), optimized.getVertexCount());
+            final IntBuffer indices = optimized.getIndices().get();
+            int nextNew = 0;
+            for(int i = 0; i < indices.limit(); i++) {
+                assertTrue(indices.get(i) <= nextNew);
+                if(indices.get(i) == nextNew)
+                    nextNew++;
+            }
+        }
+    }
+}
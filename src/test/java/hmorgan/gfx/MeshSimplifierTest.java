@@ -0,0 +1,146 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshSimplifier;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class MeshSimplifierTest {
+
+    /**
+     * A closed sphere of latitude/longitude quads, faceted: every triangle has its own vertices with
+     * the face normal, as exported with smoothing off.
+     */
+    private static Mesh buildFacetedSphere(int rings, int segments) {
+        final float[] grid = new float[(rings + 1) * segments * 3];
+        for(int r = 0; r <= rings; r++) {
+            for(int s = 0; s < segments; s++) {
+                final double theta = Math.PI * r / rings, phi = 2 * Math.PI * s / segments;
+                final int i = (r * segments + s) * 3;
+                grid[i] = (float) (Math.sin(theta) * Math.cos(phi));
+                grid[i + 1] = (float) (Math.sin(theta) * Math.sin(phi));
+                grid[i + 2] = (float) Math.cos(theta);
+            }
+        }
+
+        final int triangleCount = 2 * (rings - 2) * segments + 2 * segments;
+        final float[] positions = new float[triangleCount * 9];
+        final float[] normals = new float[triangleCount * 9];
+        int written = 0;
+        for(int r = 0; r < rings; r++) {
+            for(int s = 0; s < segments; s++) {
+                final int a = r * segments + s, b = r * segments + (s + 1) % segments;
+                final int c = a + segments, d = b + segments;
+                // the poles are a single position, whose triangles of zero area are left out
+                if(r > 0)
+                    written = addTriangle(grid, positions, normals, written, a, c, b);
+                if(r < rings - 1)
+                    written = addTriangle(grid, positions, normals, written, b, c, d);
+            }
+        }
+
+        final int[] indices = new int[triangleCount * 3];
+        for(int i = 0; i < indices.length; i++)
+            indices[i] = i;
+        return new Mesh.Builder()
+                .setName("sphere")
+                .setMeshType(Mesh.MeshType.POLYGON_MESH)
+                .setPositions(positions)
+                .setNormals(normals)
+                .setIndices(IntBuffer.wrap(indices))
+                .build();
+    }
+
+    private static int addTriangle(float[] grid, float[] positions, float[] normals, int written, int a, int b, int c) {
+        final float[] p = new float[9];
+        System.arraycopy(grid, a * 3, p, 0, 3);
+        System.arraycopy(grid, b * 3, p, 3, 3);
+        System.arraycopy(grid, c * 3, p, 6, 3);
+        final float ux = p[3] - p[0], uy = p[4] - p[1], uz = p[5] - p[2];
+        final float vx = p[6] - p[0], vy = p[7] - p[1], vz = p[8] - p[2];
+        final float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+        final float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        System.arraycopy(p, 0, positions, written * 9, 9);
+        for(int k = 0; k < 3; k++) {
+            normals[written * 9 + k * 3] = nx / length;
+            normals[written * 9 + k * 3 + 1] = ny / length;
+            normals[written * 9 + k * 3 + 2] = nz / length;
+        }
+        return written + 1;
+    }
+
+    @Test
+    public void testFacetedSphereLods() {
+        final Mesh sphere = buildFacetedSphere(24, 48);
+        final int triangleCount = sphere.getIndices().get().limit() / 3;
+        final List<MeshSimplifier.Lod> lods = new MeshSimplifier(new double[] { 0.5, 0.25, 0.125 }, 0.2).buildLods(sphere);
+        assertEquals(3, lods.size());
+
+        double previousError = 0.0;
+        for(int level = 0; level < lods.size(); level++) {
+            final MeshSimplifier.Lod lod = lods.get(level);
+            final Mesh mesh = lod.getMesh();
+            final IntBuffer indices = mesh.getIndices().get();
+            assertEquals("sphere#lod" + (level + 1), mesh.getName());
+            assertTrue(indices.limit() / 3 <= Math.ceil(triangleCount / Math.pow(2, level + 1)));
+            assertTrue(lod.getError() >= previousError);
+            assertTrue(lod.getError() < 0.2 * 2 * Math.sqrt(3));
+            previousError = lod.getError();
+
+            // the vertices are those of the sphere, unit length normals included
+            final FloatBuffer positions = mesh.getPositions();
+            final FloatBuffer normals = mesh.getNormals().get();
+            for(int v = 0; v < mesh.getVertexCount(); v++) {
+                final double x = positions.get(v * 3), y = positions.get(v * 3 + 1), z = positions.get(v * 3 + 2);
+                assertEquals(1.0, Math.sqrt(x * x + y * y + z * z), 1e-5);
+                final double nx = normals.get(v * 3), ny = normals.get(v * 3 + 1), nz = normals.get(v * 3 + 2);
+                assertEquals(1.0, Math.sqrt(nx * nx + ny * ny + nz * nz), 1e-5);
+            }
+
+            // no triangle faces inwards
+            for(int t = 0; t < indices.limit() / 3; t++) {
+                final double[] p = new double[9];
+                for(int k = 0; k < 9; k++)
+                    p[k] = positions.get(indices.get(t * 3 + k / 3) * 3 + k % 3);
+                final double ux = p[3] - p[0], uy = p[4] - p[1], uz = p[5] - p[2];
+                final double vx = p[6] - p[0], vy = p[7] - p[1], vz = p[8] - p[2];
+                final double outwards = (uy * vz - uz * vy) * (p[0] + p[3] + p[6]) + (uz * vx - ux * vz) * (p[1] + p[4] + p[7])
+                                        + (ux * vy - uy * vx) * (p[2] + p[5] + p[8]);
+                assertTrue(outwards > 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testBordersAndErrorLimitKept() {
+        // a flat square simplifies without error, but keeps every vertex of its border
+        final int size = 17;
+        final Mesh square = TestGrids.builder("square", size, TestGrids.FLAT).build();
+
+        final List<MeshSimplifier.Lod> lods = new MeshSimplifier().buildLods(square);
+        assertFalse(lods.isEmpty());
+        final MeshSimplifier.Lod coarsest = lods.get(lods.size() - 1);
+        assertEquals(0.0, coarsest.getError(), 1e-6);
+        final FloatBuffer lodPositions = coarsest.getMesh().getPositions();
+        int borderVertices = 0;
+        for(int v = 0; v < coarsest.getMesh().getVertexCount(); v++) {
+            final float x = lodPositions.get(v * 3), y = lodPositions.get(v * 3 + 1);
+            if(x == 0 || y == 0 || x == size - 1 || y == size - 1)
+                borderVertices++;
+        }
+        assertEquals(4 * (size - 1), borderVertices);
+
+        // lines and points are not simplified
+        assertTrue(new MeshSimplifier().buildLods(TestGrids.builder("points", size, TestGrids.FLAT)
+                                                           .setMeshType(Mesh.MeshType.POINTS_MESH)
+                                                           .build()).isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.Mesh;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+
+/**
+ * Square grids of vertices, two triangles per cell, for the mesh tests. Vertex {@code row * size +
+ * column} is at the grid position its {@link Surface} gives it.
+ *
+ * @author Hunter N. Morgan
+ */
+final class TestGrids {
+
+    /**
+     * Places the vertices of a grid.
+     */
+    @FunctionalInterface
+    interface Surface {
+
+        /**
+         * @param positions receives x/y/z of the vertex at {@code offset}
+         */
+        void place(int column, int row, float[] positions, int offset);
+    }
+
+    /**
+     * The z = 0 plane, one unit per cell, facing +z.
+     */
+    static final Surface FLAT = (column, row, positions, offset) -> {
+        positions[offset] = column;
+        positions[offset + 1] = row;
+    };
+
+    private TestGrids() {
+    }
+
+    /**
+     * @return x/y/z of the {@code size * size} vertices, row by row
+     */
+    static float[] positions(int size, Surface surface) {
+        final float[] positions = new float[size * size * 3];
+        for(int i = 0; i < size * size; i++)
+            surface.place(i % size, i / size, positions, i * 3);
+        return positions;
+    }
+
+    /**
+     * @param shuffle shuffles the triangles, or null to keep them row by row
+     * @return the indices of the triangles, counter-clockwise seen from +z
+     */
+    static IntBuffer triangles(int size, Random shuffle) {
+        final int[] indices = new int[(size - 1) * (size - 1) * 6];
+        int i = 0;
+        for(int y = 0; y < size - 1; y++) {
+            for(int x = 0; x < size - 1; x++) {
+                final int v = y * size + x;
+                for(int corner : new int[] { v, v + 1, v + size, v + 1, v + size + 1, v + size })
+                    indices[i++] = corner;
+            }
+        }
+        if(shuffle != null) {
+            for(int t = indices.length / 3 - 1; t > 0; t--) {
+                final int other = shuffle.nextInt(t + 1);
+                for(int c = 0; c < 3; c++) {
+                    final int swap = indices[t * 3 + c];
+                    indices[t * 3 + c] = indices[other * 3 + c];
+                    indices[other * 3 + c] = swap;
+                }
+            }
+        }
+        return IntBuffer.wrap(indices);
+    }
+
+    /**
+     * @return a builder of the indexed polygon mesh of the grid, with its triangles row by row
+     */
+    static Mesh.Builder builder(String name, int size, Surface surface) {
+        return new Mesh.Builder()
+                .setName(name)
+                .setMeshType(Mesh.MeshType.POLYGON_MESH)
+                .setPositions(positions(size, surface))
+                .setIndices(triangles(size, null));
+    }
+}
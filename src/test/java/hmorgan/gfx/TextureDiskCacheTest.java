@@ -0,0 +1,92 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.TextureDiskCache;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class TextureDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path dir;
+    private Path image;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = temporaryFolder.getRoot().toPath();
+        // 5 x 3 RGB: red left three columns, blue right two
+        final BufferedImage rgb = new BufferedImage(5, 3, BufferedImage.TYPE_INT_RGB);
+        for(int y = 0; y < 3; y++)
+            for(int x = 0; x < 5; x++)
+                rgb.setRGB(x, y, (x < 3) ? 0xFF0000 : 0x0000FF);
+        image = dir.resolve("image.png");
+        ImageIO.write(rgb, "png", image.toFile());
+    }
+
+    @Test
+    public void testMipmapChainWrittenAndRead() throws Exception {
+        final TextureDiskCache cache = new TextureDiskCache();
+        assertFalse(cache.read(image, 16).isPresent());
+        assertEquals(1, cache.prewarm(Arrays.asList(image, dir.resolve("missing.png")), 16));
+        assertEquals(0, cache.prewarm(Arrays.asList(image), 16));
+
+        final TextureDiskCache.Texels texels = cache.read(image, 16).get();
+        assertEquals(5, texels.getWidth());
+        assertEquals(3, texels.getHeight());
+        assertFalse(texels.hasAlpha());
+        assertEquals(3, texels.getLevelCount());
+        assertEquals(3 * (5 * 3 + 2 * 1 + 1), texels.getBytes());
+
+        final ByteBuffer level0 = texels.getLevel(0);
+        assertEquals(5 * 3 * 3, level0.remaining());
+        assertEquals((byte) 0xFF, level0.get(0));
+        assertEquals((byte) 0xFF, level0.get(4 * 3 + 2));
+        // 2 x 1: the left texel is all red, the right one half red and half blue
+        final ByteBuffer level1 = texels.getLevel(1);
+        assertEquals(2 * 3, level1.remaining());
+        assertArrayEquals(new byte[] { (byte) 0xFF, 0, 0, (byte) 0x80, 0, (byte) 0x80 }, toArray(level1));
+        assertEquals(3, texels.getLevel(2).remaining());
+
+        // another maximum size or a modified image file invalidates the cache file
+        assertFalse(cache.read(image, 8).isPresent());
+        Files.setLastModifiedTime(image, FileTime.fromMillis(Files.getLastModifiedTime(image).toMillis() - 60000));
+        assertFalse(cache.read(image, 16).isPresent());
+    }
+
+    @Test
+    public void testCacheDirectory() throws Exception {
+        final TextureDiskCache cache = new TextureDiskCache(dir.resolve("cache"));
+        final Path cacheFile = cache.getCacheFile(image);
+        assertEquals(dir.resolve("cache"), cacheFile.getParent());
+        assertNotEquals(cacheFile, cache.getCacheFile(dir.resolve("other").resolve("image.png")));
+
+        final BufferedImage argb = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
+        final TextureDiskCache.Texels texels = cache.write(image, 16, argb);
+        assertTrue(Files.isRegularFile(cacheFile));
+        assertTrue(texels.hasAlpha());
+        assertEquals(4 * (16 + 4 + 1), texels.getBytes());
+        assertTrue(cache.read(image, 16).isPresent());
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,115 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.TextureDiskCache;
+import com.hmorgan.gfx.TextureManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class TextureManagerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = temporaryFolder.getRoot().toPath();
+        for(String name : new String[] { "a", "b", "c" })
+            ImageIO.write(new BufferedImage(64, 32, BufferedImage.TYPE_INT_ARGB), "png", dir.resolve(name + ".png").toFile());
+    }
+
+    @Test
+    public void testScaledDownAndHeapBudgetKept() {
+        // decoded on the requesting thread, scaled down to 16 x 8 ARGB, so two images fit the budget
+        final TextureManager manager = new TextureManager(Runnable::run, 2 * 16 * 8 * 4, 0, 16);
+        final List<Dimension> decoded = new ArrayList<>();
+        final TextureManager.Texture a = manager.request(dir.resolve("a.png"), (path, width, height, bytes, nanos) -> decoded.add(new Dimension(width, height)));
+        assertEquals(1, decoded.size());
+        assertEquals(16, decoded.get(0).width);
+        assertEquals(8, decoded.get(0).height);
+        assertTrue(a.isReady());
+        assertSame(a, manager.request(dir.resolve("sub").resolve("..").resolve("a.png")));
+
+        final TextureManager.Texture b = manager.request(dir.resolve("b.png"));
+        final TextureManager.Texture c = manager.request(dir.resolve("c.png"));
+        assertFalse(a.isReady());
+        assertTrue(b.isReady());
+        assertTrue(c.isReady());
+        final TextureManager.Stats stats = manager.getStats();
+        assertEquals(3, stats.getTextures());
+        assertEquals(2, stats.getDecodedImages());
+        assertEquals(2 * 16 * 8 * 4, stats.getHeapBytes());
+        assertEquals(3, stats.getDecodes());
+        assertEquals(1, stats.getImageEvictions());
+
+        final TextureManager.Texture missing = manager.request(dir.resolve("missing.png"));
+        assertTrue(missing.isFailed());
+        assertFalse(missing.isReady());
+    }
+
+    @Test
+    public void testDecodedInBackground() throws Exception {
+        // a decode on another thread is reported on that thread, the texture becomes ready later
+        final List<Runnable> queued = new ArrayList<>();
+        final TextureManager manager = new TextureManager(queued::add, TextureManager.DEFAULT_HEAP_BUDGET,
+                                                          TextureManager.DEFAULT_GPU_BUDGET, TextureManager.DEFAULT_MAX_SIZE);
+        final List<Dimension> decoded = new ArrayList<>();
+        final List<Thread> listenerThreads = new ArrayList<>();
+        final TextureManager.Texture a = manager.request(dir.resolve("a.png"), (path, width, height, bytes, nanos) -> {
+            decoded.add(new Dimension(width, height));
+            listenerThreads.add(Thread.currentThread());
+        });
+        manager.request(dir.resolve("a.png"));
+        assertEquals(1, queued.size());
+        assertFalse(a.isReady());
+
+        final Thread decoder = new Thread(queued.get(0));
+        decoder.start();
+        decoder.join();
+        assertTrue(a.isReady());
+        assertEquals(Collections.singletonList(new Dimension(64, 32)), decoded);
+        assertEquals(Collections.singletonList(decoder), listenerThreads);
+        assertEquals(64 * 32 * 4, manager.getStats().getHeapBytes());
+    }
+
+    @Test
+    public void testReadFromDiskCache() {
+        // the first start decodes and writes the cache file, the next one reads it, mipmaps included
+        final TextureDiskCache diskCache = new TextureDiskCache(dir.resolve("cache"));
+        final TextureManager cold = new TextureManager(Runnable::run, TextureManager.DEFAULT_HEAP_BUDGET,
+                                                       TextureManager.DEFAULT_GPU_BUDGET, TextureManager.DEFAULT_MAX_SIZE);
+        cold.setDiskCache(diskCache);
+        assertTrue(cold.request(dir.resolve("a.png")).isReady());
+        assertEquals(1, cold.getStats().getDecodes());
+        assertEquals(0, cold.getStats().getDiskReads());
+
+        final TextureManager warm = new TextureManager(Runnable::run, TextureManager.DEFAULT_HEAP_BUDGET,
+                                                       TextureManager.DEFAULT_GPU_BUDGET, TextureManager.DEFAULT_MAX_SIZE);
+        warm.setDiskCache(diskCache);
+        final List<Long> bytes = new ArrayList<>();
+        assertTrue(warm.request(dir.resolve("a.png"), (path, width, height, size, nanos) -> bytes.add(size)).isReady());
+        assertEquals(0, warm.getStats().getDecodes());
+        assertEquals(1, warm.getStats().getDiskReads());
+        // 64 x 32 RGBA and its 6 smaller levels, down to 1 x 1
+        final long expected = 4 * (64 * 32 + 32 * 16 + 16 * 8 + 8 * 4 + 4 * 2 + 2 + 1);
+        assertEquals(Collections.singletonList(expected), bytes);
+        assertEquals(expected, warm.getStats().getHeapBytes());
+    }
+}
@@ -0,0 +1,110 @@
+package hmorgan.gfx;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.VertexFormat;
+import com.hmorgan.util.HalfFloat;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class VertexFormatTest {
+
+    /**
+     * A grid of vertices on a bumpy surface with unit normals and texture coordinates beyond [0, 1].
+     */
+    private static Mesh buildSurface(VertexFormat format) {
+        final int size = 64;
+        final float[] normals = new float[size * size * 3];
+        final float[] texCoords = new float[size * size * 2];
+        final Random random = new Random(42);
+        final TestGrids.Surface bumps = (column, row, positions, offset) -> {
+            positions[offset] = 1000.0f + column * 3.7f;
+            positions[offset + 1] = -50.0f + row * 1.3f;
+            positions[offset + 2] = random.nextFloat() * 20.0f;
+        };
+        final Mesh.Builder builder = TestGrids.builder("surface", size, bumps);
+        for(int i = 0; i < size * size; i++) {
+            final double x = random.nextGaussian(), y = random.nextGaussian(), z = random.nextGaussian();
+            final double length = Math.sqrt(x * x + y * y + z * z);
+            normals[i * 3] = (float) (x / length);
+            normals[i * 3 + 1] = (float) (y / length);
+            normals[i * 3 + 2] = (float) (z / length);
+            texCoords[i * 2] = (i % size) / 16.0f;
+            texCoords[i * 2 + 1] = -(i / size) / 32.0f;
+        }
+        return builder.setNormals(normals)
+                      .setTexCoords(texCoords)
+                      .setVertexFormat(format)
+                      .build();
+    }
+
+    @Test
+    public void testCompactFormatHalvesVboWithinErrorBounds() {
+        final Mesh floats = buildSurface(VertexFormat.FLOAT);
+        final Mesh compact = buildSurface(VertexFormat.COMPACT);
+        assertEquals(32, floats.getVboStride());
+        assertEquals(16, compact.getVboStride());
+        assertEquals(floats.getVboSize() / 2, compact.getVboSize());
+
+        // the float vertex data is kept as is
+        assertEquals(floats.getVertexData(), compact.getVertexData());
+
+        final VertexFormat.QuantizationError none = VertexFormat.measureError(floats);
+        assertEquals(0.0, none.getMaxPositionError(), 0.0);
+        assertEquals(0.0, none.getMaxTexCoordError(), 0.0);
+
+        // half a grid step per axis, plus float rounding of the large offset
+        final VertexFormat.QuantizationError error = VertexFormat.measureError(compact);
+        final double extent = 63 * 3.7;
+        assertTrue(error.toString(), error.getMaxPositionError() <= Math.sqrt(3) * extent / 131070 + 1e-4);
+        assertTrue(error.toString(), error.getMaxPositionError() > 0.0);
+        assertTrue(error.toString(), error.getMaxNormalAngleError() < 1.0);
+        assertTrue(error.toString(), error.getMaxTexCoordError() <= (63 / 16.0) / 131070 + 1e-6);
+    }
+
+    @Test
+    public void testFormatLayout() {
+        final VertexFormat format = new VertexFormat(VertexFormat.PositionEncoding.FLOAT, VertexFormat.NormalEncoding.SHORT,
+                                                     VertexFormat.TexCoordEncoding.HALF_FLOAT);
+        assertEquals(12 + 8 + 4, format.getStride(true, true));
+        assertEquals(12 + 4, format.getStride(false, true));
+        assertEquals(12, format.getNormalOffset());
+        assertEquals(20, format.getTexCoordOffset(true));
+        assertEquals(12, format.getTexCoordOffset(false));
+
+        final VertexFormat.QuantizationError error = VertexFormat.measureError(buildSurface(format));
+        assertEquals(0.0, error.getMaxPositionError(), 0.0);
+        assertTrue(error.toString(), error.getMaxNormalAngleError() < 0.01);
+        // a half has 11 significant bits, the coordinates are below 4
+        assertTrue(error.toString(), error.getMaxTexCoordError() <= 2.0 / 2048);
+    }
+
+    @Test
+    public void testHalfFloatConversion() {
+        // every half survives the round trip through a float
+        for(int bits = 0; bits < 0x10000; bits++) {
+            final short half = (short) bits;
+            final float value = HalfFloat.toFloat(half);
+            if(Float.isNaN(value))
+                assertTrue(Float.isNaN(HalfFloat.toFloat(HalfFloat.fromFloat(value))));
+            else
+                assertEquals(half, HalfFloat.fromFloat(value));
+        }
+
+        assertEquals(1.0f, HalfFloat.toFloat(HalfFloat.fromFloat(1.0f)), 0.0f);
+        assertEquals(65504.0f, HalfFloat.toFloat(HalfFloat.fromFloat(65504.0f)), 0.0f);
+        assertEquals(0x1p-24f, HalfFloat.toFloat(HalfFloat.fromFloat(0x1p-24f)), 0.0f);
+        assertEquals(Float.POSITIVE_INFINITY, HalfFloat.toFloat(HalfFloat.fromFloat(70000.0f)), 0.0f);
+        assertEquals(0.0f, HalfFloat.toFloat(HalfFloat.fromFloat(0x1p-26f)), 0.0f);
+
+        // ties round to even: 1 + 2^-11 lies halfway between 1 and 1 + 2^-10
+        assertEquals(1.0f, HalfFloat.toFloat(HalfFloat.fromFloat(1.0f + 0x1p-11f)), 0.0f);
+        assertEquals(1.0f + 0x1p-9f, HalfFloat.toFloat(HalfFloat.fromFloat(1.0f + 0x1p-10f + 0x1p-11f)), 0.0f);
+        assertEquals(1.0f + 0x1p-10f, HalfFloat.toFloat(HalfFloat.fromFloat(1.0f + 0x1p-11f + 0x1p-20f)), 0.0f);
+    }
+}
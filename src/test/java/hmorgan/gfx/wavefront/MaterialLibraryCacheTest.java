@@ -0,0 +1,101 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.wavefront.MaterialLibraryCache;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Color;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class MaterialLibraryCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path dir;
+    private Path red;
+    private Path blue;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = temporaryFolder.getRoot().toPath();
+        red = dir.resolve("red.mtl");
+        blue = dir.resolve("blue.mtl");
+        Files.write(red, "newmtl paint\nKa 0 0 0\nKd 1 0 0\nKs 0 0 0\nNs 10\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(blue, "newmtl paint\nKa 0 0 0\nKd 0 0 1\nKs 0 0 0\nNs 10\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testLibraryIsParsedOnceAndReparsedWhenChanged() throws Exception {
+        final MaterialLibraryCache cache = new MaterialLibraryCache(4);
+        final MaterialLibraryCache.Library first = cache.acquire(red);
+        final MaterialLibraryCache.Library second = cache.acquire(dir.resolve("sub").resolve("..").resolve("red.mtl"));
+        assertSame(first, second);
+        assertSame(first.getMaterials(), second.getMaterials());
+        cache.release(first);
+        cache.release(second);
+
+        // still cached while unused
+        final MaterialLibraryCache.Library third = cache.acquire(red);
+        assertSame(first, third);
+        cache.release(third);
+
+        Files.write(red, "newmtl paint\nKa 0 0 0\nKd 0 1 0\nKs 0 0 0\nNs 100\n".getBytes(StandardCharsets.UTF_8));
+        final MaterialLibraryCache.Library changed = cache.acquire(red);
+        assertNotSame(first, changed);
+        assertEquals(Color.GREEN, changed.getMaterials().get("paint").getDiffuse());
+        assertEquals(Color.RED, first.getMaterials().get("paint").getDiffuse());
+        cache.release(changed);
+
+        try {
+            cache.release(changed);
+            fail("Expected an IllegalStateException");
+        } catch(IllegalStateException e) {
+            // released twice
+        }
+    }
+
+    @Test
+    public void testOnlyUnusedLibrariesAreEvicted() throws Exception {
+        final MaterialLibraryCache cache = new MaterialLibraryCache(0);
+        final MaterialLibraryCache.Library inUse = cache.acquire(red);
+        final MaterialLibraryCache.Library released = cache.acquire(blue);
+        cache.release(released);
+        assertEquals(1, cache.size());
+
+        assertSame(inUse, cache.acquire(red));
+        cache.release(inUse);
+        cache.release(inUse);
+        assertEquals(0, cache.size());
+        assertNotSame(inUse, cache.acquire(red));
+    }
+
+    @Test
+    public void testLoadersShareMaterials() throws Exception {
+        final MaterialLibraryCache cache = new MaterialLibraryCache(4);
+        final Mesh[] meshes = new Mesh[2];
+        for(int i = 0; i < meshes.length; i++) {
+            final Path obj = dir.resolve("tri" + i + ".obj");
+            Files.write(obj, "mtllib red.mtl\no Tri\nv 0 0 0\nv 1 0 0\nv 0 1 0\nusemtl paint\nf 1 2 3\n"
+                                     .getBytes(StandardCharsets.UTF_8));
+            meshes[i] = new ObjLoader(null, cache).loadObjMeshes(obj).get(obj.getFileName() + ". Tri");
+        }
+        assertSame(meshes[0].getMaterial().get(), meshes[1].getMaterial().get());
+
+        final Path obj = dir.resolve("tri0.obj");
+        final Mesh unshared = new ObjLoader(null, null).loadObjMeshes(obj).get(obj.getFileName() + ". Tri");
+        assertNotSame(meshes[0].getMaterial().get(), unshared.getMaterial().get());
+        assertEquals(meshes[0].getMaterial().get().getDiffuse(), unshared.getMaterial().get().getDiffuse());
+    }
+}
@@ -0,0 +1,349 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshMerger;
+import com.hmorgan.gfx.TextureManager;
+import com.hmorgan.gfx.Vertex;
+import com.hmorgan.gfx.wavefront.LoadMetrics;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjMeshIndex;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import com.hmorgan.gfx.wavefront.WavefrontMaterial;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjLoaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path largeObj;
+
+    @Before
+    public void setUp() throws Exception {
+        // a few MB of cubes, so that parallel loading splits the file into several chunks
+        largeObj = temporaryFolder.newFile("cubes.obj").toPath();
+        try(BufferedWriter writer = Files.newBufferedWriter(largeObj)) {
+            for(int cube = 0; cube < 6000; cube++) {
+                writer.write("o Cube." + cube + "\n");
+                for(int i = 0; i < 8; i++)
+                    writer.write("v " + (cube + (i & 1)) + ".5 " + ((i >> 1) & 1) + ".25 " + ((i >> 2) & 1) + ".125\n");
+                writer.write("vn 0.0 0.0 1.0\n");
+                writer.write("s off\n");
+                // half of the faces use absolute indices, the other half relative ones
+                final int base = cube * 8;
+                writer.write("f " + (base + 1) + "//" + (cube + 1) + " " + (base + 2) + "//" + (cube + 1) + " " + (base + 4) + "//" + (cube + 1) + "\n");
+                writer.write("f " + (base + 1) + " " + (base + 4) + " " + (base + 3) + "\n");
+                writer.write("g side\n");
+                writer.write("f -8//-1 -7//-1 -3//-1\n");
+                writer.write("f -4 -3 -1\n");
+            }
+        }
+    }
+
+    @Test
+    public void testParallelLoadMatchesSequentialLoad() throws Exception {
+        final Map<String, Mesh> expected = new ObjLoader().loadObjMeshes(largeObj);
+        final Map<String, Mesh> actual = new ObjLoader().loadObjMeshesParallel(largeObj, new ForkJoinPool(4));
+
+        assertEquals(12000, expected.size());
+        assertEquals(expected.keySet(), actual.keySet());
+        for(Map.Entry<String, Mesh> entry : expected.entrySet()) {
+            final List<Vertex> expectedVertices = entry.getValue().getVertices();
+            final List<Vertex> actualVertices = actual.get(entry.getKey()).getVertices();
+            assertEquals(expectedVertices.size(), actualVertices.size());
+            for(int i = 0; i < expectedVertices.size(); i++) {
+                assertEquals(expectedVertices.get(i).getPosition(), actualVertices.get(i).getPosition());
+                assertEquals(expectedVertices.get(i).getNormal(), actualVertices.get(i).getNormal());
+            }
+        }
+    }
+
+    @Test
+    public void testOutOfRangeIndicesRejected() throws Exception {
+        final Path small = temporaryFolder.newFile("small.obj").toPath();
+        Files.write(small, ("o Triangle\n" +
+                            "v 0 0 0\nv 1 0 0\nv 1 1 0\n" +
+                            "vt 0 0\nvt 1 0\nvt 1 1\n" +
+                            "vn 0 0 1\n" +
+                            "f 1/-4/1 2/2/1 3/3/1\n").getBytes(StandardCharsets.UTF_8));
+        assertOutOfRange(small, "Index -4 out of range in f record, 3 texture coordinates read so far");
+
+        // the bad faces are at the end of the file, in the last chunk of a parallel load
+        final byte[] cubes = Files.readAllBytes(largeObj);
+        final String[] badFaces = { "f 1 2 48001\n", "f -48001 1 2\n", "f 1/-1 2/-1 3/-1\n", "f 0 1 2\n" };
+        for(String badFace : badFaces) {
+            final Path obj = temporaryFolder.newFile().toPath();
+            Files.write(obj, cubes);
+            Files.write(obj, badFace.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            assertOutOfRange(obj, null);
+        }
+    }
+
+    /**
+     * Loads a file sequentially and in parallel, expecting both to fail on an out of range index.
+     */
+    private static void assertOutOfRange(Path obj, String message) throws Exception {
+        for(int parallel = 0; parallel < 2; parallel++) {
+            try {
+                if(parallel == 0)
+                    new ObjLoader(null, null).loadObjMeshes(obj);
+                else
+                    new ObjLoader(null, null).loadObjMeshesParallel(obj, new ForkJoinPool(4));
+                fail("Expected an IOException for " + obj);
+            } catch(IOException e) {
+                final String actual = (e.getCause() instanceof IOException) ? e.getCause().getMessage() : e.getMessage();
+                assertTrue(actual, actual.contains("out of range in f record"));
+                if(message != null)
+                    assertEquals(message, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testAsyncLoadSwapsPlaceholderGeometry() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        final List<Long> progress = new ArrayList<>();
+        final ObjModel model = new ObjLoader().loadObjModelAsync(largeObj, tasks::add, (read, total) -> progress.add(read));
+
+        assertFalse(model.isLoaded());
+        assertTrue(model.getMeshes().isEmpty());
+
+        tasks.get(0).run();
+        assertTrue(model.isLoaded());
+        assertSame(model, model.getLoadFuture().get());
+        assertEquals(12000, model.getMeshes().size());
+        assertEquals(Files.size(largeObj), (long) progress.get(progress.size() - 1));
+        for(int i = 1; i < progress.size(); i++)
+            assertTrue(progress.get(i) >= progress.get(i - 1));
+    }
+
+    @Test
+    public void testCancelledAsyncLoadStops() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        final CompletableFuture<ObjModel> future = new ObjLoader().loadAsync(largeObj, tasks::add);
+        assertTrue(future.cancel(true));
+
+        tasks.get(0).run();
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void testGroupsOnlyHoldTheirOwnFaces() throws Exception {
+        final Path obj = temporaryFolder.newFile("groups.obj").toPath();
+        Files.write(obj, ("o Quad\n" +
+                          "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n" +
+                          "f 1 2 3\n" +
+                          "g upper\n" +
+                          "f 1 3 4\n").getBytes(StandardCharsets.UTF_8));
+        final String objName = obj.getFileName() + ". Quad";
+        final Map<String, Mesh> meshes = new ObjLoader().loadObjMeshes(obj);
+
+        assertEquals(2, meshes.size());
+        assertEquals(3, meshes.get(objName).getVertexCount());
+        assertEquals(3, meshes.get(objName + ".upper").getVertexCount());
+        assertEquals(1.0f, meshes.get(objName + ".upper").getPositions().get(3), 0.0f);
+    }
+
+    @Test
+    public void testSharedCornersBecomeOneIndexedVertex() throws Exception {
+        final Path obj = temporaryFolder.newFile("quads.obj").toPath();
+        // two quads sharing an edge, one normal for all corners
+        Files.write(obj, ("o Quads\n" +
+                          "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nv 2 0 0\nv 2 1 0\n" +
+                          "vn 0 0 1\n" +
+                          "f 1//1 2//1 3//1 4//1\n" +
+                          "f 2//1 5//1 6//1 3//1\n").getBytes(StandardCharsets.UTF_8));
+        final Mesh mesh = new ObjLoader().loadObjMeshes(obj).get(obj.getFileName() + ". Quads");
+
+        assertEquals(6, mesh.getVertexCount());
+        final IntBuffer indices = mesh.getIndices().get();
+        assertEquals(12, indices.limit());
+        final int[] expected = {0, 1, 2, 0, 2, 3, 1, 4, 5, 1, 5, 2};
+        for(int i = 0; i < expected.length; i++)
+            assertEquals(expected[i], indices.get(i));
+    }
+
+    @Test
+    public void testLoadAllSharesMaterials() throws Exception {
+        final Path dir = temporaryFolder.newFolder("loadall").toPath();
+        Files.write(dir.resolve("shared.mtl"), "newmtl red\nKa 0 0 0\nKd 1 0 0\nKs 0 0 0\nNs 10\n"
+                                                   .getBytes(StandardCharsets.UTF_8));
+        final List<Path> objs = new ArrayList<>();
+        for(int i = 0; i < 4; i++) {
+            final Path obj = dir.resolve("tri" + i + ".obj");
+            Files.write(obj, ("mtllib shared.mtl\n" +
+                              "o Tri\n" +
+                              "v 0 0 0\nv " + (i + 1) + " 0 0\nv 0 1 0\n" +
+                              "usemtl red\n" +
+                              "f 1 2 3\n").getBytes(StandardCharsets.UTF_8));
+            objs.add(obj);
+        }
+
+        final Map<Path, Map<String, Mesh>> loaded = new ObjLoader().loadAll(objs);
+        assertEquals(objs, new ArrayList<>(loaded.keySet()));
+        final Set<WavefrontMaterial> materials = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(int i = 0; i < objs.size(); i++) {
+            final Mesh mesh = loaded.get(objs.get(i)).get(objs.get(i).getFileName() + ". Tri");
+            assertEquals(i + 1, mesh.getPositions().get(3), 0.0f);
+            materials.add(mesh.getMaterial().get());
+        }
+        assertEquals(1, materials.size());
+
+        // a missing file fails the whole batch
+        objs.add(dir.resolve("missing.obj"));
+        try {
+            new ObjLoader().loadAll(objs);
+            fail("Expected an IOException");
+        } catch(IOException e) {
+            assertTrue(e.getMessage().contains("missing.obj"));
+        }
+    }
+
+    @Test
+    public void testMeshesMergedByMaterial() throws Exception {
+        final Path dir = temporaryFolder.newFolder("merge").toPath();
+        Files.write(dir.resolve("colors.mtl"), ("newmtl red\nKa 0 0 0\nKd 1 0 0\nKs 0 0 0\nNs 10\n" +
+                                                "newmtl blue\nKa 0 0 0\nKd 0 0 1\nKs 0 0 0\nNs 10\n")
+                                                       .getBytes(StandardCharsets.UTF_8));
+        final StringBuilder obj = new StringBuilder("mtllib colors.mtl\n");
+        for(int i = 0; i < 6; i++) {
+            obj.append("o Part").append(i).append('\n')
+               .append("v ").append(i).append(" 0 0\nv ").append(i + 1).append(" 0 0\nv ").append(i).append(" 1 0\n")
+               .append("usemtl ").append((i % 2 == 0) ? "red" : "blue").append('\n')
+               .append("f -3 -2 -1\n");
+        }
+        Files.write(dir.resolve("parts.obj"), obj.toString().getBytes(StandardCharsets.UTF_8));
+
+        final ObjLoader loader = new ObjLoader();
+        loader.setMeshMerger(new MeshMerger());
+        final ObjModel model = loader.loadObjModel(dir.resolve("parts.obj"));
+        // one mesh per material, each made of the three parts drawn with it
+        assertEquals(2, model.getMeshes().size());
+        assertEquals(model.getMeshes().keySet(), model.getMeshBatches().keySet());
+        for(MeshMerger.Batch batch : model.getMeshBatches().values()) {
+            assertEquals(3, batch.getRanges().size());
+            assertEquals(9, batch.getMesh().getVertexCount());
+            assertSame(batch.getMesh(), model.getMeshes().get(batch.getMesh().getName()));
+        }
+        assertEquals(2, new ObjModel(model).getMeshBatches().size());
+    }
+
+    @Test
+    public void testLoadListenerReportsMetrics() throws Exception {
+        final Path dir = temporaryFolder.newFolder("metrics").toPath();
+        final BufferedImage image = new BufferedImage(16, 8, BufferedImage.TYPE_INT_ARGB);
+        ImageIO.write(image, "png", dir.resolve("paint.png").toFile());
+        Files.write(dir.resolve("paint.mtl"), "newmtl paint\nKa 0 0 0\nKd 1 1 1\nKs 0 0 0\nNs 10\nmap_Kd paint.png\n"
+                                                  .getBytes(StandardCharsets.UTF_8));
+        final Path obj = dir.resolve("quad.obj");
+        Files.write(obj, ("mtllib paint.mtl\n" +
+                          "o Quad\n" +
+                          "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n" +
+                          "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n" +
+                          "usemtl paint\n" +
+                          "f 1/1 2/2 3/3 4/4\n").getBytes(StandardCharsets.UTF_8));
+
+        final List<LoadMetrics> reported = new ArrayList<>();
+        final ObjLoader loader = new ObjLoader(null, null);
+        loader.setLoadListener(reported::add);
+        loader.loadObjMeshes(obj);
+        // the shared manager decodes the texture on its own pool, and reports it once it is done
+        final TextureManager.Texture texture = TextureManager.getShared().request(dir.resolve("paint.png"));
+        final long deadline = System.nanoTime() + 10_000_000_000L;
+        while(!texture.isReady() && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertTrue(texture.isReady());
+
+        assertEquals(1, reported.size());
+        final LoadMetrics metrics = reported.get(0);
+        assertFalse(metrics.getFailure().isPresent());
+        assertEquals(Files.size(obj), metrics.getBytesRead());
+        assertEquals(12, metrics.getLines());
+        assertEquals(1, metrics.getFaces());
+        assertEquals(1, metrics.getMeshes());
+        assertEquals(4, metrics.getVertices());
+        assertEquals(1, metrics.getTexturesDecoded());
+        assertEquals(16 * 8 * 4, metrics.getDecodedTextureBytes());
+        assertEquals(4 * 4 * 5, metrics.getPeakVertexDataBytes());
+        assertEquals(6 * 4, metrics.getPeakIndexBytes());
+        assertTrue(metrics.getTextureDecodeNanos() > 0);
+        long phases = 0;
+        for(LoadMetrics.Phase phase : LoadMetrics.Phase.values())
+            phases += metrics.getPhaseNanos(phase);
+        assertEquals(metrics.getTotalNanos(), phases);
+
+        // failures are reported too
+        try {
+            loader.loadObjMeshesParallel(dir.resolve("missing.obj"));
+            fail("Expected an IOException");
+        } catch(IOException e) {
+            assertSame(e, reported.get(1).getFailure().get());
+        }
+    }
+
+    @Test
+    public void testLoadSelectedMeshes() throws Exception {
+        final Path obj = temporaryFolder.newFile("selective.obj").toPath();
+        Files.write(obj, ("o First\n" +
+                          "v 0 0 0\nv 1 0 0\nv 1 1 0\n" +
+                          "vn 0 0 1\n" +
+                          "f 1//1 2//1 3//1\n" +
+                          "o Second\n" +
+                          "v 2 0 0\nv 3 0 0\nv 3 1 0\nv 2 1 0\n" +
+                          "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n" +
+                          "# relative indices, and a corner shared with First\n" +
+                          "f -4/-4 -3/-3 -2/-2 -1/-1\n" +
+                          "f 3/1 4/2 5/3\n").getBytes(StandardCharsets.UTF_8));
+        final ObjLoader loader = new ObjLoader(null);
+        final Map<String, Mesh> all = loader.loadObjMeshes(obj);
+        final String first = obj.getFileName() + ". First";
+        final String second = obj.getFileName() + ". Second";
+
+        final Map<String, Mesh> selected = loader.loadObjMeshes(obj, second::equals);
+        assertEquals(Collections.singleton(second), selected.keySet());
+        assertEquals(all.get(second).getVertexData(), selected.get(second).getVertexData());
+        assertEquals(all.get(second).getIndices(), selected.get(second).getIndices());
+
+        // further meshes are loaded from the index without scanning the file again
+        final ObjMeshIndex index = loader.indexObjMeshes(obj);
+        assertEquals(all.keySet(), index.getMeshNames());
+        assertEquals(2, index.getFaceCount(second));
+        final Mesh firstMesh = loader.loadObjMeshes(index, first::equals).get(first);
+        assertEquals(all.get(first).getVertexData(), firstMesh.getVertexData());
+        assertEquals(all.get(first).getIndices(), firstMesh.getIndices());
+
+        Files.write(obj, "o Changed\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        try {
+            loader.loadObjMeshes(index, first::equals);
+            fail("Expected an IOException");
+        } catch(IOException e) {
+            // the index is stale
+        }
+    }
+}
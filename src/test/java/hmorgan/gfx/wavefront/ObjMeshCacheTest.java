@@ -0,0 +1,120 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.MeshOptimizer;
+import com.hmorgan.gfx.VertexFormat;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjMeshCache;
+import com.hmorgan.gfx.wavefront.WavefrontMaterial;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjMeshCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path dir;
+    private Path obj;
+    private ObjMeshCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = temporaryFolder.getRoot().toPath();
+        obj = dir.resolve("quads.obj");
+        Files.write(dir.resolve("quads.mtl"), ("newmtl red\nKa 0.2 0 0\nKd 1 0 0\nKs 0.5 0.5 0.5\nNs 10\nd 0.5\n")
+                                                      .getBytes(StandardCharsets.UTF_8));
+        Files.write(obj, ("mtllib quads.mtl\n" +
+                          "o Quads\n" +
+                          "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nv 2 0 0\nv 2 1 0\n" +
+                          "vt 0 0\nvt 1 0\nvt 1 1\n" +
+                          "vn 0 0 1\n" +
+                          "usemtl red\n" +
+                          "f 1/1/1 2/2/1 3/3/1 4/1/1\n" +
+                          "g second\n" +
+                          "f 2 5 6 3\n").getBytes(StandardCharsets.UTF_8));
+        cache = new ObjMeshCache(dir.resolve("cache"));
+    }
+
+    @Test
+    public void testCachedMeshesMatchParsedMeshes() throws Exception {
+        final Map<String, Mesh> parsed = new ObjLoader(cache).loadObjMeshes(obj);
+        assertTrue(Files.exists(cache.getCacheFile(obj)));
+
+        final Map<String, Mesh> cached = cache.read(obj).get();
+        assertEquals(parsed.keySet(), cached.keySet());
+        for(Mesh expected : parsed.values()) {
+            final Mesh actual = cached.get(expected.getName());
+            assertTrue(expected.getVertexData().isDirect());
+            assertEquals(ByteOrder.nativeOrder(), expected.getVertexData().order());
+            assertTrue(actual.getVertexData().isDirect());
+            assertEquals(ByteOrder.nativeOrder(), actual.getVertexData().order());
+            assertEquals(expected.getVertexData(), actual.getVertexData());
+            assertEquals(expected.getIndices().get(), actual.getIndices().get());
+            assertEquals(expected.hasNormals(), actual.hasNormals());
+            assertEquals(expected.hasTexCoords(), actual.hasTexCoords());
+            assertEquals(expected.getMeshType(), actual.getMeshType());
+
+            final WavefrontMaterial expectedMaterial = expected.getMaterial().get();
+            final WavefrontMaterial actualMaterial = actual.getMaterial().get();
+            assertEquals(expectedMaterial.getAmbient(), actualMaterial.getAmbient());
+            assertEquals(expectedMaterial.getDiffuse(), actualMaterial.getDiffuse());
+            assertEquals(expectedMaterial.getSpecular(), actualMaterial.getSpecular());
+            assertEquals(expectedMaterial.getShininess(), actualMaterial.getShininess(), 0.0);
+        }
+
+        // a second loader is served from the cache
+        final Map<String, Mesh> reloaded = new ObjLoader(cache).loadObjMeshes(obj);
+        assertTrue(reloaded.values().iterator().next().getVertexData().isDirect());
+    }
+
+    @Test
+    public void testModifiedSourceInvalidatesCache() throws Exception {
+        new ObjLoader(cache).loadObjMeshes(obj);
+        assertTrue(cache.read(obj).isPresent());
+
+        final Path mtl = dir.resolve("quads.mtl");
+        Files.setLastModifiedTime(mtl, FileTime.fromMillis(Files.getLastModifiedTime(mtl).toMillis() - 10000));
+        assertEquals(Optional.empty(), cache.read(obj));
+
+        new ObjLoader(cache).loadObjMeshes(obj);
+        assertTrue(cache.read(obj).isPresent());
+        Files.write(obj, "\n# edited\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(Optional.empty(), cache.read(obj));
+    }
+
+    @Test
+    public void testOtherOptimizerSettingsInvalidateCache() throws Exception {
+        new ObjLoader(cache).loadObjMeshes(obj);
+        final MeshOptimizer optimizer = new MeshOptimizer();
+        assertTrue(cache.read(obj, VertexFormat.FLOAT, 0, null).isPresent());
+        assertEquals(Optional.empty(), cache.read(obj, VertexFormat.FLOAT, 0, optimizer));
+
+        // unoptimized meshes are parsed again and optimized, then cached for that optimizer
+        final ObjLoader optimizingLoader = new ObjLoader(cache);
+        optimizingLoader.setMeshOptimizer(optimizer);
+        for(Mesh mesh : optimizingLoader.loadObjMeshes(obj).values())
+            assertTrue(mesh.getOptimizationReport().isPresent());
+        assertTrue(cache.read(obj, VertexFormat.FLOAT, 0, optimizer).isPresent());
+        assertTrue(cache.read(obj, VertexFormat.FLOAT, 0, new MeshOptimizer(MeshOptimizer.DEFAULT_CACHE_SIZE, false)).isPresent());
+        assertEquals(Optional.empty(), cache.read(obj, VertexFormat.FLOAT, 0, new MeshOptimizer(32, false)));
+        assertEquals(Optional.empty(), cache.read(obj, VertexFormat.FLOAT, 0, new MeshOptimizer(MeshOptimizer.DEFAULT_CACHE_SIZE, true)));
+        assertEquals(Optional.empty(), cache.read(obj));
+    }
+}
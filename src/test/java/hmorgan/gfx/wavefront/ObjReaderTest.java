@@ -0,0 +1,138 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.wavefront.ObjIndexBuffer;
+import com.hmorgan.gfx.wavefront.ObjReader;
+import com.hmorgan.gfx.wavefront.ObjVisitor;
+import com.hmorgan.gfx.wavefront.WavefrontMaterial;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path dir;
+    private Path obj;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = temporaryFolder.getRoot().toPath();
+        obj = dir.resolve("quad.obj");
+        Files.write(dir.resolve("quad.mtl"), ("newmtl red\nKa 0 0 0\nKd 1 0 0\nKs 0 0 0\nNs 10\n" +
+                                              "newmtl blue\nKa 0 0 0\nKd 0 0 1\nKs 0 0 0\nNs 10\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(obj, ("mtllib quad.mtl\n" +
+                          "o Quad\n" +
+                          "v -1 0 2\nv 3 0 2\nv 3 5 -4\nv -1 5 -4\n" +
+                          "vt 0 0\nvt 1\n" +
+                          "vn 0 0 1\n" +
+                          "usemtl red\n" +
+                          "s 1\n" +
+                          "f 1/1/1 2/2/1 3//1\n" +
+                          "f -4 -2 -1\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testVisitorSeesRecordsInFileOrder() throws Exception {
+        final List<String> events = new ArrayList<>();
+        ObjReader.read(obj, new ObjVisitor() {
+            @Override
+            public void visitVertex(float x, float y, float z) {
+                events.add("v");
+            }
+
+            @Override
+            public void visitTextureCoord(float u, float v) {
+                events.add("vt " + u + " " + v);
+            }
+
+            @Override
+            public void visitNormal(float x, float y, float z) {
+                events.add("vn");
+            }
+
+            @Override
+            public void visitFace(int[] corners, int cornerCount) {
+                events.add("f " + Arrays.toString(Arrays.copyOf(corners, cornerCount * 3)));
+            }
+
+            @Override
+            public void visitObject(String name) {
+                events.add("o " + name);
+            }
+
+            @Override
+            public void visitUseMaterial(String name) {
+                events.add("usemtl " + name);
+            }
+
+            @Override
+            public void visitSmoothingGroup(String group) {
+                events.add("s " + group);
+            }
+
+            @Override
+            public void visitMaterial(String name, WavefrontMaterial material) {
+                events.add("newmtl " + name);
+            }
+
+            @Override
+            public void visitEnd() {
+                events.add("end");
+            }
+        });
+
+        final int absent = ObjIndexBuffer.ABSENT;
+        assertEquals(Arrays.asList("newmtl red", "newmtl blue",
+                                   "o Quad",
+                                   "v", "v", "v", "v",
+                                   "vt 0.0 0.0", "vt 1.0 0.0",
+                                   "vn",
+                                   "usemtl red",
+                                   "s 1",
+                                   "f " + Arrays.toString(new int[] {0, 0, 0, 1, 1, 0, 2, absent, 0}),
+                                   "f " + Arrays.toString(new int[] {0, absent, absent, 2, absent, absent, 3, absent, absent}),
+                                   "end"),
+                     events);
+    }
+
+    @Test
+    public void testBoundingBoxWithoutMaterials() throws Exception {
+        final float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+        final float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        Files.delete(dir.resolve("quad.mtl"));
+
+        ObjReader.read(obj, new ObjVisitor() {
+            @Override
+            public void visitVertex(float x, float y, float z) {
+                final float[] v = {x, y, z};
+                for(int i = 0; i < 3; i++) {
+                    min[i] = Math.min(min[i], v[i]);
+                    max[i] = Math.max(max[i], v[i]);
+                }
+            }
+
+            @Override
+            public boolean visitMaterialLibrary(Path mtlFilePath) {
+                return false;   // the MTL file is gone, it must not be read
+            }
+        });
+
+        assertArrayEquals(new float[] {-1, 0, -4}, min, 0.0f);
+        assertArrayEquals(new float[] {3, 5, 2}, max, 0.0f);
+    }
+}
@@ -0,0 +1,182 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.wavefront.ObjScanner;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class ObjScannerTest {
+
+    private static ObjScanner streaming(String text, int bufferSize) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new ObjScanner(Channels.newChannel(new ByteArrayInputStream(bytes)), bufferSize);
+    }
+
+    @Test
+    public void testKeywordsSkipCommentsAndBlankLines() throws Exception {
+        final ObjScanner scanner = new ObjScanner(ByteBuffer.wrap((
+                "# comment\n" +
+                "\n" +
+                "mtllib a.mtl\r\n" +
+                "o Cube\n" +
+                "   \t\n" +
+                "v 1 2 3\n" +
+                "vn 0 1 0\n" +
+                "vt 0.5 0.25\n" +
+                "g group\n" +
+                "usemtl Material.001\n" +
+                "s off\n" +
+                "f 1 2 3\n" +
+                "l 1 2\n" +
+                "vp 1 2").getBytes(StandardCharsets.UTF_8)));
+
+        final ObjScanner.Keyword[] expected = {
+                ObjScanner.Keyword.MTLLIB, ObjScanner.Keyword.O, ObjScanner.Keyword.V,
+                ObjScanner.Keyword.VN, ObjScanner.Keyword.VT, ObjScanner.Keyword.G,
+                ObjScanner.Keyword.USEMTL, ObjScanner.Keyword.S, ObjScanner.Keyword.F,
+                ObjScanner.Keyword.L, ObjScanner.Keyword.UNKNOWN
+        };
+        for(ObjScanner.Keyword keyword : expected) {
+            assertTrue(scanner.nextLine());
+            assertEquals(keyword, scanner.keyword());
+        }
+        assertEquals("vp", scanner.keywordText());
+        assertFalse(scanner.nextLine());
+    }
+
+    @Test
+    public void testNumbersAndNames() throws Exception {
+        final ObjScanner scanner = streaming("o Cube_Cube.001\nv -1.5 2e-3 +4\nvt 0.5\nmtllib  Rubber Duck.mtl  \n", 64);
+
+        assertTrue(scanner.nextLine());
+        assertEquals("Cube_Cube.001", scanner.nextName());
+        assertNull(scanner.nextName());
+
+        assertTrue(scanner.nextLine());
+        assertEquals(-1.5f, scanner.nextFloat(), 0.0f);
+        assertEquals(2e-3f, scanner.nextFloat(), 0.0f);
+        assertEquals(4.0f, scanner.nextFloat(), 0.0f);
+        assertFalse(scanner.hasNextToken());
+
+        assertTrue(scanner.nextLine());
+        assertEquals(0.5f, scanner.nextFloat(), 0.0f);
+        assertEquals(0.0f, scanner.nextFloat(0.0f), 0.0f);
+
+        assertTrue(scanner.nextLine());
+        assertEquals("Rubber Duck.mtl", scanner.restOfLine());
+        assertFalse(scanner.nextLine());
+    }
+
+    @Test
+    public void testFaceCornerForms() throws Exception {
+        final ObjScanner scanner = streaming("f 1 2/3 4//5 6/7/8 -1/-2/-3\n", 64);
+        final int[] corner = new int[3];
+        assertTrue(scanner.nextLine());
+
+        final int[][] expected = {{1, 0, 0}, {2, 3, 0}, {4, 0, 5}, {6, 7, 8}, {-1, -2, -3}};
+        for(int[] e : expected) {
+            assertTrue(scanner.nextFaceCorner(corner));
+            assertArrayEquals(e, corner);
+        }
+        assertFalse(scanner.nextFaceCorner(corner));
+    }
+
+    @Test
+    public void testLinesLongerThanBuffer() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for(int line = 0; line < 50; line++) {
+            sb.append('f');
+            for(int i = 1; i <= 40; i++)
+                sb.append(' ').append(i);
+            sb.append('\n');
+        }
+
+        final ObjScanner scanner = streaming(sb.toString(), 64);
+        final int[] corner = new int[3];
+        int lines = 0;
+        while(scanner.nextLine()) {
+            int count = 0;
+            while(scanner.nextFaceCorner(corner))
+                assertEquals(++count, corner[0]);
+            assertEquals(40, count);
+            lines++;
+        }
+        assertEquals(50, lines);
+        assertEquals(sb.length(), scanner.getBytesScanned());
+    }
+
+    @Test
+    public void testFloatsMatchJdkBitForBit() throws Exception {
+        final List<String> tokens = new ArrayList<>(Arrays.asList(
+                "0", "-0", "-0.0", "+0.000000", "1", "-1.", ".5", "1e10", "1E-10", "-2.5e+3", "3.4028235e38",
+                "1.4e-45", "1e-50", "1e50", "123456789012345678901234567890", "0.000000000000000000000001",
+                "16777217", "1.00000005960464477539062500001", "0.1", "NaN", "-Infinity", "1f", "2d", "0x1p3"));
+        final Random random = new Random(42);
+        for(int i = 0; i < 20000; i++) {
+            final float value = Float.intBitsToFloat(random.nextInt());
+            if(!Float.isNaN(value))
+                tokens.add(Float.toString(value));
+            tokens.add(String.format(Locale.ROOT, "%.6f", random.nextGaussian() * 10));
+            tokens.add(String.format(Locale.ROOT, "%.9e", random.nextGaussian() * 1e5));
+            // halfway between two floats, the case that double rounding gets wrong
+            final float f = random.nextFloat() * 100;
+            tokens.add(new BigDecimal(f).add(new BigDecimal(Math.ulp(f)).divide(BigDecimal.valueOf(2)))
+                                        .toPlainString());
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for(String token : tokens)
+            sb.append("v ").append(token).append('\n');
+        final ObjScanner scanner = streaming(sb.toString(), 4096);
+        for(String token : tokens) {
+            assertTrue(scanner.nextLine());
+            assertEquals(token, Float.floatToRawIntBits(Float.parseFloat(token)),
+                         Float.floatToRawIntBits(scanner.nextFloat()));
+        }
+        assertFalse(scanner.nextLine());
+    }
+
+    @Test
+    public void testIntegerOverflowRejected() throws Exception {
+        final ObjScanner scanner = streaming("f 2147483647 -2147483648\nf 4294967297\nf -2147483649\nf 99999999999999999999\n", 64);
+        final int[] corner = new int[3];
+        assertTrue(scanner.nextLine());
+        assertTrue(scanner.nextFaceCorner(corner));
+        assertEquals(Integer.MAX_VALUE, corner[0]);
+        assertTrue(scanner.nextFaceCorner(corner));
+        assertEquals(Integer.MIN_VALUE, corner[0]);
+
+        // e.g. 4294967297 used to wrap around to 1
+        for(int line = 0; line < 3; line++) {
+            assertTrue(scanner.nextLine());
+            try {
+                scanner.nextFaceCorner(corner);
+                fail("Expected an IOException, got " + corner[0]);
+            } catch(IOException e) {
+                assertEquals("Index out of range in f record", e.getMessage());
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testIllegalFloat() throws Exception {
+        final ObjScanner scanner = streaming("v 1.5.3\n", 64);
+        assertTrue(scanner.nextLine());
+        scanner.nextFloat();
+    }
+}
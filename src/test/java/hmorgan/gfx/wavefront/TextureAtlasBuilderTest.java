@@ -0,0 +1,135 @@
+package hmorgan.gfx.wavefront;
+
+import com.hmorgan.gfx.Mesh;
+import com.hmorgan.gfx.TextureManager;
+import com.hmorgan.gfx.wavefront.ObjLoader;
+import com.hmorgan.gfx.wavefront.ObjModel;
+import com.hmorgan.gfx.wavefront.TextureAtlas;
+import com.hmorgan.gfx.wavefront.TextureAtlasBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class TextureAtlasBuilderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path dir;
+    private Path obj;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = temporaryFolder.getRoot().toPath();
+        writeImage("red.png", 8, 8, 0xFF0000);
+        writeImage("green.png", 16, 4, 0x00FF00);
+        writeImage("blue.png", 4, 4, 0x0000FF);
+        Files.write(dir.resolve("colors.mtl"), ("newmtl red\nKa 0 0 0\nKd 1 1 1\nKs 0 0 0\nNs 10\nmap_Kd red.png\n" +
+                                                "newmtl green\nKa 0 0 0\nKd 1 1 1\nKs 0 0 0\nNs 10\nmap_Kd green.png\n" +
+                                                "newmtl blue\nKa 0 0 0\nKd 1 1 1\nKs 0 0 0\nNs 10\nmap_Kd blue.png\n").getBytes(StandardCharsets.UTF_8));
+        obj = dir.resolve("colors.obj");
+        Files.write(obj, ("mtllib colors.mtl\n" +
+                          "o Red\n" +
+                          "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nv 2 0 0\nv 2 1 0\n" +
+                          "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\nvt 2 0\nvt 2 1\nvt 3 0\nvt 3 3\n" +
+                          "usemtl red\nf 1/1 2/2 3/3 4/4\n" +
+                          // the second triangle repeats the texture once to the right
+                          "o Green\nusemtl green\nf 1/1 2/2 3/3\nf 2/2 5/5 6/6\n" +
+                          // a triangle spanning three repetitions
+                          "o Blue\nusemtl blue\nf 1/1 2/7 3/8\n" +
+                          "o Plain\nf 1 2 3\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTexturesPackedIntoAtlas() throws Exception {
+        final ObjLoader loader = new ObjLoader(null, null);
+        loader.setTextureManager(new TextureManager(Runnable::run, TextureManager.DEFAULT_HEAP_BUDGET,
+                                                    TextureManager.DEFAULT_GPU_BUDGET, TextureManager.DEFAULT_MAX_SIZE));
+        loader.setTextureAtlasBuilder(new TextureAtlasBuilder(dir.resolve("atlases")));
+        final ObjModel model = loader.loadObjModel(obj);
+        final TextureAtlas atlas = model.getTextureAtlas().get();
+
+        assertEquals(1, atlas.getAtlasPaths().size());
+        final Path atlasPath = atlas.getAtlasPaths().get(0);
+        assertEquals(2, atlas.getRegions().size());
+        assertEquals(16, atlas.getRegion(dir.resolve("green.png")).get().getWidth());
+        assertFalse(atlas.getRegion(dir.resolve("blue.png")).isPresent());
+        assertEquals(1, atlas.getFallbackMeshes().size());
+        assertTrue(atlas.getFallbackMeshes().iterator().next().endsWith("Blue"));
+
+        final Mesh red = mesh(model.getMeshes(), "Red");
+        final Mesh green = mesh(model.getMeshes(), "Green");
+        assertEquals(atlasPath, red.getTexturePath().get());
+        assertEquals(atlasPath, green.getTexturePath().get());
+        assertEquals(dir.resolve("blue.png"), mesh(model.getMeshes(), "Blue").getTexturePath().get());
+        assertFalse(mesh(model.getMeshes(), "Plain").getTexturePath().isPresent());
+        // the vertex shared by both repetitions is duplicated
+        assertEquals(6, green.getVertexCount());
+
+        // the middle of every triangle samples its own image in the atlas
+        final BufferedImage atlasImage = ImageIO.read(atlasPath.toFile());
+        assertTriangleColors(red, atlasImage, 0xFF0000);
+        assertTriangleColors(green, atlasImage, 0x00FF00);
+
+        // another load reuses the atlas
+        final long modified = Files.getLastModifiedTime(atlasPath).toMillis();
+        assertEquals(atlas.getAtlasPaths(), loader.loadObjModel(obj).getTextureAtlas().get().getAtlasPaths());
+        assertEquals(modified, Files.getLastModifiedTime(atlasPath).toMillis());
+    }
+
+    @Test
+    public void testSingleTextureNotPacked() throws Exception {
+        final ObjLoader loader = new ObjLoader(null, null);
+        // green.png does not fit an atlas of 8 pixels, which leaves red.png alone
+        final TextureAtlas atlas = new TextureAtlasBuilder(dir.resolve("atlases"), 8, 0).build(loader.loadObjMeshes(obj));
+        assertTrue(atlas.getAtlasPaths().isEmpty());
+        assertEquals(dir.resolve("red.png"), mesh(atlas.getMeshes(), "Red").getTexturePath().get());
+        assertTrue(atlas.getFallbackMeshes().stream().anyMatch(name -> name.endsWith("Green")));
+        assertFalse(Files.exists(dir.resolve("atlases")));
+    }
+
+    private void writeImage(String name, int width, int height, int rgb) throws Exception {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for(int y = 0; y < height; y++)
+            for(int x = 0; x < width; x++)
+                image.setRGB(x, y, rgb);
+        ImageIO.write(image, "png", dir.resolve(name).toFile());
+    }
+
+    /**
+     * @return the mesh of the object of the given name
+     */
+    private static Mesh mesh(Map<String, Mesh> meshes, String name) {
+        return meshes.entrySet().stream().filter(entry -> entry.getKey().endsWith(name)).findFirst().get().getValue();
+    }
+
+    private static void assertTriangleColors(Mesh mesh, BufferedImage atlas, int rgb) {
+        final FloatBuffer texCoords = mesh.getTexCoords().get();
+        final IntBuffer indices = mesh.getIndices().get();
+        for(int t = 0; t < indices.limit(); t += 3) {
+            float u = 0, v = 0;
+            for(int c = t; c < t + 3; c++) {
+                u += texCoords.get(2 * indices.get(c)) / 3;
+                v += texCoords.get(2 * indices.get(c) + 1) / 3;
+            }
+            // texture coordinates point up, the rows of the atlas down
+            final int x = (int) (u * atlas.getWidth()), y = (int) ((1 - v) * atlas.getHeight());
+            assertEquals(rgb, atlas.getRGB(x, y) & 0xFFFFFF);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package hmorgan.util;
+
+import com.hmorgan.util.CacheFiles;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Hunter N. Morgan
+ */
+public class CacheFilesTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentWritersDoNotShareTempFile() throws Exception {
+        final Path dir = temporaryFolder.getRoot().toPath();
+        final Path file = dir.resolve("model.bin");
+        final byte[] a = new byte[4096], b = new byte[4096];
+        Arrays.fill(a, (byte) 'a');
+        Arrays.fill(b, (byte) 'b');
+        final CountDownLatch aHalfWritten = new CountDownLatch(1);
+        final CountDownLatch bDone = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // a writes half of its file, b replaces the file in between, then a finishes
+            final Future<?> writerA = executor.submit(() -> {
+                CacheFiles.replace(file, tempFile -> {
+                    try(OutputStream output = Files.newOutputStream(tempFile)) {
+                        output.write(a, 0, a.length / 2);
+                        output.flush();
+                        aHalfWritten.countDown();
+                        await(bDone);
+                        output.write(a, a.length / 2, a.length / 2);
+                    }
+                });
+                return null;
+            });
+            await(aHalfWritten);
+            CacheFiles.replace(file, tempFile -> Files.write(tempFile, b));
+            assertArrayEquals(b, Files.readAllBytes(file));
+            bDone.countDown();
+            writerA.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertArrayEquals(a, Files.readAllBytes(file));
+        try(Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void testTempFileDeletedWhenWriteFails() throws Exception {
+        final Path dir = temporaryFolder.getRoot().toPath();
+        final Path file = dir.resolve("model.bin");
+        Files.write(file, new byte[] { 1, 2, 3 });
+        try {
+            CacheFiles.replace(file, tempFile -> {
+                Files.write(tempFile, new byte[] { 4 });
+                throw new IOException("disk full");
+            });
+            fail("Expected the write to fail");
+        } catch(IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+
+        assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(file));
+        try(Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            if(!latch.await(10, TimeUnit.SECONDS))
+                throw new IOException("Timed out");
+        } catch(InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+}